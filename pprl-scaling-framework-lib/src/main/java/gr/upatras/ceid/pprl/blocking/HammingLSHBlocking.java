@@ -1,16 +1,24 @@
 package gr.upatras.ceid.pprl.blocking;
 
 import com.javamex.classmexer.MemoryUtil;
-import gr.upatras.ceid.pprl.encoding.BloomFilter;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
+import gr.upatras.ceid.pprl.encoding.EncodedBatch;
+import gr.upatras.ceid.pprl.encoding.EncodedBatchSink;
 import gr.upatras.ceid.pprl.matching.PrivateSimilarityUtil;
 import org.apache.avro.generic.GenericRecord;
 
-import java.util.BitSet;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,10 +27,15 @@ import java.util.regex.Pattern;
  */
 public class HammingLSHBlocking {
 
+    private static final int FPS_CHUNK_SIZE = 4096; // alice records read per worker thread when streaming.
+
     private HammingLSHBlockingGroup[] blockingGroups;
 
-    private Map<BitSet,LinkedList<char[]>>[] buckets; // blocking buckets for bob records.
-    private Map<String,GenericRecord> bobRecordsMap;
+    private HammingLSHBucketIndex[] buckets; // blocking buckets for bob records (ordinals).
+    private GenericRecord[] bobRecords;       // bob records (ordinal to record).
+    private byte[] bobFilters;                // packed bob bloom filters (if bob records are streamed).
+    private String[] bobIds;                  // bob record ids (ordinal to id).
+    private int[] bobOnesCounts;              // bob bloom filter ones counts (ordinal to count).
 
     private String aliceEncodingName;
     private String bobEncodingName;
@@ -161,9 +174,9 @@ public class HammingLSHBlocking {
             String[] parts = blockingKeys[i].split(" ");
             if(K == 0) K = parts.length - 1;
             else assert K ==parts.length - 1;
-            Integer[] bits = new Integer[parts.length - 1];
+            int[] bits = new int[parts.length - 1];
             for (int j = 0; j < (parts.length - 1); j++)
-                bits[j] = Integer.valueOf(parts[j+1]);
+                bits[j] = Integer.parseInt(parts[j+1]);
             final String id = parts[0];
             blockingGroups[i] = new HammingLSHBlockingGroup(id,bits);
         }
@@ -198,9 +211,9 @@ public class HammingLSHBlocking {
             String[] parts = blockingKeys[i].split(" ");
             if(K == 0) K = parts.length - 1;
             else assert K ==parts.length - 1;
-            Integer[] bits = new Integer[parts.length - 1];
+            int[] bits = new int[parts.length - 1];
             for (int j = 0; j < (parts.length - 1); j++)
-                bits[j] = Integer.valueOf(parts[j+1]);
+                bits[j] = Integer.parseInt(parts[j+1]);
             final String id = parts[0];
             blockingGroups[i] = new HammingLSHBlockingGroup(id,bits);
         }
@@ -213,29 +226,34 @@ public class HammingLSHBlocking {
      * @throws BlockingException
      */
     public void runHLSH(final GenericRecord[] bobRecords, final String bobUidFieldName) throws BlockingException {
+        if(K > HammingLSHBucketIndex.MAX_K)
+            throw new BlockingException("Number of hashes K cannot be greater than " + HammingLSHBucketIndex.MAX_K);
         if(result == null) result = new HammingLSHBlockingResult();
-        if(buckets == null) {
-            buckets = new HashMap[L];
-            for (int i = 0; i < L; i++) {
-                buckets[i] = new HashMap<>();
-
-            }
-        }
-        if(bobRecordsMap == null)
-            bobRecordsMap = new HashMap<>((int) (bobRecords.length / 0.75f + 1), 0.75f);
+        this.bobRecords = bobRecords;
+        bobFilters = null;
+        bobIds = new String[bobRecords.length];
+        bobOnesCounts = new int[bobRecords.length];
+        buckets = new HammingLSHBucketIndex[L];
+        for (int i = 0; i < L; i++)
+            buckets[i] = new HammingLSHBucketIndex(bobRecords.length / 4, bobRecords.length);
 
         // hash bob records into the buckets.
         final long start = System.currentTimeMillis();
+        final BloomFilterView bobView = new BloomFilterView(N);
+        final HammingLSHKeyExtractor extractor = newKeyExtractor();
 //        System.out.print("Blocking bob records...(0%)");
         for(int r=0; r < bobRecords.length; r++) {
 //            System.out.format("\rBlocking bob records...(%d%%)",
 //                    Math.round(100*((double)r/(double)bobRecords.length)));
-            final String bobId = String.valueOf(bobRecords[r].get(bobUidFieldName));
-            bobRecordsMap.put(bobId, bobRecords[r]);
-            BitSet[] keys = hashRecord(bobRecords[r], bobEncodingFieldName);
+            bobIds[r] = String.valueOf(bobRecords[r].get(bobUidFieldName));
+            BloomFilterEncodingUtil.retrieveBloomFilterView(bobRecords[r], bobEncodingFieldName, bobView);
+            bobOnesCounts[r] = bobView.getOnesCount();
+            final long[] keys = extractor.hash(bobView);
             for(int l = 0 ; l < L ; l++)
-                addToBucket(l, keys[l], bobId);
+                buckets[l].add(keys[l], r);
         }
+        for(int l = 0 ; l < L ; l++)
+            buckets[l].build();
         final long stop = System.currentTimeMillis();
         long bucketsSize =  MemoryUtil.deepMemoryUsageOf(buckets);
 //        System.out.println("\rBlocking bob records...(100%). Size :" + bucketsSize/(1024*1024) + "MB.");
@@ -243,6 +261,111 @@ public class HammingLSHBlocking {
         result.setBobBlockingTime(stop-start);
     }
 
+    /**
+     * Initialize FPS by blocking a stream of bob records. Only the bob record ids
+     * and their bloom filters (packed in a single byte array) are kept.
+     *
+     * @param bobRecords an iterator over encoded bob records.
+     * @param bobUidFieldName bob UID field name.
+     * @throws BlockingException
+     */
+    public void runHLSH(final Iterator<GenericRecord> bobRecords, final String bobUidFieldName)
+            throws BlockingException {
+        final BobBlockingSink sink = newBobBlockingSink(bobUidFieldName);
+        final BloomFilterView bobView = new BloomFilterView(N);
+        while(bobRecords.hasNext()) {
+            final GenericRecord bobRecord = bobRecords.next();
+            BloomFilterEncodingUtil.retrieveBloomFilterView(bobRecord, bobEncodingFieldName, bobView);
+            sink.add(String.valueOf(bobRecord.get(bobUidFieldName)), bobView);
+        }
+        sink.build();
+    }
+
+    /**
+     * Returns a sink that blocks bob records straight from encoded batches (see
+     * <code>BloomFilterEncoding.encodeRecords</code>), without intermediate avro records.
+     * Only the bob record ids and their bloom filters (packed in a single byte array) are kept,
+     * the buckets are built when the sink is closed.
+     *
+     * @param bobUidFieldName bob UID field name (an included field of the bob encoding).
+     * @return a sink of encoded bob batches.
+     * @throws BlockingException
+     */
+    public BobBlockingSink newBobBlockingSink(final String bobUidFieldName) throws BlockingException {
+        if(K > HammingLSHBucketIndex.MAX_K)
+            throw new BlockingException("Number of hashes K cannot be greater than " + HammingLSHBucketIndex.MAX_K);
+        if(result == null) result = new HammingLSHBlockingResult();
+        this.bobRecords = null;
+        buckets = null;
+        return new BobBlockingSink(bobUidFieldName);
+    }
+
+    /**
+     * Initialize FPS by blocking bob records, the bucket index of each
+     * blocking group is built concurrently.
+     *
+     * @param bobRecords encoded bob records.
+     * @param bobUidFieldName bob UID field name.
+     * @param threads number of worker threads.
+     * @throws BlockingException
+     */
+    public void runHLSH(final GenericRecord[] bobRecords, final String bobUidFieldName, final int threads)
+            throws BlockingException {
+        if(threads <= 1) {
+            runHLSH(bobRecords, bobUidFieldName);
+            return;
+        }
+        if(K > HammingLSHBucketIndex.MAX_K)
+            throw new BlockingException("Number of hashes K cannot be greater than " + HammingLSHBucketIndex.MAX_K);
+        if(result == null) result = new HammingLSHBlockingResult();
+        this.bobRecords = bobRecords;
+        bobFilters = null;
+        bobIds = new String[bobRecords.length];
+        bobOnesCounts = new int[bobRecords.length];
+        buckets = new HammingLSHBucketIndex[L];
+
+        // build one blocking group per worker.
+        final long start = System.currentTimeMillis();
+        final BloomFilterView view = new BloomFilterView(N);
+        for(int r=0; r < bobRecords.length; r++) {
+            bobIds[r] = String.valueOf(bobRecords[r].get(bobUidFieldName));
+            bobOnesCounts[r] = BloomFilterEncodingUtil.retrieveBloomFilterView(
+                    bobRecords[r], bobEncodingFieldName, view).getOnesCount();
+        }
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(L);
+        for (int i = 0; i < L; i++) {
+            final int l = i;
+            tasks.add(new Callable<Void>() {
+                public Void call() throws BlockingException {
+                    final BloomFilterView bobView = new BloomFilterView(N);
+                    final HammingLSHKeyExtractor extractor = newKeyExtractor();
+                    final HammingLSHBucketIndex index =
+                            new HammingLSHBucketIndex(bobRecords.length / 4, bobRecords.length);
+                    for(int r=0; r < bobRecords.length; r++) {
+                        BloomFilterEncodingUtil.retrieveBloomFilterView(bobRecords[r], bobEncodingFieldName, bobView);
+                        index.add(extractor.hash(bobView, l), r);
+                    }
+                    index.build();
+                    buckets[l] = index;
+                    return null;
+                }
+            });
+        }
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            buckets = null;
+            throw new BlockingException("Error at blocking bob records : " + e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        final long stop = System.currentTimeMillis();
+        long bucketsSize =  MemoryUtil.deepMemoryUsageOf(buckets);
+        result.setBobBlockingSize(bucketsSize);
+        result.setBobBlockingTime(stop-start);
+    }
+
     /**
      * Run the FPS method.
      *
@@ -261,40 +384,266 @@ public class HammingLSHBlocking {
 
         // count collisions of Alice's bloom filters in bobs buckets
         final long start = System.currentTimeMillis();
-        final HashMap<String,Short> collisions = new HashMap<String,Short>((int)(bobRecordsMap.size()/ 0.75f + 1), 0.75f);
-//        System.out.print("Counting collisions with alice records...(0%)");
-        for(int aliceId=0; aliceId < aliceRecords.length; aliceId++) {
-  //          System.out.format("\rCounting collisions with alice records...(%d%%).",
-    //                Math.round(100 * ((aliceId + 1) / (double) aliceRecords.length)));
-            final BitSet[] keys = hashRecord(aliceRecords[aliceId], aliceEncodingFieldName);
-            collisions.clear();
+        new FPSWorker().run(aliceRecords, 0, aliceRecords.length, aliceUidFieldName, C, hammingThreshold, result);
+        final long stop = System.currentTimeMillis();
+        result.setFpsTime(stop-start);
+    }
+
+    /**
+     * Run the FPS method over a stream of alice records. Matched pairs are added
+     * to a sink as they are found, only counts are kept in the result.
+     *
+     * @param aliceRecords an iterator over alice records.
+     * @param aliceUidFieldName alice UID field name.
+     * @param C collision limit ( if >= C a pair is frequent).
+     * @param hammingThreshold hamming threshold for matching.
+     * @param sink a sink to add matched pairs to.
+     * @throws BlockingException
+     */
+    public void runFPS(final Iterator<GenericRecord> aliceRecords,
+                       final String aliceUidFieldName,
+                       final short C,
+                       final int hammingThreshold,
+                       final RecordIdPairSink sink) throws BlockingException {
+
+        if(buckets == null) throw new BlockingException("Error at running FPS Bob's Blocking buckets not initialized");
+
+        final long start = System.currentTimeMillis();
+        final FPSWorker worker = new FPSWorker();
+        try {
+            while(aliceRecords.hasNext())
+                worker.run(aliceRecords.next(), aliceUidFieldName, C, hammingThreshold, result, sink);
+        } catch (IOException e) {
+            throw new BlockingException("Error at adding matched pairs : " + e.getMessage());
+        }
+        final long stop = System.currentTimeMillis();
+        result.setFpsTime(stop-start);
+    }
+
+    /**
+     * Run the FPS method over a stream of alice records with multiple worker threads.
+     * Alice records are read in chunks of <code>threads * FPS_CHUNK_SIZE</code> records, each
+     * chunk is partitioned across a fork-join pool and its matched pairs are added to the
+     * sink in alice record order. Only counts are kept in the result.
+     *
+     * @param aliceRecords an iterator over alice records.
+     * @param aliceUidFieldName alice UID field name.
+     * @param C collision limit ( if >= C a pair is frequent).
+     * @param hammingThreshold hamming threshold for matching.
+     * @param sink a sink to add matched pairs to.
+     * @param threads number of worker threads.
+     * @throws BlockingException
+     */
+    public void runFPS(final Iterator<GenericRecord> aliceRecords,
+                       final String aliceUidFieldName,
+                       final short C,
+                       final int hammingThreshold,
+                       final RecordIdPairSink sink,
+                       final int threads) throws BlockingException {
+        if(threads <= 1) {
+            runFPS(aliceRecords, aliceUidFieldName, C, hammingThreshold, sink);
+            return;
+        }
+        if(buckets == null) throw new BlockingException("Error at running FPS Bob's Blocking buckets not initialized");
+
+        final long start = System.currentTimeMillis();
+        final ThreadLocal<FPSWorker> workers = new ThreadLocal<FPSWorker>() {
+            @Override
+            protected FPSWorker initialValue() {
+                return new FPSWorker();
+            }
+        };
+        final GenericRecord[] chunk = new GenericRecord[threads * FPS_CHUNK_SIZE];
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            while(aliceRecords.hasNext()) {
+                int size = 0;
+                while(size < chunk.length && aliceRecords.hasNext()) chunk[size++] = aliceRecords.next();
+                final HammingLSHBlockingResult partial = pool.invoke(new FPSTask(chunk, 0, size,
+                        Math.max(1, size / (8 * threads)), aliceUidFieldName, C, hammingThreshold, workers));
+                for (HammingLSHBlockingResult.RecordIdPair pair : partial.getMatchedPairs())
+                    sink.addPair(pair.aliceId, pair.bobId);
+                partial.getMatchedPairs().clear();
+                result.merge(partial);
+            }
+        } catch (IOException e) {
+            throw new BlockingException("Error at adding matched pairs : " + e.getMessage());
+        } catch (RuntimeException e) {
+            throw new BlockingException("Error at running FPS : " + e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        final long stop = System.currentTimeMillis();
+        result.setFpsTime(stop-start);
+    }
+
+    /**
+     * Run the FPS method, alice records are partitioned across a fork-join pool.
+     * Each worker thread counts collisions with its own counter and the partial
+     * results are merged in alice record order.
+     *
+     * @param aliceRecords alice records.
+     * @param aliceUidFieldName alice UID field name.
+     * @param C collision limit ( if >= C a pair is frequent).
+     * @param hammingThreshold hamming threshold for matching.
+     * @param threads number of worker threads.
+     * @throws BlockingException
+     */
+    public void runFPS(final GenericRecord[] aliceRecords,
+                       final String aliceUidFieldName,
+                       final short C,
+                       final int hammingThreshold,
+                       final int threads) throws BlockingException {
+        if(threads <= 1) {
+            runFPS(aliceRecords, aliceUidFieldName, C, hammingThreshold);
+            return;
+        }
+        if(buckets == null) throw new BlockingException("Error at running FPS Bob's Blocking buckets not initialized");
+
+        final long start = System.currentTimeMillis();
+        final ThreadLocal<FPSWorker> workers = new ThreadLocal<FPSWorker>() {
+            @Override
+            protected FPSWorker initialValue() {
+                return new FPSWorker();
+            }
+        };
+        final int chunkSize = Math.max(1, aliceRecords.length / (8 * threads));
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            result.merge(pool.invoke(new FPSTask(aliceRecords, 0, aliceRecords.length, chunkSize,
+                    aliceUidFieldName, C, hammingThreshold, workers)));
+        } catch (RuntimeException e) {
+            throw new BlockingException("Error at running FPS : " + e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        final long stop = System.currentTimeMillis();
+        result.setFpsTime(stop-start);
+    }
+
+    /**
+     * FPS Worker class. Holds the collision counter, the key extractor and the
+     * bloom filter views of a single thread.
+     */
+    private class FPSWorker {
+        private final HammingLSHCollisionCounter collisions = new HammingLSHCollisionCounter(bobIds.length);
+        private final HammingLSHKeyExtractor extractor = new HammingLSHKeyExtractor(blockingGroups, N);
+        private final BloomFilterView aliceView = new BloomFilterView(N);
+        private final BloomFilterView bobView = new BloomFilterView(N);
+
+        /**
+         * Count collisions of alice records [from,to) in bob buckets, frequent and
+         * matched pairs are added to a result.
+         *
+         * @param aliceRecords alice records.
+         * @param from first alice record (inclusive).
+         * @param to last alice record (exclusive).
+         * @param aliceUidFieldName alice UID field name.
+         * @param C collision limit ( if >= C a pair is frequent).
+         * @param hammingThreshold hamming threshold for matching.
+         * @param result a result to add pairs to.
+         */
+        public void run(final GenericRecord[] aliceRecords, final int from, final int to,
+                        final String aliceUidFieldName,
+                        final short C,
+                        final int hammingThreshold,
+                        final HammingLSHBlockingResult result) {
+            try {
+                for(int aliceId = from; aliceId < to; aliceId++)
+                    run(aliceRecords[aliceId], aliceUidFieldName, C, hammingThreshold, result, result);
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+
+        /**
+         * Count collisions of an alice record in bob buckets. Frequent pairs are
+         * counted in a result and matched pairs are added to a sink.
+         *
+         * @param aliceRecord an alice record.
+         * @param aliceUidFieldName alice UID field name.
+         * @param C collision limit ( if >= C a pair is frequent).
+         * @param hammingThreshold hamming threshold for matching.
+         * @param result a result to count pairs in.
+         * @param sink a sink to add matched pairs to.
+         * @throws IOException
+         */
+        public void run(final GenericRecord aliceRecord,
+                        final String aliceUidFieldName,
+                        final short C,
+                        final int hammingThreshold,
+                        final HammingLSHBlockingResult result,
+                        final RecordIdPairSink sink) throws IOException {
+            BloomFilterEncodingUtil.retrieveBloomFilterView(aliceRecord, aliceEncodingFieldName, aliceView);
+            collisions.reset();
+            final long[] keys = extractor.hash(aliceView);
             for (int l = 0; l < blockingGroups.length; l++) {
-                final LinkedList<char[]> bobIds = buckets[l].get(keys[l]);
-                if(bobIds == null) continue;
-                for(char[] bobId : bobIds) {
-                    final String bs = new String(bobId);
-                    short count = collisions.containsKey(bs) ? collisions.get(bs) : 0;
-                    count++;
-                    collisions.put(bs,count);
-                    if(count == C) {
-                        final String as = String.valueOf(aliceRecords[aliceId].get(aliceUidFieldName));
+                final int bucket = buckets[l].bucket(keys[l]);
+                if(bucket < 0) continue;
+                final int[] postings = buckets[l].getPostings();
+                for(int p = buckets[l].start(bucket); p < buckets[l].end(bucket); p++) {
+                    final int bobOrdinal = postings[p];
+                    if(collisions.increase(bobOrdinal) == C) {
+                        final String bs = bobIds[bobOrdinal];
+                        final String as = String.valueOf(aliceRecord.get(aliceUidFieldName));
                         result.increaseFrequentPairsCount();
-                        final BloomFilter bf1 = BloomFilterEncodingUtil.retrieveBloomFilter(aliceRecords[aliceId],
-                                aliceEncodingFieldName, N);
-                        final BloomFilter bf2 = BloomFilterEncodingUtil.retrieveBloomFilter(bobRecordsMap.get(bs),
-                                bobEncodingFieldName, N);
+                        final BloomFilterView bf2 = retrieveBobView(bobOrdinal, bobView);
                         if (isTrullyMatchedPair(as,bs)) result.increaseTrullyMatchedCount();
-                        if(PrivateSimilarityUtil.similarity("hamming", bf1, bf2, hammingThreshold)) {
-                            result.addPair(as, bs);
+                        if(PrivateSimilarityUtil.hammingWithin(aliceView, bf2, hammingThreshold)) {
+                            sink.addPair(as, bs);
                             result.increaseMatchedPairsCount();
                         }
                     }
                 }
             }
         }
-//        System.out.format("\rCounting collisions with alice records...(100%%)");
-        final long stop = System.currentTimeMillis();
-        result.setFpsTime(stop-start);
+    }
+
+    /**
+     * FPS Task class. Splits a range of alice records until it is at most
+     * chunk size long, then runs it on the worker of the current thread.
+     */
+    private class FPSTask extends RecursiveTask<HammingLSHBlockingResult> {
+        private final GenericRecord[] aliceRecords;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+        private final String aliceUidFieldName;
+        private final short C;
+        private final int hammingThreshold;
+        private final ThreadLocal<FPSWorker> workers;
+
+        public FPSTask(final GenericRecord[] aliceRecords, final int from, final int to, final int chunkSize,
+                       final String aliceUidFieldName, final short C, final int hammingThreshold,
+                       final ThreadLocal<FPSWorker> workers) {
+            this.aliceRecords = aliceRecords;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.aliceUidFieldName = aliceUidFieldName;
+            this.C = C;
+            this.hammingThreshold = hammingThreshold;
+            this.workers = workers;
+        }
+
+        @Override
+        protected HammingLSHBlockingResult compute() {
+            if(to - from <= chunkSize) {
+                final HammingLSHBlockingResult partial = new HammingLSHBlockingResult();
+                workers.get().run(aliceRecords, from, to, aliceUidFieldName, C, hammingThreshold, partial);
+                return partial;
+            }
+            final int middle = (from + to) >>> 1;
+            final FPSTask left = new FPSTask(aliceRecords, from, middle, chunkSize,
+                    aliceUidFieldName, C, hammingThreshold, workers);
+            final FPSTask right = new FPSTask(aliceRecords, middle, to, chunkSize,
+                    aliceUidFieldName, C, hammingThreshold, workers);
+            left.fork();
+            final HammingLSHBlockingResult rightResult = right.compute();
+            final HammingLSHBlockingResult leftResult = left.join();
+            leftResult.merge(rightResult);
+            return leftResult;
+        }
     }
 
     /**
@@ -311,38 +660,18 @@ public class HammingLSHBlocking {
     }
 
     /**
-     * Hash a record.
+     * Returns a new key extractor (compiled blocking groups). Extractors are
+     * not thread-safe, each thread should use its own.
      *
-     * @param record a generic record.
-     * @param encodingFieldName encoding field name.
-     * @return keys from hashing.
+     * @return a new key extractor.
+     * @throws BlockingException
      */
-    public BitSet[] hashRecord(final GenericRecord record,
-                               final String encodingFieldName)  {
-        final BloomFilter bf = BloomFilterEncodingUtil.retrieveBloomFilter(record, encodingFieldName, N);
-        final BitSet[] keys = new BitSet[blockingGroups.length];
-        for (int l = 0; l < blockingGroups.length; l++)
-            keys[l] = blockingGroups[l].hash(bf);
-        return keys;
+    public HammingLSHKeyExtractor newKeyExtractor() throws BlockingException {
+        if(K > HammingLSHBucketIndex.MAX_K)
+            throw new BlockingException("Number of hashes K cannot be greater than " + HammingLSHBucketIndex.MAX_K);
+        return new HammingLSHKeyExtractor(blockingGroups, N);
     }
 
-    /**
-     * Add this hash to backet
-     *
-     * @param blockingGroupId blocking group id
-     * @param hash hash
-     * @param bobId bob id
-     */
-    private void addToBucket(final int blockingGroupId ,
-                             final BitSet hash,
-                             final String bobId) {
-        LinkedList<char[]> ids = buckets[blockingGroupId].get(hash);
-        if(ids == null) {
-            ids = new LinkedList<char[]>();
-            ids.add(bobId.toCharArray());
-            buckets[blockingGroupId].put(hash, ids);
-        } else ids.add(bobId.toCharArray());
-    }
     /**
      * Setup blocking.
      *
@@ -383,6 +712,15 @@ public class HammingLSHBlocking {
         return K;
     }
 
+    /**
+     * Returns N.
+     *
+     * @return N (length of bloom filters).
+     */
+    public int getN() {
+        return N;
+    }
+
     /**
      * Returns L.
      *
@@ -446,6 +784,20 @@ public class HammingLSHBlocking {
         result = new HammingLSHBlockingResult();
     }
 
+    /**
+     * Re-points a bloom filter view to the bloom filter of a bob record (with its cached ones count).
+     *
+     * @param bobOrdinal a bob record ordinal.
+     * @param view a bloom filter view to reuse.
+     * @return the re-pointed view.
+     */
+    private BloomFilterView retrieveBobView(final int bobOrdinal, final BloomFilterView view) {
+        if(bobRecords != null)
+            return BloomFilterEncodingUtil.retrieveBloomFilterView(bobRecords[bobOrdinal], bobEncodingFieldName, view)
+                    .setOnesCount(bobOnesCounts[bobOrdinal]);
+        return view.wrap(bobFilters, bobOrdinal * view.getByteLength()).setOnesCount(bobOnesCounts[bobOrdinal]);
+    }
+
     /**
      * Only for the voters dataset benchmarkk.
      */
@@ -456,4 +808,97 @@ public class HammingLSHBlocking {
         if(!matcherA.matches() || !matcherB.matches()) throw new IllegalArgumentException("Wrong id format.");
         return matcherA.group(1).equals(matcherB.group(1));
     }
+
+    /**
+     * Bob Blocking Sink class. Hashes bob bloom filters into the blocking buckets as
+     * they arrive, keeping the bob record ids and the packed bloom filters.
+     */
+    public class BobBlockingSink implements EncodedBatchSink {
+        private final String bobUidFieldName;
+        private final HammingLSHBucketIndex[] bobBuckets;
+        private final HammingLSHKeyExtractor extractor;
+        private final BloomFilterView bobView;
+        private final List<String> ids;
+        private final int byteLength;
+        private final long start;
+        private byte[] filters;
+        private int[] onesCounts;
+        private int r;
+
+        private BobBlockingSink(final String bobUidFieldName) throws BlockingException {
+            this.bobUidFieldName = bobUidFieldName;
+            bobBuckets = new HammingLSHBucketIndex[L];
+            for (int i = 0; i < L; i++)
+                bobBuckets[i] = new HammingLSHBucketIndex(1024, 4096);
+            start = System.currentTimeMillis();
+            extractor = newKeyExtractor();
+            bobView = new BloomFilterView(N);
+            ids = new ArrayList<String>();
+            byteLength = bobView.getByteLength();
+            filters = new byte[4096 * byteLength];
+            onesCounts = new int[4096];
+            r = 0;
+        }
+
+        /**
+         * Adds a bob record.
+         *
+         * @param id bob record id.
+         * @param view bloom filter view of the bob record.
+         * @throws BlockingException
+         */
+        public void add(final String id, final BloomFilterView view) throws BlockingException {
+            if(filters == null) throw new BlockingException("Bob blocking buckets are already built.");
+            if((long) (r + 1) * byteLength > Integer.MAX_VALUE)
+                throw new BlockingException("Too many bob records to keep in memory.");
+            if((r + 1) * byteLength > filters.length)
+                filters = Arrays.copyOf(filters, (int) Math.min(2L * filters.length, Integer.MAX_VALUE));
+            if(r == onesCounts.length)
+                onesCounts = Arrays.copyOf(onesCounts, 2 * onesCounts.length);
+            ids.add(id);
+            view.copyTo(filters, r * byteLength);
+            onesCounts[r] = view.getOnesCount();
+            final long[] keys = extractor.hash(view);
+            for(int l = 0 ; l < L ; l++)
+                bobBuckets[l].add(keys[l], r);
+            r++;
+        }
+
+        public void write(final EncodedBatch batch) throws IOException {
+            if(batch.getN() != N)
+                throw new IOException("Bloom filter length of batch does not match N=" + N + ".");
+            final int column = batch.getColumnIndex(bobUidFieldName);
+            if(column < 0)
+                throw new IOException("UID field \"" + bobUidFieldName + "\" is not a column of the batch.");
+            try {
+                for (int row = 0; row < batch.getSize(); row++)
+                    add(String.valueOf(batch.getValue(column, row)), batch.retrieveBloomFilterView(row, bobView));
+            } catch (BlockingException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        /**
+         * Builds the blocking buckets of the added bob records.
+         */
+        public void build() {
+            if(filters == null) return;
+            for(int l = 0 ; l < L ; l++)
+                bobBuckets[l].build();
+            buckets = bobBuckets;
+            bobIds = ids.toArray(new String[ids.size()]);
+            bobFilters = Arrays.copyOf(filters, r * byteLength);
+            bobOnesCounts = Arrays.copyOf(onesCounts, r);
+            filters = null;
+            onesCounts = null;
+            final long stop = System.currentTimeMillis();
+            long bucketsSize =  MemoryUtil.deepMemoryUsageOf(buckets);
+            result.setBobBlockingSize(bucketsSize);
+            result.setBobBlockingTime(stop-start);
+        }
+
+        public void close() {
+            build();
+        }
+    }
 }
@@ -1,10 +1,7 @@
 package gr.upatras.ceid.pprl.blocking;
 
-import gr.upatras.ceid.pprl.encoding.BloomFilter;
-
 import java.security.SecureRandom;
 import java.util.ArrayList;
-import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
@@ -14,7 +11,7 @@ import java.util.Random;
  */
 class HammingLSHBlockingGroup {
     private String id;
-    private Integer[] bits;
+    private int[] bits;
 
     /**
      * Constructor.
@@ -29,7 +26,8 @@ class HammingLSHBlockingGroup {
         final List<Integer> bitList = new ArrayList<Integer>(N);
         for (int i = 0; i < N; i++) bitList.add(i,i);
         Collections.shuffle(bitList, new SecureRandom());
-        bits = bitList.subList(0,K).toArray(new Integer[K]);
+        bits = new int[K];
+        for (int i = 0; i < K; i++) bits[i] = bitList.get(i);
     }
 
     /**
@@ -46,7 +44,8 @@ class HammingLSHBlockingGroup {
         final List<Integer> bitList = new ArrayList<Integer>(N);
         for (int i = 0; i < N; i++) bitList.add(i,i);
         Collections.shuffle(bitList,new Random(seed));
-        bits = bitList.subList(0,K).toArray(new Integer[K]);
+        bits = new int[K];
+        for (int i = 0; i < K; i++) bits[i] = bitList.get(i);
     }
 
     /**
@@ -55,28 +54,24 @@ class HammingLSHBlockingGroup {
      * @param id group id.
      * @param bits bits.
      */
-    public HammingLSHBlockingGroup(final String id, final Integer[] bits) {
+    public HammingLSHBlockingGroup(final String id, final int[] bits) {
         this.id = id;
         this.bits = bits;
     }
 
     /**
-     * Hash the bloomfilter.
+     * Returns the sampled bit positions.
      *
-     * @param bloomFilter <code>BloomFitler</code> instance.
-     * @return a bitset as the hash value of bf
+     * @return the sampled bit positions.
      */
-    public BitSet hash(final BloomFilter bloomFilter) {
-        final BitSet key = new BitSet(bits.length);
-        for (int i=0; i < bits.length ;i++)
-            key.set(i,bloomFilter.getBit(bits[i]));
-        return key;
+    int[] getBits() {
+        return bits;
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder(id);
-        for (Integer bit : bits) {
+        for (int bit : bits) {
             sb.append(" ").append(bit);
         }
         return sb.toString();
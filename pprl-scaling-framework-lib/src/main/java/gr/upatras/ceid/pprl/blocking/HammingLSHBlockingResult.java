@@ -11,7 +11,7 @@ import java.util.List;
 /**
  * Hamming LSH Blocking Result class.
  */
-public class HammingLSHBlockingResult {
+public class HammingLSHBlockingResult implements RecordIdPairSink {
     private final List<RecordIdPair> matchedPairs;
     private long bobBlockingTime;
     private long fpsTime;
@@ -62,7 +62,8 @@ public class HammingLSHBlockingResult {
         fsdos.writeBytes("Matched Pairs : " + result.getMatchedPairsCount() + "\n");
         fsdos.writeBytes("Pairs:\n");
 
-        if(result.getMatchedPairsCount() <= 100) {
+        final int pairCount = result.getMatchedPairs().size(); // pairs may be streamed to a sink instead.
+        if(pairCount <= 100) {
             for (RecordIdPair pair : result.getMatchedPairs()) {
                 String ps = String.format("%s , %s\n", pair.aliceId, pair.bobId);
                 fsdos.writeBytes(ps);
@@ -74,7 +75,7 @@ public class HammingLSHBlockingResult {
                 fsdos.writeBytes(ps);
             }
             fsdos.writeBytes("...\n...\n...\n");
-            for (int i = result.getMatchedPairsCount()-25 ; i < result.getMatchedPairsCount(); i++) {
+            for (int i = pairCount-25 ; i < pairCount; i++) {
                 RecordIdPair pair = result.getMatchedPairs().get(i);
                 String ps = String.format("%s , %s\n", pair.aliceId, pair.bobId);
                 fsdos.writeBytes(ps);
@@ -97,6 +98,19 @@ public class HammingLSHBlockingResult {
         matchedPairs.add(new RecordIdPair(idA,idB));
     }
 
+    /**
+     * Merge a (partial) result into this result. Pairs of the other
+     * result are appended after the pairs of this result.
+     *
+     * @param other a (partial) result.
+     */
+    public void merge(final HammingLSHBlockingResult other) {
+        matchedPairs.addAll(other.matchedPairs);
+        matchedPairsCount += other.matchedPairsCount;
+        frequentPairsCount += other.frequentPairsCount;
+        trullyMatchedCount += other.trullyMatchedCount;
+    }
+
     /**
      * Returns matched pair list.
      *
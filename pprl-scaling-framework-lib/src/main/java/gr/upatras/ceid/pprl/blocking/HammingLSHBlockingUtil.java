@@ -17,6 +17,8 @@ public class HammingLSHBlockingUtil {
         SCHEME_NAMES.add("HLSH_FPS_MR_v1");
         SCHEME_NAMES.add("HLSH_FPS_MR_v2");
         SCHEME_NAMES.add("HLSH_FPS_MR_v3");
+        SCHEME_NAMES.add("HLSH_FPS_MR_v4");
+        SCHEME_NAMES.add("HLSH_FPS_MR_v5");
     }
 
     /**
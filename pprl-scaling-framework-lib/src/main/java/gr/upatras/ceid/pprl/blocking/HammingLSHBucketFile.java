@@ -0,0 +1,272 @@
+package gr.upatras.ceid.pprl.blocking;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Hamming LSH Bucket File class. A read-only, memory-mapped form of the buckets
+ * of a single blocking group : a sorted key table and a compressed (CSR) layout
+ * of record ordinals, the ordinals of bucket b are <code>posting(start(b))...posting(end(b)-1)</code>.
+ * Lookups are binary searches on the mapped file, nothing is deserialized.
+ *
+ * File layout (little-endian) : a 16 byte header (magic, group id, bucket count, posting count)
+ * followed by the keys (sorted as unsigned longs), the offsets (bucket count + 1 ints)
+ * and the postings (ints).
+ */
+public class HammingLSHBucketFile {
+
+    public static final String FILE_EXTENSION = ".hlb";     // bucket file extension.
+    private static final int MAGIC = 0x31424C48;            // "HLB1"
+    private static final int HEADER_LENGTH = 16;
+
+    private final MappedByteBuffer buffer;  // mapped bucket file.
+    private final int groupId;              // blocking group id.
+    private final int bucketCount;          // number of buckets.
+    private final int postingCount;         // number of postings.
+    private final int offsetsPosition;      // position of the offsets.
+    private final int postingsPosition;     // position of the postings.
+
+    /**
+     * Constructor, maps a bucket file.
+     *
+     * @param file a bucket file.
+     * @throws IOException
+     */
+    public HammingLSHBucketFile(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            if(channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Bucket file too large : " + file);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.limit() < HEADER_LENGTH || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a bucket file : " + file);
+        groupId = buffer.getInt(4);
+        bucketCount = buffer.getInt(8);
+        postingCount = buffer.getInt(12);
+        offsetsPosition = HEADER_LENGTH + 8 * bucketCount;
+        postingsPosition = offsetsPosition + 4 * (bucketCount + 1);
+        if(buffer.limit() != postingsPosition + 4L * postingCount)
+            throw new IOException("Truncated bucket file : " + file);
+    }
+
+    /**
+     * Returns the bucket of a key.
+     *
+     * @param key a bucket key.
+     * @return the bucket of a key or -1 if no such bucket exists.
+     */
+    public int bucket(final long key) {
+        final long k = key ^ Long.MIN_VALUE;
+        int lo = 0;
+        int hi = bucketCount - 1;
+        while(lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final long m = buffer.getLong(HEADER_LENGTH + (mid << 3)) ^ Long.MIN_VALUE;
+            if(m < k) lo = mid + 1;
+            else if(m > k) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the key of a bucket.
+     *
+     * @param bucket a bucket.
+     * @return the key of a bucket.
+     */
+    public long key(final int bucket) {
+        return buffer.getLong(HEADER_LENGTH + (bucket << 3));
+    }
+
+    /**
+     * Returns the first postings offset of a bucket.
+     *
+     * @param bucket a bucket.
+     * @return the first postings offset of a bucket.
+     */
+    public int start(final int bucket) {
+        return buffer.getInt(offsetsPosition + (bucket << 2));
+    }
+
+    /**
+     * Returns the postings offset after the last one of a bucket.
+     *
+     * @param bucket a bucket.
+     * @return the postings offset after the last one of a bucket.
+     */
+    public int end(final int bucket) {
+        return buffer.getInt(offsetsPosition + ((bucket + 1) << 2));
+    }
+
+    /**
+     * Returns the record ordinal of a postings offset.
+     *
+     * @param offset a postings offset.
+     * @return the record ordinal of a postings offset.
+     */
+    public int posting(final int offset) {
+        return buffer.getInt(postingsPosition + (offset << 2));
+    }
+
+    /**
+     * Returns the blocking group id.
+     *
+     * @return the blocking group id.
+     */
+    public int getGroupId() {
+        return groupId;
+    }
+
+    /**
+     * Returns the number of buckets.
+     *
+     * @return the number of buckets.
+     */
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * Returns the number of postings.
+     *
+     * @return the number of postings.
+     */
+    public int getPostingCount() {
+        return postingCount;
+    }
+
+    /**
+     * Returns the mapped size in bytes.
+     *
+     * @return the mapped size in bytes.
+     */
+    public long getMappedByteCount() {
+        return buffer.limit();
+    }
+
+    /**
+     * Hamming LSH Bucket File Writer class. Buckets are added in any key order,
+     * the file is written (keys sorted) on <code>close</code>.
+     */
+    public static class Writer implements Closeable {
+        private final OutputStream out;
+        private final int groupId;
+        private long[] keys;
+        private int[] offsets;
+        private int[] postings;
+        private int bucketCount;
+
+        /**
+         * Constructor.
+         *
+         * @param out an output stream.
+         * @param groupId blocking group id.
+         */
+        public Writer(final OutputStream out, final int groupId) {
+            this.out = out;
+            this.groupId = groupId;
+            keys = new long[16];
+            offsets = new int[17];
+            postings = new int[16];
+            bucketCount = 0;
+        }
+
+        /**
+         * Add a bucket.
+         *
+         * @param key bucket key.
+         * @param ordinals record ordinals buffer.
+         * @param count number of record ordinals in the buffer.
+         */
+        public void addBucket(final long key, final int[] ordinals, final int count) {
+            if(bucketCount == keys.length) {
+                keys = Arrays.copyOf(keys, keys.length << 1);
+                offsets = Arrays.copyOf(offsets, keys.length + 1);
+            }
+            final int offset = offsets[bucketCount];
+            if(offset + count > postings.length)
+                postings = Arrays.copyOf(postings, Math.max(postings.length << 1, offset + count));
+            System.arraycopy(ordinals, 0, postings, offset, count);
+            keys[bucketCount] = key;
+            offsets[++bucketCount] = offset + count;
+        }
+
+        /**
+         * Returns the number of added buckets.
+         *
+         * @return the number of added buckets.
+         */
+        public int getBucketCount() {
+            return bucketCount;
+        }
+
+        public void close() throws IOException {
+            final Integer[] order = sortedOrder();
+            final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+            try {
+                dos.writeInt(Integer.reverseBytes(MAGIC));
+                dos.writeInt(Integer.reverseBytes(groupId));
+                dos.writeInt(Integer.reverseBytes(bucketCount));
+                dos.writeInt(Integer.reverseBytes(offsets[bucketCount]));
+                for (int i = 0; i < bucketCount; i++) {
+                    final long key = keys[order[i]];
+                    if(i > 0 && key == keys[order[i - 1]])
+                        throw new IOException("Duplicate bucket key " + key + " in group " + groupId + ".");
+                    dos.writeLong(Long.reverseBytes(key));
+                }
+                int offset = 0;
+                dos.writeInt(0);
+                for (int i = 0; i < bucketCount; i++) {
+                    offset += offsets[order[i] + 1] - offsets[order[i]];
+                    dos.writeInt(Integer.reverseBytes(offset));
+                }
+                for (int i = 0; i < bucketCount; i++) {
+                    for (int p = offsets[order[i]]; p < offsets[order[i] + 1]; p++)
+                        dos.writeInt(Integer.reverseBytes(postings[p]));
+                }
+            } finally {
+                dos.close();
+            }
+        }
+
+        /**
+         * Returns the buckets in unsigned key order.
+         *
+         * @return the buckets in unsigned key order.
+         */
+        private Integer[] sortedOrder() {
+            final Integer[] order = new Integer[bucketCount];
+            boolean sorted = true;
+            for (int i = 0; i < bucketCount; i++) {
+                order[i] = i;
+                if(i > 0 && (keys[i - 1] ^ Long.MIN_VALUE) > (keys[i] ^ Long.MIN_VALUE)) sorted = false;
+            }
+            if(!sorted) {
+                Arrays.sort(order, new Comparator<Integer>() {
+                    public int compare(Integer b1, Integer b2) {
+                        final long k1 = keys[b1] ^ Long.MIN_VALUE;
+                        final long k2 = keys[b2] ^ Long.MIN_VALUE;
+                        return (k1 < k2) ? -1 : ((k1 == k2) ? 0 : 1);
+                    }
+                });
+            }
+            return order;
+        }
+    }
+}
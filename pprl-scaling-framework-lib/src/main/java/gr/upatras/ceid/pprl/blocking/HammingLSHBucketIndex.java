@@ -0,0 +1,258 @@
+package gr.upatras.ceid.pprl.blocking;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Hamming LSH Bucket Index class. Buckets of a single blocking group keyed by
+ * a primitive long hash (requires K <= 64). Keys are held in an open-addressing
+ * table that points to a compressed (CSR) layout of record ordinals :
+ * the ordinals of bucket b are <code>postings[start(b)]...postings[end(b)-1]</code>.
+ *
+ * Entries are added with <code>add</code> and the index becomes queryable
+ * after <code>build</code>.
+ */
+public class HammingLSHBucketIndex {
+
+    public static final int MAX_K = 64;  // maximum number of hashes that fit in a key.
+
+    private int[] table;                 // open addressing table (bucket id or -1).
+    private int mask;                    // table length - 1.
+    private long[] bucketKeys;           // bucket id to key.
+    private int bucketCount;             // number of buckets.
+
+    private int[] offsets;               // bucket id to postings offset (bucketCount + 1 entries).
+    private int[] postings;              // record ordinals grouped by bucket.
+
+    private int[] bucketSizes;           // bucket sizes (only while building).
+    private int[] entryBuckets;          // entry to bucket id (only while building).
+    private int[] entryOrdinals;         // entry to record ordinal (only while building).
+    private int entryCount;              // number of entries.
+
+    /**
+     * Constructor.
+     *
+     * @param expectedBuckets expected number of buckets (distinct keys).
+     * @param expectedEntries expected number of entries (record ordinals).
+     */
+    public HammingLSHBucketIndex(final int expectedBuckets, final int expectedEntries) {
+        final int capacity = Math.max(expectedBuckets, 16);
+        table = new int[tableSizeFor(capacity)];
+        Arrays.fill(table, -1);
+        mask = table.length - 1;
+        bucketKeys = new long[capacity];
+        bucketSizes = new int[capacity];
+        entryBuckets = new int[Math.max(expectedEntries, 16)];
+        entryOrdinals = new int[Math.max(expectedEntries, 16)];
+        bucketCount = 0;
+        entryCount = 0;
+    }
+
+    /**
+     * Constructor of an already built index.
+     *
+     * @param bucketKeys bucket keys (bucket id to key).
+     * @param offsets bucket id to postings offset (bucket count + 1 entries).
+     * @param postings record ordinals grouped by bucket.
+     */
+    public HammingLSHBucketIndex(final long[] bucketKeys, final int[] offsets, final int[] postings) {
+        assert offsets.length == bucketKeys.length + 1;
+        this.bucketKeys = bucketKeys;
+        this.bucketCount = bucketKeys.length;
+        this.offsets = offsets;
+        this.postings = postings;
+        this.entryCount = postings.length;
+        table = new int[tableSizeFor(bucketCount)];
+        Arrays.fill(table, -1);
+        mask = table.length - 1;
+        for (int b = 0; b < bucketCount; b++) {
+            int slot = slot(bucketKeys[b]);
+            while(table[slot] != -1) slot = (slot + 1) & mask;
+            table[slot] = b;
+        }
+    }
+
+    /**
+     * Adds a record ordinal in the bucket of key.
+     *
+     * @param key a bucket key.
+     * @param ordinal a record ordinal.
+     */
+    public void add(final long key, final int ordinal) {
+        if(bucketSizes == null) throw new IllegalStateException("Index is already built.");
+        int slot = slot(key);
+        int b;
+        while((b = table[slot]) != -1 && bucketKeys[b] != key) slot = (slot + 1) & mask;
+        if(b == -1) {
+            b = bucketCount++;
+            if(b == bucketKeys.length) {
+                bucketKeys = Arrays.copyOf(bucketKeys, 2 * bucketKeys.length);
+                bucketSizes = Arrays.copyOf(bucketSizes, 2 * bucketSizes.length);
+            }
+            bucketKeys[b] = key;
+            table[slot] = b;
+            if(2 * bucketCount > table.length) rehash(2 * table.length);
+        }
+        bucketSizes[b]++;
+        if(entryCount == entryOrdinals.length) {
+            entryBuckets = Arrays.copyOf(entryBuckets, 2 * entryBuckets.length);
+            entryOrdinals = Arrays.copyOf(entryOrdinals, 2 * entryOrdinals.length);
+        }
+        entryBuckets[entryCount] = b;
+        entryOrdinals[entryCount] = ordinal;
+        entryCount++;
+    }
+
+    /**
+     * Builds the index, ordinals keep their insertion order within a bucket.
+     */
+    public void build() {
+        if(bucketSizes == null) return;
+        offsets = new int[bucketCount + 1];
+        for (int b = 0; b < bucketCount; b++)
+            offsets[b + 1] = offsets[b] + bucketSizes[b];
+        postings = new int[entryCount];
+        final int[] cursors = bucketSizes;
+        System.arraycopy(offsets, 0, cursors, 0, bucketCount);
+        for (int e = 0; e < entryCount; e++)
+            postings[cursors[entryBuckets[e]]++] = entryOrdinals[e];
+        bucketKeys = Arrays.copyOf(bucketKeys, bucketCount);
+        bucketSizes = null;
+        entryBuckets = null;
+        entryOrdinals = null;
+    }
+
+    /**
+     * Returns the bucket id of a key, -1 if key is not found.
+     *
+     * @param key a bucket key.
+     * @return the bucket id of a key, -1 if key is not found.
+     */
+    public int bucket(final long key) {
+        int slot = slot(key);
+        int b;
+        while((b = table[slot]) != -1) {
+            if(bucketKeys[b] == key) return b;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the start offset (inclusive) of a bucket in postings.
+     *
+     * @param bucket a bucket id.
+     * @return the start offset of a bucket.
+     */
+    public int start(final int bucket) {
+        return offsets[bucket];
+    }
+
+    /**
+     * Returns the end offset (exclusive) of a bucket in postings.
+     *
+     * @param bucket a bucket id.
+     * @return the end offset of a bucket.
+     */
+    public int end(final int bucket) {
+        return offsets[bucket + 1];
+    }
+
+    /**
+     * Returns the postings array (record ordinals grouped by bucket).
+     *
+     * @return the postings array.
+     */
+    public int[] getPostings() {
+        return postings;
+    }
+
+    /**
+     * Returns the key of a bucket.
+     *
+     * @param bucket a bucket id.
+     * @return the key of a bucket.
+     */
+    public long getBucketKey(final int bucket) {
+        return bucketKeys[bucket];
+    }
+
+    /**
+     * Returns the number of buckets.
+     *
+     * @return the number of buckets.
+     */
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * Returns the number of entries (record ordinals).
+     *
+     * @return the number of entries.
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Returns a long key from a <code>BitSet</code> hash (bit i of the hash is bit i of the key).
+     *
+     * @param hash a hash with at most 64 bits.
+     * @return a long key.
+     */
+    public static long toKey(final BitSet hash) {
+        assert hash.length() <= MAX_K;
+        final long[] words = hash.toLongArray();
+        return (words.length == 0) ? 0L : words[0];
+    }
+
+    /**
+     * Returns a <code>BitSet</code> hash from a long key.
+     *
+     * @param key a long key.
+     * @return a <code>BitSet</code> hash.
+     */
+    public static BitSet toHash(final long key) {
+        return BitSet.valueOf(new long[]{key});
+    }
+
+    /**
+     * Returns the table slot of a key.
+     *
+     * @param key a bucket key.
+     * @return the table slot of a key.
+     */
+    private int slot(final long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Rehash table into a new table length.
+     *
+     * @param length new table length (power of 2).
+     */
+    private void rehash(final int length) {
+        table = new int[length];
+        Arrays.fill(table, -1);
+        mask = length - 1;
+        for (int b = 0; b < bucketCount; b++) {
+            int slot = slot(bucketKeys[b]);
+            while(table[slot] != -1) slot = (slot + 1) & mask;
+            table[slot] = b;
+        }
+    }
+
+    /**
+     * Returns a power of 2 table length, holding capacity keys at most half full.
+     *
+     * @param capacity number of keys.
+     * @return a power of 2 table length.
+     */
+    private static int tableSizeFor(final int capacity) {
+        int size = 16;
+        while(size < 2 * capacity) size <<= 1;
+        return size;
+    }
+}
@@ -0,0 +1,71 @@
+package gr.upatras.ceid.pprl.blocking;
+
+import java.util.Arrays;
+
+/**
+ * Hamming LSH Collision Counter class. Counts the collisions of a single (alice) record
+ * with bob records addressed by dense ordinals. Each count is stamped with the epoch it
+ * was written in, so <code>reset</code> starts a new epoch instead of clearing the counts.
+ */
+public class HammingLSHCollisionCounter {
+
+    private final short[] counts;   // ordinal to collision count.
+    private final int[] epochs;     // ordinal to the epoch its count was written in.
+    private int epoch;              // current epoch.
+
+    /**
+     * Constructor.
+     *
+     * @param ordinalCount number of bob record ordinals.
+     */
+    public HammingLSHCollisionCounter(final int ordinalCount) {
+        counts = new short[ordinalCount];
+        epochs = new int[ordinalCount];
+        epoch = 1;
+    }
+
+    /**
+     * Resets all counts to zero (starts a new epoch).
+     */
+    public void reset() {
+        if(epoch == Integer.MAX_VALUE) {
+            Arrays.fill(epochs, 0);
+            epoch = 0;
+        }
+        epoch++;
+    }
+
+    /**
+     * Increase the count of an ordinal and return the new count.
+     *
+     * @param ordinal a bob record ordinal.
+     * @return the increased count.
+     */
+    public short increase(final int ordinal) {
+        if(epochs[ordinal] != epoch) {
+            epochs[ordinal] = epoch;
+            counts[ordinal] = 1;
+            return 1;
+        }
+        return ++counts[ordinal];
+    }
+
+    /**
+     * Returns the count of an ordinal.
+     *
+     * @param ordinal a bob record ordinal.
+     * @return the count of an ordinal.
+     */
+    public short get(final int ordinal) {
+        return (epochs[ordinal] == epoch) ? counts[ordinal] : 0;
+    }
+
+    /**
+     * Returns the number of bob record ordinals.
+     *
+     * @return the number of bob record ordinals.
+     */
+    public int getOrdinalCount() {
+        return counts.length;
+    }
+}
@@ -0,0 +1,135 @@
+package gr.upatras.ceid.pprl.blocking;
+
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Hamming LSH Key Extractor class. A compiled form of the blocking groups :
+ * the sampled bit positions are turned into (word, shift) tables over the
+ * 64-bit words of a bloom filter, and the keys of all groups are written
+ * into a reusable <code>long[L]</code> array (bit i of a key is the i-th
+ * sampled bit of its group).
+ *
+ * An extractor keeps its own view, word and key buffers, so it is not
+ * thread-safe. Use one extractor per thread (see <code>HammingLSHBlocking.newKeyExtractor</code>).
+ */
+public class HammingLSHKeyExtractor {
+
+    private final int L;                 // number of blocking groups.
+    private final int K;                 // number of hashes (sampled bits) per group.
+
+    private final int[] wordIndices;     // (group * K + i) to index of word holding the sampled bit.
+    private final int[] shifts;          // (group * K + i) to position of the sampled bit in its word.
+    private final int[] usedWords;       // indices of words holding at least one sampled bit.
+
+    private final BloomFilterView view;  // reusable bloom filter view.
+    private final long[] words;          // reusable word buffer.
+    private final long[] keys;           // reusable key buffer.
+
+    /**
+     * Constructor.
+     *
+     * @param groups blocking groups.
+     * @param N length of bloom filter.
+     */
+    HammingLSHKeyExtractor(final HammingLSHBlockingGroup[] groups, final int N) {
+        L = groups.length;
+        K = (L == 0) ? 0 : groups[0].getBits().length;
+        assert K <= HammingLSHBucketIndex.MAX_K;
+        wordIndices = new int[L * K];
+        shifts = new int[L * K];
+        view = new BloomFilterView(N);
+        words = new long[view.getWordCount()];
+        keys = new long[L];
+
+        final boolean[] used = new boolean[words.length];
+        int usedCount = 0;
+        for (int l = 0; l < L; l++) {
+            final int[] bits = groups[l].getBits();
+            assert bits.length == K;
+            for (int i = 0; i < K; i++) {
+                wordIndices[l * K + i] = bits[i] >>> 6;
+                shifts[l * K + i] = bits[i] & 63;
+                if(!used[bits[i] >>> 6]) {
+                    used[bits[i] >>> 6] = true;
+                    usedCount++;
+                }
+            }
+        }
+        usedWords = new int[usedCount];
+        for (int w = 0, u = 0; w < used.length; w++)
+            if(used[w]) usedWords[u++] = w;
+    }
+
+    /**
+     * Hash the bloom filter of a record. The returned array is reused
+     * by the next call.
+     *
+     * @param record a generic record.
+     * @param encodingFieldName encoding field name.
+     * @return keys from hashing (one per blocking group).
+     */
+    public long[] hash(final GenericRecord record, final String encodingFieldName) {
+        return hash(BloomFilterEncodingUtil.retrieveBloomFilterView(record, encodingFieldName, view));
+    }
+
+    /**
+     * Hash a bloom filter view. The returned array is reused by the next call.
+     *
+     * @param bloomFilterView <code>BloomFilterView</code> instance.
+     * @return keys from hashing (one per blocking group).
+     */
+    public long[] hash(final BloomFilterView bloomFilterView) {
+        for (int w : usedWords) words[w] = bloomFilterView.word(w);
+        int j = 0;
+        for (int l = 0; l < L; l++) {
+            long key = 0;
+            for (int i = 0; i < K; i++, j++)
+                key |= ((words[wordIndices[j]] >>> shifts[j]) & 1L) << i;
+            keys[l] = key;
+        }
+        return keys;
+    }
+
+    /**
+     * Hash a bloom filter view for a single blocking group.
+     *
+     * @param bloomFilterView <code>BloomFilterView</code> instance.
+     * @param group blocking group index.
+     * @return the key of the blocking group.
+     */
+    public long hash(final BloomFilterView bloomFilterView, final int group) {
+        long key = 0;
+        for (int i = 0, j = group * K; i < K; i++, j++)
+            if(bloomFilterView.getBit((wordIndices[j] << 6) | shifts[j])) key |= 1L << i;
+        return key;
+    }
+
+    /**
+     * Returns the key buffer (keys of the last hashed bloom filter).
+     *
+     * @return the key buffer.
+     */
+    public long[] getKeys() {
+        return keys;
+    }
+
+    /**
+     * Returns L.
+     *
+     * @return L (number of blocking groups).
+     */
+    public int getL() {
+        return L;
+    }
+
+    /**
+     * Returns K.
+     *
+     * @return K (number of hashes).
+     */
+    public int getK() {
+        return K;
+    }
+}
@@ -0,0 +1,18 @@
+package gr.upatras.ceid.pprl.blocking;
+
+import java.io.IOException;
+
+/**
+ * Record Id Pair Sink interface. Receives matched record id pairs as they are found.
+ */
+public interface RecordIdPairSink {
+
+    /**
+     * Add a matched record id pair.
+     *
+     * @param aliceId alice record id.
+     * @param bobId bob record id.
+     * @throws IOException
+     */
+    void addPair(final String aliceId, final String bobId) throws IOException;
+}
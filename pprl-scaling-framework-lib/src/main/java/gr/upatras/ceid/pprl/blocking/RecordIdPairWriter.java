@@ -0,0 +1,49 @@
+package gr.upatras.ceid.pprl.blocking;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+/**
+ * Record Id Pair Writer class. A sink that writes matched record id pairs
+ * to an output stream, one pair per line.
+ */
+public class RecordIdPairWriter implements RecordIdPairSink, Closeable {
+
+    private final BufferedWriter writer;
+    private long pairCount;
+
+    /**
+     * Constructor.
+     *
+     * @param out an output stream.
+     */
+    public RecordIdPairWriter(final OutputStream out) {
+        writer = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")));
+        pairCount = 0;
+    }
+
+    public void addPair(final String aliceId, final String bobId) throws IOException {
+        writer.write(aliceId);
+        writer.write(" , ");
+        writer.write(bobId);
+        writer.newLine();
+        pairCount++;
+    }
+
+    /**
+     * Returns the number of pairs written.
+     *
+     * @return the number of pairs written.
+     */
+    public long getPairCount() {
+        return pairCount;
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+}
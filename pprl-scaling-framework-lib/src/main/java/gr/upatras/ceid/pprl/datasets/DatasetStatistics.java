@@ -6,16 +6,23 @@ import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Dataset statistics class.
  */
 public class DatasetStatistics implements Serializable {
+    private static final int CHUNK_SIZE = 16 * 1024;                                 // records per q-gram counting task.
     private long recordCount;                                                        // record count
     private Map<String,DatasetFieldStatistics> fieldStatistics = new HashMap<String,DatasetFieldStatistics>();   // field statistics map
     private double emEstimatedP;                                                     // proportion of estimated(EM) True Matching pairs.
@@ -258,27 +265,133 @@ public class DatasetStatistics implements Serializable {
                                                 final Schema schema,
                                                 final DatasetStatistics statistics,
                                                 final String[] fieldNames) {
-        for (GenericRecord record : records) {
-            for (String fieldName : fieldNames) {
-                DatasetFieldStatistics fieldStats = statistics.getFieldStatistics().get(fieldName);
-                Object obj = record.get(fieldName);
-                Schema.Type type = schema.getField(fieldName).schema().getType();
-                double update = (double) String.valueOf(obj).length() / (double) statistics.getRecordCount();
-                double[] updateQgram = new double[DatasetFieldStatistics.Q_GRAMS.length];
-                double[] updateUniqueQgram = new double[DatasetFieldStatistics.Q_GRAMS.length];
-                for (int i = 0; i < updateQgram.length; i++) {
-                    updateQgram[i] = ((double) QGramUtil.calcQgramsCount(
-                            obj, type, DatasetFieldStatistics.Q_GRAMS[i]) / (double) statistics.getRecordCount());
-                    updateUniqueQgram[i] = ((double) QGramUtil.calcUniqueQgramsCount(
-                            obj, type, DatasetFieldStatistics.Q_GRAMS[i]) / (double) statistics.getRecordCount());
-                }
+        calculateQgramStatistics(records, schema, statistics, fieldNames, 1);
+    }
+
+    /**
+     * Calculate avg length and avg Q-Gram counts from an array of Avro Records.
+     * Updates the respected statistics in the <code>statistics</code> object.
+     * Chunks of records are counted by a worker pool, each value is normalized once
+     * for all Q, and the counts of the chunks are merged.
+     *
+     * @param records avro records array.
+     * @param schema schema of records.
+     * @param statistics statistics object.
+     * @param fieldNames field names.
+     * @param threads number of worker threads.
+     */
+    public static void calculateQgramStatistics(final GenericRecord[] records,
+                                                final Schema schema,
+                                                final DatasetStatistics statistics,
+                                                final String[] fieldNames,
+                                                final int threads) {
+        final int[] positions = new int[fieldNames.length];
+        final Schema.Type[] types = new Schema.Type[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            final Schema.Field field = schema.getField(fieldNames[i]);
+            positions[i] = field.pos();
+            types[i] = field.schema().getType();
+        }
 
-                fieldStats.incrementLength((update));
-                fieldStats.incrementQgramCount(updateQgram);
-                fieldStats.incrementUniqueQgramCount(updateUniqueQgram);
+        final QGramCounts counts = new QGramCounts(fieldNames);
+        if(threads <= 1 || records.length <= CHUNK_SIZE) {
+            counts.add(records, 0, records.length, schema, positions, types);
+        } else {
+            final List<Callable<QGramCounts>> tasks = new ArrayList<Callable<QGramCounts>>();
+            for (int from = 0; from < records.length; from += CHUNK_SIZE) {
+                final int start = from;
+                final int end = Math.min(from + CHUNK_SIZE, records.length);
+                tasks.add(new Callable<QGramCounts>() {
+                    public QGramCounts call() {
+                        final QGramCounts chunkCounts = new QGramCounts(fieldNames);
+                        chunkCounts.add(records, start, end, schema, positions, types);
+                        return chunkCounts;
+                    }
+                });
+            }
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                for (Future<QGramCounts> future : pool.invokeAll(tasks)) counts.merge(future.get());
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("Error at calculating q-gram statistics : " + e.getMessage(), e);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        final double recordCount = (double) statistics.getRecordCount();
+        for (int i = 0; i < fieldNames.length; i++) {
+            final DatasetFieldStatistics fieldStats = statistics.getFieldStatistics().get(fieldNames[i]);
+            final double[] updateQgram = new double[DatasetFieldStatistics.Q_GRAMS.length];
+            final double[] updateUniqueQgram = new double[DatasetFieldStatistics.Q_GRAMS.length];
+            for (int q = 0; q < updateQgram.length; q++) {
+                updateQgram[q] = (double) counts.qGramCount[i][q] / recordCount;
+                updateUniqueQgram[q] = (double) counts.uniqueQgramCount[i][q] / recordCount;
+            }
+            fieldStats.incrementLength((double) counts.length[i] / recordCount);
+            fieldStats.incrementQgramCount(updateQgram);
+            fieldStats.incrementUniqueQgramCount(updateUniqueQgram);
+        }
+    }
+
+    /**
+     * Q-Gram counts class. Sums of the length and the Q-Gram counts (unique or not)
+     * of each field, mergeable with the counts of other records.
+     */
+    private static class QGramCounts {
+        private final String[] fieldNames;
+        private final long[] length;
+        private final long[][] qGramCount;
+        private final long[][] uniqueQgramCount;
+
+        public QGramCounts(final String[] fieldNames) {
+            this.fieldNames = fieldNames;
+            length = new long[fieldNames.length];
+            qGramCount = new long[fieldNames.length][DatasetFieldStatistics.Q_GRAMS.length];
+            uniqueQgramCount = new long[fieldNames.length][DatasetFieldStatistics.Q_GRAMS.length];
+        }
+
+        /**
+         * Adds the counts of a range of records.
+         *
+         * @param records avro records array.
+         * @param from first record (inclusive).
+         * @param to last record (exclusive).
+         * @param schema schema of records.
+         * @param positions positions of the fields in the schema.
+         * @param types types of the fields.
+         */
+        public void add(final GenericRecord[] records, final int from, final int to,
+                        final Schema schema, final int[] positions, final Schema.Type[] types) {
+            final QGramUtil.QGramBuffer buffer = new QGramUtil.QGramBuffer();
+            for (int r = from; r < to; r++) {
+                final boolean ofSchema = (records[r].getSchema() == schema);
+                for (int i = 0; i < positions.length; i++) {
+                    final Object obj = ofSchema ? records[r].get(positions[i]) : records[r].get(fieldNames[i]);
+                    length[i] += String.valueOf(obj).length();
+                    buffer.fill(obj, types[i], DatasetFieldStatistics.Q_GRAMS[0]);
+                    for (int q = 0; q < DatasetFieldStatistics.Q_GRAMS.length; q++) {
+                        qGramCount[i][q] += buffer.getQGramCount(DatasetFieldStatistics.Q_GRAMS[q]);
+                        uniqueQgramCount[i][q] += buffer.getUniqueQGramCount(DatasetFieldStatistics.Q_GRAMS[q]);
+                    }
+                }
             }
         }
 
+        /**
+         * Merges the counts of other records.
+         *
+         * @param other other counts.
+         */
+        public void merge(final QGramCounts other) {
+            for (int i = 0; i < length.length; i++) {
+                length[i] += other.length[i];
+                for (int q = 0; q < qGramCount[i].length; q++) {
+                    qGramCount[i][q] += other.qGramCount[i][q];
+                    uniqueQgramCount[i][q] += other.uniqueQgramCount[i][q];
+                }
+            }
+        }
     }
 
     /**
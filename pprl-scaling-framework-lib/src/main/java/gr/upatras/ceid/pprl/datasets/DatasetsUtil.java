@@ -10,8 +10,10 @@ import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.hadoop.io.AvroKeyComparator;
 import org.apache.avro.mapred.AvroKey;
+import org.apache.avro.util.Utf8;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.AvroFSInput;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -26,6 +28,7 @@ import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -37,6 +40,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Datasets utility class.
@@ -474,6 +481,61 @@ public class DatasetsUtil {
         }
     }
 
+    /**
+     * CSV to Avro with parallel parsing. It creates a dataset directory set. The csv file is
+     * split in <code>partitions</code> byte ranges (adjusted to line boundaries), each one parsed
+     * by a worker thread straight from its bytes into the avro file of its partition. Lines must
+     * end with '\n' (or "\r\n") and be UTF-8 encoded. Cells are converted as in
+     * the sequential import.
+     *
+     * @param fs a <code>FileSystem</code> reference.
+     * @param schema an avro schema.
+     * @param name name of the dataset.
+     * @param basePath a base path.
+     * @param csvPath a csv path.
+     * @param partitions number of partitions.
+     * @param threads number of worker threads.
+     * @return created dataset base path.
+     * @throws DatasetException
+     * @throws IOException
+     */
+    public static Path csv2avro(final FileSystem fs, final Schema schema ,
+                                final String name,
+                                final Path basePath,
+                                final Path csvPath,
+                                final int partitions,
+                                final int threads)
+            throws DatasetException, IOException {
+        final Path[] paths = createDatasetDirectories(fs,name,basePath);
+        final Path avroBasePath = paths[1];
+        final Path schemaBasePath = paths[2];
+
+        saveSchemaToFSPath(fs, schema, new Path(schemaBasePath,name+".avsc"));
+        final Schema.Type[] types = new Schema.Type[schema.getFields().size()];
+        for (Schema.Field field : schema.getFields()) types[field.pos()] = field.schema().getType();
+        final long length = fs.getFileStatus(csvPath).getLen();
+
+        final List<Callable<Long>> tasks = new ArrayList<Callable<Long>>(partitions);
+        final DatasetRecordWriter writer =
+                new DatasetRecordWriter(fs,name,schema,avroBasePath,partitions);
+        for (int i = 0; i < partitions; i++)
+            tasks.add(new CsvRangeParser(fs, csvPath, schema, types,
+                    length * i / partitions, length * (i + 1) / partitions, writer, i));
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(threads, partitions)));
+        try {
+            for (Future<Long> future : pool.invokeAll(tasks)) future.get();
+            return paths[0];
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new DatasetException("Error at parsing csv : " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            throw new DatasetException("Error at parsing csv : " + e.getMessage());
+        } finally {
+            pool.shutdown();
+            writer.close();
+        }
+    }
+
     /**
      * A pretty schema description.
      *
@@ -698,7 +760,8 @@ public class DatasetsUtil {
         }
 
         /**
-         * Write record in the i-th writer.
+         * Write record in the i-th writer. If the record cannot be written the writer
+         * is closed and the exception is rethrown.
          *
          * @param record avro record.
          * @param i i-th writer
@@ -709,9 +772,20 @@ public class DatasetsUtil {
                 fileWriters.get(i).append(record);
             } catch (IOException e) {
                 fileWriters.get(i).close();
+                throw e;
             }
         }
 
+        /**
+         * Returns the i-th writer.
+         *
+         * @param i i-th writer
+         * @return the i-th writer.
+         */
+        public DataFileWriter<GenericRecord> getFileWriter(final int i) {
+            return fileWriters.get(i);
+        }
+
         /**
          * Close all writers
          * @throws IOException
@@ -721,6 +795,201 @@ public class DatasetsUtil {
         }
     }
 
+    /**
+     * CSV Range Parser class. Parses the lines starting in a byte range of a csv file
+     * (a line crossing the range end belongs to the range) and writes them as records
+     * in a partition of a dataset writer. Lines are tokenized in place, cells are converted
+     * by their (precompiled) column types and the record with its string cells is reused.
+     */
+    private static class CsvRangeParser implements Callable<Long> {
+
+        private static final int BUFFER_SIZE = 1 << 20; // initial read buffer size.
+
+        private final FileSystem fs;
+        private final Path csvPath;
+        private final Schema.Type[] types;
+        private final long start;
+        private final long end;
+        private final DatasetRecordWriter writer;
+        private final int partition;
+        private final GenericRecord record;
+        private final Utf8[] strings;
+
+        private FSDataInputStream in;
+        private byte[] buf = new byte[BUFFER_SIZE];
+        private int pos;               // start of next line in buffer.
+        private int limit;             // end of bytes in buffer.
+        private long bufOffset;        // file offset of buffer.
+        private boolean eof;
+        private int lineStart;         // current line start in buffer.
+        private int lineEnd;           // current line end in buffer (exclusive, without terminator).
+
+        /**
+         * Constructor.
+         *
+         * @param fs a <code>FileSystem</code> reference.
+         * @param csvPath a csv path.
+         * @param schema an avro schema.
+         * @param types field types (in schema order).
+         * @param start range start (inclusive).
+         * @param end range end (exclusive).
+         * @param writer dataset record writer.
+         * @param partition partition (writer) of the range.
+         */
+        public CsvRangeParser(final FileSystem fs, final Path csvPath, final Schema schema,
+                              final Schema.Type[] types, final long start, final long end,
+                              final DatasetRecordWriter writer, final int partition) {
+            this.fs = fs;
+            this.csvPath = csvPath;
+            this.types = types;
+            this.start = start;
+            this.end = end;
+            this.writer = writer;
+            this.partition = partition;
+            record = new GenericData.Record(schema);
+            strings = new Utf8[types.length];
+            for (int i = 0; i < types.length; i++) strings[i] = new Utf8();
+        }
+
+        public Long call() throws IOException {
+            long count = 0;
+            in = fs.open(csvPath);
+            try {
+                if(start > 0) {
+                    in.seek(start - 1);
+                    bufOffset = start - 1;
+                    nextLine();         // skip the rest of the line started in the previous range
+                }
+                while (nextLine() && bufOffset + lineStart < end) {
+                    parseLine();
+                    writer.writeRecord(record, partition);
+                    count++;
+                }
+                return count;
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * Moves to the next line.
+         *
+         * @return true if there is a next line, false otherwise.
+         * @throws IOException
+         */
+        private boolean nextLine() throws IOException {
+            int scan = pos;
+            while (true) {
+                for (; scan < limit; scan++) {
+                    if (buf[scan] == '\n') {
+                        setLine(pos, scan);
+                        pos = scan + 1;
+                        return true;
+                    }
+                }
+                if (eof) {
+                    if (pos == limit) return false;
+                    setLine(pos, limit);
+                    pos = limit;
+                    return true;
+                }
+                if (pos > 0) {
+                    System.arraycopy(buf, pos, buf, 0, limit - pos);
+                    limit -= pos;
+                    scan -= pos;
+                    bufOffset += pos;
+                    pos = 0;
+                }
+                if (limit == buf.length) buf = Arrays.copyOf(buf, 2 * buf.length);
+                final int read = in.read(buf, limit, buf.length - limit);
+                if (read < 0) eof = true;
+                else limit += read;
+            }
+        }
+
+        private void setLine(final int from, final int to) {
+            lineStart = from;
+            lineEnd = (to > from && buf[to - 1] == '\r') ? to - 1 : to;
+        }
+
+        /**
+         * Splits the current line in (at most field count) cells and converts
+         * them into the record. Fields without a cell are set to null.
+         */
+        private void parseLine() {
+            int from = lineStart;
+            int i = 0;
+            for (; i < types.length; i++) {
+                int to = lineEnd;
+                if (i < types.length - 1)
+                    for (int j = from; j < lineEnd; j++) if (buf[j] == ',') { to = j; break; }
+                record.put(i, convert(i, from, to));
+                if (to == lineEnd) { i++; break; }
+                from = to + 1;
+            }
+            for (; i < types.length; i++) record.put(i, null);
+        }
+
+        /**
+         * Converts a cell according to its column type.
+         *
+         * @param i column.
+         * @param from cell start in buffer.
+         * @param to cell end in buffer (exclusive).
+         * @return the converted cell.
+         */
+        private Object convert(final int i, final int from, final int to) {
+            final boolean empty = (from == to);
+            switch (types[i]) {
+                case BOOLEAN:
+                    return !empty && to - from == 4 &&
+                            (buf[from] | 0x20) == 't' && (buf[from + 1] | 0x20) == 'r' &&
+                            (buf[from + 2] | 0x20) == 'u' && (buf[from + 3] | 0x20) == 'e';
+                case STRING:
+                    if (empty) return "-NA-";
+                    strings[i].setByteLength(to - from);
+                    System.arraycopy(buf, from, strings[i].getBytes(), 0, to - from);
+                    return strings[i];
+                case INT:
+                    return empty ? 0 : (int) parseLong(from, to, 9);
+                case LONG:
+                    return empty ? 0L : parseLong(from, to, 18);
+                case DOUBLE:
+                    return empty ? Double.NaN : Double.parseDouble(cell(from, to));
+                case FLOAT:
+                    return empty ? Float.NaN : Float.parseFloat(cell(from, to));
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Parses a (signed) decimal of at most <code>maxDigits</code> digits in place,
+         * any other cell is parsed from its string.
+         */
+        private long parseLong(final int from, final int to, final int maxDigits) {
+            int j = from;
+            final boolean negative = buf[j] == '-';
+            if (negative || buf[j] == '+') j++;
+            if (j == to || to - j > maxDigits) return parseString(from, to, maxDigits);
+            long value = 0;
+            for (; j < to; j++) {
+                final int digit = buf[j] - '0';
+                if (digit < 0 || digit > 9) return parseString(from, to, maxDigits);
+                value = 10 * value + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        private long parseString(final int from, final int to, final int maxDigits) {
+            return (maxDigits < 18) ? Integer.parseInt(cell(from, to)) : Long.parseLong(cell(from, to));
+        }
+
+        private String cell(final int from, final int to) {
+            return new String(buf, from, to - from, StandardCharsets.UTF_8);
+        }
+    }
+
     /**
      * Returns all avro data files paths.
      *
@@ -850,21 +1119,22 @@ public class DatasetsUtil {
                 if (f != null) f.close();
         }
 
+        /**
+         * Returns true if there is a next record. Exhausted (or empty) readers are closed
+         * and skipped, so it is safe to call again after it has returned false.
+         *
+         * @return true if there is a next record, false otherwise.
+         */
         public boolean hasNext() {
-            if (fileReaders.get(current).hasNext()) return true;
-            if (current < fileReaders.size()) {
+            while (current < fileReaders.size()) {
+                if (fileReaders.get(current).hasNext()) return true;
                 try {
                     fileReaders.get(current).close();
                 } catch (IOException e) {
                     LOG.error("Can't close this!");
                 }
                 LOG.debug("Moving readers {} -> {}", current, current + 1);
-                LOG.debug("Before : {}", fileReaders.get(current));
                 current++;
-                if (current >= fileReaders.size()) return false;
-                LOG.debug("After current : {} hasNext ? {} ", fileReaders.get(current),
-                        fileReaders.get(current).hasNext());
-                return fileReaders.get(current).hasNext();
             }
             return false;
         }
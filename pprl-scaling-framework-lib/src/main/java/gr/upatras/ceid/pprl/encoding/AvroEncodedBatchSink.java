@@ -0,0 +1,71 @@
+package gr.upatras.ceid.pprl.encoding;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+
+/**
+ * Avro Encoded Batch Sink class. Appends the records of encoded batches to an
+ * avro data file of the encoding schema (the encoded dataset format), through a
+ * single reused generic record.
+ */
+public class AvroEncodedBatchSink implements EncodedBatchSink {
+
+    private final DataFileWriter<GenericRecord> writer;
+    private final Schema encodingSchema;
+    private final GenericRecord record;     // reused encoded record.
+    private final byte[] bytes;             // reused encoding field bytes.
+    private long recordCount;
+
+    /**
+     * Constructor.
+     *
+     * @param encoding an encoding (its encoding schema and encoding field).
+     * @param writer an avro data file writer (created for the encoding schema).
+     */
+    public AvroEncodedBatchSink(final BloomFilterEncoding encoding, final DataFileWriter<GenericRecord> writer) {
+        this.writer = writer;
+        encodingSchema = encoding.getEncodingSchema();
+        record = new GenericData.Record(encodingSchema);
+        final Schema.Field encodingField = encodingSchema.getField(encoding.getEncodingFieldName());
+        bytes = new byte[encodingField.schema().getFixedSize()];
+        record.put(encodingField.pos(), new GenericData.Fixed(encodingField.schema(), bytes));
+        recordCount = 0;
+    }
+
+    public void write(final EncodedBatch batch) throws IOException {
+        if(batch.getByteLength() != bytes.length)
+            throw new IOException("Bloom filter length does not match the encoding schema.");
+        final String[] columnNames = batch.getColumnNames();
+        final int[] positions = new int[columnNames.length];
+        for (int c = 0; c < columnNames.length; c++) {
+            final Schema.Field field = encodingSchema.getField(columnNames[c]);
+            if(field == null)
+                throw new IOException("Column \"" + columnNames[c] + "\" does not belong in the encoding schema.");
+            positions[c] = field.pos();
+        }
+        for (int row = 0; row < batch.getSize(); row++) {
+            for (int c = 0; c < positions.length; c++)
+                record.put(positions[c], batch.getValue(c, row));
+            System.arraycopy(batch.getFilters(), batch.getFilterOffset(row), bytes, 0, bytes.length);
+            writer.append(record);
+        }
+        recordCount += batch.getSize();
+    }
+
+    /**
+     * Returns the number of written records.
+     *
+     * @return the number of written records.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+}
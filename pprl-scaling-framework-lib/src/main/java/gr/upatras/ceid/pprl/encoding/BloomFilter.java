@@ -1,17 +1,13 @@
 package gr.upatras.ceid.pprl.encoding;
 
-import gr.upatras.ceid.pprl.combinatorics.CombinatoricsUtil;
+import gr.upatras.ceid.pprl.qgram.QGramUtil;
 
 import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -21,16 +17,17 @@ public class BloomFilter {
 
     private static final String SECRET_KEY = "ZIKRETQI";
 
-    private Mac HMAC_MD5;     // MD5 Mac
-    private Mac HMAC_SHA1;    // SHA1 Mac
+    private HashFamily hashFamily;  // hash functions
     private int N;                  // Length of bloom filter (#bits)
     private int K;                  // Number of hash functions
     private int onesCount;          // one counts
     private int zeroesCount;        // zeroes counts
     private byte[] byteArray;       // the buffer (byte array)
-    private Map<String,int[]> dictionary; // Q-Grams dictionary in order to avoid recalculating hashes
+    private QGramPositionsCache[] caches; // Q to acquired Q-Gram positions cache
+    private byte[] dataBuffer;      // reusable UTF-8 buffer of a Q-Gram
+    private int[] positionsBuffer;  // reusable positions buffer
     /**
-     * Constructor.
+     * Constructor (default hash family).
      *
      * @param N length of bloom filter
      * @param K number of hash values needed for each element to be added.
@@ -39,15 +36,26 @@ public class BloomFilter {
      */
     public BloomFilter(final int N, final int K)
             throws NoSuchAlgorithmException, InvalidKeyException {
+        this(N, K, HashFamily.DEFAULT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param N length of bloom filter
+     * @param K number of hash values needed for each element to be added.
+     * @param hashFamilyName name of the hash family (see <code>HashFamily</code>).
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeyException
+     */
+    public BloomFilter(final int N, final int K, final String hashFamilyName)
+            throws NoSuchAlgorithmException, InvalidKeyException {
         this.N = N;
         this.K = K;
         byteArray = new byte[(int) Math.ceil(N/(double)8)];
         onesCount = 0;
         zeroesCount = N;
-        HMAC_MD5 = Mac.getInstance("HmacMD5");
-        HMAC_MD5.init(new SecretKeySpec(SECRET_KEY.getBytes(), "HmacMD5"));
-        HMAC_SHA1 = Mac.getInstance("HmacSHA1");
-        HMAC_SHA1.init(new SecretKeySpec(SECRET_KEY.getBytes(), "HmacSHA1"));
+        hashFamily = HashFamily.newInstance(hashFamilyName, SECRET_KEY);
     }
 
     /**
@@ -68,10 +76,7 @@ public class BloomFilter {
         System.arraycopy(byteArray,0,this.byteArray,0,byteArray.length);
         onesCount = countOnes();
         zeroesCount = countZeroes();
-        HMAC_MD5 = Mac.getInstance("HmacMD5");
-        HMAC_MD5.init(new SecretKeySpec(SECRET_KEY.getBytes(), "HmacMD5"));
-        HMAC_SHA1 = Mac.getInstance("HmacSHA1");
-        HMAC_SHA1.init(new SecretKeySpec(SECRET_KEY.getBytes(), "HmacSHA1"));
+        hashFamily = HashFamily.newInstance(HashFamily.DEFAULT, SECRET_KEY);
     }
 
     /**
@@ -86,24 +91,41 @@ public class BloomFilter {
         this.N = N;
         this.byteArray = new byte[(int) Math.ceil(N/(double)8)];
         System.arraycopy(byteArray,0,this.byteArray,0,byteArray.length);
+        onesCount = countOnes();
+        zeroesCount = N - onesCount;
     }
 
     /**
-     * Returns the MD5 Mac.
+     * Returns the hash family.
+     *
+     * @return the hash family.
+     */
+    public HashFamily getHashFamily() {
+        return hashFamily;
+    }
+
+    /**
+     * Returns the MD5 Mac (of an HMAC hash family).
      *
      * @return the MD5 Mac.
      */
     public Mac getHmacMD5() {
-        return HMAC_MD5;
+        return hmac().getHmacMD5();
     }
 
     /**
-     * Returns the SHA1 Mac.
+     * Returns the SHA1 Mac (of an HMAC hash family).
      *
      * @return the SHA1 Mac.
      */
     public Mac getHmacSHA1() {
-        return HMAC_SHA1;
+        return hmac().getHmacSHA1();
+    }
+
+    private HashFamily.Hmac hmac() {
+        if(!(hashFamily instanceof HashFamily.Hmac))
+            throw new IllegalStateException("Hash family is not " + HashFamily.HMAC + ".");
+        return (HashFamily.Hmac) hashFamily;
     }
 
     /**
@@ -194,51 +216,141 @@ public class BloomFilter {
     }
 
     /**
-     * Add data to the bloom filter.
+     * Add data to the bloom filter. Positions of data up to <code>QGramPositionsCache.MAX_Q</code>
+     * characters long are shared through a <code>QGramPositionsCache</code>.
      *
      * @param data data string.
      * @return an array of K integers all in range of [0,...,N).
      */
     public int[] addData(final String data) {
-        if(dictionary == null)
-            dictionary = createDictionary(data.length());
-
-        final int[] positions;
-        if(!dictionary.containsKey(data)) {
-            // positions= createHashesV1(
-            //         data.getBytes(StandardCharsets.UTF_8),
-            //         N,K, getHmacMD5(),getHmacSHA1()
-            // );
-//            positions = createHashesV2(
-//                    data.getBytes(StandardCharsets.UTF_8),
-//                    N,K, getHmacMD5()
-//            );
-           positions = createHashesV3(
-                   data.getBytes(StandardCharsets.UTF_8),
-                   N,K, getHmacMD5(),getHmacSHA1()
-           );
-
-            dictionary.put(data,positions);
-        } else {
-            positions = dictionary.get(data);
+        final char[] chars = data.toCharArray();
+        addData(chars, 0, chars.length);
+        return Arrays.copyOf(positionsBuffer, K);
+    }
+
+    /**
+     * Add the Q-Grams of a Q-Gram buffer to the bloom filter. Same positions as adding
+     * each Q-Gram string with <code>addData</code>, without creating any strings or arrays.
+     *
+     * @param qGrams a filled Q-Gram buffer.
+     */
+    public void addQGrams(final QGramUtil.QGramBuffer qGrams) {
+        final char[] chars = qGrams.getChars();
+        final int length = qGrams.getQGramLength();
+        final int count = qGrams.getQGramCount();
+        for (int i = 0; i < count; i++) addData(chars, i, length);
+    }
+
+    /**
+     * Add data (a window of characters) to the bloom filter.
+     *
+     * @param chars a character buffer.
+     * @param offset offset of data in the buffer.
+     * @param length length of data (number of characters).
+     */
+    public void addData(final char[] chars, final int offset, final int length) {
+        if(positionsBuffer == null) positionsBuffer = new int[K];
+        if(length > QGramPositionsCache.MAX_Q) {
+            createHashes(chars, offset, length);
+            setPositions(positionsBuffer, 0, K);
+            return;
+        }
+        final QGramPositionsCache cache = cache(length);
+        final long key = QGramPositionsCache.pack(chars, offset, length);
+        if(!cache.get(key, positionsBuffer)) {
+            createHashes(chars, offset, length);
+            cache.put(key, positionsBuffer);
+        }
+        setPositions(positionsBuffer, 0, K);
+    }
+
+    /**
+     * Grows the shared cache of Q-Grams of length Q up front (see
+     * <code>QGramPositionsCache.ensureCapacity</code>).
+     *
+     * @param Q Q as in Q-Grams.
+     * @param entries expected number of distinct Q-Grams.
+     * @param bytes memory bound of the cache in bytes.
+     */
+    public void ensureCacheCapacity(final int Q, final long entries, final long bytes) {
+        if(Q > QGramPositionsCache.MAX_Q) return;
+        cache(Q).ensureCapacity(entries, bytes);
+    }
+
+    /**
+     * Releases the shared Q-Gram positions caches held by this bloom filter. Caches are
+     * acquired again if more data are added.
+     */
+    public void releaseCaches() {
+        if(caches == null) return;
+        for (int length = 0; length < caches.length; length++) {
+            if(caches[length] != null) caches[length].release();
+            caches[length] = null;
         }
-        setPositions(positions);
-        return positions;
+    }
 
+    /**
+     * Returns the shared cache of Q-Grams of a length, acquiring it on first use or
+     * after it was dropped.
+     *
+     * @param length length of Q-Grams.
+     * @return the shared cache.
+     */
+    private QGramPositionsCache cache(final int length) {
+        if(caches == null) caches = new QGramPositionsCache[QGramPositionsCache.MAX_Q + 1];
+        if(caches[length] == null || caches[length].isClosed())
+            caches[length] = QGramPositionsCache.acquire(N, K, length, hashFamily.getId());
+        return caches[length];
     }
 
     /**
-     * Creates a dictionary (HashMap) capable of holding without rehashing.
-     * allmost all Q-combinations of printalble asccii
-     * @param Q number of characters in Q-gram.
-     * @return a dictionary (HashMap) capable of holding without rehashing.
+     * Create K hash values of a window of characters in the positions buffer, hashing
+     * the UTF-8 bytes of the window with the hash family (for the HMAC family same
+     * values as <code>createHashesV3</code>).
+     *
+     * @param chars a character buffer.
+     * @param offset offset of data in the buffer.
+     * @param length length of data (number of characters).
      */
-    private static Map<String,int[]> createDictionary(final int Q) {
-        if(Q > 4 || Q < 2) throw new IllegalStateException("Preferable q values in [2,3,4]");
-        long charCount = 94; // the 94 printable ASCII characters
-        long possibleCombCount =  // possible combination of Q
-                CombinatoricsUtil.combinationsCount(charCount, Q);
-        return  new HashMap<String,int[]>((int)possibleCombCount,0.99f);
+    private void createHashes(final char[] chars, final int offset, final int length) {
+        final int byteCount = encodeUTF8(chars, offset, length);
+        hashFamily.createHashes(dataBuffer, 0, byteCount, N, K, positionsBuffer);
+    }
+
+    /**
+     * Encodes a window of characters as UTF-8 in the data buffer (unpaired
+     * surrogates become '?', as in <code>String.getBytes</code>).
+     *
+     * @param chars a character buffer.
+     * @param offset offset of data in the buffer.
+     * @param length length of data (number of characters).
+     * @return number of bytes.
+     */
+    private int encodeUTF8(final char[] chars, final int offset, final int length) {
+        if(dataBuffer == null || dataBuffer.length < 3 * length) dataBuffer = new byte[Math.max(16, 3 * length)];
+        int j = 0;
+        for (int i = offset; i < offset + length; i++) {
+            final char c = chars[i];
+            if(c < 0x80) {
+                dataBuffer[j++] = (byte) c;
+            } else if(c < 0x800) {
+                dataBuffer[j++] = (byte) (0xC0 | (c >> 6));
+                dataBuffer[j++] = (byte) (0x80 | (c & 0x3F));
+            } else if(Character.isSurrogate(c)) {
+                if(Character.isHighSurrogate(c) && i + 1 < offset + length && Character.isLowSurrogate(chars[i + 1])) {
+                    final int cp = Character.toCodePoint(c, chars[++i]);
+                    dataBuffer[j++] = (byte) (0xF0 | (cp >> 18));
+                    dataBuffer[j++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    dataBuffer[j++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    dataBuffer[j++] = (byte) (0x80 | (cp & 0x3F));
+                } else dataBuffer[j++] = (byte) '?';
+            } else {
+                dataBuffer[j++] = (byte) (0xE0 | (c >> 12));
+                dataBuffer[j++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dataBuffer[j++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return j;
     }
 
     /**
@@ -250,7 +362,24 @@ public class BloomFilter {
         for(int position : positions) {
             if(!getBit(position)) {
                 onesCount++; zeroesCount--;
-                setBit(position);
+                setBit(position, byteArray);
+            }
+        }
+    }
+
+    /**
+     * Set positions on the bloom-fitler.
+     *
+     * @param positions a positions buffer.
+     * @param offset offset of the positions in the buffer.
+     * @param count number of positions.
+     */
+    private void setPositions(final int[] positions, final int offset, final int count) {
+        for (int i = offset; i < offset + count; i++) {
+            final int position = positions[i];
+            if(!getBit(position)) {
+                onesCount++; zeroesCount--;
+                setBit(position, byteArray);
             }
         }
     }
@@ -389,9 +518,7 @@ public class BloomFilter {
      */
     public int countOnes() {
         int ones = 0;
-        for (int i = 0; i < N; i++) {
-            if (getBit(i, byteArray)) ones++;
-        }
+        for (byte b : byteArray) ones += Integer.bitCount(b & 0xFF);
         return ones;
     }
 
@@ -401,11 +528,7 @@ public class BloomFilter {
      * @return the number of bits of this bloom filter that are set.
      */
     public int countZeroes() {
-        int zeroes = 0;
-        for (int i = 0; i < N; i++) {
-            if (!getBit(i, byteArray)) zeroes++;
-        }
-        return zeroes;
+        return N - countOnes();
     }
 
     /**
@@ -425,8 +548,14 @@ public class BloomFilter {
      * @param value true for 1, false for 0.
      */
     public void setBit(int bit, boolean value) {
-        if(value) setBit(bit,byteArray);
-        else unSetBit(bit,byteArray);
+        if(getBit(bit) == value) return;
+        if(value) {
+            setBit(bit,byteArray);
+            onesCount++; zeroesCount--;
+        } else {
+            unSetBit(bit,byteArray);
+            onesCount--; zeroesCount++;
+        }
     }
 
     /**
@@ -487,6 +616,29 @@ public class BloomFilter {
         bytes[i/8] = (byte) (bytes[i/8]  & ~(1 << (i%8)));
     }
 
+    /**
+     * Copies the first <code>srcN</code> bits of a byte array (bloom filter bytes) into another
+     * byte array starting at a bit offset, a byte at a time (bits are OR-ed into the
+     * destination bytes).
+     *
+     * @param src source byte array.
+     * @param srcN number of bits to copy.
+     * @param dest destination byte array.
+     * @param destBit bit offset in the destination byte array.
+     */
+    public static void copyBits(final byte[] src, final int srcN, final byte[] dest, final int destBit) {
+        final int byteCount = (srcN + 7) / 8;
+        final int destByte = destBit / 8;
+        final int shift = destBit % 8;
+        for (int i = 0; i < byteCount; i++) {
+            int b = src[i] & 0xFF;
+            if(i == byteCount - 1 && srcN % 8 != 0) b &= (1 << (srcN % 8)) - 1;
+            dest[destByte + i] |= (byte) (b << shift);
+            if(shift != 0 && (b >>> (8 - shift)) != 0)
+                dest[destByte + i + 1] |= (byte) (b >>> (8 - shift));
+        }
+    }
+
     /**
      * Calculate false positive probability for a bloom filter.
      *
@@ -1,9 +1,17 @@
 package gr.upatras.ceid.pprl.encoding;
 
+import gr.upatras.ceid.pprl.datasets.DatasetFieldStatistics;
+import gr.upatras.ceid.pprl.datasets.DatasetStatistics;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,6 +23,7 @@ public abstract class BloomFilterEncoding {
 
     public static final String ENCODING_FIELD_PREFIX = "encoding_field_";
     public static final String FIELD_DELIMITER = "_src_";
+    public static final String HASH_FAMILY_PROPERTY = "hash.family";
 
     protected Schema encodingSchema;                                                  // avro schema for encoding dataset
     protected Map<String,String> name2nameMap = new LinkedHashMap<String,String>();   // Mapping between source field name to encoding field name
@@ -22,6 +31,18 @@ public abstract class BloomFilterEncoding {
     protected int K;                                                                  // Number of hash value for each data put in a bloom filter
     protected int Q;                                                                  // Q as in Q-grams.
     protected String encodingFieldName;
+    protected String hashFamily = HashFamily.DEFAULT;                                 // Hash family of the bloom filters.
+
+    protected String[] selectedFieldNames;     // plan : selected field names (in encoding order).
+    private String[] includedFieldNames;       // plan : included field names.
+    private int[] includedFieldPositions;      // plan : positions of included fields in the encoding schema.
+    private int encodingFieldPosition;         // plan : position of the encoding field in the encoding schema.
+    private Schema encodingFieldSchema;        // plan : (fixed) schema of the encoding field.
+    private Schema inputSchema;                // plan : input schema of the resolved input positions.
+    private int[] includedInputPositions;      // plan : positions of included fields in the input schema.
+    private int[] selectedInputPositions;      // plan : positions of selected fields in the input schema.
+    private Schema.Type[] selectedTypes;       // plan : types of selected fields in the input schema.
+    private final List<BloomFilter> bloomFilters = new ArrayList<BloomFilter>(); // bloom filters of this encoding (owners of Q-Gram caches).
 
     /**
      * Constructor
@@ -95,6 +116,43 @@ public abstract class BloomFilterEncoding {
      */
     public void setN(int N,int i) { this.N[i] = N; }
 
+    /**
+     * Returns the hash family name.
+     *
+     * @return the hash family name.
+     */
+    public String getHashFamily() { return hashFamily; }
+
+    /**
+     * Sets the hash family name (one of <code>HashFamily.NAMES</code>).
+     *
+     * @param hashFamily the hash family name.
+     * @throws BloomFilterEncodingException
+     */
+    public void setHashFamily(final String hashFamily) throws BloomFilterEncodingException {
+        HashFamily.nameSupported(hashFamily);
+        this.hashFamily = hashFamily;
+    }
+
+    /**
+     * Returns a new bloom filter of this encoding (its K and hash family).
+     *
+     * @param N length of bloom filter.
+     * @return a new bloom filter.
+     * @throws BloomFilterEncodingException
+     */
+    protected BloomFilter newBloomFilter(final int N) throws BloomFilterEncodingException {
+        try {
+            final BloomFilter bloomFilter = new BloomFilter(N, K, hashFamily);
+            bloomFilters.add(bloomFilter);
+            return bloomFilter;
+        } catch (NoSuchAlgorithmException e) {
+            throw new BloomFilterEncodingException(e.getMessage());
+        } catch (InvalidKeyException e) {
+            throw new BloomFilterEncodingException(e.getMessage());
+        }
+    }
+
     /**
      * Returns encoding schema.
      *
@@ -146,7 +204,8 @@ public abstract class BloomFilterEncoding {
                 "name2nameMap=" + name2nameMap +
                 ", N=" + Arrays.toString(N) +
                 ", K=" + K +
-                ", Q=" + Q;
+                ", Q=" + Q +
+                ", hashFamily=" + hashFamily;
     }
 
     /**
@@ -190,15 +249,248 @@ public abstract class BloomFilterEncoding {
             throws BloomFilterEncodingException;
 
     /**
-     * Returns encoded record based on the encoding scheme and input record.
+     * Returns encoded record based on the encoding scheme and input record
+     * (not thread-safe, see <code>copy</code>).
      *
      * @param record input generic record.
      * @return encoded records (generic record).
      * @throws BloomFilterEncodingException
      */
-    public abstract GenericRecord encodeRecord(final GenericRecord record)
+    public GenericRecord encodeRecord(final GenericRecord record)
+            throws BloomFilterEncodingException {
+        return encodeRecord(record, null);
+    }
+
+    /**
+     * Returns encoded record based on the encoding scheme and input record, reusing
+     * a previously encoded record (and its encoding field bytes) if not null
+     * (not thread-safe, see <code>copy</code>).
+     *
+     * @param record input generic record.
+     * @param reuse a previously encoded record to reuse or null.
+     * @return encoded records (generic record).
+     * @throws BloomFilterEncodingException
+     */
+    public GenericRecord encodeRecord(final GenericRecord record, final GenericRecord reuse)
+            throws BloomFilterEncodingException {
+        assert encodingFieldSchema != null;
+        if(record.getSchema() != inputSchema) resolveInputSchema(record.getSchema());
+
+        final GenericRecord encodingRecord = (reuse != null) ? reuse : new GenericData.Record(getEncodingSchema());
+        for (int i = 0; i < includedFieldPositions.length; i++)
+            encodingRecord.put(includedFieldPositions[i], record.get(includedInputPositions[i]));
+
+        final Object field = encodingRecord.get(encodingFieldPosition);
+        final GenericData.Fixed fixed = (field instanceof GenericData.Fixed) ? (GenericData.Fixed) field :
+                new GenericData.Fixed(encodingFieldSchema, new byte[encodingFieldSchema.getFixedSize()]);
+        encodeSelectedFields(record, selectedInputPositions, selectedTypes, fixed.bytes(), 0);
+        encodingRecord.put(encodingFieldPosition, fixed);
+        return encodingRecord;
+    }
+
+    /**
+     * Returns a new (empty) batch for records of this encoding, with a column for
+     * each included field.
+     *
+     * @param capacity maximum number of records.
+     * @return a new batch.
+     */
+    public EncodedBatch newBatch(final int capacity) {
+        assert includedFieldNames != null;
+        return new EncodedBatch(getBFN(), includedFieldNames.clone(), capacity);
+    }
+
+    /**
+     * Encodes a range of records into a batch, until the range ends or the batch is full
+     * (not thread-safe, see <code>copy</code>).
+     *
+     * @param records input generic records.
+     * @param from first record (inclusive).
+     * @param to last record (exclusive).
+     * @param batch a batch of this encoding (see <code>newBatch</code>).
+     * @return the number of encoded records.
+     * @throws BloomFilterEncodingException
+     */
+    public int encodeBatch(final GenericRecord[] records, final int from, final int to,
+                           final EncodedBatch batch)
+            throws BloomFilterEncodingException {
+        int i = from;
+        while (i < to && !batch.isFull()) encodeIntoBatch(records[i++], batch);
+        return i - from;
+    }
+
+    /**
+     * Encodes a stream of records, batch by batch, writing each batch to a sink (the
+     * sink is not closed).
+     *
+     * @param records an iterator over input generic records.
+     * @param batch a batch of this encoding (see <code>newBatch</code>), cleared before each use.
+     * @param sink a sink to write the batches to.
+     * @return the number of encoded records.
+     * @throws BloomFilterEncodingException
+     * @throws IOException
+     */
+    public long encodeRecords(final Iterator<GenericRecord> records, final EncodedBatch batch,
+                              final EncodedBatchSink sink)
+            throws BloomFilterEncodingException, IOException {
+        long recordCount = 0;
+        while (records.hasNext()) {
+            batch.clear();
+            while (!batch.isFull() && records.hasNext()) encodeIntoBatch(records.next(), batch);
+            sink.write(batch);
+            recordCount += batch.getSize();
+        }
+        return recordCount;
+    }
+
+    /**
+     * Encodes a record into the next row of a batch.
+     *
+     * @param record input generic record.
+     * @param batch a batch of this encoding.
+     * @throws BloomFilterEncodingException
+     */
+    private void encodeIntoBatch(final GenericRecord record, final EncodedBatch batch)
+            throws BloomFilterEncodingException {
+        assert encodingFieldSchema != null && batch.getN() == getBFN() &&
+                batch.getColumnNames().length == includedFieldNames.length;
+        if(record.getSchema() != inputSchema) resolveInputSchema(record.getSchema());
+        final int row = batch.add();
+        for (int i = 0; i < includedInputPositions.length; i++)
+            batch.setValue(i, row, record.get(includedInputPositions[i]));
+        encodeSelectedFields(record, selectedInputPositions, selectedTypes,
+                batch.getFilters(), batch.getFilterOffset(row));
+    }
+
+    /**
+     * Encodes the selected fields of an input record into the encoding field bytes.
+     *
+     * @param record input generic record.
+     * @param positions positions of the selected fields in the input record (in <code>selectedFieldNames</code> order).
+     * @param types types of the selected fields.
+     * @param bytes a byte array for the encoding field bytes (<code>ceil(getBFN()/8)</code> bytes overwritten).
+     * @param offset offset of the encoding field bytes in the byte array.
+     * @throws BloomFilterEncodingException
+     */
+    protected abstract void encodeSelectedFields(final GenericRecord record, final int[] positions,
+                                                 final Schema.Type[] types, final byte[] bytes, final int offset)
             throws BloomFilterEncodingException;
 
+    /**
+     * Compiles the encoding plan of this encoding. Resolves the selected and the included
+     * field names and their positions in the encoding schema once, so that records are encoded
+     * without schema lookups. Called at the end of <code>initialize</code>.
+     */
+    protected void compilePlan() {
+        assert getEncodingSchema() != null && encodingFieldName != null;
+        final List<String> selected = new ArrayList<String>();
+        final List<String> included = new ArrayList<String>();
+        for (Map.Entry<String,String> entry : name2nameMap.entrySet()) {
+            if(entry.getKey().equals(entry.getValue())) included.add(entry.getKey());
+            else selected.add(entry.getKey());
+        }
+        selectedFieldNames = selected.toArray(new String[selected.size()]);
+        includedFieldNames = included.toArray(new String[included.size()]);
+        includedFieldPositions = new int[includedFieldNames.length];
+        for (int i = 0; i < includedFieldNames.length; i++)
+            includedFieldPositions[i] = getEncodingSchema().getField(includedFieldNames[i]).pos();
+        final Schema.Field encodingField = getEncodingSchema().getField(encodingFieldName);
+        encodingFieldPosition = encodingField.pos();
+        encodingFieldSchema = encodingField.schema();
+        inputSchema = null;
+    }
+
+    /**
+     * Resolves the positions and types of the selected and the included fields in an input
+     * schema (once per input schema instance).
+     *
+     * @param schema input schema.
+     * @throws BloomFilterEncodingException
+     */
+    private void resolveInputSchema(final Schema schema) throws BloomFilterEncodingException {
+        includedInputPositions = new int[includedFieldNames.length];
+        for (int i = 0; i < includedFieldNames.length; i++)
+            includedInputPositions[i] = inputField(schema, includedFieldNames[i]).pos();
+        selectedInputPositions = new int[selectedFieldNames.length];
+        selectedTypes = new Schema.Type[selectedFieldNames.length];
+        for (int i = 0; i < selectedFieldNames.length; i++) {
+            final Schema.Field field = inputField(schema, selectedFieldNames[i]);
+            selectedInputPositions[i] = field.pos();
+            selectedTypes[i] = field.schema().getType();
+        }
+        inputSchema = schema;
+    }
+
+    private static Schema.Field inputField(final Schema schema, final String name)
+            throws BloomFilterEncodingException {
+        final Schema.Field field = schema.getField(name);
+        if(field == null)
+            throw new BloomFilterEncodingException("Field name \"" + name + "\" does not belong in input schema.");
+        return field;
+    }
+
+    /**
+     * Returns a new, initialized encoding of the same encoding schema. An encoding reuses
+     * its bloom filters while encoding records and is not thread-safe, each thread
+     * encoding records needs its own copy.
+     *
+     * @return a new, initialized encoding.
+     * @throws BloomFilterEncodingException
+     */
+    public BloomFilterEncoding copy() throws BloomFilterEncodingException {
+        final BloomFilterEncoding copy = BloomFilterEncodingUtil.newInstance(schemeName());
+        copy.setupFromSchema(getEncodingSchema());
+        copy.initialize();
+        return copy;
+    }
+
+    /**
+     * Warm up the Q-Gram positions caches of this encoding from the Q-Gram statistics of the
+     * input dataset (see <code>QGramCountingTool</code>). Caches are grown up front to the
+     * expected number of distinct Q-Grams (at most the record count times the avg unique
+     * Q-Gram count of the selected fields) instead of growing while encoding, each one within
+     * an equal share of the free cache memory. Call after <code>initialize</code>.
+     *
+     * @param statistics Q-Gram statistics of the input dataset.
+     */
+    public void warmUp(final DatasetStatistics statistics) {
+        assert selectedFieldNames != null;
+        if(Q < DatasetFieldStatistics.Q_GRAMS[0] || Q > QGramPositionsCache.MAX_Q) return;
+        double qGramCount = 0;
+        for (String fieldName : selectedFieldNames) {
+            final DatasetFieldStatistics fieldStatistics = statistics.getFieldStatistics().get(fieldName);
+            if(fieldStatistics != null) qGramCount += fieldStatistics.getUniqueQgramCount(Q);
+        }
+        final long entries = (long) Math.ceil(statistics.getRecordCount() * qGramCount);
+        if(entries == 0) return;
+        for (int i = 0; i < bloomFilters.size(); i++)
+            bloomFilters.get(i).ensureCacheCapacity(Q, entries,
+                    QGramPositionsCache.getFreeByteCount() / (bloomFilters.size() - i));
+    }
+
+    /**
+     * Warm up the Q-Gram positions caches of this encoding from the Q-Gram statistics of the
+     * input dataset, then fill them by encoding a sample of input records.
+     *
+     * @param statistics Q-Gram statistics of the input dataset.
+     * @param sample a sample of input records.
+     * @throws BloomFilterEncodingException
+     */
+    public void warmUp(final DatasetStatistics statistics, final GenericRecord[] sample)
+            throws BloomFilterEncodingException {
+        warmUp(statistics);
+        for (GenericRecord record : sample) encodeRecord(record);
+    }
+
+    /**
+     * Releases the Q-Gram positions caches held by the bloom filters of this encoding,
+     * freeing the caches no other encoding holds. The encoding can still be used, its
+     * bloom filters acquire the caches again.
+     */
+    public void release() {
+        for (BloomFilter bloomFilter : bloomFilters) bloomFilter.releaseCaches();
+    }
+
     /**
      * Setup an encoding based on existing encoding schema.
      *
@@ -215,6 +507,16 @@ public abstract class BloomFilterEncoding {
      */
     public abstract BloomFilter retrieveBloomFilter(final GenericRecord record);
 
+    /**
+     * Retrieve a (non-copying) bloom filter view from the record.
+     *
+     * @param record generic record.
+     * @return a <code>BloomFilterView</code> instance
+     */
+    public BloomFilterView retrieveBloomFilterView(final GenericRecord record) {
+        return BloomFilterEncodingUtil.retrieveBloomFilterView(record, getEncodingFieldName(), getBFN());
+    }
+
     /**
      * Setup an encoding based on an input schema, selected fields and included fields.
      *
@@ -239,6 +541,7 @@ public abstract class BloomFilterEncoding {
                 String.format("PPRL Encoding of %s", schema.getName()),
                 String.format("encoding.schema.%s", getName().replace("_", ".").toLowerCase()),
                 false);
+        encodingSchema.addProp(HASH_FAMILY_PROPERTY, hashFamily);
 
         final List<Schema.Field> restFields = BloomFilterEncodingUtil.setupIncludedFields(schema,
                 includedFieldNames);
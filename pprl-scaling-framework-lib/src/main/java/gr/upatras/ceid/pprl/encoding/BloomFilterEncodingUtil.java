@@ -62,6 +62,23 @@ public class BloomFilterEncodingUtil {
         return sParts[0].toUpperCase();
     }
 
+    /**
+     * Retrieves and returns the hash family name from an encoded dataset schema
+     * (schemas without one are of the default hash family).
+     *
+     * @param schema encoded dataset schema.
+     * @return hash family name.
+     * @throws BloomFilterEncodingException
+     */
+    public static String retrieveHashFamily(final Schema schema)
+            throws BloomFilterEncodingException {
+        final String hashFamily = schema.getProp(BloomFilterEncoding.HASH_FAMILY_PROPERTY);
+        if(hashFamily == null) return HashFamily.DEFAULT;
+        if(!HashFamily.NAMES.contains(hashFamily))
+            throw new BloomFilterEncodingException("Invalid hash family \"" + hashFamily + "\" in encoding schema.");
+        return hashFamily;
+    }
+
     /**
      * Creates new instance of an encoding based on an encoded dataset schema.
      * This instance is uninitialized and not setup fully.
@@ -295,6 +312,7 @@ public class BloomFilterEncodingUtil {
                 String.format("PPRL Encoding of %s", schema.getName()),
                 String.format("encoding.schema.%s", name.replace("_", ".").toLowerCase()),
                 false);
+        encodingSchema.addProp(BloomFilterEncoding.HASH_FAMILY_PROPERTY, retrieveHashFamily(existingSchema));
 
         final List<Schema.Field> restFields = setupIncludedFields(schema, includedFieldNames);
         final List<Schema.Field> encodingFields = new ArrayList<Schema.Field>();
@@ -331,4 +349,33 @@ public class BloomFilterEncodingUtil {
         GenericData.Fixed fixed = (GenericData.Fixed) record.get(encodingFieldName);
         return new BloomFilter(N,fixed.bytes());
     }
+
+    /**
+     * Retrieve a (non-copying) bloom filter view from the encoding field name.
+     *
+     * @param record generic record.
+     * @param encodingFieldName encoding field name.
+     * @param N total size of bloom filter.
+     * @return a <code>BloomFilterView</code> instance
+     */
+    public static BloomFilterView retrieveBloomFilterView(final GenericRecord record,
+                                                          final String encodingFieldName,
+                                                          int N) {
+        return retrieveBloomFilterView(record, encodingFieldName, new BloomFilterView(N));
+    }
+
+    /**
+     * Re-points a bloom filter view to the encoding field of a record.
+     *
+     * @param record generic record.
+     * @param encodingFieldName encoding field name.
+     * @param view a bloom filter view to reuse.
+     * @return the re-pointed <code>BloomFilterView</code> instance
+     */
+    public static BloomFilterView retrieveBloomFilterView(final GenericRecord record,
+                                                          final String encodingFieldName,
+                                                          final BloomFilterView view) {
+        GenericData.Fixed fixed = (GenericData.Fixed) record.get(encodingFieldName);
+        return view.wrap(fixed.bytes());
+    }
 }
@@ -0,0 +1,257 @@
+package gr.upatras.ceid.pprl.encoding;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Bloom Filter Store class. A read-only store of (uid, bloom filter) records
+ * held in packed, fixed-width slots of memory-mapped files. Record ordinals
+ * run over the files in the given order.
+ *
+ * File layout : a 16 byte header (magic, N, uid length, reserved) followed by
+ * slots of <code>ceil(N/8)</code> bloom filter bytes, a 2 byte uid length and
+ * <code>uidLength</code> uid bytes (UTF-8, zero padded).
+ */
+public class BloomFilterStore {
+
+    public static final String FILE_EXTENSION = ".bfs";     // store file extension.
+    private static final int MAGIC = 0x42465331;            // "BFS1"
+    private static final int HEADER_LENGTH = 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int N;                        // length of bloom filters (#bits).
+    private final int byteLength;               // length of bloom filters in bytes.
+    private final int uidLength;                // maximum uid length in bytes.
+    private final int slotLength;               // length of a slot in bytes.
+    private final MappedByteBuffer[] buffers;   // mapped store files.
+    private final int[] firstOrdinals;          // file to its first ordinal (files + 1 entries).
+
+    /**
+     * Constructor, maps store files (all files must share the same N and uid length).
+     *
+     * @param files store files.
+     * @throws IOException
+     */
+    public BloomFilterStore(final List<File> files) throws IOException {
+        if(files.isEmpty()) throw new IOException("No store files given.");
+        buffers = new MappedByteBuffer[files.size()];
+        firstOrdinals = new int[files.size() + 1];
+        int n = -1;
+        int u = -1;
+        for (int i = 0; i < files.size(); i++) {
+            final RandomAccessFile raf = new RandomAccessFile(files.get(i), "r");
+            try {
+                final FileChannel channel = raf.getChannel();
+                if(channel.size() > Integer.MAX_VALUE)
+                    throw new IOException("Store file too large : " + files.get(i));
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                raf.close();
+            }
+            buffers[i].order(ByteOrder.BIG_ENDIAN);
+            if(buffers[i].limit() < HEADER_LENGTH || buffers[i].getInt(0) != MAGIC)
+                throw new IOException("Not a store file : " + files.get(i));
+            if(n < 0) {
+                n = buffers[i].getInt(4);
+                u = buffers[i].getInt(8);
+            } else if(n != buffers[i].getInt(4) || u != buffers[i].getInt(8))
+                throw new IOException("Store files do not share the same layout.");
+            buffers[i].order(ByteOrder.LITTLE_ENDIAN);
+            final int slots = (buffers[i].limit() - HEADER_LENGTH) / slotLength(n, u);
+            firstOrdinals[i + 1] = firstOrdinals[i] + slots;
+        }
+        N = n;
+        uidLength = u;
+        byteLength = (int) Math.ceil(N/(double)8);
+        slotLength = slotLength(N, uidLength);
+    }
+
+    /**
+     * Returns the number of records.
+     *
+     * @return the number of records.
+     */
+    public int getRecordCount() {
+        return firstOrdinals[buffers.length];
+    }
+
+    /**
+     * Returns length of bloom filters.
+     *
+     * @return length of bloom filters.
+     */
+    public int getN() {
+        return N;
+    }
+
+    /**
+     * Returns the total mapped size in bytes.
+     *
+     * @return the total mapped size in bytes.
+     */
+    public long getMappedByteCount() {
+        long count = 0;
+        for (MappedByteBuffer buffer : buffers) count += buffer.limit();
+        return count;
+    }
+
+    /**
+     * Re-points a bloom filter view to the bloom filter of a record.
+     *
+     * @param ordinal a record ordinal.
+     * @param view a bloom filter view to reuse.
+     * @return the re-pointed view.
+     */
+    public BloomFilterView retrieveBloomFilterView(final int ordinal, final BloomFilterView view) {
+        final int file = file(ordinal);
+        return view.wrap(buffers[file], position(file, ordinal));
+    }
+
+    /**
+     * Returns the uid of a record.
+     *
+     * @param ordinal a record ordinal.
+     * @return the uid of a record.
+     */
+    public String getUid(final int ordinal) {
+        final int file = file(ordinal);
+        final int position = position(file, ordinal) + byteLength;
+        final MappedByteBuffer buffer = buffers[file];
+        final int length = ((buffer.get(position) & 0xFF) << 8) | (buffer.get(position + 1) & 0xFF);
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = buffer.get(position + 2 + i);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Returns the file of an ordinal.
+     *
+     * @param ordinal a record ordinal.
+     * @return the file of an ordinal.
+     */
+    private int file(final int ordinal) {
+        int lo = 0;
+        int hi = buffers.length - 1;
+        while(lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if(firstOrdinals[mid] <= ordinal) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the position of an ordinal's slot in its file.
+     *
+     * @param file a file.
+     * @param ordinal a record ordinal.
+     * @return the position of an ordinal's slot.
+     */
+    private int position(final int file, final int ordinal) {
+        return HEADER_LENGTH + (ordinal - firstOrdinals[file]) * slotLength;
+    }
+
+    /**
+     * Returns the number of records of a store file from its header and length,
+     * without mapping it.
+     *
+     * @param in an input stream positioned at the start of a store file.
+     * @param fileLength length of the store file in bytes.
+     * @return the number of records of a store file.
+     * @throws IOException
+     */
+    public static int readRecordCount(final InputStream in, final long fileLength) throws IOException {
+        final DataInputStream dis = new DataInputStream(in);
+        if(fileLength < HEADER_LENGTH || dis.readInt() != MAGIC)
+            throw new IOException("Not a store file.");
+        final int n = dis.readInt();
+        final int u = dis.readInt();
+        return (int) ((fileLength - HEADER_LENGTH) / slotLength(n, u));
+    }
+
+    private static int slotLength(final int N, final int uidLength) {
+        return (int) Math.ceil(N/(double)8) + 2 + uidLength;
+    }
+
+    /**
+     * Bloom Filter Store Writer class. Appends records to a store file.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final int byteLength;
+        private final int uidLength;
+        private final byte[] padding;
+        private int recordCount;
+
+        /**
+         * Constructor.
+         *
+         * @param out an output stream.
+         * @param N length of bloom filters.
+         * @param uidLength maximum uid length in bytes (at most 65535).
+         * @throws IOException
+         */
+        public Writer(final OutputStream out, final int N, final int uidLength) throws IOException {
+            if(uidLength < 1 || uidLength > 0xFFFF)
+                throw new IllegalArgumentException("Uid length must be in [1,65535].");
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.byteLength = (int) Math.ceil(N/(double)8);
+            this.uidLength = uidLength;
+            this.padding = new byte[uidLength];
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(N);
+            this.out.writeInt(uidLength);
+            this.out.writeInt(0);
+            recordCount = 0;
+        }
+
+        /**
+         * Append a record.
+         *
+         * @param uid record uid.
+         * @param view bloom filter view of the record.
+         * @throws IOException
+         */
+        public void append(final String uid, final BloomFilterView view) throws IOException {
+            if(view.getByteLength() != byteLength)
+                throw new IOException("Bloom filter length does not match the store.");
+            final byte[] uidBytes = uid.getBytes(UTF8);
+            if(uidBytes.length > uidLength)
+                throw new IOException("Uid \"" + uid + "\" is longer than " + uidLength + " bytes.");
+            for (int i = 0; i < view.getWordCount(); i++) {
+                final long word = view.word(i);
+                final int count = Math.min(8, byteLength - (i << 3));
+                for (int j = 0; j < count; j++) out.write((int) (word >>> (j << 3)));
+            }
+            out.writeShort(uidBytes.length);
+            out.write(uidBytes);
+            out.write(padding, 0, uidLength - uidBytes.length);
+            recordCount++;
+        }
+
+        /**
+         * Returns the number of appended records.
+         *
+         * @return the number of appended records.
+         */
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package gr.upatras.ceid.pprl.encoding;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Bloom Filter Store Batch Sink class. Appends the (uid, bloom filter) records of
+ * encoded batches to a packed bloom filter store file (see <code>BloomFilterStore</code>).
+ */
+public class BloomFilterStoreBatchSink implements EncodedBatchSink {
+
+    private final BloomFilterStore.Writer writer;
+    private final String uidFieldName;
+    private final BloomFilterView view;     // reused bloom filter view.
+
+    /**
+     * Constructor.
+     *
+     * @param out an output stream.
+     * @param N length of bloom filters.
+     * @param uidLength maximum uid length in bytes.
+     * @param uidFieldName UID field name (an included field of the encoding).
+     * @throws IOException
+     */
+    public BloomFilterStoreBatchSink(final OutputStream out, final int N, final int uidLength,
+                                     final String uidFieldName) throws IOException {
+        writer = new BloomFilterStore.Writer(out, N, uidLength);
+        this.uidFieldName = uidFieldName;
+        view = new BloomFilterView(N);
+    }
+
+    public void write(final EncodedBatch batch) throws IOException {
+        if(batch.getN() != view.getN())
+            throw new IOException("Bloom filter length does not match the store.");
+        final int column = batch.getColumnIndex(uidFieldName);
+        if(column < 0)
+            throw new IOException("UID field \"" + uidFieldName + "\" is not a column of the batch.");
+        for (int row = 0; row < batch.getSize(); row++)
+            writer.append(String.valueOf(batch.getValue(column, row)), batch.retrieveBloomFilterView(row, view));
+    }
+
+    /**
+     * Returns the number of written records.
+     *
+     * @return the number of written records.
+     */
+    public int getRecordCount() {
+        return writer.getRecordCount();
+    }
+
+    public void close() throws IOException {
+        writer.close();
+    }
+}
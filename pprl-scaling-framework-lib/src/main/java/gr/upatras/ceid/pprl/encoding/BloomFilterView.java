@@ -0,0 +1,269 @@
+package gr.upatras.ceid.pprl.encoding;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Bloom Filter View class. A read-only, non-copying view over bloom filter
+ * bytes (e.g. the bytes of an Avro <code>GenericData.Fixed</code> or a
+ * <code>ByteBuffer</code> slice) or over packed 64-bit words (see
+ * <code>PackedBloomFilter</code>). Bit order is the same as <code>BloomFilter</code>.
+ * A view can be re-pointed with <code>wrap</code> so a single instance can be
+ * reused across records.
+ */
+public class BloomFilterView {
+
+    private final int N;            // Length of bloom filter (#bits)
+    private final int length;       // Length of bloom filter in bytes
+    private byte[] bytes;           // the wrapped byte array (null if buffer is wrapped)
+    private int offset;             // offset of the bloom filter in the wrapped byte array
+    private ByteBuffer buffer;      // the wrapped buffer (null if a byte array is wrapped)
+    private int position;           // position of the bloom filter in the wrapped buffer
+    private long[] words;           // the wrapped word array (null if bytes are wrapped)
+    private int wordOffset;         // offset of the bloom filter in the wrapped word array
+    private int onesCount;          // one counts (-1 if not yet counted)
+
+    /**
+     * Constructor of an empty view (must be wrapped before use).
+     *
+     * @param N length of bloom filter
+     */
+    public BloomFilterView(final int N) {
+        this.N = N;
+        this.length = (int) Math.ceil(N/(double)8);
+        this.onesCount = -1;
+    }
+
+    /**
+     * Constructor of a view over a byte array.
+     *
+     * @param N length of bloom filter
+     * @param bytes the bloom filter byte array.
+     */
+    public BloomFilterView(final int N, final byte[] bytes) {
+        this(N);
+        wrap(bytes, 0);
+    }
+
+    /**
+     * Constructor of a view over a byte array region starting at offset.
+     *
+     * @param N length of bloom filter
+     * @param bytes a byte array containing the bloom filter.
+     * @param offset offset of the bloom filter in the byte array.
+     */
+    public BloomFilterView(final int N, final byte[] bytes, final int offset) {
+        this(N);
+        wrap(bytes, offset);
+    }
+
+    /**
+     * Constructor of a view over a buffer, starting at its current position.
+     *
+     * @param N length of bloom filter
+     * @param buffer a buffer containing the bloom filter.
+     */
+    public BloomFilterView(final int N, final ByteBuffer buffer) {
+        this(N);
+        wrap(buffer, buffer.position());
+    }
+
+    /**
+     * Re-point this view to a byte array.
+     *
+     * @param bytes the bloom filter byte array.
+     * @return this view.
+     */
+    public BloomFilterView wrap(final byte[] bytes) {
+        return wrap(bytes, 0);
+    }
+
+    /**
+     * Re-point this view to a byte array region starting at offset.
+     *
+     * @param bytes a byte array containing the bloom filter.
+     * @param offset offset of the bloom filter in the byte array.
+     * @return this view.
+     */
+    public BloomFilterView wrap(final byte[] bytes, final int offset) {
+        assert offset + length <= bytes.length;
+        this.bytes = bytes;
+        this.offset = offset;
+        this.buffer = null;
+        this.words = null;
+        this.onesCount = -1;
+        return this;
+    }
+
+    /**
+     * Re-point this view to a buffer at an absolute position. Heap buffers are
+     * accessed through their backing array.
+     *
+     * @param buffer a buffer containing the bloom filter.
+     * @param position absolute position of the bloom filter in the buffer.
+     * @return this view.
+     */
+    public BloomFilterView wrap(final ByteBuffer buffer, final int position) {
+        assert position + length <= buffer.limit();
+        if(buffer.hasArray()) return wrap(buffer.array(), buffer.arrayOffset() + position);
+        this.bytes = null;
+        this.buffer = (buffer.order() == ByteOrder.LITTLE_ENDIAN) ?
+                buffer : buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.position = position;
+        this.words = null;
+        this.onesCount = -1;
+        return this;
+    }
+
+    /**
+     * Re-point this view to a word array region starting at word offset. Words are
+     * compared as they are, without assembling them from bytes.
+     *
+     * @param words a word array containing the packed bloom filter.
+     * @param wordOffset offset of the bloom filter in the word array.
+     * @return this view.
+     */
+    public BloomFilterView wrap(final long[] words, final int wordOffset) {
+        assert wordOffset + getWordCount() <= words.length;
+        this.bytes = null;
+        this.buffer = null;
+        this.words = words;
+        this.wordOffset = wordOffset;
+        this.onesCount = -1;
+        return this;
+    }
+
+    /**
+     * Returns length of bloom filter.
+     *
+     * @return length of bloom filter.
+     */
+    public int getN() {
+        return N;
+    }
+
+    /**
+     * Returns length of bloom filter in bytes.
+     *
+     * @return length of bloom filter in bytes.
+     */
+    public int getByteLength() {
+        return length;
+    }
+
+    /**
+     * Returns the number of 64-bit words of this bloom filter.
+     *
+     * @return the number of 64-bit words.
+     */
+    public int getWordCount() {
+        return (length + 7) >>> 3;
+    }
+
+    /**
+     * Returns the i-th 64-bit word of this bloom filter (little endian).
+     *
+     * @param i word index.
+     * @return the i-th 64-bit word.
+     */
+    public long word(final int i) {
+        if(words != null) return words[wordOffset + i];
+        if(bytes != null) return PackedBloomFilter.word(bytes, offset, length, i);
+        final int from = i << 3;
+        if(from + 8 <= length) return buffer.getLong(position + from);
+        long w = 0;
+        for (int j = length - 1; j >= from; j--)
+            w = (w << 8) | (buffer.get(position + j) & 0xFFL);
+        return w;
+    }
+
+    /**
+     * Returns true if a bit is set, false otherwise.
+     *
+     * @param bit position of bit in this bloom filter.
+     * @return true if bit is set, false otherwise.
+     */
+    public boolean getBit(final int bit) {
+        if(words != null) return (words[wordOffset + (bit >>> 6)] & (1L << (bit & 63))) != 0;
+        final byte b = (bytes != null) ? bytes[offset + bit/8] : buffer.get(position + bit/8);
+        return (b & (1<<(bit%8))) != 0;
+    }
+
+    /**
+     * Returns the number of bits set in the bloom filter (counted once per wrap).
+     *
+     * @return the number of bits set in the bloom filter.
+     */
+    public int getOnesCount() {
+        if(onesCount < 0) {
+            int ones = 0;
+            final int wordCount = getWordCount();
+            for (int i = 0; i < wordCount; i++) ones += Long.bitCount(word(i));
+            onesCount = ones;
+        }
+        return onesCount;
+    }
+
+    /**
+     * Sets the number of bits set in the currently wrapped bloom filter, when it
+     * is already known (e.g. cached per record), so it is not counted again.
+     *
+     * @param onesCount the number of bits set in the bloom filter.
+     * @return this view.
+     */
+    public BloomFilterView setOnesCount(final int onesCount) {
+        assert onesCount >= 0 && onesCount <= N;
+        this.onesCount = onesCount;
+        return this;
+    }
+
+    /**
+     * Returns a copy of the viewed bytes.
+     *
+     * @return a copy of the viewed bytes.
+     */
+    public byte[] toByteArray() {
+        final byte[] copy = new byte[length];
+        copyTo(copy, 0);
+        return copy;
+    }
+
+    /**
+     * Copies the viewed bytes into a byte array starting at offset.
+     *
+     * @param dest destination byte array.
+     * @param destOffset offset in the destination byte array.
+     */
+    public void copyTo(final byte[] dest, final int destOffset) {
+        if(words != null)
+            for (int i = 0; i < length; i++)
+                dest[destOffset + i] = (byte) (words[wordOffset + (i >>> 3)] >>> ((i & 7) << 3));
+        else if(bytes != null) System.arraycopy(bytes, offset, dest, destOffset, length);
+        else for (int i = 0; i < length; i++) dest[destOffset + i] = buffer.get(position + i);
+    }
+
+    /**
+     * Copies the viewed bloom filter as 64-bit words into a word array starting at offset.
+     *
+     * @param dest destination word array.
+     * @param destOffset offset in the destination word array.
+     */
+    public void copyWordsTo(final long[] dest, final int destOffset) {
+        final int wordCount = getWordCount();
+        for (int i = 0; i < wordCount; i++) dest[destOffset + i] = word(i);
+    }
+
+    /**
+     * Returns a (copied) <code>BloomFilter</code> instance of this view.
+     *
+     * @return a <code>BloomFilter</code> instance.
+     */
+    public BloomFilter toBloomFilter() {
+        return new BloomFilter(N, toByteArray());
+    }
+
+    @Override
+    public String toString() {
+        return BloomFilter.toHexString(toByteArray());
+    }
+}
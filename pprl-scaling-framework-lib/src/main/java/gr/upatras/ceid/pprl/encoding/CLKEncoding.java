@@ -5,11 +5,8 @@ import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -18,6 +15,7 @@ import java.util.Set;
 public class CLKEncoding extends BloomFilterEncoding {
 
     private BloomFilter bf; // bloom filter (only need 1 bloom filter)
+    private final QGramUtil.QGramBuffer qGramBuffer = new QGramUtil.QGramBuffer(); // reusable q-gram buffer.
 
     /**
      * Constructor
@@ -55,21 +53,16 @@ public class CLKEncoding extends BloomFilterEncoding {
      */
     @Override
     public void initialize() throws BloomFilterEncodingException {
-        try {
-            final Set<String> names = name2nameMap.keySet();
-            for(String name : names) {
-                final String mappedName = name2nameMap.get(name);
-                if (mappedName.startsWith(ENCODING_FIELD_PREFIX)) {
-                    if (encodingFieldName == null) encodingFieldName = getMappedFieldName(name);
-                    else assert encodingFieldName.equals(getMappedFieldName(name));
-                }
+        final Set<String> names = name2nameMap.keySet();
+        for(String name : names) {
+            final String mappedName = name2nameMap.get(name);
+            if (mappedName.startsWith(ENCODING_FIELD_PREFIX)) {
+                if (encodingFieldName == null) encodingFieldName = getMappedFieldName(name);
+                else assert encodingFieldName.equals(getMappedFieldName(name));
             }
-            bf = new BloomFilter(getCLKN(), K);
-        } catch (NoSuchAlgorithmException e) {
-            throw new BloomFilterEncodingException(e.getMessage());
-        } catch (InvalidKeyException e) {
-            throw new BloomFilterEncodingException(e.getMessage());
         }
+        bf = newBloomFilter(getCLKN());
+        compilePlan();
     }
 
     /**
@@ -109,37 +102,14 @@ public class CLKEncoding extends BloomFilterEncoding {
         return Arrays.asList(encodingField);
     }
 
-    /**
-     * Returns encoded record based on the encoding scheme and input record.
-     *
-     * @param record input generic record.
-     * @return encoded records (generic record).
-     * @throws BloomFilterEncodingException
-     */
     @Override
-    public GenericRecord encodeRecord(GenericRecord record) throws BloomFilterEncodingException {
-        final GenericRecord encodingRecord = new GenericData.Record(getEncodingSchema());
+    protected void encodeSelectedFields(final GenericRecord record, final int[] positions,
+                                        final Schema.Type[] types, final byte[] bytes, final int offset)
+            throws BloomFilterEncodingException {
         bf.clear();
-        for (Map.Entry<String,String> entry : name2nameMap.entrySet()) {
-            final String name = entry.getKey();
-            final String mappedName = entry.getValue();
-            if (name.equals(mappedName))
-                encodingRecord.put(mappedName, record.get(name));
-            else {
-                final Object obj = record.get(name);
-                final Schema.Type type = record.getSchema().getField(name).schema().getType();
-                encodeObject(obj, type, getQ(), bf);
-            }
-        }
-        final Schema schema = encodingRecord.getSchema().getField(encodingFieldName).schema();
-        final GenericData.Fixed fixed = new GenericData.Fixed(schema,
-                Arrays.copyOf(
-                        bf.getByteArray(),
-                        bf.getByteArray().length)
-        );
-        encodingRecord.put(encodingFieldName,fixed);
-
-        return encodingRecord;
+        for (int i = 0; i < positions.length; i++)
+            encodeObject(record.get(positions[i]), types[i], getQ(), bf);
+        System.arraycopy(bf.getByteArray(), 0, bytes, offset, bf.getByteArray().length);
     }
 
     /**
@@ -165,8 +135,8 @@ public class CLKEncoding extends BloomFilterEncoding {
     private void encodeObject(final Object obj, final Schema.Type type, final int Q,
                               final BloomFilter bloomFilter)
             throws BloomFilterEncodingException {
-        final String[] qGrams = QGramUtil.generateQGrams(obj, type, Q);
-        for(String qGram : qGrams) bloomFilter.addData(qGram);
+        qGramBuffer.fill(obj, type, Q);
+        bloomFilter.addQGrams(qGramBuffer);
     }
 
     /**
@@ -185,6 +155,7 @@ public class CLKEncoding extends BloomFilterEncoding {
         assert sParts.length == 3;
         setK(Integer.valueOf(sParts[1]));
         setQ(Integer.valueOf(sParts[2]));
+        setHashFamily(BloomFilterEncodingUtil.retrieveHashFamily(encodingSchema));
 
         for(Schema.Field field : encodingSchema.getFields()) {
             if (field.name().startsWith(ENCODING_FIELD_PREFIX)) {
@@ -0,0 +1,187 @@
+package gr.upatras.ceid.pprl.encoding;
+
+import java.util.Arrays;
+
+/**
+ * Encoded Batch class. A chunk of encoded records in columnar form : the bloom
+ * filters packed in a single contiguous byte block (<code>ceil(N/8)</code> bytes per
+ * record) and a column of values for each included (pass-through) field.
+ */
+public class EncodedBatch {
+
+    private final int N;                    // length of bloom filters.
+    private final int byteLength;           // length of bloom filters in bytes.
+    private final int capacity;             // maximum number of records.
+    private final String[] columnNames;     // included field names.
+    private final Object[][] columns;       // column to its values (record to value).
+    private final byte[] filters;           // packed bloom filters.
+    private int size;                       // number of records.
+
+    /**
+     * Constructor.
+     *
+     * @param N length of bloom filters.
+     * @param columnNames included field names.
+     * @param capacity maximum number of records.
+     */
+    public EncodedBatch(final int N, final String[] columnNames, final int capacity) {
+        if(capacity < 1) throw new IllegalArgumentException("Batch capacity must be at least 1.");
+        this.N = N;
+        this.byteLength = (int) Math.ceil(N/(double)8);
+        if((long) capacity * byteLength > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Batch capacity is too large for bloom filters of length " + N + ".");
+        this.capacity = capacity;
+        this.columnNames = columnNames;
+        this.columns = new Object[columnNames.length][capacity];
+        this.filters = new byte[capacity * byteLength];
+        this.size = 0;
+    }
+
+    /**
+     * Returns length of bloom filters.
+     *
+     * @return length of bloom filters.
+     */
+    public int getN() {
+        return N;
+    }
+
+    /**
+     * Returns length of bloom filters in bytes.
+     *
+     * @return length of bloom filters in bytes.
+     */
+    public int getByteLength() {
+        return byteLength;
+    }
+
+    /**
+     * Returns the maximum number of records.
+     *
+     * @return the maximum number of records.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of records.
+     *
+     * @return the number of records.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns true if the batch holds <code>capacity</code> records, false otherwise.
+     *
+     * @return true if the batch is full, false otherwise.
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Returns the included field names (column names).
+     *
+     * @return the included field names.
+     */
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * Returns the column index of an included field name.
+     *
+     * @param name included field name.
+     * @return the column index, -1 if name is not a column.
+     */
+    public int getColumnIndex(final String name) {
+        for (int c = 0; c < columnNames.length; c++)
+            if(columnNames[c].equals(name)) return c;
+        return -1;
+    }
+
+    /**
+     * Returns the value of a column for a record.
+     *
+     * @param column column index.
+     * @param row record index.
+     * @return the value.
+     */
+    public Object getValue(final int column, final int row) {
+        assert row < size;
+        return columns[column][row];
+    }
+
+    /**
+     * Returns the packed bloom filters (record r at offset <code>r * getByteLength()</code>).
+     *
+     * @return the packed bloom filters.
+     */
+    public byte[] getFilters() {
+        return filters;
+    }
+
+    /**
+     * Returns the offset of a record bloom filter in the packed bloom filters.
+     *
+     * @param row record index.
+     * @return the offset of the record bloom filter.
+     */
+    public int getFilterOffset(final int row) {
+        return row * byteLength;
+    }
+
+    /**
+     * Re-points a bloom filter view to the bloom filter of a record.
+     *
+     * @param row record index.
+     * @param view a bloom filter view (of length N).
+     * @return the view.
+     */
+    public BloomFilterView retrieveBloomFilterView(final int row, final BloomFilterView view) {
+        assert row < size && view.getN() == N;
+        return view.wrap(filters, getFilterOffset(row));
+    }
+
+    /**
+     * Clears the batch (drops the column values).
+     */
+    public void clear() {
+        for (Object[] column : columns) Arrays.fill(column, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Adds a record, returns its index.
+     *
+     * @return the record index.
+     */
+    int add() {
+        if(isFull()) throw new IllegalStateException("Batch is full.");
+        return size++;
+    }
+
+    /**
+     * Sets the value of a column for a record.
+     *
+     * @param column column index.
+     * @param row record index.
+     * @param value the value.
+     */
+    void setValue(final int column, final int row, final Object value) {
+        columns[column][row] = value;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedBatch{" +
+                "N=" + N +
+                ", columnNames=" + Arrays.toString(columnNames) +
+                ", capacity=" + capacity +
+                ", size=" + size +
+                '}';
+    }
+}
@@ -0,0 +1,18 @@
+package gr.upatras.ceid.pprl.encoding;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Encoded Batch Sink interface. Receives batches of encoded records as they are encoded.
+ */
+public interface EncodedBatchSink extends Closeable {
+
+    /**
+     * Write a batch of encoded records (the batch is reused after this call returns).
+     *
+     * @param batch a batch of encoded records.
+     * @throws IOException
+     */
+    void write(final EncodedBatch batch) throws IOException;
+}
@@ -5,8 +5,6 @@ import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -20,8 +18,10 @@ public class FieldBloomFilterEncoding extends BloomFilterEncoding {
 
     protected Map<String,BloomFilter> name2FBFMap = new LinkedHashMap<String, BloomFilter>(); // fieldName to bloom filter map.
     protected Map<String,Integer> name2indexMap = new LinkedHashMap<String,Integer>();        // fieldName to index map.
-    private BloomFilter bf;                                                                   // composite bloom filter.
+    protected BloomFilter[] fbfs;                                                             // bloom filters in name2FBFMap order.
+    private BloomFilter[] selectedFBFs;                                                       // bloom filters of selected fields.
     private int bfN;                                                                          // composite bloom filter N.
+    private final QGramUtil.QGramBuffer qGramBuffer = new QGramUtil.QGramBuffer();          // reusable q-gram buffer.
 
 
     /**
@@ -83,13 +83,19 @@ public class FieldBloomFilterEncoding extends BloomFilterEncoding {
                 encodingFieldName = getMappedFieldName(name);
             addFBF(name);
         }
-        try {
-            bf = new BloomFilter(bfN,K);
-        } catch (NoSuchAlgorithmException e) {
-            throw new BloomFilterEncodingException(e.getMessage());
-        } catch (InvalidKeyException e) {
-            throw new BloomFilterEncodingException(e.getMessage());
-        }
+        compilePlan();
+    }
+
+    /**
+     * Compiles the encoding plan, along with the bloom filters of the selected fields.
+     */
+    @Override
+    protected void compilePlan() {
+        super.compilePlan();
+        fbfs = name2FBFMap.values().toArray(new BloomFilter[name2FBFMap.size()]);
+        selectedFBFs = new BloomFilter[selectedFieldNames.length];
+        for (int i = 0; i < selectedFieldNames.length; i++)
+            selectedFBFs[i] = getFBF(selectedFieldNames[i]);
     }
 
     /**
@@ -108,6 +114,7 @@ public class FieldBloomFilterEncoding extends BloomFilterEncoding {
         assert sParts.length == 3;
         setK(Integer.valueOf(sParts[1]));
         setQ(Integer.valueOf(sParts[2]));
+        setHashFamily(BloomFilterEncodingUtil.retrieveHashFamily(encodingSchema));
 
 
         for(Schema.Field field : encodingSchema.getFields()) {
@@ -170,48 +177,31 @@ public class FieldBloomFilterEncoding extends BloomFilterEncoding {
         return Collections.singletonList(encodingField);
     }
 
-    /**
-     * Returns encoded record based on the encoding scheme and input record.
-     *
-     * @param record input generic record.
-     * @return encoded records (generic record).
-     * @throws BloomFilterEncodingException
-     */
     @Override
-    public GenericRecord encodeRecord(GenericRecord record)
+    protected void encodeSelectedFields(final GenericRecord record, final int[] positions,
+                                        final Schema.Type[] types, final byte[] bytes, final int offset)
             throws BloomFilterEncodingException {
-        final GenericRecord encodingRecord = new GenericData.Record(getEncodingSchema());
-
-        for (Map.Entry<String,String> entry : name2nameMap.entrySet()) {
-            final String name = entry.getKey();
-            final String mappedName = entry.getValue();
-            if (name.equals(mappedName))
-                encodingRecord.put(mappedName, record.get(name));
-            else {
-                final Object obj = record.get(name);
-                final Schema.Type type = record.getSchema().getField(name).schema().getType();
-                encodeObject(obj, type, getQ(), getFBF(name));
-            }
-        }
-
-        bf.clear();
+        encodeFBFs(record, positions, types);
+        Arrays.fill(bytes, offset, offset + (int) Math.ceil(bfN/(double)8), (byte) 0);
         int Npart = 0;
-        for(Map.Entry<String,BloomFilter> entry : name2FBFMap.entrySet()) {
-            final BloomFilter fbf = entry.getValue();
-            final int fbfN = fbf.getN();
-            for (int bit = 0; bit < fbfN; bit++) {
-                bf.setBit(Npart + bit,fbf.getBit(bit));
-            }
+        for(BloomFilter fbf : fbfs) {
+            BloomFilter.copyBits(fbf.getByteArray(), fbf.getN(), bytes, 8 * offset + Npart);
             Npart += fbf.getN();
         }
+    }
 
-        final Schema schema = encodingRecord.getSchema().getField(encodingFieldName).schema();
-        final GenericData.Fixed fixed = new GenericData.Fixed(schema,
-                Arrays.copyOf(bf.getByteArray(), bf.getByteArray().length)
-        );
-        encodingRecord.put(encodingFieldName,fixed);
-
-        return encodingRecord;
+    /**
+     * Encodes the selected fields of an input record, each in its own bloom filter.
+     *
+     * @param record input generic record.
+     * @param positions positions of the selected fields in the input record.
+     * @param types types of the selected fields.
+     * @throws BloomFilterEncodingException
+     */
+    protected void encodeFBFs(final GenericRecord record, final int[] positions, final Schema.Type[] types)
+            throws BloomFilterEncodingException {
+        for (int i = 0; i < positions.length; i++)
+            encodeObject(record.get(positions[i]), types[i], getQ(), selectedFBFs[i]);
     }
 
     /**
@@ -237,9 +227,9 @@ public class FieldBloomFilterEncoding extends BloomFilterEncoding {
     protected void encodeObject(final Object obj, final Schema.Type type, final int Q,
                                 final BloomFilter bloomFilter)
             throws BloomFilterEncodingException {
-        final String[] qGrams = QGramUtil.generateQGrams(obj,type,Q);
+        qGramBuffer.fill(obj,type,Q);
         bloomFilter.clear();
-        for(String qGram : qGrams) bloomFilter.addData(qGram);
+        bloomFilter.addQGrams(qGramBuffer);
     }
 
     /**
@@ -250,16 +240,9 @@ public class FieldBloomFilterEncoding extends BloomFilterEncoding {
      */
     protected void addFBF(final String fieldName)
             throws BloomFilterEncodingException{
-        try {
-            final int index = getIndex(fieldName);
-            final int fbfN = getN(index);
-            final int K = getK();
-            name2FBFMap.put(fieldName, new BloomFilter(fbfN, K));
-        } catch (NoSuchAlgorithmException e) {
-            throw new BloomFilterEncodingException(e.getMessage());
-        } catch (InvalidKeyException e) {
-            throw new BloomFilterEncodingException(e.getMessage());
-        }
+        final int index = getIndex(fieldName);
+        final int fbfN = getN(index);
+        name2FBFMap.put(fieldName, newBloomFilter(fbfN));
     }
 
     /**
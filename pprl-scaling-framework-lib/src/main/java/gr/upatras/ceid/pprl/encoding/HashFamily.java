@@ -0,0 +1,282 @@
+package gr.upatras.ceid.pprl.encoding;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hash Family class. A keyed family of K hash functions producing bloom filter
+ * positions of data, selectable per encoding (recorded in the encoding schema).
+ * Instances keep reusable buffers and are not thread-safe.
+ * <ul>
+ *     <li>HMAC : HMAC-MD5 and HMAC-SHA1 double hashing (same positions as <code>BloomFilter.createHashesV3</code>).</li>
+ *     <li>SIPHASH : SipHash-2-4 double hashing, a keyed PRF that needs no <code>javax.crypto</code> provider calls.</li>
+ * </ul>
+ */
+public abstract class HashFamily {
+
+    public static final String HMAC = "HMAC";
+    public static final String SIPHASH = "SIPHASH";
+    public static final String DEFAULT = HMAC;
+    public static final List<String> NAMES = Arrays.asList(HMAC, SIPHASH); // Available hash families
+
+    private final String secretDigest;  // SHA-256 digest of the secret key (hex).
+
+    /**
+     * Constructor.
+     *
+     * @param secret secret key.
+     */
+    protected HashFamily(final String secret) {
+        try {
+            secretDigest = BloomFilter.toHexString(
+                    MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a new hash family instance.
+     *
+     * @param name hash family name (one of <code>NAMES</code>).
+     * @param secret secret key.
+     * @return a new hash family instance.
+     * @throws NoSuchAlgorithmException if the hash family is not available.
+     * @throws InvalidKeyException
+     */
+    public static HashFamily newInstance(final String name, final String secret)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        if(HMAC.equals(name)) return new Hmac(secret);
+        if(SIPHASH.equals(name)) return new SipHash(secret);
+        throw new NoSuchAlgorithmException("Hash family \"" + name + "\" does not belong in available hash families.");
+    }
+
+    /**
+     * Does nothing if hash family name is supported, throws exception othewise.
+     *
+     * @param name hash family name.
+     * @throws BloomFilterEncodingException
+     */
+    public static void nameSupported(final String name) throws BloomFilterEncodingException {
+        if(!NAMES.contains(name))
+            throw new BloomFilterEncodingException("Hash family \"" + name + "\" does not belong in available hash families.");
+    }
+
+    /**
+     * Returns the hash family name.
+     *
+     * @return the hash family name.
+     */
+    public abstract String getName();
+
+    /**
+     * Create K hash values of data in a positions buffer.
+     *
+     * @param data data buffer.
+     * @param offset offset of data in the buffer.
+     * @param length length of data (number of bytes).
+     * @param N length of bloom filter.
+     * @param K number of hash values.
+     * @param positions positions buffer (at least K long), filled with K integers all in range of [0,...,N).
+     */
+    public abstract void createHashes(final byte[] data, final int offset, final int length,
+                                      final int N, final int K, final int[] positions);
+
+    /**
+     * Returns an id of this family and a digest of its secret key (positions of data
+     * are equal for equal ids). The secret key itself is not part of the id.
+     *
+     * @return an id of this family and its secret key digest.
+     */
+    public String getId() {
+        return getName() + "/" + secretDigest;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    /**
+     * HMAC hash family, the Kirsch, Mitzenmacher "Less Hashing, Same Performance" positions
+     * of an HMAC-SHA1 and an HMAC-MD5 (last 4 digest bytes of each).
+     */
+    public static class Hmac extends HashFamily {
+        private final Mac HMAC_MD5;     // MD5 Mac
+        private final Mac HMAC_SHA1;    // SHA1 Mac
+        private final byte[] digestBuffer;  // reusable mac digest buffer
+
+        /**
+         * Constructor.
+         *
+         * @param secret secret key.
+         * @throws NoSuchAlgorithmException
+         * @throws InvalidKeyException
+         */
+        public Hmac(final String secret) throws NoSuchAlgorithmException, InvalidKeyException {
+            super(secret);
+            HMAC_MD5 = Mac.getInstance("HmacMD5");
+            HMAC_MD5.init(new SecretKeySpec(secret.getBytes(), "HmacMD5"));
+            HMAC_SHA1 = Mac.getInstance("HmacSHA1");
+            HMAC_SHA1.init(new SecretKeySpec(secret.getBytes(), "HmacSHA1"));
+            digestBuffer = new byte[Math.max(HMAC_MD5.getMacLength(), HMAC_SHA1.getMacLength())];
+        }
+
+        @Override
+        public String getName() {
+            return HMAC;
+        }
+
+        /**
+         * Returns the MD5 Mac.
+         *
+         * @return the MD5 Mac.
+         */
+        public Mac getHmacMD5() {
+            return HMAC_MD5;
+        }
+
+        /**
+         * Returns the SHA1 Mac.
+         *
+         * @return the SHA1 Mac.
+         */
+        public Mac getHmacSHA1() {
+            return HMAC_SHA1;
+        }
+
+        @Override
+        public void createHashes(final byte[] data, final int offset, final int length,
+                                 final int N, final int K, final int[] positions) {
+            try {
+                HMAC_SHA1.update(data, offset, length);
+                HMAC_SHA1.doFinal(digestBuffer, 0);
+                final int sha1 = readInt(digestBuffer, HMAC_SHA1.getMacLength() - 4);
+                HMAC_MD5.update(data, offset, length);
+                HMAC_MD5.doFinal(digestBuffer, 0);
+                final int md5 = readInt(digestBuffer, HMAC_MD5.getMacLength() - 4);
+                for (int i = 0; i < K; i++)
+                    positions[i] = Math.abs(((sha1 + (i+1)*md5) % N));
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+
+        /**
+         * Returns the big-endian integer at an offset of a byte array.
+         *
+         * @param bytes a byte array.
+         * @param offset offset.
+         * @return the big-endian integer at an offset.
+         */
+        private static int readInt(final byte[] bytes, final int offset) {
+            return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) |
+                    ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+        }
+    }
+
+    /**
+     * SipHash hash family. A SipHash-2-4 (64-bit) of the data, keyed by the 16 bytes
+     * of the secret key (UTF-8 bytes folded or zero-padded to 16), is split to two 32-bit
+     * halves h1, h2 and the positions are <code>(h1 + i*h2) mod N</code> for i in 1..K.
+     * The step h2 is forced odd, so a zero half never collapses the K positions to h1.
+     */
+    public static class SipHash extends HashFamily {
+        private final long k0;  // first half of the key.
+        private final long k1;  // second half of the key.
+
+        /**
+         * Constructor.
+         *
+         * @param secret secret key.
+         */
+        public SipHash(final String secret) {
+            super(secret);
+            final byte[] bytes = secret.getBytes(StandardCharsets.UTF_8);
+            final byte[] key = new byte[16];
+            for (int i = 0; i < bytes.length; i++) key[i % 16] ^= bytes[i];
+            k0 = readLongLE(key, 0, 8);
+            k1 = readLongLE(key, 8, 8);
+        }
+
+        @Override
+        public String getName() {
+            return SIPHASH;
+        }
+
+        @Override
+        public void createHashes(final byte[] data, final int offset, final int length,
+                                 final int N, final int K, final int[] positions) {
+            final long hash = hash(data, offset, length);
+            final long h1 = hash & 0xFFFFFFFFL;
+            final long h2 = (hash >>> 32) | 1;
+            for (int i = 0; i < K; i++)
+                positions[i] = (int) ((h1 + (i+1)*h2) % N);
+        }
+
+        /**
+         * Returns the SipHash-2-4 of data.
+         *
+         * @param data data buffer.
+         * @param offset offset of data in the buffer.
+         * @param length length of data (number of bytes).
+         * @return the SipHash-2-4 of data.
+         */
+        public long hash(final byte[] data, final int offset, final int length) {
+            long v0 = k0 ^ 0x736f6d6570736575L;
+            long v1 = k1 ^ 0x646f72616e646f6dL;
+            long v2 = k0 ^ 0x6c7967656e657261L;
+            long v3 = k1 ^ 0x7465646279746573L;
+            final int end = offset + length - (length % 8);
+            for (int i = offset; i < end; i += 8) {
+                final long m = readLongLE(data, i, 8);
+                v3 ^= m;
+                for (int r = 0; r < 2; r++) {
+                    v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                    v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                    v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                    v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+                }
+                v0 ^= m;
+            }
+            final long m = ((long) length << 56) | readLongLE(data, end, length % 8);
+            v3 ^= m;
+            for (int r = 0; r < 2; r++) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+            v2 ^= 0xff;
+            for (int r = 0; r < 4; r++) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            return v0 ^ v1 ^ v2 ^ v3;
+        }
+
+        /**
+         * Returns the little-endian long of (up to 8) bytes at an offset of a byte array.
+         *
+         * @param bytes a byte array.
+         * @param offset offset.
+         * @param count number of bytes.
+         * @return the little-endian long of the bytes.
+         */
+        private static long readLongLE(final byte[] bytes, final int offset, final int count) {
+            long l = 0;
+            for (int i = count - 1; i >= 0; i--) l = (l << 8) | (bytes[offset + i] & 0xFFL);
+            return l;
+        }
+    }
+}
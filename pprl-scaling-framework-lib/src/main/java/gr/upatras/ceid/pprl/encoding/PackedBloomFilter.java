@@ -0,0 +1,175 @@
+package gr.upatras.ceid.pprl.encoding;
+
+import java.util.Arrays;
+
+/**
+ * Packed Bloom Filter class. A read-only bloom filter representation where
+ * bits are packed in 64-bit words (bit i lives in word i/64 at position i%64,
+ * same bit order as the <code>BloomFilter</code> byte array). The ones count
+ * is calculated once when the filter is built.
+ */
+public class PackedBloomFilter {
+
+    private final int N;               // Length of bloom filter (#bits)
+    private final long[] words;        // the buffer (long array)
+    private final int onesCount;       // one counts (cached)
+
+    /**
+     * Constructor of instance based on byte array.
+     *
+     * @param N length of bloom filter
+     * @param byteArray the bloom filter byte array.
+     */
+    public PackedBloomFilter(final int N, final byte[] byteArray) {
+        this(N, byteArray, 0);
+    }
+
+    /**
+     * Constructor of instance based on a byte array region starting at offset.
+     *
+     * @param N length of bloom filter
+     * @param byteArray a byte array containing the bloom filter.
+     * @param offset offset of the bloom filter in the byte array.
+     */
+    public PackedBloomFilter(final int N, final byte[] byteArray, final int offset) {
+        assert offset + Math.ceil(N/(double)8) <= byteArray.length;
+        this.N = N;
+        this.words = toWords(byteArray, offset, (int) Math.ceil(N/(double)8));
+        this.onesCount = countOnes(words);
+    }
+
+    /**
+     * Constructor of instance based on a bloom filter.
+     *
+     * @param bloomFilter a <code>BloomFilter</code> instance.
+     */
+    public PackedBloomFilter(final BloomFilter bloomFilter) {
+        this(bloomFilter.getN(), bloomFilter.getByteArray());
+    }
+
+    /**
+     * Returns length of bloom filter.
+     *
+     * @return length of bloom filter.
+     */
+    public int getN() {
+        return N;
+    }
+
+    /**
+     * Returns the number of bits set in the bloom filter.
+     *
+     * @return the number of bits set in the bloom filter.
+     */
+    public int getOnesCount() {
+        return onesCount;
+    }
+
+    /**
+     * Returns the number of bits NOT set in the bloom filter.
+     *
+     * @return the number of bits NOT set in the bloom filter.
+     */
+    public int getZeroesCount() {
+        return N - onesCount;
+    }
+
+    /**
+     * Returns the underlying long array (do not modify).
+     *
+     * @return the underlying long array.
+     */
+    public long[] getWords() {
+        return words;
+    }
+
+    /**
+     * Returns true if a bit is set, false otherwise.
+     *
+     * @param bit position of bit in this bloom filter.
+     * @return true if bit is set, false otherwise.
+     */
+    public boolean getBit(final int bit) {
+        return (words[bit >>> 6] & (1L << (bit & 63))) != 0;
+    }
+
+    /**
+     * Returns the bloom filter as a byte array (same layout as <code>BloomFilter</code>).
+     *
+     * @return a byte array.
+     */
+    public byte[] toByteArray() {
+        final byte[] bytes = new byte[(int) Math.ceil(N/(double)8)];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) (words[i >>> 3] >>> ((i & 7) << 3));
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PackedBloomFilter that = (PackedBloomFilter) o;
+
+        return N == that.N && onesCount == that.onesCount && Arrays.equals(words, that.words);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(words);
+        result = 31 * result + N;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return BloomFilter.toHexString(toByteArray());
+    }
+
+    /**
+     * Packs a byte array region into 64-bit words (little endian).
+     *
+     * @param bytes a byte array.
+     * @param offset offset in the byte array.
+     * @param length number of bytes to pack.
+     * @return a long array.
+     */
+    public static long[] toWords(final byte[] bytes, final int offset, final int length) {
+        final long[] words = new long[(length + 7) >>> 3];
+        for (int i = 0; i < length; i++)
+            words[i >>> 3] |= (bytes[offset + i] & 0xFFL) << ((i & 7) << 3);
+        return words;
+    }
+
+    /**
+     * Returns the 64-bit word at word index of a byte array region (little endian). Missing
+     * trailing bytes are treated as zeroes.
+     *
+     * @param bytes a byte array.
+     * @param offset offset in the byte array.
+     * @param length number of bytes in the region.
+     * @param index word index.
+     * @return the 64-bit word.
+     */
+    public static long word(final byte[] bytes, final int offset, final int length, final int index) {
+        final int from = index << 3;
+        final int to = Math.min(from + 8, length);
+        long w = 0;
+        for (int i = to - 1; i >= from; i--)
+            w = (w << 8) | (bytes[offset + i] & 0xFFL);
+        return w;
+    }
+
+    /**
+     * Count and return the number of bits set in a word array.
+     *
+     * @param words a long array.
+     * @return the number of bits set.
+     */
+    public static int countOnes(final long[] words) {
+        int ones = 0;
+        for (long w : words) ones += Long.bitCount(w);
+        return ones;
+    }
+}
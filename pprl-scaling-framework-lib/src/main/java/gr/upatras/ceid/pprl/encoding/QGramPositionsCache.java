@@ -0,0 +1,523 @@
+package gr.upatras.ceid.pprl.encoding;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Q-Gram positions cache class. A shared, thread-safe and bounded cache of Q-Gram to
+ * bloom filter positions, one per (N, K, Q, hash family). Q-Grams of at most <code>MAX_Q</code>
+ * characters are packed in a long key and their K positions are held in a single
+ * <code>int[]</code>.
+ *
+ * The cache is set-associative (<code>WAYS</code> entries per set). A full set evicts its
+ * least recently used entry. Sets are guarded by striped locks, and hit, miss and
+ * eviction counts are kept per stripe.
+ *
+ * All caches share one memory budget (see <code>setMaxBytes</code>). A cache starts small
+ * and doubles its tables while it evicts entries and the budget allows it. A cache that
+ * gets no memory just counts its misses.
+ *
+ * Caches are reference counted. An owner (a bloom filter) takes a reference with
+ * <code>acquire</code> and gives it back with <code>release</code>, the last release drops
+ * the cache and gives its memory back.
+ */
+public class QGramPositionsCache {
+
+    public static final int MAX_Q = 4;          // maximum number of (16-bit) characters that fit in a key.
+    private static final int WAYS = 4;         // entries per set.
+    private static final int STRIPES = 64;     // number of locks.
+    private static final int INITIAL_CAPACITY = 1024; // entries of a new cache (if the budget allows it).
+    private static final int MAX_CAPACITY = 1 << 28;  // maximum number of entries.
+
+    private static final Map<String,QGramPositionsCache> CACHES =
+            new ConcurrentHashMap<String, QGramPositionsCache>();
+    private static volatile long maxBytes = 64L * 1024 * 1024; // memory bound of all caches.
+    private static long reservedBytes = 0;                     // memory of all caches (guarded by CACHES).
+
+    private final String id;            // key of the cache in the shared caches map.
+    private final int N;                // length of bloom filter.
+    private final int K;                // number of positions per entry.
+    private final int Q;                // number of characters per key.
+    private volatile Table table;       // current tables (null for a cache without memory).
+    private final AtomicInteger size;   // number of used entries.
+    private final ReentrantLock[] locks;// stripe locks.
+    private final int[] ticks;          // stripe to its use clock.
+    private final long[] hits;          // stripe to its hit count.
+    private final long[] misses;        // stripe to its miss count.
+    private final long[] evictions;     // stripe to its eviction count.
+    private int references;             // number of owners (guarded by CACHES).
+    private volatile boolean closed;    // true if the cache was dropped.
+    private volatile boolean growable = true; // false once the budget refused to grow the cache.
+
+    /**
+     * Cache tables, replaced when the cache grows.
+     */
+    private static final class Table {
+        final int setMask;              // set count - 1.
+        final long[] keys;              // entry to key.
+        final int[] stamps;             // entry to its last use stamp (0 for an empty entry).
+        final int[] positions;          // entry to its K positions.
+
+        Table(final int capacity, final int K) {
+            setMask = capacity / WAYS - 1;
+            keys = new long[capacity];
+            stamps = new int[capacity];
+            positions = new int[capacity * K];
+        }
+    }
+
+    /**
+     * Returns the shared cache of a (N, K, Q, hash family) combination, without taking
+     * a reference to it.
+     *
+     * @param N length of bloom filter.
+     * @param K number of hash values.
+     * @param Q Q as in Q-grams (at most <code>MAX_Q</code>).
+     * @param hashFamilyId id of the hash family (see <code>HashFamily.getId</code>).
+     * @return the shared cache.
+     */
+    public static QGramPositionsCache getInstance(final int N, final int K, final int Q, final String hashFamilyId) {
+        final String id = N + "/" + K + "/" + Q + "/" + hashFamilyId;
+        QGramPositionsCache cache = CACHES.get(id);
+        if(cache == null) {
+            synchronized (CACHES) {
+                cache = CACHES.get(id);
+                if(cache == null) {
+                    cache = new QGramPositionsCache(id, N, K, Q,
+                            Math.min(INITIAL_CAPACITY, capacityFor(K, maxBytes - reservedBytes)));
+                    CACHES.put(id, cache);
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the shared cache of a (N, K, Q, hash family) combination and takes a
+     * reference to it, to be given back with <code>release</code>.
+     *
+     * @param N length of bloom filter.
+     * @param K number of hash values.
+     * @param Q Q as in Q-grams (at most <code>MAX_Q</code>).
+     * @param hashFamilyId id of the hash family (see <code>HashFamily.getId</code>).
+     * @return the shared cache.
+     */
+    public static QGramPositionsCache acquire(final int N, final int K, final int Q, final String hashFamilyId) {
+        synchronized (CACHES) {
+            final QGramPositionsCache cache = getInstance(N, K, Q, hashFamilyId);
+            cache.references++;
+            return cache;
+        }
+    }
+
+    /**
+     * Gives back a reference taken with <code>acquire</code>. The last reference drops
+     * the cache and frees its tables.
+     */
+    public void release() {
+        synchronized (CACHES) {
+            if(closed || --references > 0) return;
+            reservedBytes -= getByteCount();
+            CACHES.remove(id);
+            close();
+        }
+    }
+
+    /**
+     * Returns true if the cache was dropped (its owners should acquire a new one).
+     *
+     * @return true if the cache was dropped, false otherwise.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Sets the memory bound (in bytes) shared by all caches. Caches already over the
+     * bound keep their tables but do not grow.
+     *
+     * @param bytes memory bound in bytes.
+     */
+    public static void setMaxBytes(final long bytes) {
+        if(bytes < 1024) throw new IllegalArgumentException("Cache memory bound must be at least 1KB.");
+        maxBytes = bytes;
+    }
+
+    /**
+     * Returns all shared caches.
+     *
+     * @return all shared caches.
+     */
+    public static Collection<QGramPositionsCache> getInstances() {
+        return Collections.unmodifiableCollection(CACHES.values());
+    }
+
+    /**
+     * Drops all shared caches and frees their tables, whatever their references. Bloom
+     * filters still holding a dropped cache acquire a new one when used.
+     */
+    public static void clearAll() {
+        synchronized (CACHES) {
+            for (QGramPositionsCache cache : CACHES.values()) cache.close();
+            CACHES.clear();
+            reservedBytes = 0;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param id key of the cache in the shared caches map.
+     * @param N length of bloom filter.
+     * @param K number of positions per entry.
+     * @param Q number of characters per key.
+     * @param capacity initial number of entries (a power of two, at least <code>WAYS</code>,
+     *                 or 0 for a cache without memory).
+     */
+    QGramPositionsCache(final String id, final int N, final int K, final int Q, final int capacity) {
+        if(Q > MAX_Q) throw new IllegalArgumentException("Q cannot be greater than " + MAX_Q + ".");
+        assert capacity == 0 || (Integer.bitCount(capacity) == 1 && capacity >= WAYS);
+        this.id = id;
+        this.N = N;
+        this.K = K;
+        this.Q = Q;
+        table = (capacity > 0 && reserve(bytesFor(K, capacity))) ? new Table(capacity, K) : null;
+        size = new AtomicInteger();
+        locks = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) locks[i] = new ReentrantLock();
+        ticks = new int[STRIPES];
+        hits = new long[STRIPES];
+        misses = new long[STRIPES];
+        evictions = new long[STRIPES];
+    }
+
+    /**
+     * Packs a Q-Gram of at most <code>MAX_Q</code> characters in a long key.
+     *
+     * @param chars a character buffer.
+     * @param offset offset of the Q-Gram in the buffer.
+     * @param length length of the Q-Gram.
+     * @return a long key.
+     */
+    public static long pack(final char[] chars, final int offset, final int length) {
+        assert length <= MAX_Q;
+        long key = 0;
+        for (int i = offset; i < offset + length; i++) key = (key << 16) | chars[i];
+        return key;
+    }
+
+    /**
+     * Copies the positions of a key into a buffer.
+     *
+     * @param key a packed Q-Gram.
+     * @param dest a positions buffer (at least K long).
+     * @return true if the key was found, false otherwise.
+     */
+    public boolean get(final long key, final int[] dest) {
+        for (;;) {
+            final Table t = table;
+            final int set = (t == null) ? hash(key) : hash(key) & t.setMask;
+            final int stripe = set & (STRIPES - 1);
+            locks[stripe].lock();
+            try {
+                if(t != table) continue;
+                if(t != null) {
+                    final int base = set * WAYS;
+                    for (int e = base; e < base + WAYS; e++) {
+                        if(t.stamps[e] != 0 && t.keys[e] == key) {
+                            t.stamps[e] = tick(stripe, t);
+                            System.arraycopy(t.positions, e * K, dest, 0, K);
+                            hits[stripe]++;
+                            return true;
+                        }
+                    }
+                }
+                misses[stripe]++;
+                return false;
+            } finally {
+                locks[stripe].unlock();
+            }
+        }
+    }
+
+    /**
+     * Puts a key and its positions, evicting the least recently used entry of a full set.
+     * A cache that evicts while at least half full tries to grow.
+     *
+     * @param key a packed Q-Gram.
+     * @param src K positions of the key.
+     */
+    public void put(final long key, final int[] src) {
+        boolean grow = false;
+        for (;;) {
+            final Table t = table;
+            if(t == null) return;
+            final int set = hash(key) & t.setMask;
+            final int stripe = set & (STRIPES - 1);
+            locks[stripe].lock();
+            try {
+                if(t != table) continue;
+                final int base = set * WAYS;
+                int victim = base;
+                for (int e = base; e < base + WAYS; e++) {
+                    if(t.stamps[e] != 0 && t.keys[e] == key) return;
+                    if(t.stamps[e] < t.stamps[victim]) victim = e;
+                }
+                if(t.stamps[victim] != 0) {
+                    evictions[stripe]++;
+                    grow = growable && size.get() >= t.keys.length / 2;
+                } else size.incrementAndGet();
+                t.keys[victim] = key;
+                t.stamps[victim] = tick(stripe, t);
+                System.arraycopy(src, 0, t.positions, victim * K, K);
+                break;
+            } finally {
+                locks[stripe].unlock();
+            }
+        }
+        if(grow) grow();
+    }
+
+    /**
+     * Returns the number of lookups that found their key.
+     *
+     * @return the number of hits.
+     */
+    public long getHitCount() {
+        return sum(hits);
+    }
+
+    /**
+     * Returns the number of lookups that did not find their key.
+     *
+     * @return the number of misses.
+     */
+    public long getMissCount() {
+        return sum(misses);
+    }
+
+    /**
+     * Returns the number of evicted entries.
+     *
+     * @return the number of evictions.
+     */
+    public long getEvictionCount() {
+        return sum(evictions);
+    }
+
+    /**
+     * Returns the number of entries the cache can hold.
+     *
+     * @return the capacity of the cache.
+     */
+    public int getCapacity() {
+        final Table t = table;
+        return (t == null) ? 0 : t.keys.length;
+    }
+
+    /**
+     * Returns the memory footprint of the cache tables in bytes.
+     *
+     * @return the memory footprint in bytes.
+     */
+    public long getByteCount() {
+        return bytesFor(K, getCapacity());
+    }
+
+    /**
+     * Returns the memory reserved by all shared caches in bytes.
+     *
+     * @return the reserved memory in bytes.
+     */
+    public static long getReservedByteCount() {
+        synchronized (CACHES) {
+            return reservedBytes;
+        }
+    }
+
+    /**
+     * Returns the memory left in the budget shared by all caches in bytes.
+     *
+     * @return the free memory in bytes.
+     */
+    public static long getFreeByteCount() {
+        synchronized (CACHES) {
+            return Math.max(0, maxBytes - reservedBytes);
+        }
+    }
+
+    /**
+     * Grows the tables of the cache up front to hold a number of entries, keeping its
+     * entries. The cache grows to at most <code>bytes</code> and only if the shared
+     * memory budget allows it.
+     *
+     * @param entries expected number of entries.
+     * @param bytes memory bound of the cache in bytes.
+     */
+    public void ensureCapacity(final long entries, final long bytes) {
+        synchronized (CACHES) {
+            if(closed) return;
+            final int capacity = Math.min(capacityFor(K, bytes),
+                    (entries <= WAYS) ? WAYS :
+                    (entries >= MAX_CAPACITY) ? MAX_CAPACITY : Integer.highestOneBit((int) (entries - 1)) << 1);
+            if(capacity > getCapacity()) resize(capacity);
+        }
+    }
+
+    public int getN() {
+        return N;
+    }
+
+    public int getK() {
+        return K;
+    }
+
+    public int getQ() {
+        return Q;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QGramPositionsCache{N=%d, K=%d, Q=%d, capacity=%d, hits=%d, misses=%d, evictions=%d}",
+                N, K, Q, getCapacity(), getHitCount(), getMissCount(), getEvictionCount());
+    }
+
+    /**
+     * Doubles the tables of the cache if the shared memory budget allows it, keeping
+     * its entries.
+     */
+    private void grow() {
+        synchronized (CACHES) {
+            final Table t = table;
+            if(closed || t == null || !growable) return;
+            if(!resize(2 * t.keys.length)) growable = false;
+        }
+    }
+
+    /**
+     * Replaces the tables of the cache with larger ones, keeping its entries (called
+     * holding the <code>CACHES</code> lock).
+     *
+     * @param capacity new number of entries (a power of two, at least <code>WAYS</code>).
+     * @return true if the cache was resized, false if it does not fit in the budget.
+     */
+    private boolean resize(final int capacity) {
+        final Table t = table;
+        final int current = (t == null) ? 0 : t.keys.length;
+        if(capacity > MAX_CAPACITY || !reserve(bytesFor(K, capacity) - bytesFor(K, current)))
+            return false;
+        final Table resized = new Table(capacity, K);
+        lockAll();
+        try {
+            int count = 0;
+            for (int e = 0; e < current; e++) {
+                if(t.stamps[e] == 0) continue;
+                final int base = (hash(t.keys[e]) & resized.setMask) * WAYS;
+                for (int g = base; g < base + WAYS; g++) {
+                    if(resized.stamps[g] != 0) continue;
+                    resized.keys[g] = t.keys[e];
+                    resized.stamps[g] = 1;
+                    System.arraycopy(t.positions, e * K, resized.positions, g * K, K);
+                    count++;
+                    break;
+                }
+            }
+            size.set(count);
+            table = resized;
+        } finally {
+            unlockAll();
+        }
+        return true;
+    }
+
+    /**
+     * Frees the tables of a dropped cache (called holding the <code>CACHES</code> lock).
+     */
+    private void close() {
+        closed = true;
+        lockAll();
+        try {
+            table = null;
+            size.set(0);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    private void lockAll() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) locks[stripe].lock();
+    }
+
+    private void unlockAll() {
+        for (int stripe = STRIPES - 1; stripe >= 0; stripe--) locks[stripe].unlock();
+    }
+
+    /**
+     * Returns the next use stamp of a stripe, restarting the stamps of its sets on overflow.
+     *
+     * @param stripe a stripe.
+     * @param t current tables.
+     * @return the next use stamp.
+     */
+    private int tick(final int stripe, final Table t) {
+        if(ticks[stripe] == Integer.MAX_VALUE) {
+            for (int set = stripe; set <= t.setMask; set += STRIPES)
+                for (int e = set * WAYS; e < (set + 1) * WAYS; e++)
+                    if(t.stamps[e] != 0) t.stamps[e] = 1;
+            ticks[stripe] = 1;
+        }
+        return ++ticks[stripe];
+    }
+
+    private static int hash(final long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private long sum(final long[] counts) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            locks[stripe].lock();
+            try {
+                sum += counts[stripe];
+            } finally {
+                locks[stripe].unlock();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Reserves memory from the budget shared by all caches.
+     *
+     * @param bytes memory in bytes.
+     * @return true if the memory was reserved, false if it does not fit in the budget.
+     */
+    private static boolean reserve(final long bytes) {
+        synchronized (CACHES) {
+            if(reservedBytes + bytes > maxBytes) return false;
+            reservedBytes += bytes;
+            return true;
+        }
+    }
+
+    private static long bytesFor(final int K, final int capacity) {
+        return (long) capacity * (8 + 4 + 4 * K);
+    }
+
+    /**
+     * Returns the largest power of two capacity that fits in a memory bound.
+     *
+     * @param K number of positions per entry.
+     * @param bytes memory bound in bytes.
+     * @return the capacity, or 0 if not even a single set fits.
+     */
+    private static int capacityFor(final int K, final long bytes) {
+        final long entries = Math.min(bytes / (8 + 4 + 4L * K), MAX_CAPACITY);
+        return (entries < WAYS) ? 0 : Integer.highestOneBit((int) entries);
+    }
+}
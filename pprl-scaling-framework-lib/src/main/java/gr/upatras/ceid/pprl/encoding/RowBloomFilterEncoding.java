@@ -4,14 +4,11 @@ import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
@@ -27,8 +24,10 @@ public class RowBloomFilterEncoding extends FieldBloomFilterEncoding {
     private int rbfBitPermutationSeed; // a seed for the random bit permutation
 
     private int[][] selectedBits;      // selected bits from each FBF.
-    private BloomFilter rbf;           // the Bloom filter for the rbf
     private int[] bitPermutation;      // the random bit permutation
+    private int[] fbfByteOffsets;      // offset of each FBF bytes in the fbfBytes buffer.
+    private byte[] fbfBytes;           // reusable buffer of all FBF bytes.
+    private int[] gatherBits;          // RBF bit to its source bit in the fbfBytes buffer (-1 for none).
 
     /**
      * Constructor
@@ -175,26 +174,46 @@ public class RowBloomFilterEncoding extends FieldBloomFilterEncoding {
     @Override
     public void initialize()
             throws BloomFilterEncodingException {
-        try {
-            for(String name : name2indexMap.keySet()) addFBF(name);
-            final Set<String> names = name2FBFMap.keySet();
-            selectedBits = new int[names.size()][];
-            for (String name : names) {
-                int i = getIndex(name);
-                if(encodingFieldName == null)
-                    encodingFieldName = getMappedFieldName(name);
-                else assert encodingFieldName.equals(getMappedFieldName(name));
-                int bitCount = rbfCompositionCount[i];
-                int seed = rbfCompositionSeeds[i];
-                int maxBit = getN(i);
-                selectedBits[i] = RowBloomFilterEncoding.randomBitSelection(bitCount,maxBit,seed);
-            }
-            bitPermutation  = randomBitPermutation(getRBFN(), rbfBitPermutationSeed);
-            rbf = new BloomFilter(getRBFN(),getK());
-        } catch (NoSuchAlgorithmException e) {
-            throw new BloomFilterEncodingException(e.getMessage());
-        } catch (InvalidKeyException e) {
-            throw new BloomFilterEncodingException(e.getMessage());
+        for(String name : name2indexMap.keySet()) addFBF(name);
+        final Set<String> names = name2FBFMap.keySet();
+        selectedBits = new int[names.size()][];
+        for (String name : names) {
+            int i = getIndex(name);
+            if(encodingFieldName == null)
+                encodingFieldName = getMappedFieldName(name);
+            else assert encodingFieldName.equals(getMappedFieldName(name));
+            int bitCount = rbfCompositionCount[i];
+            int seed = rbfCompositionSeeds[i];
+            int maxBit = getN(i);
+            selectedBits[i] = RowBloomFilterEncoding.randomBitSelection(bitCount,maxBit,seed);
+        }
+        bitPermutation  = randomBitPermutation(getRBFN(), rbfBitPermutationSeed);
+        compilePlan();
+        compileGatherBits();
+    }
+
+    /**
+     * Compiles the selected bits and the bit permutation into a single gather table,
+     * mapping each RBF bit to its source bit in the buffer of all FBF bytes.
+     */
+    private void compileGatherBits() {
+        fbfByteOffsets = new int[fbfs.length];
+        int byteCount = 0;
+        for (int j = 0; j < fbfs.length; j++) {
+            fbfByteOffsets[j] = byteCount;
+            byteCount += fbfs[j].getByteArray().length;
+        }
+        fbfBytes = new byte[byteCount];
+
+        gatherBits = new int[getRBFN()];
+        Arrays.fill(gatherBits, -1);
+        int rbfBit = 0;
+        int j = 0;
+        for (String name : name2FBFMap.keySet()) {
+            final int i = getIndex(name);
+            for (int fbfBit : selectedBits[i])
+                gatherBits[bitPermutation[rbfBit++]] = 8 * fbfByteOffsets[j] + fbfBit;
+            j++;
         }
     }
 
@@ -215,6 +234,7 @@ public class RowBloomFilterEncoding extends FieldBloomFilterEncoding {
         assert sParts.length == 3;
         setK(Integer.valueOf(sParts[1]));
         setQ(Integer.valueOf(sParts[2]));
+        setHashFamily(BloomFilterEncodingUtil.retrieveHashFamily(encodingSchema));
 
         for(Schema.Field field : encodingSchema.getFields()) {
             if (field.name().startsWith(ENCODING_FIELD_PREFIX)) {
@@ -285,47 +305,26 @@ public class RowBloomFilterEncoding extends FieldBloomFilterEncoding {
         return Arrays.asList(encodingField);
     }
 
-    /**
-     * Returns encoded record based on the encoding scheme and input record.
-     *
-     * @param record input generic record.
-     * @return encoded records (generic record).
-     * @throws BloomFilterEncodingException
-     */
     @Override
-    public GenericRecord encodeRecord(GenericRecord record)
+    protected void encodeSelectedFields(final GenericRecord record, final int[] positions,
+                                        final Schema.Type[] types, final byte[] bytes, final int offset)
             throws BloomFilterEncodingException {
-        final GenericRecord encodingRecord = new GenericData.Record(getEncodingSchema());
-
-        for (Map.Entry<String,String> entry : name2nameMap.entrySet()) {
-            final String name = entry.getKey();
-            final String mappedName = entry.getValue();
-            if (name.equals(mappedName))
-                encodingRecord.put(mappedName, record.get(name));
-            else {
-                final Object obj = record.get(name);
-                final Schema.Type type = record.getSchema().getField(name).schema().getType();
-                encodeObject(obj, type, getQ(), getFBF(name));
-            }
+        encodeFBFs(record, positions, types);
+        for (int j = 0; j < fbfs.length; j++) {
+            final byte[] fbf = fbfs[j].getByteArray();
+            System.arraycopy(fbf, 0, fbfBytes, fbfByteOffsets[j], fbf.length);
         }
-        rbf.clear();
-        int rbfBit = 0;
-        for(String name : name2FBFMap.keySet()) {
-            final int i = getIndex(name);
-            final BloomFilter fbf = getFBF(name);
-            for (int fbfBit : selectedBits[i])
-                rbf.setBit(bitPermutation[rbfBit++], fbf.getBit(fbfBit));
-        }
-
-        final Schema schema = encodingRecord.getSchema().getField(encodingFieldName).schema();
-        final GenericData.Fixed fixed = new GenericData.Fixed(schema,
-                Arrays.copyOf(
-                        rbf.getByteArray(),
-                        rbf.getByteArray().length)
-        );
-        encodingRecord.put(encodingFieldName,fixed);
 
-        return encodingRecord;
+        final int byteCount = (int) Math.ceil(getRBFN()/(double)8);
+        for (int b = 0, rbfBit = 0; b < byteCount; b++) {
+            int word = 0;
+            for (int k = 0; k < 8 && rbfBit < gatherBits.length; k++, rbfBit++) {
+                final int fbfBit = gatherBits[rbfBit];
+                if(fbfBit >= 0 && (fbfBytes[fbfBit / 8] & (1 << (fbfBit % 8))) != 0)
+                    word |= 1 << k;
+            }
+            bytes[offset + b] = (byte) word;
+        }
     }
 
     /**
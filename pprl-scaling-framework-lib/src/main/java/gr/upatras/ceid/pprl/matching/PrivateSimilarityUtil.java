@@ -1,6 +1,8 @@
 package gr.upatras.ceid.pprl.matching;
 
 import gr.upatras.ceid.pprl.encoding.BloomFilter;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
+import gr.upatras.ceid.pprl.encoding.PackedBloomFilter;
 
 import java.util.Arrays;
 
@@ -57,7 +59,7 @@ public class PrivateSimilarityUtil {
         }
         if(name.equals("hamming")) {
             assert threshold > 1.0;
-            return hamming(bf1,bf2) <= threshold;
+            return hammingWithin(bf1,bf2,(int) threshold);
         }
         if(name.equals("dice")) {
             assert threshold > 0.0 && threshold <= 1.0;
@@ -66,6 +68,58 @@ public class PrivateSimilarityUtil {
         throw new UnsupportedOperationException("Unsupported Matching for name " + name + " .");
     }
 
+    /**
+     * Returns true if the similarity threshold.
+     *
+     * @param name similiarity method name
+     * @param pbf1 packed bloom filter 1.
+     * @param pbf2 packed bloom filter 2.
+     * @param threshold threshold (depends on the similarity method).
+     * @return true if surpess or respects threshold.
+     */
+    public static boolean similarity(final String name, final PackedBloomFilter pbf1, final PackedBloomFilter pbf2,
+                                     final double threshold) {
+        if(name.equals("jaccard")) {
+            assert threshold > 0.0 && threshold <= 1.0;
+            return jaccard(pbf1,pbf2) >= threshold;
+        }
+        if(name.equals("hamming")) {
+            assert threshold > 1.0;
+            return hammingWithin(pbf1,pbf2,(int) threshold);
+        }
+        if(name.equals("dice")) {
+            assert threshold > 0.0 && threshold <= 1.0;
+            return dice(pbf1,pbf2) >= threshold;
+        }
+        throw new UnsupportedOperationException("Unsupported Matching for name " + name + " .");
+    }
+
+    /**
+     * Returns true if the similarity threshold.
+     *
+     * @param name similiarity method name
+     * @param bfv1 bloom filter view 1.
+     * @param bfv2 bloom filter view 2.
+     * @param threshold threshold (depends on the similarity method).
+     * @return true if surpess or respects threshold.
+     */
+    public static boolean similarity(final String name, final BloomFilterView bfv1, final BloomFilterView bfv2,
+                                     final double threshold) {
+        if(name.equals("jaccard")) {
+            assert threshold > 0.0 && threshold <= 1.0;
+            return jaccard(bfv1,bfv2) >= threshold;
+        }
+        if(name.equals("hamming")) {
+            assert threshold > 1.0;
+            return hammingWithin(bfv1,bfv2,(int) threshold);
+        }
+        if(name.equals("dice")) {
+            assert threshold > 0.0 && threshold <= 1.0;
+            return dice(bfv1,bfv2) >= threshold;
+        }
+        throw new UnsupportedOperationException("Unsupported Matching for name " + name + " .");
+    }
+
     /**
      * Calculate the Jaccard coefficient.
      *
@@ -94,25 +148,34 @@ public class PrivateSimilarityUtil {
      * @return the jaccard coefficient.
      */
     public static double jaccard(final BloomFilter bf1, final BloomFilter bf2) {
-        byte[] ba1 = bf1.getByteArray();
-        byte[] ba2 = bf2.getByteArray();
+        final byte[] ba1 = bf1.getByteArray();
+        final byte[] ba2 = bf2.getByteArray();
         assert ba1.length == ba2.length;
         int interCardinality = 0;
         int unionCardinality = 0;
-        for (int i = 0; i < ba1.length; i++) {
-            byte b1 = ba1[i];
-            byte b2 = ba2[i];
-            byte and = (byte)(0xff & (b1 & b2));
-            byte or = (byte)(0xff & (b1 | b2));
-            for (int j = 0; j < 8; j++) {
-                if(((1 << j) & and) != 0) interCardinality++;
-                if(((1 << j) & or) != 0) unionCardinality++;
-            }
+        final int wordCount = (ba1.length + 7) >>> 3;
+        for (int i = 0; i < wordCount; i++) {
+            final long w1 = PackedBloomFilter.word(ba1, 0, ba1.length, i);
+            final long w2 = PackedBloomFilter.word(ba2, 0, ba2.length, i);
+            interCardinality += Long.bitCount(w1 & w2);
+            unionCardinality += Long.bitCount(w1 | w2);
         }
-
         return (double) interCardinality/(double) unionCardinality;
     }
 
+    /**
+     * Calculate the Jaccard coefficient.
+     *
+     * @param pbf1 packed bloom filter 1.
+     * @param pbf2 packed bloom filter 2.
+     * @return the jaccard coefficient.
+     */
+    public static double jaccard(final PackedBloomFilter pbf1, final PackedBloomFilter pbf2) {
+        final int interCardinality = interCardinality(pbf1.getWords(), pbf2.getWords());
+        return (double) interCardinality /
+                (double) (pbf1.getOnesCount() + pbf2.getOnesCount() - interCardinality);
+    }
+
     /**
      * Calculate the Hamming distance.
      *
@@ -121,21 +184,86 @@ public class PrivateSimilarityUtil {
      * @return the hamming distance.
      */
     public static int hamming(final BloomFilter bf1, final BloomFilter bf2) {
-        byte[] ba1 = bf1.getByteArray();
-        byte[] ba2 = bf2.getByteArray();
+        final byte[] ba1 = bf1.getByteArray();
+        final byte[] ba2 = bf2.getByteArray();
         assert ba1.length == ba2.length;
         int h = 0;
-        for (int i = 0; i < ba1.length; i++) {
-            byte b1 = ba1[i];
-            byte b2 = ba2[i];
-            byte xor= (byte)(0xff & (b1 ^ b2));
-            for (int j = 0; j < 8; j++) {
-                if(((1 << j) & xor) != 0) h++;
-            }
-        }
+        final int wordCount = (ba1.length + 7) >>> 3;
+        for (int i = 0; i < wordCount; i++)
+            h += Long.bitCount(
+                    PackedBloomFilter.word(ba1, 0, ba1.length, i) ^
+                    PackedBloomFilter.word(ba2, 0, ba2.length, i));
+        return h;
+    }
+
+    /**
+     * Calculate the Hamming distance.
+     *
+     * @param pbf1 packed bloom filter 1.
+     * @param pbf2 packed bloom filter 2.
+     * @return the hamming distance.
+     */
+    public static int hamming(final PackedBloomFilter pbf1, final PackedBloomFilter pbf2) {
+        final long[] w1 = pbf1.getWords();
+        final long[] w2 = pbf2.getWords();
+        assert w1.length == w2.length;
+        int h = 0;
+        for (int i = 0; i < w1.length; i++)
+            h += Long.bitCount(w1[i] ^ w2[i]);
         return h;
     }
 
+    /**
+     * Returns true if the Hamming distance of two bloom filters is at most threshold.
+     * Pairs whose ones counts differ by more than threshold are rejected without
+     * comparing bits, otherwise the distance stops at the first word it passes threshold.
+     *
+     * @param bf1 bloom filter 1.
+     * @param bf2 bloom filter 2.
+     * @param threshold hamming threshold.
+     * @return true if the hamming distance is at most threshold, false otherwise.
+     */
+    public static boolean hammingWithin(final BloomFilter bf1, final BloomFilter bf2,
+                                        final int threshold) {
+        if(Math.abs(bf1.getOnesCount() - bf2.getOnesCount()) > threshold) return false;
+        final byte[] ba1 = bf1.getByteArray();
+        final byte[] ba2 = bf2.getByteArray();
+        assert ba1.length == ba2.length;
+        int h = 0;
+        final int wordCount = (ba1.length + 7) >>> 3;
+        for (int i = 0; i < wordCount; i++) {
+            h += Long.bitCount(
+                    PackedBloomFilter.word(ba1, 0, ba1.length, i) ^
+                    PackedBloomFilter.word(ba2, 0, ba2.length, i));
+            if(h > threshold) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the Hamming distance of two packed bloom filters is at most
+     * threshold. Pairs whose ones counts differ by more than threshold are rejected
+     * without comparing bits, otherwise the distance stops at the first word it passes threshold.
+     *
+     * @param pbf1 packed bloom filter 1.
+     * @param pbf2 packed bloom filter 2.
+     * @param threshold hamming threshold.
+     * @return true if the hamming distance is at most threshold, false otherwise.
+     */
+    public static boolean hammingWithin(final PackedBloomFilter pbf1, final PackedBloomFilter pbf2,
+                                        final int threshold) {
+        if(Math.abs(pbf1.getOnesCount() - pbf2.getOnesCount()) > threshold) return false;
+        final long[] w1 = pbf1.getWords();
+        final long[] w2 = pbf2.getWords();
+        assert w1.length == w2.length;
+        int h = 0;
+        for (int i = 0; i < w1.length; i++) {
+            h += Long.bitCount(w1[i] ^ w2[i]);
+            if(h > threshold) return false;
+        }
+        return true;
+    }
+
     /**
      * Calculate the Hamming distance.
      *
@@ -183,36 +311,170 @@ public class PrivateSimilarityUtil {
      */
     public static double dice(BloomFilter bf1, BloomFilter bf2) {
         final int[] cardinalities = new int[2];
-        byte[] ba1 = bf1.getByteArray();
-        byte[] ba2 = bf2.getByteArray();
+        final byte[] ba1 = bf1.getByteArray();
+        final byte[] ba2 = bf2.getByteArray();
         assert ba1.length == ba2.length;
         int interCardinality = 0;
-        for (int i = 0; i < ba1.length; i++) {
-            byte b1 = ba1[i];
-            byte b2 = ba2[i];
-            byte and = (byte) (0xff & (b1 & b2));
-            for (int j = 0; j < 8; j++) {
-                if (((1 << j) & and) != 0) interCardinality++;
-                if (((1 << j) & b1) != 0) cardinalities[0]++;
-                if (((1 << j) & b2) != 0) cardinalities[1]++;
-            }
+        final int wordCount = (ba1.length + 7) >>> 3;
+        for (int i = 0; i < wordCount; i++) {
+            final long w1 = PackedBloomFilter.word(ba1, 0, ba1.length, i);
+            final long w2 = PackedBloomFilter.word(ba2, 0, ba2.length, i);
+            interCardinality += Long.bitCount(w1 & w2);
+            cardinalities[0] += Long.bitCount(w1);
+            cardinalities[1] += Long.bitCount(w2);
         }
         return (double) 2*interCardinality / ((double) cardinalities[0] + cardinalities[1]);
     }
 
+    /**
+     * Calculate the Dice coefficient.
+     *
+     * @param pbf1 packed bloom filter 1.
+     * @param pbf2 packed bloom filter 2.
+     * @return the Dice coefficient.
+     */
+    public static double dice(final PackedBloomFilter pbf1, final PackedBloomFilter pbf2) {
+        final int interCardinality = interCardinality(pbf1.getWords(), pbf2.getWords());
+        return (double) 2*interCardinality / ((double) pbf1.getOnesCount() + pbf2.getOnesCount());
+    }
+
+    /**
+     * Returns the number of bits set in both bloom filters.
+     *
+     * @param bf1 bloom filter 1.
+     * @param bf2 bloom filter 2.
+     * @return the number of bits set in both bloom filters.
+     */
     public static int interCardinality(BloomFilter bf1, BloomFilter bf2) {
         int interCardinality = 0;
-        byte[] ba1 = bf1.getByteArray();
-        byte[] ba2 = bf2.getByteArray();
+        final byte[] ba1 = bf1.getByteArray();
+        final byte[] ba2 = bf2.getByteArray();
         assert ba1.length == ba2.length;
-        for (int i = 0; i < ba1.length; i++) {
-            byte b1 = ba1[i];
-            byte b2 = ba2[i];
-            byte and = (byte) (0xff & (b1 & b2));
-            for (int j = 0; j < 8; j++) {
-                if (((1 << j) & and) != 0) interCardinality++;
-            }
-        }
+        final int wordCount = (ba1.length + 7) >>> 3;
+        for (int i = 0; i < wordCount; i++)
+            interCardinality += Long.bitCount(
+                    PackedBloomFilter.word(ba1, 0, ba1.length, i) &
+                    PackedBloomFilter.word(ba2, 0, ba2.length, i));
+        return interCardinality;
+    }
+
+    /**
+     * Returns the number of bits set in both bloom filters.
+     *
+     * @param pbf1 packed bloom filter 1.
+     * @param pbf2 packed bloom filter 2.
+     * @return the number of bits set in both bloom filters.
+     */
+    public static int interCardinality(final PackedBloomFilter pbf1, final PackedBloomFilter pbf2) {
+        return interCardinality(pbf1.getWords(), pbf2.getWords());
+    }
+
+    /**
+     * Returns the number of bits set in both word arrays.
+     *
+     * @param w1 word array 1.
+     * @param w2 word array 2.
+     * @return the number of bits set in both word arrays.
+     */
+    private static int interCardinality(final long[] w1, final long[] w2) {
+        assert w1.length == w2.length;
+        int interCardinality = 0;
+        for (int i = 0; i < w1.length; i++)
+            interCardinality += Long.bitCount(w1[i] & w2[i]);
+        return interCardinality;
+    }
+
+    /**
+     * Calculate the Jaccard coefficient.
+     *
+     * @param bfv1 bloom filter view 1.
+     * @param bfv2 bloom filter view 2.
+     * @return the jaccard coefficient.
+     */
+    public static double jaccard(final BloomFilterView bfv1, final BloomFilterView bfv2) {
+        final int interCardinality = interCardinality(bfv1, bfv2);
+        return (double) interCardinality /
+                (double) (bfv1.getOnesCount() + bfv2.getOnesCount() - interCardinality);
+    }
+
+    /**
+     * Calculate the Hamming distance.
+     *
+     * @param bfv1 bloom filter view 1.
+     * @param bfv2 bloom filter view 2.
+     * @return the hamming distance.
+     */
+    public static int hamming(final BloomFilterView bfv1, final BloomFilterView bfv2) {
+        assert bfv1.getByteLength() == bfv2.getByteLength();
+        int h = 0;
+        final int wordCount = bfv1.getWordCount();
+        for (int i = 0; i < wordCount; i++)
+            h += Long.bitCount(bfv1.word(i) ^ bfv2.word(i));
+        return h;
+    }
+
+    /**
+     * Calculate the Hamming distance, up to a limit. Stops at the first word the
+     * distance passes the limit, so any returned value greater than limit only
+     * means the distance is greater than limit.
+     *
+     * @param bfv1 bloom filter view 1.
+     * @param bfv2 bloom filter view 2.
+     * @param limit distance limit.
+     * @return the hamming distance if it is at most limit, a value greater than limit otherwise.
+     */
+    public static int hamming(final BloomFilterView bfv1, final BloomFilterView bfv2, final int limit) {
+        assert bfv1.getByteLength() == bfv2.getByteLength();
+        int h = 0;
+        final int wordCount = bfv1.getWordCount();
+        for (int i = 0; i < wordCount && h <= limit; i++)
+            h += Long.bitCount(bfv1.word(i) ^ bfv2.word(i));
+        return h;
+    }
+
+    /**
+     * Returns true if the Hamming distance of two bloom filter views is at most
+     * threshold. Pairs whose ones counts differ by more than threshold are rejected
+     * without comparing bits. Ones counts are counted once per wrap, so a view should
+     * be kept wrapped over a record across its pairs or be given its cached count
+     * (see <code>BloomFilterView.setOnesCount</code>).
+     *
+     * @param bfv1 bloom filter view 1.
+     * @param bfv2 bloom filter view 2.
+     * @param threshold hamming threshold.
+     * @return true if the hamming distance is at most threshold, false otherwise.
+     */
+    public static boolean hammingWithin(final BloomFilterView bfv1, final BloomFilterView bfv2,
+                                        final int threshold) {
+        if(Math.abs(bfv1.getOnesCount() - bfv2.getOnesCount()) > threshold) return false;
+        return hamming(bfv1, bfv2, threshold) <= threshold;
+    }
+
+    /**
+     * Calculate the Dice coefficient.
+     *
+     * @param bfv1 bloom filter view 1.
+     * @param bfv2 bloom filter view 2.
+     * @return the Dice coefficient.
+     */
+    public static double dice(final BloomFilterView bfv1, final BloomFilterView bfv2) {
+        final int interCardinality = interCardinality(bfv1, bfv2);
+        return (double) 2*interCardinality / ((double) bfv1.getOnesCount() + bfv2.getOnesCount());
+    }
+
+    /**
+     * Returns the number of bits set in both bloom filter views.
+     *
+     * @param bfv1 bloom filter view 1.
+     * @param bfv2 bloom filter view 2.
+     * @return the number of bits set in both bloom filter views.
+     */
+    public static int interCardinality(final BloomFilterView bfv1, final BloomFilterView bfv2) {
+        assert bfv1.getByteLength() == bfv2.getByteLength();
+        int interCardinality = 0;
+        final int wordCount = bfv1.getWordCount();
+        for (int i = 0; i < wordCount; i++)
+            interCardinality += Long.bitCount(bfv1.word(i) & bfv2.word(i));
         return interCardinality;
     }
 
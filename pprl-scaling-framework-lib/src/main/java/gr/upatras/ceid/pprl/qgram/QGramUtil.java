@@ -2,6 +2,7 @@ package gr.upatras.ceid.pprl.qgram;
 
 import org.apache.avro.Schema;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
@@ -12,6 +13,7 @@ import java.util.Set;
 public class QGramUtil {
 
     private static final String PADDING_STRING = "_";
+    private static final char PADDING_CHAR = '_';
 
     /**
      * Returns "proper" string as in all space are replaced with padding string.
@@ -320,6 +322,193 @@ public class QGramUtil {
         return generateQGrams(bool,Q);
     }
 
+    /**
+     * Q Gram buffer class. Holds the (padded) characters of an object in a reusable
+     * <code>char[]</code>, so its q-grams are the windows <code>[i, i + getQGramLength())</code>
+     * for i in <code>[0, getQGramCount())</code>. Yields the same q-grams as
+     * <code>generateQGrams</code> without creating any strings (except for numbers).
+     * The counts (unique or not) of any other Q can be taken from the same buffer.
+     */
+    public static class QGramBuffer {
+        private static final int MAX_PACKED_Q = 4;  // maximum number of (16-bit) characters packed in a long.
+
+        private char[] chars;
+        private int length;
+        private int qGramLength;
+        private int qGramCount;
+        private boolean whole;       // true if a Q greater than the length yields the whole buffer (booleans).
+        private long[] keys;         // packed q-grams, for counting the unique ones.
+
+        public QGramBuffer() {
+            chars = new char[64];
+            keys = new long[64];
+        }
+
+        /**
+         * Fills the buffer with the characters of the object. Infers class with the use of type.
+         *
+         * @param obj input object.
+         * @param type object avro type.
+         * @param Q Q as in Q-grams.
+         * @return count of Q-Grams.
+         */
+        public int fill(final Object obj, final Schema.Type type, final int Q) {
+            length = 0;
+            qGramLength = Q;
+            whole = false;
+            switch(type) {
+                case BOOLEAN:
+                    if(obj != null) {
+                        ensureCapacity(3);
+                        chars[0] = '_';
+                        chars[1] = ((Boolean) obj) ? 'T' : 'F';
+                        chars[2] = '_';
+                        length = 3;
+                        whole = true;
+                        if(Q >= length) qGramLength = length;
+                    }
+                    break;
+                case STRING:
+                    fillProper((obj instanceof CharSequence) ? (CharSequence) obj : String.valueOf(obj));
+                    break;
+                case INT:
+                case LONG:
+                case DOUBLE:
+                case FLOAT:
+                    fillPadded(String.valueOf(obj));
+                    break;
+                default:
+                    break;
+            }
+            qGramCount = (length == 0) ? 0 : Math.max(length - qGramLength + 1, 0);
+            return qGramCount;
+        }
+
+        /**
+         * Returns the q-gram count of the buffer for a Q (same as <code>calcQgramsCount</code>).
+         *
+         * @param Q Q as in Q-grams.
+         * @return count of Q-Grams.
+         */
+        public int getQGramCount(final int Q) {
+            return (length == 0) ? 0 : Math.max(length - qGramLength(Q) + 1, 0);
+        }
+
+        /**
+         * Returns the unique q-gram count of the buffer for a Q (same as <code>calcUniqueQgramsCount</code>).
+         * Q-Grams of at most <code>MAX_PACKED_Q</code> characters are packed in longs and
+         * counted after sorting them, longer ones through a set of strings.
+         *
+         * @param Q Q as in Q-grams.
+         * @return count of unique Q-Grams.
+         */
+        public int getUniqueQGramCount(final int Q) {
+            final int count = getQGramCount(Q);
+            if(count <= 1 || whole) return count;    // boolean q-grams are not deduplicated.
+            final int qLength = qGramLength(Q);
+            if(qLength > MAX_PACKED_Q) {
+                final Set<String> qGramsSet = new HashSet<String>();
+                for (int i = 0; i < count; i++) qGramsSet.add(new String(chars, i, qLength));
+                return qGramsSet.size();
+            }
+            if(keys.length < count) keys = new long[Math.max(count, keys.length << 1)];
+            final long mask = (qLength == MAX_PACKED_Q) ? -1L : (1L << (16 * qLength)) - 1;
+            long key = 0;
+            for (int i = 0; i < qLength - 1; i++) key = (key << 16) | chars[i];
+            for (int i = 0; i < count; i++) {
+                key = ((key << 16) | chars[i + qLength - 1]) & mask;
+                keys[i] = key;
+            }
+            Arrays.sort(keys, 0, count);
+            int unique = 1;
+            for (int i = 1; i < count; i++) if(keys[i] != keys[i - 1]) unique++;
+            return unique;
+        }
+
+        private int qGramLength(final int Q) {
+            return (whole && Q >= length) ? length : Q;
+        }
+
+        /**
+         * Fills the buffer with the "proper" form of a string (see <code>properString</code>).
+         *
+         * @param string input string.
+         */
+        private void fillProper(final CharSequence string) {
+            final int stringLength = string.length();
+            if(stringLength == 0) return;
+            ensureCapacity(stringLength + 2);
+            length = 1;
+            boolean inWhitespace = false;
+            for (int i = 0; i < stringLength; i++) {
+                final char c = string.charAt(i);
+                if(isWhitespace(c)) {
+                    if(!inWhitespace) chars[length++] = PADDING_CHAR;
+                    inWhitespace = true;
+                } else {
+                    chars[length++] = c;
+                    inWhitespace = false;
+                }
+            }
+            pad();
+        }
+
+        /**
+         * Fills the buffer with a padded string.
+         *
+         * @param string input string.
+         */
+        private void fillPadded(final String string) {
+            final int stringLength = string.length();
+            if(stringLength == 0) return;
+            ensureCapacity(stringLength + 2);
+            string.getChars(0, stringLength, chars, 1);
+            length = stringLength + 1;
+            pad();
+        }
+
+        /**
+         * Pads the characters in <code>[1,length)</code> if they do not start or end with the padding character.
+         */
+        private void pad() {
+            if(chars[1] == PADDING_CHAR) {
+                System.arraycopy(chars, 1, chars, 0, length - 1);
+                length--;
+            } else chars[0] = PADDING_CHAR;
+            if(chars[length - 1] != PADDING_CHAR) chars[length++] = PADDING_CHAR;
+        }
+
+        private void ensureCapacity(final int capacity) {
+            if(chars.length < capacity) chars = new char[Math.max(capacity, chars.length << 1)];
+        }
+
+        public char[] getChars() {
+            return chars;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getQGramLength() {
+            return qGramLength;
+        }
+
+        public int getQGramCount() {
+            return qGramCount;
+        }
+    }
+
+    /**
+     * Returns true if a character matches the <code>\\s</code> regex class.
+     *
+     * @param c a character.
+     * @return true if a character matches the <code>\\s</code> regex class.
+     */
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
     /**
      *  Q Gram iterator of string based on the substring.
      */
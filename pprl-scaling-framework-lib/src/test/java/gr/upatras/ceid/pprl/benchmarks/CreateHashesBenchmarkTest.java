@@ -1,6 +1,7 @@
 package gr.upatras.ceid.pprl.benchmarks;
 
 import gr.upatras.ceid.pprl.encoding.BloomFilter;
+import gr.upatras.ceid.pprl.encoding.HashFamily;
 import gr.upatras.ceid.pprl.qgram.QGramUtil;
 import org.apache.avro.Schema;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
@@ -57,6 +58,7 @@ public class CreateHashesBenchmarkTest {
     long[][][] millisV3backed = new long [SIZES.length][maxQ-minQ + 1][Ks.length];
     long[][][] mapSizeV3 = new long [SIZES.length][maxQ-minQ + 1][Ks.length];
     long[][][] collisionsV3 = new long [SIZES.length][maxQ-minQ + 1][Ks.length];
+    long[][][][] millisFamilies = new long [HashFamily.NAMES.size()][SIZES.length][maxQ-minQ + 1][Ks.length];
 
     static {
         Mac tmp;
@@ -81,6 +83,8 @@ public class CreateHashesBenchmarkTest {
     public void test1() throws IOException {
         LOG.info("Running benchmarks (iterations : {}):",ITERATIONS);
         benchCreateHashes();
+        LOG.info("Running hash families benchmarks (iterations : {}):",ITERATIONS);
+        benchHashFamilies();
         LOG.info("Running 1MB benchmark:");
         OneMBBenchmark();
         LOG.info("Running 1 million names benchmark:");
@@ -114,6 +118,39 @@ public class CreateHashesBenchmarkTest {
         }
     }
 
+    public void benchHashFamilies() throws IOException {
+        for (int f = 0; f < HashFamily.NAMES.size(); f++) {
+            try {
+                benchmarkHashFamily(HashFamily.newInstance(HashFamily.NAMES.get(f), SECRET_KEY), millisFamilies[f]);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e.getMessage());
+            } catch (InvalidKeyException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        LOG.info("\nSaving hash families benchmarks to CSV files.");
+        final StringBuilder header = new StringBuilder("k");
+        for (String name : HashFamily.NAMES) header.append(",").append(name.toLowerCase()).append("_time");
+        header.append("\n");
+        for (int j = 0 ; j < SIZES.length; j++) {
+            for (int q = minQ, i = 0; q <= maxQ; q++, i++) {
+                final String fileName = String.format("benchmark_families_%d_%d.csv",j,q);
+                FSDataOutputStream fsdos = fs.create(new Path("data/benchmarks", fileName));
+                fsdos.writeBytes(header.toString());
+                int kk = 0;
+                for (int k : Ks) {
+                    final StringBuilder line = new StringBuilder(String.valueOf(k));
+                    for (int f = 0; f < HashFamily.NAMES.size(); f++) line.append(",").append(millisFamilies[f][j][i][kk]);
+                    fsdos.writeBytes(line.append("\n").toString());
+                    kk++;
+                }
+                fsdos.close();
+            }
+        }
+    }
+
     private static String randomQgram(final int q) {
         final char[] chars = new char[q];
         for (int i = 0; i < q; i++) {
@@ -162,6 +199,47 @@ public class CreateHashesBenchmarkTest {
 
 
 
+    private void benchmarkHashFamily(final HashFamily hashFamily, final long[][][] millis)
+            throws UnsupportedEncodingException {
+        long totalBytesRead = 0;
+        long start = System.currentTimeMillis();
+        final int[] positions = new int[Ks[Ks.length - 1]];
+        for (int j = 0 ; j < SIZES.length; j++) {
+            long size = SIZES[j];
+            for(int q = minQ,i = 0 ; q <= maxQ ; q++,i++) {
+                int kk = 0;
+                for(int k : Ks) {
+                    statsTime.clear();
+                    for (int it = 0; it < ITERATIONS / 4; it++) {
+                        byte[] b = randomQgram(q).getBytes("UTF-8");
+                        hashFamily.createHashes(b, 0, b.length, N, k, positions);
+                    }
+                    LOG.info("Benchmarking : {}.createHashes() ({})", hashFamily,
+                            String.format("input-size : %d, K : %d, Q : %d",size,k,q));
+                    for (int it = 0; it < ITERATIONS; it++) {
+                        long bytesRead = 0;
+                        long before = System.currentTimeMillis();
+                        while (bytesRead < size) {
+                            byte[] b = randomQgram(q).getBytes("UTF-8");
+                            hashFamily.createHashes(b, 0, b.length, N, k, positions);
+                            bytesRead += b.length;
+                        }
+                        long after = System.currentTimeMillis();
+                        long diff = after - before;
+                        statsTime.addValue(diff);
+                        totalBytesRead += bytesRead;
+                    }
+                    millis[j][i][kk] = (long) getCorrectMean(statsTime);
+                    kk++;
+                }
+            }
+        }
+        long end = System.currentTimeMillis();
+        long totalTime = (end-start)/1000;
+        LOG.info("Benchmarking : {}.createHashes() ({})", hashFamily,
+                String.format("totalBytes : %d , totalTime : %d",totalBytesRead,totalTime));
+    }
+
     private void benchmarkCreateHashesV3MapBacked() throws UnsupportedEncodingException {
         long totalBytesRead = 0;
         long start = System.currentTimeMillis();
@@ -4,6 +4,7 @@ package gr.upatras.ceid.pprl.test;
 import gr.upatras.ceid.pprl.datasets.DatasetException;
 import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -11,7 +12,15 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
 
 public class A_Csv2AvroTest {
 
@@ -118,4 +127,35 @@ public class A_Csv2AvroTest {
 //            }
         }
     }
+
+    @Test
+    public void test5() throws IOException, DatasetException {
+        final Random random = new Random(1234);
+        final File csv = File.createTempFile("person_medium_", ".csv");
+        csv.deleteOnExit();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(csv), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 10000; i++) {
+                writer.write(String.format("id%d,%s,%s,%s%s", i,
+                        (random.nextInt(10) == 0) ? "" : "name" + random.nextInt(100),
+                        (random.nextInt(10) == 0) ? "" : "surname" + random.nextInt(1000),
+                        (random.nextInt(10) == 0) ? "" : String.valueOf(random.nextInt(100) - 10),
+                        (random.nextInt(5) == 0) ? "\r\n" : "\n"));
+            }
+        }
+        Schema schema = DatasetsUtil.avroSchema("person_medium","People","pprl.datasets",MED_HEADER,MED_TYPES,MED_DOCS);
+        final FileSystem fs = FileSystem.getLocal(new Configuration());
+        final Path basePath = new Path(fs.getWorkingDirectory(),"data");
+        final Path p = DatasetsUtil.csv2avro(fs,schema,"person_medium_seq",basePath,new Path(csv.getPath()));
+        final Path p1 = DatasetsUtil.csv2avro(fs,schema,"person_medium_par",basePath,new Path(csv.getPath()),7,3);
+        LOG.info("Saved at paths {} , {}", p, p1);
+
+        final GenericRecord[] records =
+                DatasetsUtil.loadAvroRecordsFromFSPaths(fs,schema,new Path(p,"avro"));
+        final GenericRecord[] records1 =
+                DatasetsUtil.loadAvroRecordsFromFSPaths(fs,schema,new Path(p1,"avro"));
+        assertEquals(10000, records.length);
+        assertEquals(records.length, records1.length);
+        for (int i = 0; i < records.length; i++)
+            assertEquals(records[i].toString(), records1[i].toString());
+    }
 }
@@ -3,11 +3,19 @@ package gr.upatras.ceid.pprl.test;
 import gr.upatras.ceid.pprl.datasets.DatasetException;
 import gr.upatras.ceid.pprl.datasets.DatasetStatistics;
 import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
+import gr.upatras.ceid.pprl.encoding.AvroEncodedBatchSink;
+import gr.upatras.ceid.pprl.encoding.BloomFilter;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingException;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterStore;
+import gr.upatras.ceid.pprl.encoding.BloomFilterStoreBatchSink;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
 import gr.upatras.ceid.pprl.encoding.CLKEncoding;
+import gr.upatras.ceid.pprl.encoding.EncodedBatch;
 import gr.upatras.ceid.pprl.encoding.FieldBloomFilterEncoding;
+import gr.upatras.ceid.pprl.encoding.HashFamily;
+import gr.upatras.ceid.pprl.encoding.QGramPositionsCache;
 import gr.upatras.ceid.pprl.encoding.RowBloomFilterEncoding;
 import gr.upatras.ceid.pprl.matching.ExpectationMaximization;
 import gr.upatras.ceid.pprl.matching.SimilarityUtil;
@@ -28,13 +36,18 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Set;
 import java.util.SortedSet;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class BloomFilterEncodingTest {
     private static Logger LOG = LoggerFactory.getLogger(BloomFilterEncodingTest.class);
@@ -180,6 +193,403 @@ public class BloomFilterEncodingTest {
 
     }
 
+    @Test
+    public void test3()
+            throws DatasetException, BloomFilterEncodingException, IOException {
+        final String[] REST_FIELDS = new String[]{"id","location"};
+        final String[] SELECTED_FIELDS = new String[]{"name","surname"};
+
+        final SortedSet<Path> avroPaths = DatasetsUtil.getAllAvroPaths(fs,new Path("data/person_small/avro"));
+        final Path schemaPath = new Path("data/person_small/schema/person_small.avsc");
+
+        final CLKEncoding encoding = new CLKEncoding(N,K,Q);
+        encoding.setHashFamily(HashFamily.SIPHASH);
+        encodeOriginal(encoding,"clk_siphash",
+                fs,avroPaths,schemaPath,SELECTED_FIELDS,REST_FIELDS);
+
+        final Schema encodingSchema = DatasetsUtil.loadSchemaFromFSPath(fs,
+                new Path("data/person_small/clk_siphash.avsc"));
+        assertEquals(HashFamily.SIPHASH, BloomFilterEncodingUtil.retrieveHashFamily(encodingSchema));
+        final BloomFilterEncoding copy = BloomFilterEncodingUtil.setupNewInstance(encodingSchema);
+        assertEquals(HashFamily.SIPHASH, copy.getHashFamily());
+        copy.initialize();
+
+        final CLKEncoding hmacEncoding = new CLKEncoding(N,K,Q);
+        hmacEncoding.makeFromSchema(DatasetsUtil.loadSchemaFromFSPath(fs,schemaPath), SELECTED_FIELDS, REST_FIELDS);
+        hmacEncoding.initialize();
+
+        final Schema schema = DatasetsUtil.loadSchemaFromFSPath(fs,schemaPath);
+        final GenericRecord[] records = DatasetsUtil.loadAvroRecordsFromFSPaths(fs,schema,
+                avroPaths.toArray(new Path[avroPaths.size()]));
+        int differences = 0;
+        for (GenericRecord record : records) {
+            final BloomFilter bf = encoding.retrieveBloomFilter(encoding.encodeRecord(record));
+            assertEquals(bf, copy.retrieveBloomFilter(copy.encodeRecord(record)));
+            if(!bf.equals(hmacEncoding.retrieveBloomFilter(hmacEncoding.encodeRecord(record)))) differences++;
+        }
+        assertTrue(differences > 0);
+    }
+
+    @Test
+    public void test4()
+            throws DatasetException, BloomFilterEncodingException, IOException, InterruptedException {
+        final String[] REST_FIELDS = new String[]{"id","location"};
+        final String[] SELECTED_FIELDS = new String[]{"name","surname"};
+        final int threads = 4;
+
+        final SortedSet<Path> avroPaths = DatasetsUtil.getAllAvroPaths(fs,new Path("data/person_small/avro"));
+        final Path schemaPath = new Path("data/person_small/schema/person_small.avsc");
+        final Schema schema = DatasetsUtil.loadSchemaFromFSPath(fs,schemaPath);
+        final GenericRecord[] records = DatasetsUtil.loadAvroRecordsFromFSPaths(fs,schema,
+                avroPaths.toArray(new Path[avroPaths.size()]));
+        int Narray[] = new int [SELECTED_FIELDS.length];
+        Arrays.fill(Narray,Nsmall);
+
+        for (BloomFilterEncoding encoding : new BloomFilterEncoding[]{
+                new CLKEncoding(N,K,Q), new RowBloomFilterEncoding(Narray,N,K,Q)}) {
+            encoding.makeFromSchema(schema, SELECTED_FIELDS, REST_FIELDS);
+            encoding.initialize();
+            final BloomFilter[] expected = new BloomFilter[records.length];
+            for (int i = 0; i < records.length; i++)
+                expected[i] = encoding.retrieveBloomFilter(encoding.encodeRecord(records[i]));
+
+            final BloomFilter[] actual = new BloomFilter[records.length];
+            final BloomFilterEncodingException[] errors = new BloomFilterEncodingException[threads];
+            final Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                final int id = t;
+                final BloomFilterEncoding copy = encoding.copy();
+                workers[t] = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            for (int i = id; i < records.length; i += threads)
+                                actual[i] = copy.retrieveBloomFilter(copy.encodeRecord(records[i]));
+                        } catch (BloomFilterEncodingException e) {
+                            errors[id] = e;
+                        }
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) worker.join();
+            for (BloomFilterEncodingException error : errors) if(error != null) throw error;
+            assertTrue(Arrays.equals(expected, actual));
+        }
+    }
+
+    @Test
+    public void test5()
+            throws DatasetException, BloomFilterEncodingException, IOException {
+        final String[] REST_FIELDS = new String[]{"id","location"};
+        final String[] SELECTED_FIELDS = new String[]{"name","surname"};
+
+        final SortedSet<Path> avroPaths = DatasetsUtil.getAllAvroPaths(fs,new Path("data/person_small/avro"));
+        final Path schemaPath = new Path("data/person_small/schema/person_small.avsc");
+        final Schema schema = DatasetsUtil.loadSchemaFromFSPath(fs,schemaPath);
+        final GenericRecord[] records = DatasetsUtil.loadAvroRecordsFromFSPaths(fs,schema,
+                avroPaths.toArray(new Path[avroPaths.size()]));
+        int Narray[] = new int [SELECTED_FIELDS.length];
+        Arrays.fill(Narray,Nsmall);
+
+        for (BloomFilterEncoding encoding : new BloomFilterEncoding[]{
+                new CLKEncoding(N,K,Q), new FieldBloomFilterEncoding(Narray,K,Q),
+                new RowBloomFilterEncoding(Narray,N,K,Q)}) {
+            encoding.makeFromSchema(schema, SELECTED_FIELDS, REST_FIELDS);
+            encoding.initialize();
+            GenericRecord reuse = null;
+            for (GenericRecord record : records) {
+                final GenericRecord expected = encoding.encodeRecord(record);
+                final GenericRecord actual = encoding.encodeRecord(record, reuse);
+                if(reuse != null) assertTrue(reuse == actual);
+                assertEquals(encoding.retrieveBloomFilter(expected), encoding.retrieveBloomFilter(actual));
+                for (String fieldName : REST_FIELDS)
+                    assertEquals(expected.get(fieldName), actual.get(fieldName));
+                reuse = actual;
+            }
+        }
+    }
+
+    @Test
+    public void test6()
+            throws DatasetException, BloomFilterEncodingException, IOException {
+        final String[] REST_FIELDS = new String[]{"id","location"};
+        final String[] SELECTED_FIELDS = new String[]{"name","surname"};
+
+        final SortedSet<Path> avroPaths = DatasetsUtil.getAllAvroPaths(fs,new Path("data/person_small/avro"));
+        final Path schemaPath = new Path("data/person_small/schema/person_small.avsc");
+        final Schema schema = DatasetsUtil.loadSchemaFromFSPath(fs,schemaPath);
+        final GenericRecord[] records = DatasetsUtil.loadAvroRecordsFromFSPaths(fs,schema,
+                avroPaths.toArray(new Path[avroPaths.size()]));
+        int Narray[] = new int [SELECTED_FIELDS.length];
+        Arrays.fill(Narray,Nsmall);
+
+        for (BloomFilterEncoding encoding : new BloomFilterEncoding[]{
+                new CLKEncoding(N,K,Q), new FieldBloomFilterEncoding(Narray,K,Q),
+                new RowBloomFilterEncoding(Narray,N,K,Q)}) {
+            encoding.makeFromSchema(schema, SELECTED_FIELDS, REST_FIELDS);
+            encoding.initialize();
+
+            final EncodedBatch batch = encoding.newBatch(100);
+            int from = 0;
+            while (from < records.length) {
+                batch.clear();
+                final int count = encoding.encodeBatch(records, from, records.length, batch);
+                for (int row = 0; row < count; row++) {
+                    final GenericRecord encodingRecord = encoding.encodeRecord(records[from + row]);
+                    assertEquals(encoding.retrieveBloomFilterView(encodingRecord).toBloomFilter(),
+                            batch.retrieveBloomFilterView(row, new BloomFilterView(encoding.getBFN())).toBloomFilter());
+                    assertEquals(encodingRecord.get("id"), batch.getValue(batch.getColumnIndex("id"), row));
+                }
+                from += count;
+            }
+
+            final File file = File.createTempFile(encoding.schemeName() + "-", BloomFilterStore.FILE_EXTENSION);
+            file.deleteOnExit();
+            final BloomFilterStoreBatchSink sink =
+                    new BloomFilterStoreBatchSink(new FileOutputStream(file), encoding.getBFN(), 16, "id");
+            assertEquals(records.length, encoding.encodeRecords(Arrays.asList(records).iterator(),
+                    encoding.newBatch(64), sink));
+            sink.close();
+
+            final BloomFilterStore store = new BloomFilterStore(Collections.singletonList(file));
+            final BloomFilterView view = new BloomFilterView(store.getN());
+            assertEquals(records.length, store.getRecordCount());
+            for (int i = 0; i < records.length; i++) {
+                final GenericRecord encodingRecord = encoding.encodeRecord(records[i]);
+                assertTrue(Arrays.equals(encoding.retrieveBloomFilterView(encodingRecord).toByteArray(),
+                        store.retrieveBloomFilterView(i, view).toByteArray()));
+                assertEquals(String.valueOf(encodingRecord.get("id")), store.getUid(i));
+            }
+        }
+    }
+
+    @Test
+    public void test7()
+            throws DatasetException, BloomFilterEncodingException, IOException {
+        final String[] REST_FIELDS = new String[]{"id","location"};
+        final String[] SELECTED_FIELDS = new String[]{"name","surname"};
+
+        final SortedSet<Path> avroPaths = DatasetsUtil.getAllAvroPaths(fs,new Path("data/person_small/avro"));
+        final Path schemaPath = new Path("data/person_small/schema/person_small.avsc");
+        final Schema schema = DatasetsUtil.loadSchemaFromFSPath(fs,schemaPath);
+        final GenericRecord[] records = DatasetsUtil.loadAvroRecordsFromFSPaths(fs,schema,
+                avroPaths.toArray(new Path[avroPaths.size()]));
+        int Narray[] = new int [SELECTED_FIELDS.length];
+        Arrays.fill(Narray,Nsmall);
+
+        for (BloomFilterEncoding encoding : new BloomFilterEncoding[]{
+                new CLKEncoding(N,K,Q), new FieldBloomFilterEncoding(Narray,K,Q),
+                new RowBloomFilterEncoding(Narray,N,K,Q)}) {
+            encoding.makeFromSchema(schema, SELECTED_FIELDS, REST_FIELDS);
+            encoding.initialize();
+
+            // batches written by the avro sink read back as the encoded records
+            final File file = File.createTempFile(encoding.schemeName() + "-", ".avro");
+            file.deleteOnExit();
+            final DataFileWriter<GenericRecord> writer =
+                    new DataFileWriter<GenericRecord>(new GenericDatumWriter<GenericRecord>(encoding.getEncodingSchema()));
+            writer.create(encoding.getEncodingSchema(), file);
+            final AvroEncodedBatchSink sink = new AvroEncodedBatchSink(encoding, writer);
+            assertEquals(records.length, encoding.encodeRecords(Arrays.asList(records).iterator(),
+                    encoding.newBatch(64), sink));
+            assertEquals(records.length, sink.getRecordCount());
+            sink.close();
+
+            final DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(file,
+                    new GenericDatumReader<GenericRecord>(encoding.getEncodingSchema()));
+            int i = 0;
+            for (GenericRecord actual : reader) {
+                final GenericRecord expected = encoding.encodeRecord(records[i++]);
+                assertEquals(encoding.retrieveBloomFilter(expected), encoding.retrieveBloomFilter(actual));
+                for (String fieldName : REST_FIELDS)
+                    assertEquals(String.valueOf(expected.get(fieldName)), String.valueOf(actual.get(fieldName)));
+            }
+            reader.close();
+            assertEquals(records.length, i);
+
+            // batches of another length are refused
+            final BloomFilterEncoding other = new CLKEncoding(Nsmall,K,Q);
+            other.makeFromSchema(schema, SELECTED_FIELDS, REST_FIELDS);
+            other.initialize();
+            final EncodedBatch batch = other.newBatch(8);
+            other.encodeBatch(records, 0, records.length, batch);
+            final AvroEncodedBatchSink otherSink = new AvroEncodedBatchSink(encoding,
+                    new DataFileWriter<GenericRecord>(new GenericDatumWriter<GenericRecord>(encoding.getEncodingSchema())));
+            try {
+                otherSink.write(batch);
+                fail("A batch of another bloom filter length must not be written.");
+            } catch (IOException e) {
+                LOG.info(e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void test8()
+            throws DatasetException, BloomFilterEncodingException, IOException {
+        // byte level FBF/RBF encoding equals the per-bit encoding, field bit ranges not byte-aligned
+        final String[] REST_FIELDS = new String[]{"id"};
+        final String[] SELECTED_FIELDS = new String[]{"name","surname","location"};
+        final int[] fbfNs = new int[]{61,203,37};
+
+        final SortedSet<Path> avroPaths = DatasetsUtil.getAllAvroPaths(fs,new Path("data/person_small/avro"));
+        final Path schemaPath = new Path("data/person_small/schema/person_small.avsc");
+        final Schema schema = DatasetsUtil.loadSchemaFromFSPath(fs,schemaPath);
+        final GenericRecord[] records = DatasetsUtil.loadAvroRecordsFromFSPaths(fs,schema,
+                avroPaths.toArray(new Path[avroPaths.size()]));
+
+        final FieldBloomFilterEncoding fbfEncoding = new FieldBloomFilterEncoding(fbfNs,K,Q);
+        fbfEncoding.makeFromSchema(schema, SELECTED_FIELDS, REST_FIELDS);
+        fbfEncoding.initialize();
+        for (GenericRecord record : records) {
+            final BloomFilter fbf = fbfEncoding.retrieveBloomFilter(fbfEncoding.encodeRecord(record));
+            final BloomFilter expected = new BloomFilter(fbf.getN(), new byte[fbf.getByteArray().length]);
+            int Npart = 0;
+            for (String name : SELECTED_FIELDS) {
+                final BloomFilter field = fbfEncoding.getFBF(name);
+                for (int bit = 0; bit < field.getN(); bit++)
+                    expected.setBit(Npart + bit, field.getBit(bit));
+                Npart += field.getN();
+            }
+            assertEquals(expected.toHexString(), fbf.toHexString());
+        }
+
+        for (RowBloomFilterEncoding encoding : new RowBloomFilterEncoding[]{
+                new RowBloomFilterEncoding(fbfNs,301,K,Q),
+                new RowBloomFilterEncoding(fbfNs,new double[]{0.3,0.4,0.25},K,Q),
+                new RowBloomFilterEncoding(new double[]{6.3,7.1,9.5},509,K,Q)}) {
+            encoding.makeFromSchema(schema, SELECTED_FIELDS, REST_FIELDS);
+            encoding.initialize();
+
+            // selected bits and bit permutation as recorded in the encoding field doc
+            final String[] docParts = encoding.getEncodingSchema()
+                    .getField(encoding.getEncodingFieldName()).doc().split("_");
+            final int[][] selectedBits = new int[SELECTED_FIELDS.length][];
+            for (int i = 0; i < SELECTED_FIELDS.length; i++) {
+                final String[] parts = docParts[i].split(",");
+                selectedBits[i] = RowBloomFilterEncoding.randomBitSelection(
+                        Integer.parseInt(parts[1]), Integer.parseInt(parts[0]), Integer.parseInt(parts[2]));
+            }
+            final int[] bitPermutation = RowBloomFilterEncoding.randomBitPermutation(
+                    encoding.getRBFN(), Integer.parseInt(docParts[SELECTED_FIELDS.length]));
+            LOG.info("RBF N={}, FBF Ns={}", encoding.getRBFN(), Arrays.toString(
+                    new int[]{encoding.getN(0), encoding.getN(1), encoding.getN(2)}));
+
+            for (GenericRecord record : records) {
+                final BloomFilter rbf = encoding.retrieveBloomFilter(encoding.encodeRecord(record));
+                final BloomFilter expected = new BloomFilter(encoding.getRBFN(),
+                        new byte[(int) Math.ceil(encoding.getRBFN()/(double)8)]);
+                int rbfBit = 0;
+                for (int i = 0; i < SELECTED_FIELDS.length; i++) {
+                    final BloomFilter fbf = encoding.getFBF(SELECTED_FIELDS[i]);
+                    for (int fbfBit : selectedBits[i])
+                        expected.setBit(bitPermutation[rbfBit++], fbf.getBit(fbfBit));
+                }
+                assertEquals(expected.toHexString(), rbf.toHexString());
+            }
+        }
+    }
+
+    @Test
+    public void test9()
+            throws DatasetException, BloomFilterEncodingException, IOException {
+        // unknown hash families are refused, by name or in an encoding schema
+        final CLKEncoding encoding = new CLKEncoding(N,K,Q);
+        try {
+            encoding.setHashFamily("MURMUR");
+            fail("An unknown hash family must not be set.");
+        } catch (BloomFilterEncodingException e) {
+            LOG.info(e.getMessage());
+        }
+        assertEquals(HashFamily.DEFAULT, encoding.getHashFamily());
+
+        final Schema schema = DatasetsUtil.loadSchemaFromFSPath(fs,
+                new Path("data/person_small/schema/person_small.avsc"));
+        encoding.makeFromSchema(schema, new String[]{"name","surname"}, new String[]{"id"});
+        final String property = "\"" + BloomFilterEncoding.HASH_FAMILY_PROPERTY + "\":\"" + HashFamily.DEFAULT + "\"";
+        final String encodingSchemaStr = encoding.getEncodingSchema().toString();
+        assertTrue(encodingSchemaStr.contains(property));
+        final Schema unknownSchema = new Schema.Parser().parse(encodingSchemaStr.replace(property,
+                "\"" + BloomFilterEncoding.HASH_FAMILY_PROPERTY + "\":\"MURMUR\""));
+        try {
+            BloomFilterEncodingUtil.setupNewInstance(unknownSchema);
+            fail("An encoding schema of an unknown hash family must not be set up.");
+        } catch (BloomFilterEncodingException e) {
+            LOG.info(e.getMessage());
+        }
+    }
+
+    @Test
+    public void test10()
+            throws DatasetException, BloomFilterEncodingException, IOException {
+        // caches warmed up from q-gram statistics, shared by encodings until the last one releases them
+        final String[] REST_FIELDS = new String[]{"id","location"};
+        final String[] SELECTED_FIELDS = new String[]{"name","surname"};
+
+        final SortedSet<Path> avroPaths = DatasetsUtil.getAllAvroPaths(fs,new Path("data/person_small/avro"));
+        final Path schemaPath = new Path("data/person_small/schema/person_small.avsc");
+        final Schema schema = DatasetsUtil.loadSchemaFromFSPath(fs,schemaPath);
+        final GenericRecord[] records = DatasetsUtil.loadAvroRecordsFromFSPaths(fs,schema,
+                avroPaths.toArray(new Path[avroPaths.size()]));
+        final DatasetStatistics statistics = new DatasetStatistics();
+        statistics.setRecordCount(records.length);
+        statistics.setFieldNames(SELECTED_FIELDS);
+        DatasetStatistics.calculateQgramStatistics(records, schema, statistics, SELECTED_FIELDS);
+        double qGramCount = 0;
+        for (String fieldName : SELECTED_FIELDS)
+            qGramCount += statistics.getFieldStatistics().get(fieldName).getUniqueQgramCount(Q);
+        final long entries = (long) Math.ceil(records.length * qGramCount);
+        int Narray[] = new int [SELECTED_FIELDS.length];
+        Arrays.fill(Narray,Nsmall);
+
+        final BloomFilterEncoding[][] encodings = new BloomFilterEncoding[][]{
+                {new CLKEncoding(N,K,Q), new CLKEncoding(N,K,Q)},
+                {new FieldBloomFilterEncoding(Narray,K,Q), new FieldBloomFilterEncoding(Narray,K,Q)},
+                {new RowBloomFilterEncoding(Narray,N,K,Q), null}};
+        QGramPositionsCache.clearAll();
+        try {
+            for (BloomFilterEncoding[] pair : encodings) {
+                final BloomFilterEncoding encoding = pair[0];
+                encoding.makeFromSchema(schema, SELECTED_FIELDS, REST_FIELDS);
+                encoding.initialize();
+                final BloomFilterEncoding other = (pair[1] == null) ? encoding.copy() : pair[1];
+                if(pair[1] != null) {
+                    other.makeFromSchema(schema, SELECTED_FIELDS, REST_FIELDS);
+                    other.initialize();
+                }
+
+                encoding.warmUp(statistics, Arrays.copyOf(records, 10));
+                assertEquals(1, QGramPositionsCache.getInstances().size());
+                final QGramPositionsCache cache = QGramPositionsCache.getInstances().iterator().next();
+                LOG.info(cache.toString());
+                assertTrue(cache.getCapacity() >= entries);
+                for (GenericRecord record : records)
+                    assertEquals(other.retrieveBloomFilter(other.encodeRecord(record)),
+                            encoding.retrieveBloomFilter(encoding.encodeRecord(record)));
+
+                // the other encoding still holds the cache, the last release frees it
+                encoding.release();
+                assertEquals(1, QGramPositionsCache.getInstances().size());
+                assertTrue(cache.getHitCount() > 0);
+                other.release();
+                assertTrue(cache.isClosed());
+                assertTrue(QGramPositionsCache.getInstances().isEmpty());
+                assertEquals(0, QGramPositionsCache.getReservedByteCount());
+
+                // released encodings acquire their caches again
+                for (GenericRecord record : records)
+                    assertEquals(other.retrieveBloomFilter(other.encodeRecord(record)),
+                            encoding.retrieveBloomFilter(encoding.encodeRecord(record)));
+                assertEquals(1, QGramPositionsCache.getInstances().size());
+                encoding.release();
+                other.release();
+                assertEquals(0, QGramPositionsCache.getReservedByteCount());
+            }
+        } finally {
+            QGramPositionsCache.clearAll();
+        }
+    }
+
     private static void encodeOriginal(final BloomFilterEncoding encoding,
                                        final String name,
                                        final FileSystem fs,
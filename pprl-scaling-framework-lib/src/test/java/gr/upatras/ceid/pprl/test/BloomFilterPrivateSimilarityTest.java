@@ -6,6 +6,8 @@ import gr.upatras.ceid.pprl.encoding.BloomFilter;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingException;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
+import gr.upatras.ceid.pprl.encoding.PackedBloomFilter;
 import gr.upatras.ceid.pprl.matching.PrivateSimilarityUtil;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
@@ -18,9 +20,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class BloomFilterPrivateSimilarityTest {
@@ -111,6 +116,115 @@ public class BloomFilterPrivateSimilarityTest {
         LOG.info("Dice1 : {} ",PrivateSimilarityUtil.dice1(bf1, bf2));
     }
 
+    @Test
+    public void test5() {
+        final Random random = new Random(1234);
+        for (int n : new int[]{N, 64, 1000, 1024, 1027}) {
+            for (int t = 0; t < 100; t++) {
+                final byte[] bytes1 = new byte[(int) Math.ceil(n/(double)8)];
+                final byte[] bytes2 = new byte[(int) Math.ceil(n/(double)8)];
+                for (int i = 0; i < n; i++) {
+                    if (random.nextBoolean()) bytes1[i/8] |= (1 << (i%8));
+                    if (random.nextBoolean()) bytes2[i/8] |= (1 << (i%8));
+                }
+                final BloomFilter bf1 = new BloomFilter(n,bytes1);
+                final BloomFilter bf2 = new BloomFilter(n,bytes2);
+                final PackedBloomFilter pbf1 = new PackedBloomFilter(bf1);
+                final PackedBloomFilter pbf2 = new PackedBloomFilter(bf2);
+                assertEquals(bf1.countOnes(), pbf1.getOnesCount());
+                assertArrayEquals(bytes1, pbf1.toByteArray());
+                for (int i = 0; i < n; i++) assertEquals(bf1.getBit(i), pbf1.getBit(i));
+
+                assertEquals(PrivateSimilarityUtil.hamming1(bf1, bf2), PrivateSimilarityUtil.hamming(bf1, bf2));
+                assertEquals(PrivateSimilarityUtil.hamming1(bf1, bf2), PrivateSimilarityUtil.hamming(pbf1, pbf2));
+                assertEquals(PrivateSimilarityUtil.jaccard1(bf1, bf2), PrivateSimilarityUtil.jaccard(bf1, bf2), 0.000001);
+                assertEquals(PrivateSimilarityUtil.jaccard1(bf1, bf2), PrivateSimilarityUtil.jaccard(pbf1, pbf2), 0.000001);
+                assertEquals(PrivateSimilarityUtil.dice1(bf1, bf2), PrivateSimilarityUtil.dice(bf1, bf2), 0.000001);
+                assertEquals(PrivateSimilarityUtil.dice1(bf1, bf2), PrivateSimilarityUtil.dice(pbf1, pbf2), 0.000001);
+                assertEquals(PrivateSimilarityUtil.interCardinality(bf1, bf2),
+                        PrivateSimilarityUtil.interCardinality(pbf1, pbf2));
+            }
+        }
+    }
+
+    @Test
+    public void test6() {
+        final Random random = new Random(4321);
+        for (int n : new int[]{N, 64, 1000, 1024, 1027}) {
+            final int length = (int) Math.ceil(n/(double)8);
+            final BloomFilterView view1 = new BloomFilterView(n);
+            final BloomFilterView view2 = new BloomFilterView(n);
+            for (int t = 0; t < 100; t++) {
+                final byte[] bytes1 = new byte[length];
+                final byte[] bytes2 = new byte[length];
+                random.nextBytes(bytes1);
+                random.nextBytes(bytes2);
+                bytes1[length - 1] &= (byte) (0xFF >>> (length*8 - n));
+                bytes2[length - 1] &= (byte) (0xFF >>> (length*8 - n));
+                final BloomFilter bf1 = new BloomFilter(n,bytes1);
+                final BloomFilter bf2 = new BloomFilter(n,bytes2);
+
+                final ByteBuffer direct = ByteBuffer.allocateDirect(3 + 2*length);
+                direct.position(3);
+                direct.put(bytes1).put(bytes2);
+                view1.wrap(direct, 3);
+                view2.wrap(direct, 3 + length);
+                assertArrayEquals(bytes1, view1.toByteArray());
+                assertEquals(bf1.countOnes(), view1.getOnesCount());
+                assertEquals(PrivateSimilarityUtil.hamming(bf1, bf2), PrivateSimilarityUtil.hamming(view1, view2));
+                assertEquals(PrivateSimilarityUtil.jaccard(bf1, bf2), PrivateSimilarityUtil.jaccard(view1, view2), 0.000001);
+                assertEquals(PrivateSimilarityUtil.dice(bf1, bf2), PrivateSimilarityUtil.dice(view1, view2), 0.000001);
+
+                view1.wrap(bytes1);
+                view2.wrap(bytes2);
+                for (int i = 0; i < n; i++) assertEquals(bf1.getBit(i), view1.getBit(i));
+                assertEquals(PrivateSimilarityUtil.hamming(bf1, bf2), PrivateSimilarityUtil.hamming(view1, view2));
+                assertEquals(PrivateSimilarityUtil.interCardinality(bf1, bf2),
+                        PrivateSimilarityUtil.interCardinality(view1, view2));
+            }
+        }
+    }
+
+    @Test
+    public void test7() {
+        final Random random = new Random(2468);
+        for (int n : new int[]{N, 64, 1000, 1024, 1027}) {
+            final int length = (int) Math.ceil(n/(double)8);
+            final BloomFilterView view1 = new BloomFilterView(n);
+            final BloomFilterView view2 = new BloomFilterView(n);
+            for (int t = 0; t < 100; t++) {
+                final byte[] bytes1 = new byte[length];
+                final byte[] bytes2 = new byte[length];
+                random.nextBytes(bytes1);
+                System.arraycopy(bytes1, 0, bytes2, 0, length);
+                for (int i = random.nextInt(n); i > 0; i--) {
+                    final int bit = random.nextInt(n);
+                    if (random.nextBoolean()) bytes2[bit/8] |= (1 << (bit%8));
+                    else bytes2[bit/8] &= ~(1 << (bit%8));
+                }
+                bytes1[length - 1] &= (byte) (0xFF >>> (length*8 - n));
+                bytes2[length - 1] &= (byte) (0xFF >>> (length*8 - n));
+                final BloomFilter bf1 = new BloomFilter(n,bytes1);
+                final BloomFilter bf2 = new BloomFilter(n,bytes2);
+                final PackedBloomFilter pbf1 = new PackedBloomFilter(bf1);
+                final PackedBloomFilter pbf2 = new PackedBloomFilter(bf2);
+                final int h = PrivateSimilarityUtil.hamming(bf1, bf2);
+                for (int threshold : new int[]{0, 1, h - 1, h, h + 1, n / 4, n}) {
+                    if(threshold < 0) continue;
+                    view1.wrap(bytes1);
+                    view2.wrap(bytes2).setOnesCount(bf2.countOnes());
+                    assertEquals(h <= threshold, PrivateSimilarityUtil.hammingWithin(view1, view2, threshold));
+                    assertEquals(h <= threshold, PrivateSimilarityUtil.hammingWithin(pbf1, pbf2, threshold));
+                    assertEquals(h <= threshold, PrivateSimilarityUtil.hammingWithin(bf1, bf2, threshold));
+                    view1.wrap(pbf1.getWords(), 0);
+                    assertEquals(h <= threshold, PrivateSimilarityUtil.hammingWithin(view1, view2, threshold));
+                    assertEquals(h <= threshold, PrivateSimilarityUtil.hamming(view1, view2, threshold) <= threshold);
+                }
+                assertEquals(h, PrivateSimilarityUtil.hamming(view1, view2, n));
+            }
+        }
+    }
+
     @Test
     public void test4() throws IOException, DatasetException, BloomFilterEncodingException {
         final FileSystem fs = FileSystem.getLocal(new Configuration());
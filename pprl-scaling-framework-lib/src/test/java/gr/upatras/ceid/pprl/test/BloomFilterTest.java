@@ -1,21 +1,31 @@
 package gr.upatras.ceid.pprl.test;
 
 import gr.upatras.ceid.pprl.encoding.BloomFilter;
+import gr.upatras.ceid.pprl.encoding.BloomFilterStore;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
+import gr.upatras.ceid.pprl.encoding.HashFamily;
+import gr.upatras.ceid.pprl.encoding.QGramPositionsCache;
 import gr.upatras.ceid.pprl.qgram.QGramUtil;
 import org.apache.avro.Schema;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class BloomFilterTest {
 
@@ -35,6 +45,26 @@ public class BloomFilterTest {
     private static final int N = 1024;
     private static final int K = 2;
 
+    // SipHash-2-4 reference vectors (64-bit, little-endian) of key 00..0f and messages 00..(i-1), i = 0..63.
+    private static final long[] SIPHASH_VECTORS = {
+            0x726fdb47dd0e0e31L, 0x74f839c593dc67fdL, 0x0d6c8009d9a94f5aL, 0x85676696d7fb7e2dL,
+            0xcf2794e0277187b7L, 0x18765564cd99a68dL, 0xcbc9466e58fee3ceL, 0xab0200f58b01d137L,
+            0x93f5f5799a932462L, 0x9e0082df0ba9e4b0L, 0x7a5dbbc594ddb9f3L, 0xf4b32f46226bada7L,
+            0x751e8fbc860ee5fbL, 0x14ea5627c0843d90L, 0xf723ca908e7af2eeL, 0xa129ca6149be45e5L,
+            0x3f2acc7f57c29bdbL, 0x699ae9f52cbe4794L, 0x4bc1b3f0968dd39cL, 0xbb6dc91da77961bdL,
+            0xbed65cf21aa2ee98L, 0xd0f2cbb02e3b67c7L, 0x93536795e3a33e88L, 0xa80c038ccd5ccec8L,
+            0xb8ad50c6f649af94L, 0xbce192de8a85b8eaL, 0x17d835b85bbb15f3L, 0x2f2e6163076bcfadL,
+            0xde4daaaca71dc9a5L, 0xa6a2506687956571L, 0xad87a3535c49ef28L, 0x32d892fad841c342L,
+            0x7127512f72f27cceL, 0xa7f32346f95978e3L, 0x12e0b01abb051238L, 0x15e034d40fa197aeL,
+            0x314dffbe0815a3b4L, 0x027990f029623981L, 0xcadcd4e59ef40c4dL, 0x9abfd8766a33735cL,
+            0x0e3ea96b5304a7d0L, 0xad0c42d6fc585992L, 0x187306c89bc215a9L, 0xd4a60abcf3792b95L,
+            0xf935451de4f21df2L, 0xa9538f0419755787L, 0xdb9acddff56ca510L, 0xd06c98cd5c0975ebL,
+            0xe612a3cb9ecba951L, 0xc766e62cfcadaf96L, 0xee64435a9752fe72L, 0xa192d576b245165aL,
+            0x0a8787bf8ecb74b2L, 0x81b3e73d20b49b6fL, 0x7fa8220ba3b2eceaL, 0x245731c13ca42499L,
+            0xb78dbfaf3a8d83bdL, 0xea1ad565322a1a0bL, 0x60e61c23a3795013L, 0x6606d7e446282b93L,
+            0x6ca4ecb15c5f91e1L, 0x9f626da15c9625f3L, 0xe51b38608ef25f57L, 0x958a324ceb064572L
+    };
+
     @Test
     public void test1() throws InvalidKeyException, NoSuchAlgorithmException {
         final BloomFilter bloomFilter = new BloomFilter(N,K);
@@ -62,6 +92,12 @@ public class BloomFilterTest {
         assertEquals(bloomFilter1.getZeroesCount(),bloomFilter1.countZeroes());
         LOG.info("#bitstring : {}",bloomFilter1.toString());
         LOG.info("#hexstring : {}",bloomFilter1.toHexString());
+        bloomFilter1.setBit(0, true);
+        bloomFilter1.setBit(0, true);
+        bloomFilter1.setBit(1, false);
+        bloomFilter1.setBit(1, false);
+        assertEquals(bloomFilter1.getOnesCount(),bloomFilter1.countOnes());
+        assertEquals(bloomFilter1.getZeroesCount(),bloomFilter1.countZeroes());
         LOG.info("clearing bloom filter");
         bloomFilter.clear();
         LOG.info("#1 : {}",bloomFilter1.getOnesCount());
@@ -95,6 +131,41 @@ public class BloomFilterTest {
         return ((bytes[i/8] & (1<<(i%8))) != 0);
     }
 
+    @Test
+    public void test3() throws IOException {
+        final Random random = new Random(1234);
+        final int n = 1003;
+        final List<File> files = new ArrayList<File>();
+        final List<byte[]> filters = new ArrayList<byte[]>();
+        final List<String> uids = new ArrayList<String>();
+        for (int f = 0; f < 3; f++) {
+            final File file = File.createTempFile("bob-", BloomFilterStore.FILE_EXTENSION);
+            file.deleteOnExit();
+            files.add(file);
+            final BloomFilterStore.Writer writer = new BloomFilterStore.Writer(new FileOutputStream(file), n, 16);
+            for (int i = 0; i < 100 * f; i++) {
+                final byte[] bytes = new byte[(int) Math.ceil(n / (double) 8)];
+                random.nextBytes(bytes);
+                bytes[bytes.length - 1] &= 0x07;
+                filters.add(bytes);
+                uids.add(String.format("b%d_%d", f, i));
+                writer.append(uids.get(uids.size() - 1), new BloomFilterView(n, bytes));
+            }
+            writer.close();
+        }
+
+        final BloomFilterStore store = new BloomFilterStore(files);
+        assertEquals(n, store.getN());
+        assertEquals(filters.size(), store.getRecordCount());
+        final BloomFilterView view = new BloomFilterView(n);
+        for (int i = 0; i < store.getRecordCount(); i++) {
+            store.retrieveBloomFilterView(i, view);
+            assertTrue(Arrays.equals(filters.get(i), view.toByteArray()));
+            assertEquals(new BloomFilter(n, filters.get(i)).countOnes(), view.getOnesCount());
+            assertEquals(uids.get(i), store.getUid(i));
+        }
+    }
+
     private void setBit(int i, byte[] bytes) {
         bytes[i/8] = (byte) (bytes[i/8]  | (1<<(i%8)));
     }
@@ -102,4 +173,170 @@ public class BloomFilterTest {
     private void unSetBit(int i, byte[] bytes) {
         bytes[i/8] = (byte) (bytes[i/8]  & ~(1 << (i%8)));
     }
+
+    @Test
+    public void test4() throws InvalidKeyException, NoSuchAlgorithmException {
+        final String[] strings = {LOREM_IPSUM, "  leading and trailing  ", "a", "\u00e9\u4e2d\ud83d\ude00"};
+        final QGramUtil.QGramBuffer buffer = new QGramUtil.QGramBuffer();
+        for (int Q = 2; Q <= 4; Q++) {
+            final BloomFilter bloomFilter = new BloomFilter(N, K);
+            final BloomFilter bloomFilter1 = new BloomFilter(N, K);
+            for (String string : strings) {
+                bloomFilter.clear();
+                bloomFilter1.clear();
+                for (String qGram : QGramUtil.generateQGrams(string, Schema.Type.STRING, Q))
+                    bloomFilter.addData(qGram);
+                buffer.fill(string, Schema.Type.STRING, Q);
+                bloomFilter1.addQGrams(buffer);
+                bloomFilter1.addQGrams(buffer);
+                assertEquals(bloomFilter, bloomFilter1);
+            }
+        }
+    }
+
+    @Test
+    public void test5() throws InvalidKeyException, NoSuchAlgorithmException {
+        final int N = 333;
+        QGramPositionsCache.clearAll();
+        QGramPositionsCache.setMaxBytes(4 * 1024);
+        try {
+            final BloomFilter bloomFilter = new BloomFilter(N, K);
+            final BloomFilter expected = new BloomFilter(N, K);
+            final String[] bigrams = QGramUtil.generateQGrams(LOREM_IPSUM, Schema.Type.STRING, 2);
+            for (int round = 0; round < 2; round++) {
+                for (String bigram : bigrams) {
+                    bloomFilter.addData(bigram);
+                    expected.setPositions(BloomFilter.createHashesV3(bigram.getBytes(), N, K,
+                            expected.getHmacMD5(), expected.getHmacSHA1()));
+                    assertEquals(expected, bloomFilter);
+                }
+            }
+            final QGramPositionsCache cache = QGramPositionsCache.getInstance(N, K, 2, bloomFilter.getHashFamily().getId());
+            LOG.info(cache.toString());
+            assertTrue(cache.getByteCount() <= 4 * 1024);
+            assertEquals(2 * bigrams.length, cache.getHitCount() + cache.getMissCount());
+            assertTrue(cache.getHitCount() > 0);
+            assertTrue(cache.getEvictionCount() > 0);
+        } finally {
+            QGramPositionsCache.clearAll();
+            QGramPositionsCache.setMaxBytes(64L * 1024 * 1024);
+        }
+    }
+
+    @Test
+    public void test6() {
+        final Random random = new Random(1234);
+        final int[] Ns = {13, 64, 333, 7, 1000};
+        int total = 0;
+        for (int n : Ns) total += n;
+        final BloomFilter expected = new BloomFilter(total, new byte[(int) Math.ceil(total / (double) 8)]);
+        final byte[] bytes = new byte[(int) Math.ceil(total / (double) 8)];
+        int offset = 0;
+        for (int n : Ns) {
+            final BloomFilter fbf = new BloomFilter(n, new byte[(int) Math.ceil(n / (double) 8)]);
+            for (int bit = 0; bit < n; bit++) {
+                if(!random.nextBoolean()) continue;
+                fbf.setBit(bit);
+                expected.setBit(offset + bit);
+            }
+            BloomFilter.copyBits(fbf.getByteArray(), n, bytes, offset);
+            offset += n;
+        }
+        assertTrue(Arrays.equals(expected.getByteArray(), bytes));
+    }
+
+    @Test
+    public void test7() throws InvalidKeyException, NoSuchAlgorithmException {
+        final int[] Ns = {64, 128, 256, 512};
+        final long maxBytes = 64 * 1024;
+        final String[] bigrams = new String[64 * 64];
+        for (int i = 0; i < bigrams.length; i++)
+            bigrams[i] = new String(new char[]{(char) ('0' + i / 64), (char) ('0' + i % 64)});
+        QGramPositionsCache.clearAll();
+        QGramPositionsCache.setMaxBytes(maxBytes);
+        try {
+            final List<BloomFilter> bloomFilters = new ArrayList<BloomFilter>();
+            for (int N : Ns) bloomFilters.add(new BloomFilter(N, K));
+            for (BloomFilter bloomFilter : bloomFilters) {
+                final BloomFilter expected = new BloomFilter(bloomFilter.getN(), K);
+                for (String bigram : bigrams) {
+                    bloomFilter.addData(bigram);
+                    expected.setPositions(BloomFilter.createHashesV3(bigram.getBytes(), bloomFilter.getN(), K,
+                            expected.getHmacMD5(), expected.getHmacSHA1()));
+                }
+                assertEquals(expected, bloomFilter);
+            }
+
+            // caches grow on demand, all of them within the shared bound
+            long byteCount = 0;
+            int maxCapacity = 0;
+            for (QGramPositionsCache cache : QGramPositionsCache.getInstances()) {
+                LOG.info(cache.toString());
+                byteCount += cache.getByteCount();
+                maxCapacity = Math.max(maxCapacity, cache.getCapacity());
+            }
+            assertEquals(Ns.length, QGramPositionsCache.getInstances().size());
+            assertEquals(QGramPositionsCache.getReservedByteCount(), byteCount);
+            assertTrue(byteCount <= maxBytes);
+            assertTrue(maxCapacity > 1024);
+
+            // dropped caches free their memory, their bloom filters keep working
+            final QGramPositionsCache cache = QGramPositionsCache.getInstance(Ns[0], K, 2,
+                    bloomFilters.get(0).getHashFamily().getId());
+            QGramPositionsCache.clearAll();
+            assertEquals(0, QGramPositionsCache.getReservedByteCount());
+            assertEquals(0, cache.getCapacity());
+            final BloomFilter bloomFilter = bloomFilters.get(0);
+            final BloomFilter expected = new BloomFilter(bloomFilter.getN(), K);
+            bloomFilter.clear();
+            for (String bigram : bigrams) {
+                bloomFilter.addData(bigram);
+                expected.setPositions(BloomFilter.createHashesV3(bigram.getBytes(), bloomFilter.getN(), K,
+                        expected.getHmacMD5(), expected.getHmacSHA1()));
+            }
+            assertEquals(expected, bloomFilter);
+
+            // the bloom filter acquired a new cache, releasing it frees the cache
+            assertEquals(1, QGramPositionsCache.getInstances().size());
+            bloomFilter.releaseCaches();
+            assertTrue(QGramPositionsCache.getInstances().isEmpty());
+            assertEquals(0, QGramPositionsCache.getReservedByteCount());
+        } finally {
+            QGramPositionsCache.clearAll();
+            QGramPositionsCache.setMaxBytes(64L * 1024 * 1024);
+        }
+    }
+
+    @Test
+    public void test8() throws InvalidKeyException, NoSuchAlgorithmException {
+        final StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 16; i++) key.append((char) i);
+        final HashFamily.SipHash sipHash = new HashFamily.SipHash(key.toString());
+        final byte[] message = new byte[3 + SIPHASH_VECTORS.length];
+        for (int i = 0; i < SIPHASH_VECTORS.length; i++) message[3 + i] = (byte) i;
+        for (int i = 0; i < SIPHASH_VECTORS.length; i++)
+            assertEquals("length " + i, SIPHASH_VECTORS[i], sipHash.hash(message, 3, i));
+
+        // positions are (h1 + i*h2) mod N of the hash halves (h2 forced odd)
+        final int[] positions = new int[K];
+        sipHash.createHashes(message, 3, 15, N, K, positions);
+        final long h1 = SIPHASH_VECTORS[15] & 0xFFFFFFFFL;
+        final long h2 = (SIPHASH_VECTORS[15] >>> 32) | 1;
+        for (int i = 0; i < K; i++) assertEquals((h1 + (i+1)*h2) % N, positions[i]);
+
+        // ids are equal for equal secret keys and do not reveal them
+        final String secret = "a secret key";
+        final String id = HashFamily.newInstance(HashFamily.SIPHASH, secret).getId();
+        assertEquals(id, new HashFamily.SipHash(secret).getId());
+        assertTrue(!id.contains(secret));
+        assertTrue(!id.equals(HashFamily.newInstance(HashFamily.HMAC, secret).getId()));
+        assertTrue(!id.equals(new HashFamily.SipHash(secret + " ").getId()));
+
+        try {
+            HashFamily.newInstance("MURMUR", key.toString());
+            fail("An unknown hash family must not be created.");
+        } catch (NoSuchAlgorithmException e) {
+            LOG.info(e.getMessage());
+        }
+    }
 }
@@ -5,11 +5,21 @@ import gr.upatras.ceid.pprl.blocking.BlockingException;
 import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
 import gr.upatras.ceid.pprl.blocking.HammingLSHBlockingResult;
 import gr.upatras.ceid.pprl.blocking.HammingLSHBlockingUtil;
+import gr.upatras.ceid.pprl.blocking.HammingLSHBucketFile;
+import gr.upatras.ceid.pprl.blocking.HammingLSHBucketIndex;
+import gr.upatras.ceid.pprl.blocking.HammingLSHCollisionCounter;
+import gr.upatras.ceid.pprl.blocking.HammingLSHKeyExtractor;
+import gr.upatras.ceid.pprl.blocking.RecordIdPairSink;
 import gr.upatras.ceid.pprl.datasets.DatasetException;
 import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilter;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingException;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
+import gr.upatras.ceid.pprl.encoding.CLKEncoding;
+import gr.upatras.ceid.pprl.encoding.EncodedBatch;
+import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -18,8 +28,20 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class HammingLSHBlockingTest {
     private static Logger LOG = LoggerFactory.getLogger(HammingLSHBlockingTest.class);
@@ -80,4 +102,315 @@ public class HammingLSHBlockingTest {
             }
         }
     }
+
+    @Test
+    public void test2() {
+        final Random random = new Random(1234);
+        final int keyCount = 1000;
+        final long[] keys = new long[keyCount];
+        for (int i = 0; i < keyCount; i++) keys[i] = random.nextLong();
+        keys[0] = 0;
+
+        final HammingLSHBucketIndex index = new HammingLSHBucketIndex(10, 10);
+        final Map<Long,List<Integer>> expected = new HashMap<Long,List<Integer>>();
+        for (int ordinal = 0; ordinal < 20000; ordinal++) {
+            final long key = keys[random.nextInt(keyCount)];
+            index.add(key, ordinal);
+            if(!expected.containsKey(key)) expected.put(key, new ArrayList<Integer>());
+            expected.get(key).add(ordinal);
+        }
+        index.build();
+
+        assertEquals(expected.size(), index.getBucketCount());
+        assertEquals(20000, index.getEntryCount());
+        for (Map.Entry<Long,List<Integer>> entry : expected.entrySet()) {
+            final int bucket = index.bucket(entry.getKey());
+            assertTrue(bucket >= 0);
+            assertEquals(entry.getKey().longValue(), index.getBucketKey(bucket));
+            final List<Integer> ordinals = new ArrayList<Integer>();
+            for (int p = index.start(bucket); p < index.end(bucket); p++)
+                ordinals.add(index.getPostings()[p]);
+            assertEquals(entry.getValue(), ordinals);
+            assertEquals(entry.getKey().longValue(),
+                    HammingLSHBucketIndex.toKey(HammingLSHBucketIndex.toHash(entry.getKey())));
+        }
+        assertEquals(-1, index.bucket(random.nextLong()));
+    }
+
+    @Test
+    public void test3() {
+        final Random random = new Random(42);
+        final int ordinalCount = 500;
+        final HammingLSHCollisionCounter counter = new HammingLSHCollisionCounter(ordinalCount);
+        assertEquals(ordinalCount, counter.getOrdinalCount());
+        for (int round = 0; round < 50; round++) {
+            counter.reset();
+            final short[] expected = new short[ordinalCount];
+            for (int i = 0; i < 2000; i++) {
+                final int ordinal = random.nextInt(ordinalCount);
+                expected[ordinal]++;
+                assertEquals(expected[ordinal], counter.increase(ordinal));
+            }
+            for (int ordinal = 0; ordinal < ordinalCount; ordinal++)
+                assertEquals(expected[ordinal], counter.get(ordinal));
+        }
+    }
+
+    @Test
+    public void test4() throws BlockingException {
+        final Random random = new Random(42);
+        for (int N : new int[]{100, 512, 1000}) {
+            final HammingLSHBlocking blocking =
+                    new HammingLSHBlocking(20, HAMMING_LSH_K, N, 42, "a", "a_bf", "b", "b_bf");
+            final HammingLSHKeyExtractor extractor = blocking.newKeyExtractor();
+            assertEquals(20, extractor.getL());
+            assertEquals(HAMMING_LSH_K, extractor.getK());
+            final String[] groups = blocking.groupsAsStrings();
+            for (int t = 0; t < 100; t++) {
+                final byte[] bytes = new byte[(int) Math.ceil(N / (double) 8)];
+                random.nextBytes(bytes);
+                if (N % 8 != 0) bytes[bytes.length - 1] &= (1 << (N % 8)) - 1;
+                final BloomFilter bf = new BloomFilter(N, bytes);
+                final long[] keys = extractor.hash(new BloomFilterView(N, bytes));
+                for (int l = 0; l < groups.length; l++) {
+                    final String[] parts = groups[l].split(" ");
+                    long expected = 0;
+                    for (int i = 1; i < parts.length; i++)
+                        if (bf.getBit(Integer.parseInt(parts[i]))) expected |= 1L << (i - 1);
+                    assertEquals(expected, keys[l]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test5()
+            throws IOException, DatasetException,
+            BloomFilterEncodingException, BlockingException {
+        final FileSystem fs = FileSystem.getLocal(new Configuration());
+        final String encName = ENCODING_NAMES[0];
+        BloomFilterEncoding encodingA = BloomFilterEncodingUtil.setupNewInstance(
+                DatasetsUtil.loadSchemaFromFSPath(fs, new Path("data/voters_a/"+ encName +".avsc")));
+        BloomFilterEncoding encodingB = BloomFilterEncodingUtil.setupNewInstance(
+                DatasetsUtil.loadSchemaFromFSPath(fs, new Path("data/voters_b/"+ encName +".avsc")));
+        final GenericRecord[] recordsA = DatasetsUtil.loadAvroRecordsFromFSPaths(fs, encodingA.getEncodingSchema(),
+                new Path("data/voters_a/"+ encName +".avro"));
+        final GenericRecord[] recordsB = DatasetsUtil.loadAvroRecordsFromFSPaths(fs, encodingB.getEncodingSchema(),
+                new Path("data/voters_b/"+ encName +".avro"));
+
+        final int[] fpsParams =
+                HammingLSHBlockingUtil.optimalParameters(HAMMING_THRESHOLD,encodingA.getBFN(),DELTAS[0],HAMMING_LSH_K);
+        final short C = (short) fpsParams[0];
+        final int L = fpsParams[1];
+
+        final HammingLSHBlocking blocking = new HammingLSHBlocking(L, HAMMING_LSH_K, 42, encodingA, encodingB);
+        blocking.runHLSH(recordsB, "id");
+        blocking.runFPS(recordsA, "id", C, HAMMING_THRESHOLD);
+        final HammingLSHBlocking parallelBlocking = new HammingLSHBlocking(L, HAMMING_LSH_K, 42, encodingA, encodingB);
+        parallelBlocking.runHLSH(recordsB, "id", 4);
+        parallelBlocking.runFPS(recordsA, "id", C, HAMMING_THRESHOLD, 4);
+
+        final HammingLSHBlockingResult result = blocking.getResult();
+        final HammingLSHBlockingResult parallelResult = parallelBlocking.getResult();
+        LOG.info("Sequential FPS time : {} ms, parallel FPS time : {} ms",
+                result.getFpsTime(), parallelResult.getFpsTime());
+        assertEquals(result.getFrequentPairsCount(), parallelResult.getFrequentPairsCount());
+        assertEquals(result.getMatchedPairsCount(), parallelResult.getMatchedPairsCount());
+        assertEquals(result.getTrullyMatchedCount(), parallelResult.getTrullyMatchedCount());
+        assertEquals(result.getMatchedPairs(), parallelResult.getMatchedPairs());
+    }
+
+    @Test
+    public void test6()
+            throws IOException, DatasetException,
+            BloomFilterEncodingException, BlockingException {
+        final FileSystem fs = FileSystem.getLocal(new Configuration());
+        final String encName = ENCODING_NAMES[0];
+        BloomFilterEncoding encodingA = BloomFilterEncodingUtil.setupNewInstance(
+                DatasetsUtil.loadSchemaFromFSPath(fs, new Path("data/voters_a/"+ encName +".avsc")));
+        BloomFilterEncoding encodingB = BloomFilterEncodingUtil.setupNewInstance(
+                DatasetsUtil.loadSchemaFromFSPath(fs, new Path("data/voters_b/"+ encName +".avsc")));
+        final GenericRecord[] recordsA = DatasetsUtil.loadAvroRecordsFromFSPaths(fs, encodingA.getEncodingSchema(),
+                new Path("data/voters_a/"+ encName +".avro"));
+        final GenericRecord[] recordsB = DatasetsUtil.loadAvroRecordsFromFSPaths(fs, encodingB.getEncodingSchema(),
+                new Path("data/voters_b/"+ encName +".avro"));
+
+        final int[] fpsParams =
+                HammingLSHBlockingUtil.optimalParameters(HAMMING_THRESHOLD,encodingA.getBFN(),DELTAS[0],HAMMING_LSH_K);
+        final short C = (short) fpsParams[0];
+        final int L = fpsParams[1];
+
+        final HammingLSHBlocking blocking = new HammingLSHBlocking(L, HAMMING_LSH_K, 42, encodingA, encodingB);
+        blocking.runHLSH(recordsB, "id");
+        blocking.runFPS(recordsA, "id", C, HAMMING_THRESHOLD);
+
+        final HammingLSHBlocking streamingBlocking = new HammingLSHBlocking(L, HAMMING_LSH_K, 42, encodingA, encodingB);
+        final List<HammingLSHBlockingResult.RecordIdPair> pairs = new ArrayList<HammingLSHBlockingResult.RecordIdPair>();
+        final DatasetsUtil.DatasetRecordReader readerB = new DatasetsUtil.DatasetRecordReader(
+                fs, encodingB.getEncodingSchema(), new Path("data/voters_b/"+ encName +".avro"));
+        streamingBlocking.runHLSH(readerB, "id");
+        readerB.close();
+        final DatasetsUtil.DatasetRecordReader readerA = new DatasetsUtil.DatasetRecordReader(
+                fs, encodingA.getEncodingSchema(), new Path("data/voters_a/"+ encName +".avro"));
+        streamingBlocking.runFPS(readerA, "id", C, HAMMING_THRESHOLD, new RecordIdPairSink() {
+            public void addPair(final String aliceId, final String bobId) {
+                pairs.add(new HammingLSHBlockingResult.RecordIdPair(aliceId, bobId));
+            }
+        });
+        readerA.close();
+
+        final HammingLSHBlockingResult result = blocking.getResult();
+        final HammingLSHBlockingResult streamingResult = streamingBlocking.getResult();
+        assertEquals(result.getFrequentPairsCount(), streamingResult.getFrequentPairsCount());
+        assertEquals(result.getMatchedPairsCount(), streamingResult.getMatchedPairsCount());
+        assertEquals(result.getMatchedPairs(), pairs);
+        assertTrue(streamingResult.getMatchedPairs().isEmpty());
+    }
+
+    @Test
+    public void test7() throws IOException {
+        final Random random = new Random(42);
+        final Map<Long,int[]> buckets = new HashMap<Long,int[]>();
+        while(buckets.size() < 1000) {
+            final long key = (buckets.size() % 10 == 0) ? random.nextLong() | Long.MIN_VALUE : random.nextLong();
+            final int[] ordinals = new int[1 + random.nextInt(5)];
+            for (int i = 0; i < ordinals.length; i++) ordinals[i] = random.nextInt(100000);
+            buckets.put(key, ordinals);
+        }
+        final File file = File.createTempFile("buckets", HammingLSHBucketFile.FILE_EXTENSION);
+        file.deleteOnExit();
+        final HammingLSHBucketFile.Writer writer = new HammingLSHBucketFile.Writer(new FileOutputStream(file), 7);
+        for (Map.Entry<Long,int[]> entry : buckets.entrySet())
+            writer.addBucket(entry.getKey(), entry.getValue(), entry.getValue().length);
+        assertEquals(buckets.size(), writer.getBucketCount());
+        writer.close();
+
+        final HammingLSHBucketFile bucketFile = new HammingLSHBucketFile(file);
+        assertEquals(7, bucketFile.getGroupId());
+        assertEquals(buckets.size(), bucketFile.getBucketCount());
+        for (Map.Entry<Long,int[]> entry : buckets.entrySet()) {
+            final int bucket = bucketFile.bucket(entry.getKey());
+            assertTrue(bucket >= 0);
+            assertEquals((long) entry.getKey(), bucketFile.key(bucket));
+            final int[] ordinals = new int[bucketFile.end(bucket) - bucketFile.start(bucket)];
+            for (int p = bucketFile.start(bucket); p < bucketFile.end(bucket); p++)
+                ordinals[p - bucketFile.start(bucket)] = bucketFile.posting(p);
+            assertTrue(Arrays.equals(entry.getValue(), ordinals));
+        }
+        for (int t = 0; t < 1000; t++) {
+            final long key = random.nextLong();
+            if(!buckets.containsKey(key)) assertEquals(-1, bucketFile.bucket(key));
+        }
+    }
+
+    @Test
+    public void test8()
+            throws IOException, DatasetException,
+            BloomFilterEncodingException, BlockingException {
+        // bob batches written to the blocking sink block like the encoded bob records
+        final FileSystem fs = FileSystem.getLocal(new Configuration());
+        final Schema schema = DatasetsUtil.loadSchemaFromFSPath(fs, new Path("data/person_small/schema/person_small.avsc"));
+        final SortedSet<Path> avroPaths = DatasetsUtil.getAllAvroPaths(fs, new Path("data/person_small/avro"));
+        final GenericRecord[] records = DatasetsUtil.loadAvroRecordsFromFSPaths(fs, schema,
+                avroPaths.toArray(new Path[avroPaths.size()]));
+        final BloomFilterEncoding encoding = new CLKEncoding(1024, 10, 2);
+        encoding.makeFromSchema(schema, new String[]{"name", "surname"}, new String[]{"id"});
+        encoding.initialize();
+        final GenericRecord[] encodedRecords = new GenericRecord[records.length];
+        for (int i = 0; i < records.length; i++) encodedRecords[i] = encoding.encodeRecord(records[i]);
+
+        final int[] fpsParams =
+                HammingLSHBlockingUtil.optimalParameters(HAMMING_THRESHOLD,encoding.getBFN(),DELTAS[0],HAMMING_LSH_K);
+        final short C = (short) fpsParams[0];
+        final int L = fpsParams[1];
+
+        final HammingLSHBlocking blocking = new HammingLSHBlocking(L, HAMMING_LSH_K, 42, encoding, encoding);
+        blocking.runHLSH(encodedRecords, "id");
+        blocking.runFPS(encodedRecords, "id", C, HAMMING_THRESHOLD);
+
+        final HammingLSHBlocking sinkBlocking = new HammingLSHBlocking(L, HAMMING_LSH_K, 42, encoding, encoding);
+        final HammingLSHBlocking.BobBlockingSink sink = sinkBlocking.newBobBlockingSink("id");
+        assertEquals(records.length, encoding.encodeRecords(Arrays.asList(records).iterator(),
+                encoding.newBatch(100), sink));
+        sink.close();
+        sinkBlocking.runFPS(encodedRecords, "id", C, HAMMING_THRESHOLD);
+
+        final HammingLSHBlockingResult result = blocking.getResult();
+        final HammingLSHBlockingResult sinkResult = sinkBlocking.getResult();
+        assertTrue(result.getMatchedPairsCount() > 0);
+        assertEquals(result.getFrequentPairsCount(), sinkResult.getFrequentPairsCount());
+        assertEquals(result.getMatchedPairsCount(), sinkResult.getMatchedPairsCount());
+        assertEquals(result.getMatchedPairs(), sinkResult.getMatchedPairs());
+
+        // batches of another bloom filter length or without the uid column are refused
+        final BloomFilterEncoding other = new CLKEncoding(512, 10, 2);
+        other.makeFromSchema(schema, new String[]{"name", "surname"}, new String[]{"id"});
+        other.initialize();
+        final EncodedBatch otherBatch = other.newBatch(8);
+        other.encodeBatch(records, 0, records.length, otherBatch);
+        final EncodedBatch batch = encoding.newBatch(8);
+        encoding.encodeBatch(records, 0, records.length, batch);
+        final HammingLSHBlocking.BobBlockingSink otherSink =
+                new HammingLSHBlocking(L, HAMMING_LSH_K, 42, encoding, encoding).newBobBlockingSink("uid");
+        for (EncodedBatch b : new EncodedBatch[]{otherBatch, batch}) {
+            try {
+                otherSink.write(b);
+                fail("The batch must not be written.");
+            } catch (IOException e) {
+                LOG.info(e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void test9()
+            throws IOException, DatasetException,
+            BloomFilterEncodingException, BlockingException {
+        // streamed alice records matched by worker threads, pairs in alice record order
+        final FileSystem fs = FileSystem.getLocal(new Configuration());
+        final String encName = ENCODING_NAMES[0];
+        BloomFilterEncoding encodingA = BloomFilterEncodingUtil.setupNewInstance(
+                DatasetsUtil.loadSchemaFromFSPath(fs, new Path("data/voters_a/"+ encName +".avsc")));
+        BloomFilterEncoding encodingB = BloomFilterEncodingUtil.setupNewInstance(
+                DatasetsUtil.loadSchemaFromFSPath(fs, new Path("data/voters_b/"+ encName +".avsc")));
+        final GenericRecord[] recordsA = DatasetsUtil.loadAvroRecordsFromFSPaths(fs, encodingA.getEncodingSchema(),
+                new Path("data/voters_a/"+ encName +".avro"));
+        final GenericRecord[] recordsB = DatasetsUtil.loadAvroRecordsFromFSPaths(fs, encodingB.getEncodingSchema(),
+                new Path("data/voters_b/"+ encName +".avro"));
+        // alice records three times over, streamed in more than one chunk
+        final GenericRecord[] aliceRecords = new GenericRecord[3 * recordsA.length];
+        for (int i = 0; i < 3; i++) System.arraycopy(recordsA, 0, aliceRecords, i * recordsA.length, recordsA.length);
+
+        final int[] fpsParams =
+                HammingLSHBlockingUtil.optimalParameters(HAMMING_THRESHOLD,encodingA.getBFN(),DELTAS[0],HAMMING_LSH_K);
+        final short C = (short) fpsParams[0];
+        final int L = fpsParams[1];
+
+        final HammingLSHBlocking blocking = new HammingLSHBlocking(L, HAMMING_LSH_K, 42, encodingA, encodingB);
+        blocking.runHLSH(recordsB, "id");
+        blocking.runFPS(aliceRecords, "id", C, HAMMING_THRESHOLD);
+        final HammingLSHBlockingResult result = blocking.getResult();
+        assertTrue(result.getMatchedPairsCount() > 0);
+
+        for (int threads : new int[]{1, 2, 4}) {
+            final HammingLSHBlocking streamingBlocking =
+                    new HammingLSHBlocking(L, HAMMING_LSH_K, 42, encodingA, encodingB);
+            streamingBlocking.runHLSH(Arrays.asList(recordsB).iterator(), "id");
+            final List<HammingLSHBlockingResult.RecordIdPair> pairs =
+                    new ArrayList<HammingLSHBlockingResult.RecordIdPair>();
+            streamingBlocking.runFPS(Arrays.asList(aliceRecords).iterator(), "id", C, HAMMING_THRESHOLD,
+                    new RecordIdPairSink() {
+                        public void addPair(final String aliceId, final String bobId) {
+                            pairs.add(new HammingLSHBlockingResult.RecordIdPair(aliceId, bobId));
+                        }
+                    }, threads);
+
+            final HammingLSHBlockingResult streamingResult = streamingBlocking.getResult();
+            assertEquals(result.getFrequentPairsCount(), streamingResult.getFrequentPairsCount());
+            assertEquals(result.getMatchedPairsCount(), streamingResult.getMatchedPairsCount());
+            assertEquals(result.getTrullyMatchedCount(), streamingResult.getTrullyMatchedCount());
+            assertEquals(result.getMatchedPairs(), pairs);
+            assertTrue(streamingResult.getMatchedPairs().isEmpty());
+        }
+    }
 }
@@ -172,4 +172,40 @@ public class QGramTest {
             }
         }
     }
+
+    @Test
+    public void test5() {
+        final Object[] objects = {LOREM_IPSUM, "  leading and trailing  ", "a", "", "tab\tand\nnew line",
+                "_padded_", "\u00e9\u4e2d\ud83d\ude00", true, false, 42, -7L, 3.14, 2.5f};
+        final Schema.Type[] types = {Schema.Type.STRING, Schema.Type.STRING, Schema.Type.STRING, Schema.Type.STRING,
+                Schema.Type.STRING, Schema.Type.STRING, Schema.Type.STRING, Schema.Type.BOOLEAN, Schema.Type.BOOLEAN,
+                Schema.Type.INT, Schema.Type.LONG, Schema.Type.DOUBLE, Schema.Type.FLOAT};
+        final QGramUtil.QGramBuffer buffer = new QGramUtil.QGramBuffer();
+        for (int Q = 2; Q <= 4; Q++) {
+            for (int i = 0; i < objects.length; i++) {
+                final String[] qGrams = QGramUtil.generateQGrams(objects[i], types[i], Q);
+                assertEquals(qGrams.length, buffer.fill(objects[i], types[i], Q));
+                for (int j = 0; j < qGrams.length; j++)
+                    assertEquals(qGrams[j], new String(buffer.getChars(), j, buffer.getQGramLength()));
+            }
+        }
+    }
+
+    @Test
+    public void test6() {
+        final Object[] objects = {LOREM_IPSUM, "  leading and trailing  ", "a", "", "aaaaaa", "abab ab",
+                "_padded_", "\u00e9\u4e2d\ud83d\ude00", true, false, null, 42, -7L, 1111L, 3.14, 2.5f};
+        final Schema.Type[] types = {Schema.Type.STRING, Schema.Type.STRING, Schema.Type.STRING, Schema.Type.STRING,
+                Schema.Type.STRING, Schema.Type.STRING, Schema.Type.STRING, Schema.Type.STRING,
+                Schema.Type.BOOLEAN, Schema.Type.BOOLEAN, Schema.Type.BOOLEAN,
+                Schema.Type.INT, Schema.Type.LONG, Schema.Type.LONG, Schema.Type.DOUBLE, Schema.Type.FLOAT};
+        final QGramUtil.QGramBuffer buffer = new QGramUtil.QGramBuffer();
+        for (int i = 0; i < objects.length; i++) {
+            buffer.fill(objects[i], types[i], 2);
+            for (int Q = 1; Q <= 6; Q++) {
+                assertEquals(QGramUtil.calcQgramsCount(objects[i], types[i], Q), buffer.getQGramCount(Q));
+                assertEquals(QGramUtil.calcUniqueQgramsCount(objects[i], types[i], Q), buffer.getUniqueQGramCount(Q));
+            }
+        }
+    }
 }
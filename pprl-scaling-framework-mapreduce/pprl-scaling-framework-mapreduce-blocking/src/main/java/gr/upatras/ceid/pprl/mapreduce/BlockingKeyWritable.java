@@ -8,12 +8,15 @@ import java.io.IOException;
 import java.util.BitSet;
 
 /**
- * A Hamming blocking key writable.
+ * A Hamming blocking key writable. Serialized in a fixed width of
+ * <code>SERIALIZED_LENGTH</code> bytes : group id (int), hash (long) and dataset id (char).
  */
 public class BlockingKeyWritable implements WritableComparable<BlockingKeyWritable> {
 
+    public static final int SERIALIZED_LENGTH = 4 + 8 + 2;
+
     public int blockingGroupId;
-    public BitSet hash;
+    public long hash;
     public char datasetId;
 
     /**
@@ -24,32 +27,44 @@ public class BlockingKeyWritable implements WritableComparable<BlockingKeyWritab
     /**
      * Constructor.
      * @param blockingGroupId the group id.
-     * @param hash the hash value.
+     * @param hash the hash value (bit i of the hash is the i-th sampled bit).
      * @param dataset source dataset
      */
-    public BlockingKeyWritable(int blockingGroupId, BitSet hash, char dataset) {
+    public BlockingKeyWritable(int blockingGroupId, long hash, char dataset) {
+        set(blockingGroupId, hash, dataset);
+    }
+
+    /**
+     * Sets the fields of this key, so a single instance can be written repeatedly.
+     *
+     * @param blockingGroupId the group id.
+     * @param hash the hash value (bit i of the hash is the i-th sampled bit).
+     * @param dataset source dataset
+     */
+    public void set(int blockingGroupId, long hash, char dataset) {
         this.blockingGroupId = blockingGroupId;
         this.hash = hash;
         this.datasetId = dataset;
     }
 
+    /**
+     * Returns the hash as a long key.
+     *
+     * @return the hash as a long key.
+     */
+    public long getKey() {
+        return hash;
+    }
+
     public void write(DataOutput out) throws IOException {
         out.writeInt(blockingGroupId);
-        byte[] bytes = hash.toByteArray();
-        out.writeInt(bytes.length);
-        for (byte aByte : bytes) {
-            out.write(aByte);
-        }
+        out.writeLong(hash);
         out.writeChar(datasetId);
     }
 
     public void readFields(DataInput in) throws IOException {
         blockingGroupId = in.readInt();
-        byte[] bytes= new byte[in.readInt()];
-        for (int i = 0; i < bytes.length; i++) {
-            bytes[i] = in.readByte();
-        }
-        hash = BitSet.valueOf(bytes);
+        hash = in.readLong();
         datasetId = in.readChar();
     }
 
@@ -57,11 +72,9 @@ public class BlockingKeyWritable implements WritableComparable<BlockingKeyWritab
     public boolean equals(Object o) {
         if(o instanceof BlockingKeyWritable) {
             BlockingKeyWritable that = (BlockingKeyWritable) o;
-
-            if (blockingGroupId != that.blockingGroupId) return false;
-            if (datasetId != that.datasetId) return false;
-
-            return !(hash != null ? !hash.equals(that.hash) : that.hash != null);
+            return blockingGroupId == that.blockingGroupId &&
+                    hash == that.hash &&
+                    datasetId == that.datasetId;
         }
         return false;
     }
@@ -69,19 +82,18 @@ public class BlockingKeyWritable implements WritableComparable<BlockingKeyWritab
     @Override
     public int hashCode() {
         int result = blockingGroupId;
-        result = 31 * result + (hash != null ? hash.hashCode() : 0);
+        result = 31 * result + (int) (hash ^ (hash >>> 32));
         result = 31 * result + (int) datasetId;
         return result;
     }
 
     /**
-     * Comparison between two blocking keys.
+     * Comparison between two blocking keys (group id, then hash as unsigned, then dataset id).
      *
      * @param o the other blocking key.
-     * @return 1
+     * @return -1, 0 or 1.
      */
     public int compareTo(BlockingKeyWritable o) {
-        if(this.equals(o)) return 0;
         int c0 = (blockingGroupId > o.blockingGroupId) ? 1 :
                 (blockingGroupId == o.blockingGroupId) ? 0 : -1;
         if(c0!=0) return c0;
@@ -92,18 +104,16 @@ public class BlockingKeyWritable implements WritableComparable<BlockingKeyWritab
     }
 
     /**
-     * Compare two bitsets (lexicographically)
+     * Compare two hashes as unsigned longs.
      *
-     * @param b1 BitSet 1.
-     * @param b2 BitSet 2.
-     * @return -1 if 1 is greater than 2, 0 if equal , 1 if 2 is greater than 1.
+     * @param h1 hash 1.
+     * @param h2 hash 2.
+     * @return -1 if 2 is greater than 1, 0 if equal , 1 if 1 is greater than 2.
      */
-    private static int compareHashes(final BitSet b1, final BitSet b2) {
-        if (b1.equals(b2)) return 0;
-        BitSet xor = (BitSet)b1.clone();
-        xor.xor(b2);
-        int firstDifferent = xor.length()-1;
-        return b2.get(firstDifferent) ? -1 : 1;
+    static int compareHashes(final long h1, final long h2) {
+        final long u1 = h1 ^ Long.MIN_VALUE;
+        final long u2 = h2 ^ Long.MIN_VALUE;
+        return (u1 < u2) ? -1 : ((u1 == u2) ? 0 : 1);
     }
 
     @Override
@@ -120,7 +130,7 @@ public class BlockingKeyWritable implements WritableComparable<BlockingKeyWritab
     public String toString(int K) {
         StringBuilder sb = new StringBuilder();
         for (int i = (K-1); i >= 0; i--)
-            sb.append(hash.get(i)?"1":"0");
+            sb.append(((hash >>> i) & 1L) != 0 ?"1":"0");
         return String.format(
                 "%5d_%s_%c",blockingGroupId,sb.toString(), datasetId);
     }
@@ -142,6 +152,6 @@ public class BlockingKeyWritable implements WritableComparable<BlockingKeyWritab
     public static boolean sameBlockingKey(final BlockingKeyWritable akey,
                                           final BlockingKeyWritable bkey) {
         assert akey.datasetId == 'A' && bkey.datasetId == 'B';
-        return akey.blockingGroupId == bkey.blockingGroupId && akey.hash.equals(bkey.hash);
+        return akey.blockingGroupId == bkey.blockingGroupId && akey.hash == bkey.hash;
     }
 }
@@ -2,13 +2,13 @@ package gr.upatras.ceid.pprl.mapreduce;
 
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Partitioner;
 
 /**
  * A partitioner for this key class.
  */
-public class BlockingKeyWritablePartitioner extends Partitioner<BlockingKeyWritable,Text> implements Configurable {
+public class BlockingKeyWritablePartitioner extends Partitioner<BlockingKeyWritable,Writable> implements Configurable {
 
     private Configuration conf;
     private RangesInRanges RR;
@@ -26,7 +26,7 @@ public class BlockingKeyWritablePartitioner extends Partitioner<BlockingKeyWrita
     }
 
     @Override
-    public int getPartition(BlockingKeyWritable key, Text value, int numPartitions) {
+    public int getPartition(BlockingKeyWritable key, Writable value, int numPartitions) {
         assert key.blockingGroupId >= 0 && key.blockingGroupId < L;
         if(L == numPartitions) return key.blockingGroupId;
         if(RR == null) RR = new RangesInRanges(0,L-1,numPartitions);
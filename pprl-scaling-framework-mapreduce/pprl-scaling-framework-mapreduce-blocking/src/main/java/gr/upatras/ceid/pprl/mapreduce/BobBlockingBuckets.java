@@ -0,0 +1,156 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import gr.upatras.ceid.pprl.blocking.HammingLSHBucketIndex;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bob Blocking Buckets class. Holds one <code>HammingLSHBucketIndex</code> per
+ * blocking group, bob record ids are stored once and addressed by ordinals.
+ */
+public class BobBlockingBuckets {
+
+    private final HammingLSHBucketIndex[] indices;     // bucket index per blocking group.
+    private final Map<String,Integer> id2OrdinalMap;   // bob record id to ordinal map.
+    private final List<String> ids;                    // ordinal to bob record id (if ordinals are assigned here).
+    private final boolean assignOrdinals;              // true if ordinals are assigned on load.
+
+    /**
+     * Constructor, ordinals are assigned while loading buckets.
+     *
+     * @param L number of blocking groups.
+     * @param bucketCapacity expected number of buckets per blocking group.
+     * @param recordCapacity expected number of bob records.
+     */
+    public BobBlockingBuckets(final int L, final int bucketCapacity, final int recordCapacity) {
+        indices = new HammingLSHBucketIndex[L];
+        for (int i = 0; i < L; i++)
+            indices[i] = new HammingLSHBucketIndex(bucketCapacity, recordCapacity);
+        id2OrdinalMap = new HashMap<String,Integer>((int)(recordCapacity/0.75f + 1), 0.75f);
+        ids = new ArrayList<String>(recordCapacity);
+        assignOrdinals = true;
+    }
+
+    /**
+     * Constructor, ordinals are taken from an existing id to ordinal map.
+     *
+     * @param L number of blocking groups.
+     * @param bucketCapacity expected number of buckets per blocking group.
+     * @param id2OrdinalMap existing bob record id to ordinal map.
+     */
+    public BobBlockingBuckets(final int L, final int bucketCapacity, final Map<String,Integer> id2OrdinalMap) {
+        indices = new HammingLSHBucketIndex[L];
+        for (int i = 0; i < L; i++)
+            indices[i] = new HammingLSHBucketIndex(bucketCapacity, id2OrdinalMap.size());
+        this.id2OrdinalMap = id2OrdinalMap;
+        ids = null;
+        assignOrdinals = false;
+    }
+
+    /**
+     * Load buckets from <code>SequenceFile</code>s of <code>BlockingKeyWritable</code> and
+     * <code>TextArrayWritable</code> pairs and build the indices.
+     *
+     * @param conf a configuration.
+     * @param bucketPaths bucket paths.
+     * @throws IOException
+     */
+    public void load(final Configuration conf, final Collection<Path> bucketPaths) throws IOException {
+        int i = 1;
+        for (Path bucketPath : bucketPaths) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(bucketPath));
+            BlockingKeyWritable key = new BlockingKeyWritable();
+            TextArrayWritable bobIds = new TextArrayWritable();
+            while(reader.next(key,bobIds)) {
+                for (Text bobId : bobIds.get())
+                    add(key.blockingGroupId, key.hash, bobId.toString());
+            }
+            reader.close();
+            System.out.format("Loading bob buckets...(%d/%d)\n", i, bucketPaths.size());
+            i++;
+        }
+        build();
+    }
+
+    /**
+     * Adds a bob record id in a bucket.
+     *
+     * @param blockingGroupId blocking group id.
+     * @param hash hash value.
+     * @param id bob record id.
+     */
+    public void add(final int blockingGroupId, final long hash, final String id) {
+        indices[blockingGroupId].add(hash, ordinal(id));
+    }
+
+    /**
+     * Builds the bucket indices.
+     */
+    public void build() {
+        for (HammingLSHBucketIndex index : indices) index.build();
+    }
+
+    /**
+     * Returns the bucket index of a blocking group.
+     *
+     * @param blockingGroupId blocking group id.
+     * @return the bucket index of a blocking group.
+     */
+    public HammingLSHBucketIndex getIndex(final int blockingGroupId) {
+        return indices[blockingGroupId];
+    }
+
+    /**
+     * Returns all bucket indices.
+     *
+     * @return all bucket indices.
+     */
+    public HammingLSHBucketIndex[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * Returns the bob record id of an ordinal (only if ordinals are assigned on load).
+     *
+     * @param ordinal a bob record ordinal.
+     * @return the bob record id.
+     */
+    public String getId(final int ordinal) {
+        if(!assignOrdinals) throw new IllegalStateException("Ordinals are not assigned by buckets.");
+        return ids.get(ordinal);
+    }
+
+    /**
+     * Returns the number of bob record ordinals.
+     *
+     * @return the number of bob record ordinals.
+     */
+    public int getOrdinalCount() {
+        return assignOrdinals ? ids.size() : id2OrdinalMap.size();
+    }
+
+    /**
+     * Returns the ordinal of a bob record id.
+     *
+     * @param id a bob record id.
+     * @return the ordinal of a bob record id.
+     */
+    private int ordinal(final String id) {
+        final Integer ordinal = id2OrdinalMap.get(id);
+        if(ordinal != null) return ordinal;
+        if(!assignOrdinals) throw new IllegalStateException("Unknown bob record id : " + id);
+        final int newOrdinal = ids.size();
+        ids.add(id);
+        id2OrdinalMap.put(id, newOrdinal);
+        return newOrdinal;
+    }
+}
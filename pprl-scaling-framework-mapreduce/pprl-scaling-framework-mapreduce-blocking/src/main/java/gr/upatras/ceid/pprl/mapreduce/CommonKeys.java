@@ -28,4 +28,9 @@ public class CommonKeys {
     public static final String HAMMING_THRESHOLD = "hamming.threshold";
     public static final String BUCKET_INITIAL_CAPACITY = "blocking.bucket.capacity";
     public static final String BOB_DATA_PATH = "bob.avro.path";
+    public static final String BOB_STORE_UID_LENGTH = "bob.store.uid.length";
+    public static final String PAIR_COUNT_TABLE_CAPACITY = "pair.count.table.capacity";
+    public static final String BOB_SHARD_COUNT = "bob.shard.count";
+    public static final String BOB_SHARD_FILTER_BITS = "bob.shard.filter.bits";
+    public static final String BOB_SHARD_FILTER_BYTES = "bob.shard.filter.bytes";
 }
@@ -1,20 +1,66 @@
 package gr.upatras.ceid.pprl.mapreduce;
 
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.ShortWritable;
-import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import java.io.IOException;
 
 /**
- * Count Id pairs mapper.
+ * Count Id pairs mapper. Pair counts are aggregated in a bounded table
+ * (pair to partial count), flushed when the table is full and at cleanup.
+ * A pair whose partial count reaches C is emitted at once with count C, and its
+ * later occurrences are dropped until the next flush.
  */
-public class CountIdPairsMapper extends Mapper <Text,Text,TextPairWritable,ShortWritable> {
+public class CountIdPairsMapper extends Mapper <LongPairWritable,NullWritable,LongPairWritable,ShortWritable> {
 
     public static ShortWritable ONE = new ShortWritable((short)1);
+    public static final int DEFAULT_TABLE_CAPACITY = LongPairCountTable.DEFAULT_CAPACITY;
+
+    private short C;
+    private LongPairCountTable table;
+    private final LongPairWritable pair = new LongPairWritable();
+    private final ShortWritable count = new ShortWritable();
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        C = (short) context.getConfiguration().getInt(CommonKeys.FREQUENT_PAIR_LIMIT, -1);
+        if(C < 0) throw new InterruptedException("C is not set.");
+        table = new LongPairCountTable(
+                context.getConfiguration().getInt(CommonKeys.PAIR_COUNT_TABLE_CAPACITY, DEFAULT_TABLE_CAPACITY));
+    }
 
     @Override
-    protected void map(Text key, Text value, Context context) throws IOException, InterruptedException {
-        context.write(new TextPairWritable(key,value),ONE);
+    protected void map(LongPairWritable key, NullWritable value, Context context) throws IOException, InterruptedException {
+        final short c = table.increase(key.getFirst(), key.getSecond(), C);
+        if(c > 0 && c >= C) write(key.getFirst(), key.getSecond(), c, context);
+        if(table.isFull()) flush(context);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        flush(context);
+    }
+
+    /**
+     * Writes the pairs whose partial counts are below C and empties the table.
+     *
+     * @param context context.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void flush(final Context context) throws IOException, InterruptedException {
+        for (int e = 0; e < table.getCapacity(); e++) {
+            final short c = table.getCount(e);
+            if(c != 0 && c < C) write(table.getFirst(e), table.getSecond(e), c, context);
+        }
+        table.clear();
+    }
+
+    private void write(final long first, final long second, final short c, final Context context)
+            throws IOException, InterruptedException {
+        pair.set(first, second);
+        count.set(c);
+        context.write(pair, count);
     }
 }
@@ -2,6 +2,9 @@ package gr.upatras.ceid.pprl.mapreduce;
 
 import com.javamex.classmexer.MemoryUtil;
 import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
+import gr.upatras.ceid.pprl.blocking.HammingLSHBucketIndex;
+import gr.upatras.ceid.pprl.blocking.HammingLSHCollisionCounter;
+import gr.upatras.ceid.pprl.blocking.HammingLSHKeyExtractor;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
 import org.apache.avro.Schema;
@@ -10,18 +13,11 @@ import org.apache.avro.mapred.AvroKey;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.NullWritable;
-import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import java.io.IOException;
 import java.net.URI;
-import java.nio.charset.CharacterCodingException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.BitSet;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -31,10 +27,11 @@ import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.*;
  * FPS Mapper class (v2).
  */
 public class FPSMapperV2 extends Mapper<AvroKey<GenericRecord>,NullWritable,AvroKey<GenericRecord>,Text> {
-    private Map<BitSet,ArrayList<byte[]>>[] bobBuckets;
-    private Map<String,Short> counters;
+    private BobBlockingBuckets bobBuckets;
+    private HammingLSHCollisionCounter counters;
 
     private HammingLSHBlocking blocking;
+    private HammingLSHKeyExtractor extractor;
     private String uidFieldName;
     private String encodingFieldName;
     private char dataset;
@@ -45,14 +42,17 @@ public class FPSMapperV2 extends Mapper<AvroKey<GenericRecord>,NullWritable,Avro
     @Override
     protected void map(AvroKey<GenericRecord> key, NullWritable value, Context context)
             throws IOException, InterruptedException {
-        final BitSet[] keys = blocking.hashRecord(key.datum(), encodingFieldName);
-        if(!counters.isEmpty()) counters.clear();
+        final long[] keys = extractor.hash(key.datum(), encodingFieldName);
+        counters.reset();
         for (int i = 0; i < keys.length; i++) {
-            ArrayList<byte[]> bobIds = bobBuckets[i].get(keys[i]);
-            if(bobIds == null) continue;
-            for (byte[] bobId : bobIds) {
-                boolean isFrequent = increaseFPSCount(bobId);
+            final HammingLSHBucketIndex index = bobBuckets.getIndex(i);
+            final int bucket = index.bucket(keys[i]);
+            if(bucket < 0) continue;
+            final int[] postings = index.getPostings();
+            for (int p = index.start(bucket); p < index.end(bucket); p++) {
+                boolean isFrequent = increaseFPSCount(postings[p]);
                 if(isFrequent) {
+                    final String bobId = bobBuckets.getId(postings[p]);
                     frequentPairsCount++;
                     context.write(key, new Text(bobId));
                 }
@@ -83,23 +83,15 @@ public class FPSMapperV2 extends Mapper<AvroKey<GenericRecord>,NullWritable,Avro
     }
 
     /**
-     * Increase the counter for a specific id. Returns true
+     * Increase the counter for a specific ordinal. Returns true
      * if the increase is equal to C (frequent pair collision limit), false
      * otherwise.
      *
-     * @param bobId a bob record id.
+     * @param bobOrdinal a bob record ordinal.
      * @return true if the increase is equal to C (frequent pair collision limit), false otherwise.
      */
-    private boolean increaseFPSCount(final byte[] bobId) throws CharacterCodingException {
-        final String str = Text.decode(bobId);
-        if(!counters.containsKey(str)) {
-            counters.put(str,(short)1);
-            return false;
-        }
-        short count = counters.get(str);
-        count++;
-        counters.put(str,count);
-        return count == C;
+    private boolean increaseFPSCount(final int bobOrdinal) {
+        return counters.increase(bobOrdinal) == C;
     }
 
     /**
@@ -141,6 +133,7 @@ public class FPSMapperV2 extends Mapper<AvroKey<GenericRecord>,NullWritable,Avro
             BloomFilterEncoding bobEncoding = BloomFilterEncodingUtil.setupNewInstance(
                     ((new Schema.Parser()).parse(bobSchemaString)));
             blocking = new HammingLSHBlocking(blockingKeys, aliceEncoding, bobEncoding);
+            extractor = blocking.newKeyExtractor();
             C = (short) context.getConfiguration().getInt(CommonKeys.FREQUENT_PAIR_LIMIT, -1);
             if(C < 0) throw new InterruptedException("C is not set.");
         } catch (Exception e) {throw new InterruptedException(e.getMessage());}
@@ -158,12 +151,8 @@ public class FPSMapperV2 extends Mapper<AvroKey<GenericRecord>,NullWritable,Avro
         final Configuration conf = context.getConfiguration();
 
         final int actualCapacity = conf.getInt(CommonKeys.BUCKET_INITIAL_CAPACITY,16);
-        final float fillFactor = 0.75f;
-        final int capacity = (int)(actualCapacity/fillFactor + 1);
-
-        bobBuckets = new Map[blocking.getL()];
-        for(int i=0 ; i < blocking.getL() ; i++)
-            bobBuckets[i] = new HashMap<BitSet, ArrayList<byte[]>>(capacity,fillFactor);
+        final int bobRecordCount = conf.getInt(CommonKeys.BOB_RECORD_COUNT_COUNTER,16);
+        bobBuckets = new BobBlockingBuckets(blocking.getL(), actualCapacity, bobRecordCount);
 
         final SortedSet<Path> bucketPaths = new TreeSet<Path>();
         for(final URI uri : context.getCacheFiles()) {
@@ -172,51 +161,18 @@ public class FPSMapperV2 extends Mapper<AvroKey<GenericRecord>,NullWritable,Avro
         }
 
         System.out.println("Loading bob buckets...");
-        int i = 1;
-        System.out.format("Loading bob buckets...(%d/%d)\n",
-                i, bucketPaths.size());
-        for (Path bucketPath : bucketPaths) {
-            SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(bucketPath));
-            BlockingKeyWritable key = new BlockingKeyWritable();
-            TextArrayWritable bobIds = new TextArrayWritable();
-            while(reader.next(key,bobIds)) {
-                for (Text bobId : bobIds.get())
-                    populateBobBuckets(key.blockingGroupId, key.hash,bobId);
-            }
-            reader.close();
-            System.out.format("Loading bob buckets...(%d/%d)\n", i, bucketPaths.size());
-            i++;
-        }
-        long bobBucketsBytes = MemoryUtil.deepMemoryUsageOfAll(Arrays.asList(bobBuckets));
+        bobBuckets.load(conf, bucketPaths);
+        long bobBucketsBytes = MemoryUtil.deepMemoryUsageOf(bobBuckets);
         System.out.println("Bob buckets memory footprint : " + bobBucketsBytes/(1024*1024) + " MB");
         increaseTotalByteCounter(context, bobBucketsBytes);
     }
 
-    /**
-     * Populate bob buckets
-     *
-     * @param bgid blokcing group id.
-     * @param hash hash value.
-     * @param id record id.
-     */
-    private void populateBobBuckets(final int bgid,final BitSet hash, final Text id) {
-        ArrayList<byte[]> ids = bobBuckets[bgid].get(hash);
-        if(ids == null) {
-            ids = new ArrayList<byte[]>();
-            ids.add(Arrays.copyOf(id.getBytes(), id.getLength()));
-            bobBuckets[bgid].put(hash,ids);
-        } else ids.add(Arrays.copyOf(id.getBytes(), id.getLength()));
-    }
-
     /**
      * Initializes counters.
      *
      * @param context context
      */
     private void initCounters(final Context context) {
-        final int actualCapacity = context.getConfiguration().getInt(CommonKeys.BOB_RECORD_COUNT_COUNTER, 16);
-        final float fillFactor = 0.75f;
-        final int capacity = (int)(actualCapacity/fillFactor + 1);
-        counters = new HashMap<String,Short>(capacity,fillFactor);
+        counters = new HammingLSHCollisionCounter(bobBuckets.getOrdinalCount());
     }
 }
@@ -1,32 +1,28 @@
 package gr.upatras.ceid.pprl.mapreduce;
 
-import com.javamex.classmexer.MemoryUtil;
 import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
-import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
-import gr.upatras.ceid.pprl.encoding.BloomFilter;
+import gr.upatras.ceid.pprl.blocking.HammingLSHBucketFile;
+import gr.upatras.ceid.pprl.blocking.HammingLSHCollisionCounter;
+import gr.upatras.ceid.pprl.blocking.HammingLSHKeyExtractor;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterStore;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
 import gr.upatras.ceid.pprl.matching.PrivateSimilarityUtil;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.mapred.AvroKey;
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.NullWritable;
-import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.charset.CharacterCodingException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.BitSet;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -37,15 +33,14 @@ import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.*;
  */
 public class FPSMapperV3 extends Mapper<AvroKey<GenericRecord>,NullWritable,Text,Text> {
 
-    private String bobEncodingFieldName;
-    private Map<BitSet,ArrayList<byte[]>>[] bobBuckets;
-    private Map<String,Short> counters;
-
-    private GenericRecord[] bobRecords;
-    private Map<String,Integer> bobId2IndexMap;
+    private HammingLSHBucketFile[] bobBuckets;
+    private HammingLSHCollisionCounter counters;
 
+    private BloomFilterStore bobStore;
+    private int[] bobOnesCounts;                // bob ordinal to bloom filter ones count.
 
     private HammingLSHBlocking blocking;
+    private HammingLSHKeyExtractor extractor;
     private String uidFieldName;
     private String encodingFieldName;
     private char dataset;
@@ -55,27 +50,34 @@ public class FPSMapperV3 extends Mapper<AvroKey<GenericRecord>,NullWritable,Text
     private short C;
     private int N;
     private int hammingThreshold;
+    private BloomFilterView aliceView;
+    private BloomFilterView bobView;
+    private long[] aliceWords;
 
     @Override
     protected void map(AvroKey<GenericRecord> key, NullWritable value, Context context)
             throws IOException, InterruptedException {
         GenericRecord aliceRecord =  key.datum();
         final Text aliceId = new Text(String.valueOf(aliceRecord.get(uidFieldName)));
-        final BitSet[] keys = blocking.hashRecord(aliceRecord, encodingFieldName);
-        if(!counters.isEmpty()) counters.clear();
+        final long[] keys = extractor.hash(aliceRecord, encodingFieldName);
+        BloomFilterEncodingUtil.retrieveBloomFilterView(aliceRecord,
+                encodingFieldName, aliceView).copyWordsTo(aliceWords, 0);
+        final BloomFilterView bf1 = aliceView.wrap(aliceWords, 0);
+        counters.reset();
         for (int i = 0; i < keys.length; i++) {
-            ArrayList<byte[]> bobIds = bobBuckets[i].get(keys[i]);
-            if(bobIds == null) continue;
-            for (byte[] bobId : bobIds) {
-                boolean isFrequent = increaseFPSCount(bobId);
+            final HammingLSHBucketFile bucketFile = bobBuckets[i];
+            final int bucket = bucketFile.bucket(keys[i]);
+            if(bucket < 0) continue;
+            final int end = bucketFile.end(bucket);
+            for (int p = bucketFile.start(bucket); p < end; p++) {
+                final int bobOrdinal = bucketFile.posting(p);
+                boolean isFrequent = increaseFPSCount(bobOrdinal);
                 if(isFrequent) {
+                    final String bobId = bobStore.getUid(bobOrdinal);
                     frequentPairsCount++;
-                    GenericRecord bobRecord = bobRecords[bobId2IndexMap.get(Text.decode(bobId))];
                     context.write(aliceId, new Text(bobId));
-                    final BloomFilter bf1 = BloomFilterEncodingUtil.retrieveBloomFilter(aliceRecord,
-                            encodingFieldName, N);
-                    final BloomFilter bf2 = BloomFilterEncodingUtil.retrieveBloomFilter(bobRecord,
-                            bobEncodingFieldName, N);
+                    final BloomFilterView bf2 = bobStore.retrieveBloomFilterView(bobOrdinal, bobView);
+                    bf2.setOnesCount(bobOnesCounts[bobOrdinal]);
                     if (PrivateSimilarityUtil.similarity("hamming", bf1, bf2, hammingThreshold)) {
                         context.write(new Text(aliceId), new Text(bobId));
                         matchedPairCount++;
@@ -91,7 +93,7 @@ public class FPSMapperV3 extends Mapper<AvroKey<GenericRecord>,NullWritable,Text
         context.nextKeyValue();
         final Schema s = context.getCurrentKey().datum().getSchema();
         setupMapper(s,context);
-        loadBobRecords(context);
+        loadBobStore(context);
         loadBobBuckets(context);
         initCounters(context);
         long recordCount = 0;
@@ -149,120 +151,87 @@ public class FPSMapperV3 extends Mapper<AvroKey<GenericRecord>,NullWritable,Text
             BloomFilterEncoding bobEncoding = BloomFilterEncodingUtil.setupNewInstance(
                     ((new Schema.Parser()).parse(bobSchemaString)));
             blocking = new HammingLSHBlocking(blockingKeys, aliceEncoding, bobEncoding);
+            extractor = blocking.newKeyExtractor();
             C = (short) context.getConfiguration().getInt(CommonKeys.FREQUENT_PAIR_LIMIT, -1);
             if(C < 0) throw new InterruptedException("C is not set.");
             N = aliceEncoding.getBFN();
+            aliceView = new BloomFilterView(N);
+            bobView = new BloomFilterView(N);
+            aliceWords = new long[aliceView.getWordCount()];
             hammingThreshold = context.getConfiguration().getInt(CommonKeys.HAMMING_THRESHOLD, 100);
         } catch (Exception e) {throw new InterruptedException(e.getMessage());}
     }
 
     /**
-     * Load bob's records.
+     * Load bob's records from the memory-mapped bloom filter store files.
      *
      * @param context context
      * @throws IOException
      */
-    private void loadBobRecords(Context context) throws IOException {
-        final String bobSchemaString = context.getConfiguration().get(CommonKeys.BOB_SCHEMA);
-        if (bobSchemaString == null) throw new IllegalStateException("Bob schema not set.");
-        final Schema bobSchema = (new Schema.Parser()).parse(bobSchemaString);
-        final String bobAvroPathUri = context.getConfiguration().get(CommonKeys.BOB_DATA_PATH,null);
-        if (bobAvroPathUri == null) throw new IllegalStateException("Bob avro path not set.");
-        final Path bobAvroPath;
-        try {
-            bobAvroPath = new Path(new URI(bobAvroPathUri));
-        } catch (URISyntaxException e) {throw new IOException(e.getMessage());}
-
+    private void loadBobStore(final Context context) throws IOException {
         final int bobRecordCount = context.getConfiguration().getInt(CommonKeys.BOB_RECORD_COUNT_COUNTER, -1);
         if(bobRecordCount < 0) throw new IllegalStateException("Bob record count not set.");
 
-        bobEncodingFieldName = blocking.getBobEncodingFieldName();
-        String bobUidFieldName = context.getConfiguration().get(CommonKeys.BOB_UID, null);
-        if (bobUidFieldName == null) throw new IllegalStateException("Bob uid not set.");
+        final SortedSet<Path> storePaths = new TreeSet<Path>();
+        for(final URI uri : context.getCacheFiles()) {
+            if(uri.toString().endsWith(BloomFilterStore.FILE_EXTENSION))
+                storePaths.add(new Path(uri));
+        }
+        if(storePaths.isEmpty()) throw new IllegalStateException("Bob store files not set.");
 
+        // map the localized (symlinked) cache files, copy them locally if not found.
         final FileSystem fs = FileSystem.get(context.getConfiguration());
-        final DatasetsUtil.DatasetRecordReader reader =
-                new DatasetsUtil.DatasetRecordReader(fs,bobSchema,bobAvroPath);
-
-        System.out.println("Loading bob records...");
-        int i = 0;
-        bobRecords = new GenericRecord[bobRecordCount];
-        bobId2IndexMap = new HashMap<String, Integer>((int)(bobRecordCount/0.75f + 1),0.75f);
-        try {
-            while (reader.hasNext()) {
-                bobRecords[i] = reader.next();
-                bobId2IndexMap.put(String.valueOf(bobRecords[i].get(bobUidFieldName)), i);
-                i++;
-            }
-        } finally {
-            reader.close();
+        final List<File> storeFiles = new ArrayList<File>(storePaths.size());
+        for (Path storePath : storePaths) {
+            final File storeFile = new File(storePath.getName());
+            if(!storeFile.exists())
+                fs.copyToLocalFile(storePath, new Path(storeFile.getAbsolutePath()));
+            storeFiles.add(storeFile);
         }
 
-        long bobRecordsBytes = MemoryUtil.deepMemoryUsageOf(bobRecords) +
-                MemoryUtil.deepMemoryUsageOf(bobId2IndexMap);
-        System.out.println("Bob records memory footprint : " + bobRecordsBytes/(1024*1024) + " MB");
-        increaseTotalByteCounter(context, bobRecordsBytes);
+        System.out.println("Loading bob records...");
+        bobStore = new BloomFilterStore(storeFiles);
+        if(bobStore.getRecordCount() != bobRecordCount)
+            throw new IllegalStateException("Bob store holds " + bobStore.getRecordCount() +
+                    " records, expected " + bobRecordCount + ".");
+        bobOnesCounts = new int[bobRecordCount];
+        for (int bobOrdinal = 0; bobOrdinal < bobRecordCount; bobOrdinal++)
+            bobOnesCounts[bobOrdinal] = bobStore.retrieveBloomFilterView(bobOrdinal, bobView).getOnesCount();
+        System.out.println("Bob records mapped : " + bobStore.getMappedByteCount()/(1024*1024) + " MB");
     }
 
     /**
-     * Load bob's blocking buckets.
+     * Load bob's blocking buckets from the memory-mapped bucket files (one per blocking group).
      *
      * @param context context
      * @throws IOException
      */
     private void loadBobBuckets(final Context context)
             throws IOException {
-        final Configuration conf = context.getConfiguration();
-
-        final int actualCapacity = conf.getInt(CommonKeys.BUCKET_INITIAL_CAPACITY,16);
-        final float fillFactor = 0.75f;
-        final int capacity = (int)(actualCapacity/fillFactor + 1);
-
-        bobBuckets = new Map[blocking.getL()];
-        for(int i=0 ; i < blocking.getL() ; i++)
-            bobBuckets[i] = new HashMap<BitSet, ArrayList<byte[]>>(capacity,fillFactor);
-
         final SortedSet<Path> bucketPaths = new TreeSet<Path>();
         for(final URI uri : context.getCacheFiles()) {
-            if(!uri.toString().endsWith("jar"))
-            bucketPaths.add(new Path(uri));
+            if(uri.toString().endsWith(HammingLSHBucketFile.FILE_EXTENSION))
+                bucketPaths.add(new Path(uri));
         }
 
         System.out.println("Loading bob buckets...");
-        int i = 1;
-        System.out.format("Loading bob buckets...(%d/%d)\n",
-                i, bucketPaths.size());
+        final FileSystem fs = FileSystem.get(context.getConfiguration());
+        bobBuckets = new HammingLSHBucketFile[blocking.getL()];
+        long bobBucketsBytes = 0;
         for (Path bucketPath : bucketPaths) {
-            SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(bucketPath));
-            BlockingKeyWritable key = new BlockingKeyWritable();
-            TextArrayWritable bobIds = new TextArrayWritable();
-            while(reader.next(key,bobIds)) {
-                for (Text bobId : bobIds.get())
-                    populateBobBuckets(key.blockingGroupId, key.hash,bobId);
-            }
-            reader.close();
-            System.out.format("Loading bob buckets...(%d/%d)\n", i, bucketPaths.size());
-            i++;
+            final File bucketFile = new File(bucketPath.getName());
+            if(!bucketFile.exists())
+                fs.copyToLocalFile(bucketPath, new Path(bucketFile.getAbsolutePath()));
+            final HammingLSHBucketFile bucketsOfGroup = new HammingLSHBucketFile(bucketFile);
+            if(bucketsOfGroup.getGroupId() < 0 || bucketsOfGroup.getGroupId() >= bobBuckets.length ||
+                    bobBuckets[bucketsOfGroup.getGroupId()] != null)
+                throw new IllegalStateException("Unexpected bucket file : " + bucketPath);
+            bobBuckets[bucketsOfGroup.getGroupId()] = bucketsOfGroup;
+            bobBucketsBytes += bucketsOfGroup.getMappedByteCount();
         }
-        long bobBucketsBytes = MemoryUtil.deepMemoryUsageOfAll(Arrays.asList(bobBuckets));
-        System.out.println("Bob buckets memory footprint : " + bobBucketsBytes/(1024*1024) + " MB");
-        increaseTotalByteCounter(context, bobBucketsBytes);
-    }
-
-    /**
-     * Populate bob buckets
-     *
-     * @param bgid blokcing group id.
-     * @param hash hash value.
-     * @param id record id.
-     */
-    private void populateBobBuckets(final int bgid,final BitSet hash, final Text id) {
-        ArrayList<byte[]> ids = bobBuckets[bgid].get(hash);
-        if(ids == null) {
-            ids = new ArrayList<byte[]>();
-            ids.add(Arrays.copyOf(id.getBytes(), id.getLength()));
-            bobBuckets[bgid].put(hash,ids);
-        } else ids.add(Arrays.copyOf(id.getBytes(), id.getLength()));
+        for (int i = 0; i < bobBuckets.length; i++)
+            if(bobBuckets[i] == null) throw new IllegalStateException("Bucket file of group " + i + " not found.");
+        System.out.println("Bob buckets mapped : " + bobBucketsBytes/(1024*1024) + " MB");
     }
 
     /**
@@ -271,29 +240,18 @@ public class FPSMapperV3 extends Mapper<AvroKey<GenericRecord>,NullWritable,Text
      * @param context context
      */
     private void initCounters(final Context context) {
-        final int actualCapacity = context.getConfiguration().getInt(CommonKeys.BOB_RECORD_COUNT_COUNTER, 16);
-        final float fillFactor = 0.75f;
-        final int capacity = (int)(actualCapacity/fillFactor + 1);
-        counters = new HashMap<String,Short>(capacity,fillFactor);
+        counters = new HammingLSHCollisionCounter(bobStore.getRecordCount());
     }
 
     /**
-     * Increase the counter for a specific id. Returns true
+     * Increase the counter for a specific ordinal. Returns true
      * if the increase is equal to C (frequent pair collision limit), false
      * otherwise.
      *
-     * @param bobId a bob record id.
+     * @param bobOrdinal a bob record ordinal.
      * @return true if the increase is equal to C (frequent pair collision limit), false otherwise.
      */
-    private boolean increaseFPSCount(final byte[] bobId) throws CharacterCodingException {
-        final String str = Text.decode(bobId);
-        if(!counters.containsKey(str)) {
-            counters.put(str,(short)1);
-            return false;
-        }
-        short count = counters.get(str);
-        count++;
-        counters.put(str,count);
-        return count == C;
+    private boolean increaseFPSCount(final int bobOrdinal) {
+        return counters.increase(bobOrdinal) == C;
     }
 }
@@ -0,0 +1,170 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import com.javamex.classmexer.MemoryUtil;
+import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
+import gr.upatras.ceid.pprl.blocking.HammingLSHBucketIndex;
+import gr.upatras.ceid.pprl.blocking.HammingLSHCollisionCounter;
+import gr.upatras.ceid.pprl.blocking.HammingLSHKeyExtractor;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
+import gr.upatras.ceid.pprl.matching.PrivateSimilarityUtil;
+import org.apache.avro.Schema;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.*;
+
+/**
+ * FPS Reducer class (v4). Each reducer builds the bucket indices of the bob records
+ * of its shard(s) only, then streams the alice records through them, counting
+ * collisions and verifying the frequent pairs.
+ */
+public class FPSReducerV4 extends Reducer<ShardKeyWritable,RecordBloomFilterWritable,Text,Text> {
+
+    private HammingLSHBlocking blocking;
+    private HammingLSHKeyExtractor extractor;
+    private short C;
+    private int hammingThreshold;
+
+    private int currentShardId = -1;            // shard of the loaded bob records.
+    private HammingLSHBucketIndex[] bobIndices; // bucket index per blocking group.
+    private List<String> bobIds;                // bob ordinal to bob record id.
+    private long[] bobWords;                    // bob ordinal to bloom filter words.
+    private int[] bobOnesCounts;                // bob ordinal to bloom filter ones count.
+    private int wordCount;                      // bloom filter length in 64-bit words.
+    private long[] aliceWords;                  // current alice bloom filter words.
+    private HammingLSHCollisionCounter counters;
+    private BloomFilterView aliceView;
+    private BloomFilterView bobView;
+
+    private long frequentPairsCount;
+    private long matchedPairCount;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        setupBlocking(context);
+        aliceView = new BloomFilterView(blocking.getN());
+        bobView = new BloomFilterView(blocking.getN());
+        wordCount = aliceView.getWordCount();
+        aliceWords = new long[wordCount];
+        frequentPairsCount = 0;
+        matchedPairCount = 0;
+    }
+
+    @Override
+    protected void reduce(ShardKeyWritable key, Iterable<RecordBloomFilterWritable> values, Context context)
+            throws IOException, InterruptedException {
+        if(key.datasetId == 'B') {
+            loadBobShard(key.shardId, values, context);
+            return;
+        }
+
+        // no bob records in this shard
+        if(key.shardId != currentShardId) return;
+
+        for (RecordBloomFilterWritable value : values) {
+            aliceView.wrap(value.getBytes()).copyWordsTo(aliceWords, 0);
+            aliceView.wrap(aliceWords, 0);
+            final long[] keys = extractor.hash(aliceView);
+            Text aliceId = null;
+            counters.reset();
+            for (int i = 0; i < keys.length; i++) {
+                final HammingLSHBucketIndex index = bobIndices[i];
+                final int bucket = index.bucket(keys[i]);
+                if(bucket < 0) continue;
+                final int[] postings = index.getPostings();
+                for (int p = index.start(bucket); p < index.end(bucket); p++) {
+                    final int bobOrdinal = postings[p];
+                    if(counters.increase(bobOrdinal) != C) continue;
+                    frequentPairsCount++;
+                    bobView.wrap(bobWords, bobOrdinal * wordCount).setOnesCount(bobOnesCounts[bobOrdinal]);
+                    if (PrivateSimilarityUtil.hammingWithin(aliceView, bobView, hammingThreshold)) {
+                        if(aliceId == null) aliceId = new Text(value.getUid());
+                        context.write(aliceId, new Text(bobIds.get(bobOrdinal)));
+                        matchedPairCount++;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        increaseFrequentPairCounter(context, frequentPairsCount);
+        increaseMatchedPairsCounter(context, matchedPairCount);
+    }
+
+    /**
+     * Loads the bob records of a shard and builds their bucket indices.
+     *
+     * @param shardId shard id.
+     * @param values bob records of the shard.
+     * @param context context.
+     */
+    private void loadBobShard(final int shardId, final Iterable<RecordBloomFilterWritable> values,
+                              final Context context) {
+        currentShardId = shardId;
+        bobIndices = new HammingLSHBucketIndex[blocking.getL()];
+        for (int i = 0; i < bobIndices.length; i++)
+            bobIndices[i] = new HammingLSHBucketIndex(16, 16);
+        bobIds = new ArrayList<String>();
+        bobWords = new long[16 * wordCount];
+        bobOnesCounts = new int[16];
+
+        System.out.format("Loading bob shard %d...\n", shardId);
+        for (RecordBloomFilterWritable value : values) {
+            assert value.getLength() == bobView.getByteLength();
+            final int bobOrdinal = bobIds.size();
+            bobIds.add(value.getUid().toString());
+            if((bobOrdinal + 1) * wordCount > bobWords.length)
+                bobWords = Arrays.copyOf(bobWords, 2 * bobWords.length);
+            if(bobOrdinal == bobOnesCounts.length)
+                bobOnesCounts = Arrays.copyOf(bobOnesCounts, 2 * bobOnesCounts.length);
+            bobView.wrap(value.getBytes()).copyWordsTo(bobWords, bobOrdinal * wordCount);
+            final long[] keys = extractor.hash(bobView.wrap(bobWords, bobOrdinal * wordCount));
+            bobOnesCounts[bobOrdinal] = bobView.getOnesCount();
+            for (int i = 0; i < keys.length; i++)
+                bobIndices[i].add(keys[i], bobOrdinal);
+        }
+        for (HammingLSHBucketIndex index : bobIndices) index.build();
+        counters = new HammingLSHCollisionCounter(bobIds.size());
+        System.out.format("Loading bob shard %d...(%d records)\n", shardId, bobIds.size());
+
+        long bobShardBytes = MemoryUtil.deepMemoryUsageOf(bobIndices) +
+                MemoryUtil.deepMemoryUsageOf(bobIds) + 8L * bobWords.length + 4L * bobOnesCounts.length;
+        System.out.println("Bob shard memory footprint : " + bobShardBytes/(1024*1024) + " MB");
+        increaseTotalByteCounter(context, bobShardBytes);
+    }
+
+    /**
+     * Setup blocking instance.
+     *
+     * @param context context.
+     * @throws InterruptedException
+     */
+    private void setupBlocking(final Context context) throws InterruptedException {
+        try {
+            final String aliceSchemaString = context.getConfiguration().get(CommonKeys.ALICE_SCHEMA);
+            if (aliceSchemaString == null) throw new IllegalStateException("Alice schema not set.");
+            final String bobSchemaString = context.getConfiguration().get(CommonKeys.BOB_SCHEMA);
+            if (bobSchemaString == null) throw new IllegalStateException("Bob schema not set.");
+            final String[] blockingKeys = context.getConfiguration().getStrings(CommonKeys.BLOCKING_KEYS);
+            if (blockingKeys == null) throw new IllegalStateException("Blocking keys not set.");
+            BloomFilterEncoding aliceEncoding = BloomFilterEncodingUtil.setupNewInstance(
+                    ((new Schema.Parser()).parse(aliceSchemaString)));
+            BloomFilterEncoding bobEncoding = BloomFilterEncodingUtil.setupNewInstance(
+                    ((new Schema.Parser()).parse(bobSchemaString)));
+            blocking = new HammingLSHBlocking(blockingKeys, aliceEncoding, bobEncoding);
+            extractor = blocking.newKeyExtractor();
+            C = (short) context.getConfiguration().getInt(CommonKeys.FREQUENT_PAIR_LIMIT, -1);
+            if(C < 0) throw new InterruptedException("C is not set.");
+            hammingThreshold = context.getConfiguration().getInt(CommonKeys.HAMMING_THRESHOLD, 100);
+        } catch (Exception e) {throw new InterruptedException(e.getMessage());}
+    }
+}
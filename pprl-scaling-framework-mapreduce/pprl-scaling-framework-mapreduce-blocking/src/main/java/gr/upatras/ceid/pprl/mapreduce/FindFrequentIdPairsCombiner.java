@@ -8,7 +8,7 @@ import java.io.IOException;
 /**
  * Find Frequent Id Pairs Combiner class.
  */
-public class FindFrequentIdPairsCombiner extends Reducer<TextPairWritable,ShortWritable,TextPairWritable,ShortWritable> {
+public class FindFrequentIdPairsCombiner extends Reducer<LongPairWritable,ShortWritable,LongPairWritable,ShortWritable> {
     private short C;
     private ShortWritable CW;
 
@@ -20,7 +20,7 @@ public class FindFrequentIdPairsCombiner extends Reducer<TextPairWritable,ShortW
     }
 
     @Override
-    protected void reduce(TextPairWritable key, Iterable<ShortWritable> values, Context context) throws IOException, InterruptedException {
+    protected void reduce(LongPairWritable key, Iterable<ShortWritable> values, Context context) throws IOException, InterruptedException {
         short sum = 0;
         for(ShortWritable v : values) {
             sum += v.get();
@@ -0,0 +1,21 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+
+/**
+ * Frequent ordinal pairs mapper class. Emits every frequent pair (alice ordinal, bob ordinal)
+ * with an empty record, keyed by the alice ordinal for the join with the alice records.
+ */
+public class FrequentOrdinalPairsMapper extends Mapper<LongPairWritable,NullWritable,LongPairWritable,RecordBloomFilterWritable> {
+
+    private final RecordBloomFilterWritable empty = new RecordBloomFilterWritable();
+
+    @Override
+    protected void map(LongPairWritable key, NullWritable value, Context context)
+            throws IOException, InterruptedException {
+        context.write(key, empty);
+    }
+}
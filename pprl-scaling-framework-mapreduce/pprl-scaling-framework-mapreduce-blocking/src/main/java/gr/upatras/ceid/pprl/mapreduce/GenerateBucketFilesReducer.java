@@ -0,0 +1,114 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import gr.upatras.ceid.pprl.blocking.HammingLSHBucketFile;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gr.upatras.ceid.pprl.mapreduce.BlockingKeyStatistics.setMaxMinBlockingKeysCounters;
+import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.increaseTotalBlockingKeyCount;
+
+/**
+ * Generate blocking bucket files reducer class. Writes one <code>HammingLSHBucketFile</code>
+ * per blocking group, with the store references of the values resolved to bob record
+ * ordinals (store files ordered by name, as in <code>FPSMapperV3</code>). The record
+ * counts of the map tasks come first in every group (see <code>HammingLSHStoreBlockingMapper</code>).
+ */
+public class GenerateBucketFilesReducer extends Reducer<BlockingKeyWritable,LongWritable,NullWritable,NullWritable> {
+
+    private BlockingKeyStatistics statistics;
+    private final SortedMap<Integer,Integer> recordCounts = new TreeMap<Integer,Integer>(); // map task id to its record count.
+    private int[] firstOrdinals;                   // map task id to its first record ordinal.
+    private HammingLSHBucketFile.Writer writer;
+    private int writerGroupId;
+    private int[] ordinals;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        statistics = new BlockingKeyStatistics();
+        firstOrdinals = null;
+        writer = null;
+        writerGroupId = -1;
+        ordinals = new int[16];
+    }
+
+    @Override
+    protected void reduce(BlockingKeyWritable key, Iterable<LongWritable> values, Context context)
+            throws IOException, InterruptedException {
+        if(key.datasetId == HammingLSHStoreBlockingMapper.COUNT_ID) {
+            for (LongWritable v : values)
+                recordCounts.put(HammingLSHStoreBlockingMapper.referenceTaskId(v.get()),
+                        HammingLSHStoreBlockingMapper.referenceSlot(v.get()));
+            return;
+        }
+        if(firstOrdinals == null) firstOrdinals = firstOrdinals(recordCounts);
+        statistics.refreshOnBlockingGroupUpdate(key.blockingGroupId);
+        if(key.blockingGroupId != writerGroupId) openWriter(key.blockingGroupId, context);
+        int count = 0;
+        for (LongWritable v : values) {
+            if(count == ordinals.length) ordinals = Arrays.copyOf(ordinals, ordinals.length << 1);
+            final long reference = v.get();
+            ordinals[count++] = firstOrdinals[HammingLSHStoreBlockingMapper.referenceTaskId(reference)] +
+                    HammingLSHStoreBlockingMapper.referenceSlot(reference);
+        }
+        writer.addBucket(key.getKey(), ordinals, count);
+        statistics.increaseTotalBlockingKeysCount();
+        statistics.increaseCurrentBlockingKeysCount();
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        if(writer != null) writer.close();
+        final int id = context.getTaskAttemptID().getTaskID().getId();
+        statistics.refresh();
+        increaseTotalBlockingKeyCount(context, statistics.getTotalBlockingKeysCount());
+        setMaxMinBlockingKeysCounters(context, id,
+                statistics.getMaxBlockingKeys(),
+                statistics.getMinBlockingKeys()
+        );
+    }
+
+    /**
+     * Close the current bucket file writer and open one for a blocking group.
+     *
+     * @param groupId blocking group id.
+     * @param context context.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void openWriter(final int groupId, final Context context) throws IOException, InterruptedException {
+        if(writer != null) writer.close();
+        final Path path = new Path(FileOutputFormat.getWorkOutputPath(context),
+                String.format("group-%05d%s", groupId, HammingLSHBucketFile.FILE_EXTENSION));
+        final FileSystem fs = path.getFileSystem(context.getConfiguration());
+        writer = new HammingLSHBucketFile.Writer(fs.create(path, true), groupId);
+        writerGroupId = groupId;
+    }
+
+    /**
+     * Returns the first record ordinal of every map task, with the records of the map
+     * tasks in task id order.
+     *
+     * @param recordCounts map task id to its record count.
+     * @return map task id to its first record ordinal.
+     */
+    private static int[] firstOrdinals(final SortedMap<Integer,Integer> recordCounts) {
+        if(recordCounts.isEmpty()) throw new IllegalStateException("Bob record counts not found.");
+        final int[] firstOrdinals = new int[recordCounts.lastKey() + 1];
+        int ordinal = 0;
+        for (Map.Entry<Integer,Integer> entry : recordCounts.entrySet()) {
+            firstOrdinals[entry.getKey()] = ordinal;
+            ordinal += entry.getValue();
+        }
+        return firstOrdinals;
+    }
+}
@@ -1,21 +1,25 @@
 package gr.upatras.ceid.pprl.mapreduce;
 
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.Reducer;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import static gr.upatras.ceid.pprl.mapreduce.BlockingKeyStatistics.setMaxMinBlockingKeysCounters;
 import static gr.upatras.ceid.pprl.mapreduce.BlockingKeyWritable.sameBlockingKey;
 import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.increaseTotalPairCounter;
 
 /**
- * Generate Id Pairs Reducer class.
+ * Generate Id Pairs Reducer class. Emits pairs of record ordinals (A ordinal, B ordinal).
  */
-public class GenerateIdPairsReducer extends Reducer<BlockingKeyWritable,Text,Text,Text> {
+public class GenerateIdPairsReducer extends Reducer<BlockingKeyWritable,LongWritable,LongPairWritable,NullWritable> {
     public BlockingKeyWritable previousKey;
-    public TextArrayWritable previousValue;
+    public long[] previousValue = new long[16];
+    public int previousValueCount;
+
+    private final LongPairWritable pair = new LongPairWritable();
 
     private BlockingKeyStatistics statistics ;
 
@@ -26,11 +30,11 @@ public class GenerateIdPairsReducer extends Reducer<BlockingKeyWritable,Text,Tex
     }
 
     @Override
-    protected void reduce(BlockingKeyWritable key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+    protected void reduce(BlockingKeyWritable key, Iterable<LongWritable> values, Context context) throws IOException, InterruptedException {
         statistics.refreshOnBlockingGroupUpdate(key.blockingGroupId);
 
         // if we dont set previous key set it and its value
-        if(previousKey == null && previousValue == null) {
+        if(previousKey == null) {
             if(key.datasetId == 'B') return;
             updatePrevious(key,values);
             return;
@@ -43,9 +47,10 @@ public class GenerateIdPairsReducer extends Reducer<BlockingKeyWritable,Text,Tex
         } else { // if current one is from B and have the same blocking key (group and hash)
             if(sameBlockingKey(previousKey, key)) {
                 int pairsCounter = 0;
-                for (Text bv : values) {
-                    for (Text av : previousValue.get()) {
-                        context.write(av, bv);
+                for (LongWritable bv : values) {
+                    for (int i = 0; i < previousValueCount; i++) {
+                        pair.set(previousValue[i], bv.get());
+                        context.write(pair, NullWritable.get());
                         pairsCounter++;
                     }
                 }
@@ -72,17 +77,18 @@ public class GenerateIdPairsReducer extends Reducer<BlockingKeyWritable,Text,Tex
      * @param key a blocking key.
      * @param values values of a blocking key.
      */
-    private void updatePrevious(final BlockingKeyWritable key, final Iterable<Text> values) {
+    private void updatePrevious(final BlockingKeyWritable key, final Iterable<LongWritable> values) {
         previousKey = new BlockingKeyWritable(key.blockingGroupId, key.hash, key.datasetId);
-        previousValue = new TextArrayWritable();
-        ArrayList<Text> textList = new ArrayList<Text>();
-        for (Text v : values) { textList.add(new Text(v)); }
-        previousValue.set(textList.toArray(new Text[textList.size()]));
-
+        previousValueCount = 0;
+        for (LongWritable v : values) {
+            if(previousValueCount == previousValue.length)
+                previousValue = Arrays.copyOf(previousValue, 2 * previousValue.length);
+            previousValue[previousValueCount++] = v.get();
+        }
     }
 
     private void initPrevious() {
         previousKey = null;
-        previousValue = null;
+        previousValueCount = 0;
     }
 }
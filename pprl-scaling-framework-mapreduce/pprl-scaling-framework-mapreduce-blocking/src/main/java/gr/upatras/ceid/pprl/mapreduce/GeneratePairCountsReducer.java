@@ -0,0 +1,128 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.ShortWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static gr.upatras.ceid.pprl.mapreduce.BlockingKeyStatistics.setMaxMinBlockingKeysCounters;
+import static gr.upatras.ceid.pprl.mapreduce.BlockingKeyWritable.sameBlockingKey;
+import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.increaseTotalPairCounter;
+
+/**
+ * Generate pair counts reducer class. Each reducer owns a range of blocking groups,
+ * joins the alice and bob ordinals of every blocking key in them and emits the partial
+ * collision counts of the pairs (A ordinal, B ordinal) over its groups. Counts are
+ * aggregated in a bounded table, flushed when the table is full and at cleanup. A pair
+ * whose partial count reaches C is emitted at once with count C.
+ */
+public class GeneratePairCountsReducer extends Reducer<BlockingKeyWritable,LongWritable,LongPairWritable,ShortWritable> {
+    public BlockingKeyWritable previousKey;
+    public long[] previousValue = new long[16];
+    public int previousValueCount;
+
+    private short C;
+    private LongPairCountTable table;
+    private final LongPairWritable pair = new LongPairWritable();
+    private final ShortWritable count = new ShortWritable();
+
+    private BlockingKeyStatistics statistics ;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        C = (short) context.getConfiguration().getInt(CommonKeys.FREQUENT_PAIR_LIMIT, -1);
+        if(C < 0) throw new InterruptedException("C is not set.");
+        table = new LongPairCountTable(context.getConfiguration().getInt(
+                CommonKeys.PAIR_COUNT_TABLE_CAPACITY, LongPairCountTable.DEFAULT_CAPACITY));
+        statistics = new BlockingKeyStatistics();
+        initPrevious();
+    }
+
+    @Override
+    protected void reduce(BlockingKeyWritable key, Iterable<LongWritable> values, Context context) throws IOException, InterruptedException {
+        statistics.refreshOnBlockingGroupUpdate(key.blockingGroupId);
+
+        // if we dont set previous key set it and its value
+        if(previousKey == null) {
+            if(key.datasetId == 'B') return;
+            updatePrevious(key,values);
+            return;
+        }
+
+        // if we have a previous key (only from A) and the current one is from A swap em
+        if(key.datasetId == 'A') {
+            updatePrevious(key, values);
+        } else { // if current one is from B and have the same blocking key (group and hash)
+            if(sameBlockingKey(previousKey, key)) {
+                int pairsCounter = 0;
+                for (LongWritable bv : values) {
+                    for (int i = 0; i < previousValueCount; i++) {
+                        final short c = table.increase(previousValue[i], bv.get(), C);
+                        if(c > 0 && c >= C) write(previousValue[i], bv.get(), c, context);
+                        if(table.isFull()) flush(context);
+                        pairsCounter++;
+                    }
+                }
+                increaseTotalPairCounter(context, pairsCounter);
+                statistics.increaseCurrentBlockingKeysCount();
+            }
+            initPrevious();
+        }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        flush(context);
+        final int id = context.getTaskAttemptID().getTaskID().getId();
+        statistics.refresh();
+        setMaxMinBlockingKeysCounters(context, id,
+                statistics.getMaxBlockingKeys(),
+                statistics.getMinBlockingKeys()
+        );
+    }
+
+    /**
+     * Writes the pairs whose partial counts are below C and empties the table.
+     *
+     * @param context context.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void flush(final Context context) throws IOException, InterruptedException {
+        for (int e = 0; e < table.getCapacity(); e++) {
+            final short c = table.getCount(e);
+            if(c != 0 && c < C) write(table.getFirst(e), table.getSecond(e), c, context);
+        }
+        table.clear();
+    }
+
+    private void write(final long first, final long second, final short c, final Context context)
+            throws IOException, InterruptedException {
+        pair.set(first, second);
+        count.set(c);
+        context.write(pair, count);
+    }
+
+    /**
+     * Updates previous key and values with the current ones.
+     *
+     * @param key a blocking key.
+     * @param values values of a blocking key.
+     */
+    private void updatePrevious(final BlockingKeyWritable key, final Iterable<LongWritable> values) {
+        previousKey = new BlockingKeyWritable(key.blockingGroupId, key.hash, key.datasetId);
+        previousValueCount = 0;
+        for (LongWritable v : values) {
+            if(previousValueCount == previousValue.length)
+                previousValue = Arrays.copyOf(previousValue, 2 * previousValue.length);
+            previousValue[previousValueCount++] = v.get();
+        }
+    }
+
+    private void initPrevious() {
+        previousKey = null;
+        previousValueCount = 0;
+    }
+}
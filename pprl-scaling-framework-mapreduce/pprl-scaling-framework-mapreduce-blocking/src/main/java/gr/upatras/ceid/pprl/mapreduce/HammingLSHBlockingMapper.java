@@ -1,6 +1,7 @@
 package gr.upatras.ceid.pprl.mapreduce;
 
 import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
+import gr.upatras.ceid.pprl.blocking.HammingLSHKeyExtractor;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
 import org.apache.avro.Schema;
@@ -11,7 +12,6 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import java.io.IOException;
-import java.util.BitSet;
 
 import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.increaseRecordCounter;
 
@@ -19,6 +19,9 @@ import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.increaseRecordCounter;
 public class HammingLSHBlockingMapper extends Mapper<AvroKey<GenericRecord>,NullWritable,BlockingKeyWritable,Text> {
 
     private HammingLSHBlocking blocking;
+    private HammingLSHKeyExtractor extractor;
+    private final BlockingKeyWritable blockingKey = new BlockingKeyWritable();
+    private final Text uid = new Text();
     private String uidFieldName;
     private String encodingFieldName;
     private char dataset;
@@ -27,12 +30,11 @@ public class HammingLSHBlockingMapper extends Mapper<AvroKey<GenericRecord>,Null
     protected void map(AvroKey<GenericRecord> key, NullWritable value, Context context)
             throws IOException, InterruptedException {
         final GenericRecord record = key.datum();
-        final BitSet[] keys = blocking.hashRecord(record,encodingFieldName);
-        final String uid = String.valueOf(record.get(uidFieldName));
+        final long[] keys = extractor.hash(record,encodingFieldName);
+        uid.set(String.valueOf(record.get(uidFieldName)));
         for (int i = 0; i < keys.length; i++) {
-            final BlockingKeyWritable blockingKey = new BlockingKeyWritable(i,keys[i],dataset);
-            final Text val = new Text(uid);
-            context.write(blockingKey,val);
+            blockingKey.set(i,keys[i],dataset);
+            context.write(blockingKey,uid);
         }
     }
 
@@ -73,6 +75,7 @@ public class HammingLSHBlockingMapper extends Mapper<AvroKey<GenericRecord>,Null
             BloomFilterEncoding bobEncoding = BloomFilterEncodingUtil.setupNewInstance(
                     ((new Schema.Parser()).parse(bobSchemaString)));
             blocking = new HammingLSHBlocking(blockingKeys, aliceEncoding, bobEncoding);
+            extractor = blocking.newKeyExtractor();
         } catch (Exception e) {throw new InterruptedException(e.getMessage());}
     }
 
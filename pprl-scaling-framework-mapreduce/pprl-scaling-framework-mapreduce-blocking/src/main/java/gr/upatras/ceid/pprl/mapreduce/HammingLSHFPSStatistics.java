@@ -64,7 +64,8 @@ public class HammingLSHFPSStatistics {
     }
 
     /**
-     * Load stats from HDFS stats files.
+     * Load stats from HDFS stats files. Durations and footprints of jobs saved
+     * under the same key are added.
      *
      */
     public static String loadAsBenchmarkAsStringCSV(final FileSystem fs, final Path statsPath)
@@ -91,13 +92,13 @@ public class HammingLSHFPSStatistics {
                     final long value = Long.valueOf(parts[1].split("=")[1]);
                     switch (key) {
                         case "job.duration":
-                            jobTime[job-1] = value;
+                            jobTime[job-1] += value;
                             break;
                         case "total.hdfs.written.bytes":
-                            jobDiskFootprint[job-1] = value;
+                            jobDiskFootprint[job-1] += value;
                             break;
                         case "mem.total.bytes":
-                            jobMemFootprint[job-1] = value;
+                            jobMemFootprint[job-1] += value;
                             break;
                         case "total.pairs.count":
                             totalPairCount = value;
@@ -2,6 +2,7 @@ package gr.upatras.ceid.pprl.mapreduce;
 
 import avro.shaded.com.google.common.collect.Lists;
 import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
+import gr.upatras.ceid.pprl.blocking.HammingLSHBucketIndex;
 import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
@@ -12,10 +13,14 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.ShortWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
@@ -27,7 +32,9 @@ import org.slf4j.LoggerFactory;
 import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.*;
 
 /**
- * Hamming LSH-FPS v0 tool class.
+ * Hamming LSH-FPS v0 tool class. Job1 emits pairs of record ordinals, job2 finds the
+ * frequent ones, job 2b and job 3 join them with the alice and bob records of the
+ * ordinals files (keyed by ordinal, as the v5 tool does) and match them.
  */
 public class HammingLSHFPSToolV0 extends Configured implements Tool {
 
@@ -38,6 +45,7 @@ public class HammingLSHFPSToolV0 extends Configured implements Tool {
     private static final String JOB_3 = VERSION + "J3";
     private static final String JOB_1_DESCRIPTION = JOB_1 + ". Generate Total Pairs.";
     private static final String JOB_2_DESCRIPTION = JOB_2 + ". Find Frequent Pairs.";
+    private static final String JOB_2B_DESCRIPTION = JOB_2 + "b. Join Frequent Pairs With Alice Records.";
     private static final String JOB_3_DESCRIPTION = JOB_3 + ". Find Matched Pairs.";
 
     public int run(String[] args) throws Exception {
@@ -83,6 +91,9 @@ public class HammingLSHFPSToolV0 extends Configured implements Tool {
 
         if(K < 1)
             throw new IllegalArgumentException("Number of hashes K cannot be smaller than 1.");
+        if(K > HammingLSHBucketIndex.MAX_K)
+            throw new IllegalArgumentException("Number of hashes K cannot be greater than " +
+                    HammingLSHBucketIndex.MAX_K + ".");
         if(C > L)
             throw new IllegalArgumentException("Frequent pair collision limit C cannot be greater " +
                     "than then number of blocking groups L.");
@@ -110,6 +121,15 @@ public class HammingLSHFPSToolV0 extends Configured implements Tool {
         conf.setInt(CommonKeys.HAMMING_THRESHOLD, hammingThreshold);
         conf.setInt(CommonKeys.FREQUENT_PAIR_LIMIT, C);
 
+        // record ordinals, committed with the job1 output and moved next to the all pairs.
+        final Path ordinalsPath = new Path(allPairsPath.getParent(), allPairsPath.getName() + "_ordinals");
+        if(fs.exists(ordinalsPath)) fs.delete(ordinalsPath, true);
+
+        // frequent pairs along with their alice records (keyed by bob ordinal), written by job2b.
+        final Path frequentAliceRecordsPath =
+                new Path(frequentPairsPath.getParent(), frequentPairsPath.getName() + "_alice");
+        if(fs.exists(frequentAliceRecordsPath)) fs.delete(frequentAliceRecordsPath, true);
+
         // setup job1
         MemProfileUtil.setMemProfile(memProfile1,conf);
         final String description1 = String.format("%s(" +
@@ -133,9 +153,9 @@ public class HammingLSHFPSToolV0 extends Configured implements Tool {
         AvroKeyInputFormat.setInputPaths(job1, alicePath,bobPath);
         AvroJob.setInputKeySchema(job1, unionSchema);
         job1.setInputFormatClass(AvroKeyInputFormat.class);
-        job1.setMapperClass(HammingLSHBlockingMapper.class);
+        job1.setMapperClass(HammingLSHOrdinalBlockingMapper.class);
         job1.setMapOutputKeyClass(BlockingKeyWritable.class);
-        job1.setMapOutputValueClass(Text.class);
+        job1.setMapOutputValueClass(LongWritable.class);
 
         // partitioner
         job1.setPartitionerClass(BlockingKeyWritablePartitioner.class);
@@ -146,8 +166,8 @@ public class HammingLSHFPSToolV0 extends Configured implements Tool {
         // reducers & setup output
         job1.setReducerClass(GenerateIdPairsReducer.class);
         job1.setOutputFormatClass(SequenceFileOutputFormat.class);
-        job1.setOutputKeyClass(Text.class);
-        job1.setOutputValueClass(Text.class);
+        job1.setOutputKeyClass(LongPairWritable.class);
+        job1.setOutputValueClass(NullWritable.class);
         SequenceFileOutputFormat.setCompressOutput(job1,true);
         SequenceFileOutputFormat.setOutputCompressionType(job1,
                 SequenceFile.CompressionType.BLOCK);
@@ -165,6 +185,7 @@ public class HammingLSHFPSToolV0 extends Configured implements Tool {
 
         // cleanup and stats
         removeSuccessFile(fs,allPairsPath);
+        HammingLSHOrdinalBlockingMapper.moveOrdinalsFiles(fs, allPairsPath, ordinalsPath);
         stats.populateStats(JOB_1, job1);
         stats.saveAndClearStats(fs, statsPath);
 
@@ -196,20 +217,20 @@ public class HammingLSHFPSToolV0 extends Configured implements Tool {
         SequenceFileInputFormat.setInputPaths(job2, allPairsPath);
         job2.setInputFormatClass(SequenceFileInputFormat.class);
         job2.setMapperClass(CountIdPairsMapper.class);
-        job2.setMapOutputKeyClass(TextPairWritable.class);
+        job2.setMapOutputKeyClass(LongPairWritable.class);
         job2.setMapOutputValueClass(ShortWritable.class);
 
         // setup combiner
         job2.setCombinerClass(FindFrequentIdPairsCombiner.class);
 
         // setup sort
-        job2.setSortComparatorClass(TextPairWritableComparator.class);
+        job2.setSortComparatorClass(LongPairWritableComparator.class);
 
         // reducers & setup output
-        job2.setReducerClass(FindFrequentIdPairsReducer.class);
+        job2.setReducerClass(FindFrequentOrdinalPairsReducer.class);
         job2.setOutputFormatClass(SequenceFileOutputFormat.class);
-        job2.setOutputKeyClass(Text.class);
-        job2.setOutputValueClass(Text.class);
+        job2.setOutputKeyClass(LongPairWritable.class);
+        job2.setOutputValueClass(NullWritable.class);
         SequenceFileOutputFormat.setCompressOutput(job2,true);
         SequenceFileOutputFormat.setOutputCompressionType(job2,
                 SequenceFile.CompressionType.NONE);
@@ -235,17 +256,70 @@ public class HammingLSHFPSToolV0 extends Configured implements Tool {
         stats.populateStats(JOB_2, job2);
         stats.saveAndClearStats(fs, statsPath);
 
+        // setup job2b, joins the frequent pairs with the alice records (same profile, reducers and stats key as job2)
+        final String description2b = String.format("%s(" +
+                        "ordinals-path : %s, frequent-pairs-path : %s, " +
+                        "frequent-alice-records-path : %s, R : %d)",
+                JOB_2B_DESCRIPTION,
+                shortenUrl(ordinalsPath.toString()),
+                shortenUrl(frequentPairsPath.toString()),
+                shortenUrl(frequentAliceRecordsPath.toString()),
+                R2);
+        LOG.info("Running.2b : {} : {}",memProfile2,description2b);
+        final Job job2b = Job.getInstance(conf);
+        job2b.setJarByClass(HammingLSHFPSToolV0.class);
+        job2b.setJobName(description2b);
+        job2b.setNumReduceTasks(R2);
+        job2b.setSpeculativeExecution(false);
+
+        // setup input & mappers
+        MultipleInputs.addInputPath(job2b,
+                HammingLSHOrdinalBlockingMapper.ordinalsFiles(ordinalsPath, 'A'),
+                SequenceFileInputFormat.class, OrdinalRecordsMapper.class);
+        MultipleInputs.addInputPath(job2b, frequentPairsPath,
+                SequenceFileInputFormat.class, FrequentOrdinalPairsMapper.class);
+        job2b.setMapOutputKeyClass(LongPairWritable.class);
+        job2b.setMapOutputValueClass(RecordBloomFilterWritable.class);
+
+        // partitioner, sort and grouping (by alice ordinal, the alice record first)
+        job2b.setPartitionerClass(LongPairWritablePartitioner.class);
+        job2b.setSortComparatorClass(LongPairWritableComparator.class);
+        job2b.setGroupingComparatorClass(LongPairWritableGroupingComparator.class);
+
+        // reducers & setup output
+        job2b.setReducerClass(JoinAliceRecordsReducer.class);
+        job2b.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job2b.setOutputKeyClass(LongPairWritable.class);
+        job2b.setOutputValueClass(RecordBloomFilterWritable.class);
+        SequenceFileOutputFormat.setCompressOutput(job2b,true);
+        SequenceFileOutputFormat.setOutputCompressionType(job2b,
+                SequenceFile.CompressionType.BLOCK);
+        SequenceFileOutputFormat.setOutputPath(job2b,frequentAliceRecordsPath);
+
+        // run job 2b
+        final boolean job2bSuccess = job2b.waitForCompletion(true);
+        if(!job2bSuccess) {
+            LOG.error("Job \"{}\" not successful",JOB_2B_DESCRIPTION);
+            final Path parentPath = statsPath.getParent();
+            final Path renamedPath = new Path(parentPath.getParent(),"FAILED_" + parentPath.getName());
+            fs.rename(parentPath, renamedPath);
+            return 1;
+        }
+
+        // cleanup and stats
+        removeSuccessFile(fs, frequentAliceRecordsPath);
+        stats.populateStats(JOB_2, job2b);
+        stats.saveAndClearStats(fs, statsPath);
+
         // setup job3
         MemProfileUtil.setMemProfile(memProfile3,conf);
         final String description3 = String.format("%s(" +
-                        "alice-path : %s, alice-schema-path : %s, " +
-                        "bob-path : %s, bob-schema-path : %s, " +
-                        "frequent-pairs-path: %s, matched-pairs-path : %s, " +
-                        " R : %d)",
+                        "ordinals-path : %s, frequent-alice-records-path : %s, " +
+                        "matched-pairs-path : %s, R : %d)",
                 JOB_3_DESCRIPTION,
-                shortenUrl(alicePath.toString()), shortenUrl(aliceSchemaPath.toString()),
-                shortenUrl(bobPath.toString()), shortenUrl(bobSchemaPath.toString()),
-                shortenUrl(frequentPairsPath.toString()), shortenUrl(matchedPairsPath.toString()),R3);
+                shortenUrl(ordinalsPath.toString()),
+                shortenUrl(frequentAliceRecordsPath.toString()),
+                shortenUrl(matchedPairsPath.toString()),R3);
         LOG.info("Running.3 : {} : {}",memProfile3,description3);
         final Job job3 = Job.getInstance(conf);
         job3.setJarByClass(HammingLSHFPSToolV0.class);
@@ -253,22 +327,22 @@ public class HammingLSHFPSToolV0 extends Configured implements Tool {
         job3.setNumReduceTasks(R3);
         job3.setSpeculativeExecution(false);
 
-        // setup  cache
-        addContainingPathsToCache(job3, fs, frequentPairsPath);
-
         // setup input & mappers
-        AvroKeyInputFormat.setInputPaths(job3, alicePath,bobPath);
-        AvroJob.setInputKeySchema(job3, unionSchema);
-        job3.setInputFormatClass(AvroKeyInputFormat.class);
-        job3.setMapperClass(MakeRecordPairsMapper.class);
-        job3.setMapOutputKeyClass(TextPairWritable.class);
-        AvroJob.setMapOutputValueSchema(job3,unionSchema);
-
-        // setup sort
-        job3.setSortComparatorClass(TextPairWritableComparator.class);
+        MultipleInputs.addInputPath(job3,
+                HammingLSHOrdinalBlockingMapper.ordinalsFiles(ordinalsPath, 'B'),
+                SequenceFileInputFormat.class, OrdinalRecordsMapper.class);
+        MultipleInputs.addInputPath(job3, frequentAliceRecordsPath,
+                SequenceFileInputFormat.class, Mapper.class);
+        job3.setMapOutputKeyClass(LongPairWritable.class);
+        job3.setMapOutputValueClass(RecordBloomFilterWritable.class);
+
+        // partitioner, sort and grouping (by bob ordinal, the bob record first)
+        job3.setPartitionerClass(LongPairWritablePartitioner.class);
+        job3.setSortComparatorClass(LongPairWritableComparator.class);
+        job3.setGroupingComparatorClass(LongPairWritableGroupingComparator.class);
 
         // reducers & setup output
-        job3.setReducerClass(PrivateSimilarityReducer.class);
+        job3.setReducerClass(PrivateSimilarityReducerV3.class);
         job3.setOutputFormatClass(SequenceFileOutputFormat.class);
         job3.setOutputKeyClass(Text.class);
         job3.setOutputValueClass(Text.class);
@@ -2,6 +2,7 @@ package gr.upatras.ceid.pprl.mapreduce;
 
 import avro.shaded.com.google.common.collect.Lists;
 import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
+import gr.upatras.ceid.pprl.blocking.HammingLSHBucketIndex;
 import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
@@ -80,6 +81,9 @@ public class HammingLSHFPSToolV1 extends Configured implements Tool {
 
         if(K < 1)
             throw new IllegalArgumentException("Number of hashes K cannot be smaller than 1.");
+        if(K > HammingLSHBucketIndex.MAX_K)
+            throw new IllegalArgumentException("Number of hashes K cannot be greater than " +
+                    HammingLSHBucketIndex.MAX_K + ".");
         if(C > L)
             throw new IllegalArgumentException("Frequent pair collision limit C cannot be greater " +
                     "than then number of blocking groups L.");
@@ -1,6 +1,7 @@
 package gr.upatras.ceid.pprl.mapreduce;
 
 import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
+import gr.upatras.ceid.pprl.blocking.HammingLSHBucketIndex;
 import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
@@ -11,9 +12,12 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
 import org.apache.hadoop.util.Tool;
@@ -74,6 +78,9 @@ public class HammingLSHFPSToolV3 extends Configured implements Tool {
 
         if(K < 1)
             throw new IllegalArgumentException("Number of hashes K cannot be smaller than 1.");
+        if(K > HammingLSHBucketIndex.MAX_K)
+            throw new IllegalArgumentException("Number of hashes K cannot be greater than " +
+                    HammingLSHBucketIndex.MAX_K + ".");
         if(C > L)
             throw new IllegalArgumentException("Frequent pair collision limit C cannot be greater " +
                     "than then number of blocking groups L.");
@@ -101,6 +108,10 @@ public class HammingLSHFPSToolV3 extends Configured implements Tool {
         conf.setInt(CommonKeys.HAMMING_THRESHOLD,hammingThrehold);
         conf.setInt(CommonKeys.FREQUENT_PAIR_LIMIT, C);
 
+        // bob bloom filter store, committed by job1 mappers with the bob bucket files.
+        final Path bobStorePath = new Path(bobBucketsPath.getParent(), bobBucketsPath.getName() + "_store");
+        if(fs.exists(bobStorePath)) fs.delete(bobStorePath, true);
+
         // setup job1
         MemProfileUtil.setMemProfile(memProfile1,conf);
         final String description1 = String.format("%s(" +
@@ -122,9 +133,9 @@ public class HammingLSHFPSToolV3 extends Configured implements Tool {
         AvroKeyInputFormat.setInputPaths(job1, bobPath);
         AvroJob.setInputKeySchema(job1, bobEncodingSchema);
         job1.setInputFormatClass(AvroKeyInputFormat.class);
-        job1.setMapperClass(HammingLSHBlockingMapper.class);
+        job1.setMapperClass(HammingLSHStoreBlockingMapper.class);
         job1.setMapOutputKeyClass(BlockingKeyWritable.class);
-        job1.setMapOutputValueClass(Text.class);
+        job1.setMapOutputValueClass(LongWritable.class);
 
         // partitioner
         job1.setPartitionerClass(BlockingKeyWritablePartitioner.class);
@@ -132,14 +143,11 @@ public class HammingLSHFPSToolV3 extends Configured implements Tool {
         // sort class
         job1.setSortComparatorClass(BlockingKeyWritableComparator.class);
 
-        // reducers & setup output
-        job1.setReducerClass(GenerateBucketsReducer.class);
-        job1.setOutputFormatClass(SequenceFileOutputFormat.class);
-        job1.setOutputKeyClass(BlockingKeyWritable.class);
-        job1.setOutputValueClass(TextArrayWritable.class);
-        SequenceFileOutputFormat.setCompressOutput(job1,true);
-        SequenceFileOutputFormat.setOutputCompressionType(job1,
-                SequenceFile.CompressionType.NONE);
+        // reducers & setup output (bucket files only, no empty part files)
+        job1.setReducerClass(GenerateBucketFilesReducer.class);
+        LazyOutputFormat.setOutputFormatClass(job1, SequenceFileOutputFormat.class);
+        job1.setOutputKeyClass(NullWritable.class);
+        job1.setOutputValueClass(NullWritable.class);
         SequenceFileOutputFormat.setOutputPath(job1,bobBucketsPath);
 
         // run job 1
@@ -153,6 +161,7 @@ public class HammingLSHFPSToolV3 extends Configured implements Tool {
         }
         // cleanup and stats
         removeSuccessFile(fs,bobBucketsPath);
+        HammingLSHStoreBlockingMapper.moveStoreFiles(fs, bobBucketsPath, bobStorePath);
         stats.populateStats(JOB_1, job1);
         stats.saveAndClearStats(fs, statsPath);
 
@@ -163,9 +172,7 @@ public class HammingLSHFPSToolV3 extends Configured implements Tool {
         final int avgKeyCount = minMaxAvg[2];
         final int bobRecordCount  = (int)job1.getCounters().findCounter(
                 CommonKeys.COUNTER_GROUP_NAME,CommonKeys.BOB_RECORD_COUNT_COUNTER).getValue();
-        conf.set(CommonKeys.BOB_DATA_PATH, bobPath.toUri().toString());
         conf.setInt(CommonKeys.BOB_RECORD_COUNT_COUNTER, bobRecordCount);
-        conf.setInt(CommonKeys.BUCKET_INITIAL_CAPACITY,maxKeyCount);
 
 
         // setup job2
@@ -189,6 +196,7 @@ public class HammingLSHFPSToolV3 extends Configured implements Tool {
 
         // setup  cache
         addContainingPathsToCache(job2, fs, bobBucketsPath);
+        addContainingPathsToCache(job2, fs, bobStorePath);
 
         AvroKeyInputFormat.setInputPaths(job2, alicePath);
         AvroJob.setInputKeySchema(job2, aliceEncodingSchema);
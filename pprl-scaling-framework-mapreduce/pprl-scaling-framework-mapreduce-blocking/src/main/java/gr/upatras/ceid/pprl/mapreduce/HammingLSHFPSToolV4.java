@@ -0,0 +1,242 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import avro.shaded.com.google.common.collect.Lists;
+import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
+import gr.upatras.ceid.pprl.blocking.HammingLSHBucketIndex;
+import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import org.apache.avro.Schema;
+import org.apache.avro.mapreduce.AvroJob;
+import org.apache.avro.mapreduce.AvroKeyInputFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.*;
+
+/**
+ * Hamming LSH-FPS v4 tool class.
+ */
+public class HammingLSHFPSToolV4 extends Configured implements Tool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HammingLSHFPSToolV4.class);
+    private static final String VERSION = "V4";
+    private static final String JOB_1 = VERSION + "J1";
+    private static final String JOB_1A_DESCRIPTION = JOB_1 + "a. Build Bob Shard Key Filters.";
+    private static final String JOB_1_DESCRIPTION = JOB_1 + ". Find Matched Pairs over Bob shards.";
+    private static final int DEFAULT_SHARD_FILTER_BYTES = 64 * 1024 * 1024; // all shard filters.
+
+    public int run(String[] args) throws Exception {
+        final Configuration conf = getConf();
+        args = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (args.length != 15) {
+            LOG.error("args.length= {}", args.length);
+            for (int i = 0; i < args.length; i++) {
+                LOG.error("args[{}] = {}", i, args[i]);
+            }
+            LOG.error("Usage: HammingLSHFPSToolV4 " +
+                    "<alice-avro-path> <alice-schema-path> <alice-uid-field-name> " +
+                    "<bob-avro-path> <bob-schema-path> <bob-uid-field-name> " +
+                    "<matched-pairs-path> <stats-path>" +
+                    "<number-of-blocking-groups-L> <number-of-hashes-K> <frequent-pair-collision-limit-C> " +
+                    "<number-of-shards-P>" +
+                    "<mem-profile-1>" +
+                    "<hamming-threshold> <seed>");
+            throw new IllegalArgumentException("Invalid number of arguments.");
+        }
+
+        final Path alicePath = new Path(args[0]);
+        final Path aliceSchemaPath = new Path(args[1]);
+        final String aliceUidFieldName = args[2];
+        final Path bobPath = new Path(args[3]);
+        final Path bobSchemaPath = new Path(args[4]);
+        final String bobUidFieldName = args[5];
+        final Path matchedPairsPath = new Path(args[6]);
+        final Path statsPath = new Path(args[7]);
+        final int L = Integer.valueOf(args[8]);
+        final int K = Integer.valueOf(args[9]);
+        final short C = Short.valueOf(args[10]);
+        final int P = Integer.valueOf(args[11]);
+        final String memProfile1 = args[12];
+        final int hammingThreshold = Integer.valueOf(args[13]);
+        final int seed = Integer.valueOf(args[14]);
+
+        if(K < 1)
+            throw new IllegalArgumentException("Number of hashes K cannot be smaller than 1.");
+        if(K > HammingLSHBucketIndex.MAX_K)
+            throw new IllegalArgumentException("Number of hashes K cannot be greater than " +
+                    HammingLSHBucketIndex.MAX_K + ".");
+        if(C > L)
+            throw new IllegalArgumentException("Frequent pair collision limit C cannot be greater " +
+                    "than then number of blocking groups L.");
+        if(P < 1)
+            throw new IllegalArgumentException("Number of shards P cannot be smaller than 1.");
+
+        final FileSystem fs = FileSystem.get(conf);
+        final Schema aliceEncodingSchema = DatasetsUtil.loadSchemaFromFSPath(fs, aliceSchemaPath);
+        final BloomFilterEncoding aliceEncoding = BloomFilterEncodingUtil.setupNewInstance(aliceEncodingSchema);
+        final Schema bobEncodingSchema = DatasetsUtil.loadSchemaFromFSPath(fs, bobSchemaPath);
+        final Schema unionSchema = Schema.createUnion(Lists.newArrayList(aliceEncodingSchema, bobEncodingSchema));
+        final BloomFilterEncoding bobEncoding = BloomFilterEncodingUtil.setupNewInstance(bobEncodingSchema);
+        final HammingLSHBlocking blocking = (seed >= 0 ) ?
+                new HammingLSHBlocking(L,K,seed,aliceEncoding,bobEncoding) :
+                new HammingLSHBlocking(L,K,aliceEncoding,bobEncoding);
+        final HammingLSHFPSStatistics stats = new HammingLSHFPSStatistics();
+
+        conf.set(CommonKeys.ALICE_SCHEMA,aliceEncodingSchema.toString());
+        conf.set(CommonKeys.ALICE_UID,aliceUidFieldName);
+        conf.set(CommonKeys.BOB_SCHEMA,bobEncodingSchema.toString());
+        conf.set(CommonKeys.BOB_UID,bobUidFieldName);
+        conf.setInt(CommonKeys.BLOCKING_GROUP_COUNT, L);
+        conf.setStrings(CommonKeys.BLOCKING_KEYS,blocking.groupsAsStrings());
+        conf.setInt(CommonKeys.HAMMING_THRESHOLD, hammingThreshold);
+        conf.setInt(CommonKeys.FREQUENT_PAIR_LIMIT, C);
+        conf.setInt(CommonKeys.BOB_SHARD_COUNT, P);
+
+        // shard key filters, at most one bit per (group, key) and within the filter bytes.
+        final long keySpace = (K < 32) ? ((long) L << K) : Long.MAX_VALUE;
+        final long filterBits = 8L * conf.getInt(CommonKeys.BOB_SHARD_FILTER_BYTES, DEFAULT_SHARD_FILTER_BYTES) / P;
+        conf.setInt(CommonKeys.BOB_SHARD_FILTER_BITS, (int) Math.max(64, Math.min(keySpace, filterBits)));
+        final Path filtersPath = new Path(matchedPairsPath.getParent(), matchedPairsPath.getName() + "_shard_filters");
+        if(fs.exists(filtersPath)) fs.delete(filtersPath, true);
+
+        // setup job1a, builds the key filters of bob shards (same profile and stats key as job1)
+        MemProfileUtil.setMemProfile(memProfile1,conf);
+        final String description1a = String.format("%s(" +
+                        "bob-path : %s, bob-schema-path : %s, " +
+                        "shard-filters-path : %s, " +
+                        "L : %d, K : %d, P : %d, filter-bits : %d)",
+                JOB_1A_DESCRIPTION,
+                shortenUrl(bobPath.toString()), shortenUrl(bobSchemaPath.toString()),
+                shortenUrl(filtersPath.toString()),
+                L, K, P, conf.getInt(CommonKeys.BOB_SHARD_FILTER_BITS, -1));
+        LOG.info("Running.1a : {} : {}",memProfile1,description1a);
+        final Job job1a = Job.getInstance(conf);
+        job1a.setJarByClass(HammingLSHFPSToolV4.class);
+        job1a.setJobName(description1a);
+        job1a.setNumReduceTasks(P);
+
+        // setup input & Mappers
+        AvroKeyInputFormat.setInputPaths(job1a, bobPath);
+        AvroJob.setInputKeySchema(job1a, bobEncodingSchema);
+        job1a.setInputFormatClass(AvroKeyInputFormat.class);
+        job1a.setMapperClass(ShardKeyFilterMapper.class);
+        job1a.setMapOutputKeyClass(IntWritable.class);
+        job1a.setMapOutputValueClass(ShardKeyFilterWritable.class);
+
+        // reducers & setup output
+        job1a.setReducerClass(ShardKeyFilterReducer.class);
+        job1a.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job1a.setOutputKeyClass(IntWritable.class);
+        job1a.setOutputValueClass(ShardKeyFilterWritable.class);
+        SequenceFileOutputFormat.setCompressOutput(job1a,true);
+        SequenceFileOutputFormat.setOutputCompressionType(job1a,
+                SequenceFile.CompressionType.BLOCK);
+        SequenceFileOutputFormat.setOutputPath(job1a,filtersPath);
+
+        // run job 1a
+        final boolean job1aSuccess = job1a.waitForCompletion(true);
+        if(!job1aSuccess) {
+            LOG.error("Job \"{}\" not successful",JOB_1A_DESCRIPTION);
+            final Path parentPath = statsPath.getParent();
+            final Path renamedPath = new Path(parentPath.getParent(),"FAILED_" + parentPath.getName());
+            fs.rename(parentPath, renamedPath);
+            return 1;
+        }
+
+        // cleanup and stats
+        removeSuccessFile(fs,filtersPath);
+        stats.populateStats(JOB_1, job1a);
+        stats.saveAndClearStats(fs, statsPath);
+
+        // setup job1
+        MemProfileUtil.setMemProfile(memProfile1,conf);
+        final String description1 = String.format("%s(" +
+                        "alice-path : %s, alice-schema-path : %s, " +
+                        "bob-path : %s, bob-schema-path : %s, " +
+                        "matched-pairs-path : %s, " +
+                        "L : %d, K : %d, C : %d, P : %d)",
+                JOB_1_DESCRIPTION,
+                shortenUrl(alicePath.toString()), shortenUrl(aliceSchemaPath.toString()),
+                shortenUrl(bobPath.toString()), shortenUrl(bobSchemaPath.toString()),
+                shortenUrl(matchedPairsPath.toString()),
+                L, K, C, P);
+        LOG.info("Running.1 : {} : {}",memProfile1,description1);
+        final Job job1 = Job.getInstance(conf);
+        job1.setJarByClass(HammingLSHFPSToolV4.class);
+        job1.setJobName(description1);
+        job1.setNumReduceTasks(P);
+        job1.setSpeculativeExecution(false);
+
+        // setup  cache
+        addContainingPathsToCache(job1, fs, filtersPath);
+
+        // setup input & Mappers
+        AvroKeyInputFormat.setInputPaths(job1, alicePath, bobPath);
+        AvroJob.setInputKeySchema(job1, unionSchema);
+        job1.setInputFormatClass(AvroKeyInputFormat.class);
+        job1.setMapperClass(HammingLSHShardMapper.class);
+        job1.setMapOutputKeyClass(ShardKeyWritable.class);
+        job1.setMapOutputValueClass(RecordBloomFilterWritable.class);
+
+        // partitioner
+        job1.setPartitionerClass(ShardKeyWritablePartitioner.class);
+
+        // sort class
+        job1.setSortComparatorClass(ShardKeyWritableComparator.class);
+
+        // reducers & setup output
+        job1.setReducerClass(FPSReducerV4.class);
+        job1.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job1.setOutputKeyClass(Text.class);
+        job1.setOutputValueClass(Text.class);
+        SequenceFileOutputFormat.setCompressOutput(job1,true);
+        SequenceFileOutputFormat.setOutputCompressionType(job1,
+                SequenceFile.CompressionType.NONE);
+        SequenceFileOutputFormat.setOutputPath(job1,matchedPairsPath);
+
+        // run job 1
+        final boolean job1Success = job1.waitForCompletion(true);
+        if(!job1Success) {
+            LOG.error("Job \"{}\" not successful",JOB_1_DESCRIPTION);
+            final Path parentPath = statsPath.getParent();
+            final Path renamedPath = new Path(parentPath.getParent(),"FAILED_" + parentPath.getName());
+            fs.rename(parentPath, renamedPath);
+            return 1;
+        }
+
+        // cleanup and stats
+        removeSuccessFile(fs,matchedPairsPath);
+        stats.populateStats(JOB_1, job1);
+        stats.saveAndClearStats(fs, statsPath);
+
+        // all jobs are succesfull save counters to stats path
+        LOG.info("All jobs are succesfull. See \"{}\" for the matched pairs list.", matchedPairsPath);
+        LOG.info("See \"{}\" for collected stats.", statsPath);
+
+        return 0;
+    }
+
+    /**
+     * Main
+     *
+     * @param args input args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int res = ToolRunner.run(new HammingLSHFPSToolV4(), args);
+        System.exit(res);
+    }
+}
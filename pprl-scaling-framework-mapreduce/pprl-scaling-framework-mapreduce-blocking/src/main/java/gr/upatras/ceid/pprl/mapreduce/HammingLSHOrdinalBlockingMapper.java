@@ -0,0 +1,190 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
+import gr.upatras.ceid.pprl.blocking.HammingLSHKeyExtractor;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.mapred.AvroKey;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.io.IOException;
+
+import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.increaseRecordCounter;
+
+/**
+ * Hamming LSH blocking mapper class emitting record ordinals. Each task assigns
+ * dense ordinals (task id, position of the record in the task) to its records,
+ * writes them along with the record uids and bloom filters to an ordinals file
+ * (<code>ordinals-%c-%05d.seq</code> named after the dataset and the task id) and emits
+ * the ordinal instead of the record uid. Ordinals files are side files of the task
+ * (committed with the job output, see <code>moveOrdinalsFiles</code>).
+ */
+public class HammingLSHOrdinalBlockingMapper extends Mapper<AvroKey<GenericRecord>,NullWritable,BlockingKeyWritable,LongWritable> {
+
+    private static final String ORDINALS_FILE_PREFIX = "ordinals-";
+    public static final String ORDINALS_FILE_EXTENSION = ".seq";
+
+    private HammingLSHBlocking blocking;
+    private HammingLSHKeyExtractor extractor;
+    private SequenceFile.Writer ordinalsWriter;
+    private final BlockingKeyWritable blockingKey = new BlockingKeyWritable();
+    private BloomFilterView view;
+    private final LongWritable ordinal = new LongWritable();
+    private final RecordBloomFilterWritable value = new RecordBloomFilterWritable();
+    private String uidFieldName;
+    private String encodingFieldName;
+    private char dataset;
+    private long taskOrdinal;
+    private int recordOrdinal;
+
+    @Override
+    protected void map(AvroKey<GenericRecord> key, NullWritable value, Context context)
+            throws IOException, InterruptedException {
+        final GenericRecord record = key.datum();
+        BloomFilterEncodingUtil.retrieveBloomFilterView(record, encodingFieldName, view);
+        final long[] keys = extractor.hash(view);
+        ordinal.set(taskOrdinal | recordOrdinal++);
+        value.set(String.valueOf(record.get(uidFieldName)), view.getByteLength());
+        view.copyTo(value.getBytes(), 0);
+        ordinalsWriter.append(ordinal, value);
+        for (int i = 0; i < keys.length; i++) {
+            blockingKey.set(i,keys[i],dataset);
+            context.write(blockingKey,ordinal);
+        }
+    }
+
+    @Override
+    public void run(Context context) throws IOException, InterruptedException {
+        setupBlocking(context);
+        context.nextKeyValue();
+        final Schema s = context.getCurrentKey().datum().getSchema();
+        setupMapper(s,context);
+        setupOrdinalsWriter(context);
+        long recordCount = 0;
+        try {
+            do {
+                map(context.getCurrentKey(), context.getCurrentValue(), context);
+                recordCount++;
+            } while (context.nextKeyValue());
+        } finally {
+            ordinalsWriter.close();
+            increaseRecordCounter(context,dataset,recordCount);
+            cleanup(context);
+        }
+    }
+
+    /**
+     * Returns the ordinals file name of a task.
+     *
+     * @param dataset source dataset of the task.
+     * @param taskId a map task id.
+     * @return the ordinals file name of a task.
+     */
+    static String ordinalsFileName(final char dataset, final int taskId) {
+        return String.format("%s%c-%05d%s", ORDINALS_FILE_PREFIX, dataset, taskId, ORDINALS_FILE_EXTENSION);
+    }
+
+    /**
+     * Returns a pattern matching the ordinals files of a dataset, found in an ordinals path
+     * (to be used as an input path).
+     *
+     * @param ordinalsPath ordinals path.
+     * @param dataset source dataset.
+     * @return a pattern matching the ordinals files of a dataset.
+     */
+    public static Path ordinalsFiles(final Path ordinalsPath, final char dataset) {
+        return new Path(ordinalsPath, String.format("%s%c-*%s", ORDINALS_FILE_PREFIX, dataset, ORDINALS_FILE_EXTENSION));
+    }
+
+    /**
+     * Moves the ordinals files, committed with the job output, from the output path to
+     * an ordinals path (so that the output path holds the job output only).
+     *
+     * @param fs file system.
+     * @param outputPath output path of the job.
+     * @param ordinalsPath ordinals path.
+     * @throws IOException
+     */
+    public static void moveOrdinalsFiles(final FileSystem fs, final Path outputPath, final Path ordinalsPath)
+            throws IOException {
+        if(!fs.exists(ordinalsPath)) fs.mkdirs(ordinalsPath);
+        for (FileStatus status : fs.listStatus(outputPath)) {
+            final String name = status.getPath().getName();
+            if(!name.startsWith(ORDINALS_FILE_PREFIX) || !name.endsWith(ORDINALS_FILE_EXTENSION)) continue;
+            if(!fs.rename(status.getPath(), new Path(ordinalsPath, name)))
+                throw new IOException("Cannot move ordinals file " + status.getPath() + ".");
+        }
+    }
+
+    /**
+     * Setup the ordinals file writer of this task, in the work output path of the task
+     * attempt (as a side file, committed only if the attempt succeeds).
+     *
+     * @param context context.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void setupOrdinalsWriter(final Context context) throws IOException, InterruptedException {
+        final int taskId = context.getTaskAttemptID().getTaskID().getId();
+        final Path ordinalsPath = new Path(FileOutputFormat.getWorkOutputPath(context), ordinalsFileName(dataset, taskId));
+        ordinalsWriter = SequenceFile.createWriter(context.getConfiguration(),
+                SequenceFile.Writer.file(ordinalsPath),
+                SequenceFile.Writer.keyClass(LongWritable.class),
+                SequenceFile.Writer.valueClass(RecordBloomFilterWritable.class));
+        taskOrdinal = ((long) taskId) << 32;
+        recordOrdinal = 0;
+    }
+
+    /**
+     * Setup blocking instance.
+     *
+     * @param context context.
+     * @throws InterruptedException
+     */
+    private void setupBlocking(final Context context) throws InterruptedException {
+        try {
+            final String aliceSchemaString = context.getConfiguration().get(CommonKeys.ALICE_SCHEMA);
+            if (aliceSchemaString == null) throw new IllegalStateException("Alice schema not set.");
+            final String bobSchemaString = context.getConfiguration().get(CommonKeys.BOB_SCHEMA);
+            if (bobSchemaString == null) throw new IllegalStateException("Bob schema not set.");
+            final String[] blockingKeys = context.getConfiguration().getStrings(CommonKeys.BLOCKING_KEYS);
+            if (blockingKeys == null) throw new IllegalStateException("Blocking keys not set.");
+            BloomFilterEncoding aliceEncoding = BloomFilterEncodingUtil.setupNewInstance(
+                    ((new Schema.Parser()).parse(aliceSchemaString)));
+            BloomFilterEncoding bobEncoding = BloomFilterEncodingUtil.setupNewInstance(
+                    ((new Schema.Parser()).parse(bobSchemaString)));
+            blocking = new HammingLSHBlocking(blockingKeys, aliceEncoding, bobEncoding);
+            extractor = blocking.newKeyExtractor();
+            view = new BloomFilterView(blocking.getN());
+        } catch (Exception e) {throw new InterruptedException(e.getMessage());}
+    }
+
+    /**
+     * Setup mapper.
+     *
+     * @param schema schema.
+     * @param context context.
+     */
+    private void setupMapper(final Schema schema,final Context context) {
+        if(schema.getName().equals(blocking.getAliceEncodingName())){
+            encodingFieldName = blocking.getAliceEncodingFieldName();
+            uidFieldName = context.getConfiguration().get(CommonKeys.ALICE_UID);
+            dataset = 'A';
+        } else if(schema.getName().equals(blocking.getBobEncodingName())){
+            encodingFieldName = blocking.getBobEncodingFieldName();
+            uidFieldName = context.getConfiguration().get(CommonKeys.BOB_UID);
+            dataset = 'B';
+        } else throw new IllegalStateException("Unknown schema name : " + schema.getName());
+        if(uidFieldName == null) throw new IllegalStateException("UID field name not set.");
+    }
+}
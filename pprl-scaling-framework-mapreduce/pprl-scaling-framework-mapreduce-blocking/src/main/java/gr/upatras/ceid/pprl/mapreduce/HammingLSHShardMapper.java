@@ -0,0 +1,157 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import com.javamex.classmexer.MemoryUtil;
+import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
+import gr.upatras.ceid.pprl.blocking.HammingLSHKeyExtractor;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.mapred.AvroKey;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+import java.net.URI;
+
+import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.increaseRecordCounter;
+import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.increaseTotalByteCounter;
+
+/**
+ * Hamming LSH shard mapper class. Each bob record (uid and bloom filter) is sent to
+ * the shard of its uid, while each alice record is sent to the shards whose key filter
+ * (found in cache) contains at least C of its blocking keys, the only shards that may
+ * hold a frequent pair of it.
+ */
+public class HammingLSHShardMapper extends Mapper<AvroKey<GenericRecord>,NullWritable,ShardKeyWritable,RecordBloomFilterWritable> {
+
+    private HammingLSHBlocking blocking;
+    private HammingLSHKeyExtractor extractor;
+    private ShardKeyFilterWritable[] filters; // shard id to its key filter, null if the shard is empty.
+    private short C;
+    private BloomFilterView view;
+    private final ShardKeyWritable shardKey = new ShardKeyWritable();
+    private final RecordBloomFilterWritable value = new RecordBloomFilterWritable();
+    private String uidFieldName;
+    private String encodingFieldName;
+    private char dataset;
+    private int shardCount;
+
+    @Override
+    protected void map(AvroKey<GenericRecord> key, NullWritable nullValue, Context context)
+            throws IOException, InterruptedException {
+        final GenericRecord record = key.datum();
+        final String uid = String.valueOf(record.get(uidFieldName));
+        BloomFilterEncodingUtil.retrieveBloomFilterView(record, encodingFieldName, view);
+        value.set(uid, view.getByteLength());
+        view.copyTo(value.getBytes(), 0);
+        if(dataset == 'B') {
+            shardKey.set(ShardKeyWritable.shardOf(uid, shardCount), dataset);
+            context.write(shardKey, value);
+        } else {
+            final long[] keys = extractor.hash(view);
+            for (int shard = 0; shard < shardCount; shard++) {
+                if(filters[shard] == null || filters[shard].count(keys, C) < C) continue;
+                shardKey.set(shard, dataset);
+                context.write(shardKey, value);
+            }
+        }
+    }
+
+    @Override
+    public void run(Context context) throws IOException, InterruptedException {
+        setupBlocking(context);
+        context.nextKeyValue();
+        final Schema s = context.getCurrentKey().datum().getSchema();
+        setupMapper(s,context);
+        long recordCount = 0;
+        try {
+            do {
+                map(context.getCurrentKey(), context.getCurrentValue(), context);
+                recordCount++;
+            } while (context.nextKeyValue());
+        } finally {
+            increaseRecordCounter(context,dataset,recordCount);
+            cleanup(context);
+        }
+    }
+
+    /**
+     * Setup blocking instance.
+     *
+     * @param context context.
+     * @throws InterruptedException
+     */
+    private void setupBlocking(final Context context) throws InterruptedException {
+        try {
+            final String aliceSchemaString = context.getConfiguration().get(CommonKeys.ALICE_SCHEMA);
+            if (aliceSchemaString == null) throw new IllegalStateException("Alice schema not set.");
+            final String bobSchemaString = context.getConfiguration().get(CommonKeys.BOB_SCHEMA);
+            if (bobSchemaString == null) throw new IllegalStateException("Bob schema not set.");
+            final String[] blockingKeys = context.getConfiguration().getStrings(CommonKeys.BLOCKING_KEYS);
+            if (blockingKeys == null) throw new IllegalStateException("Blocking keys not set.");
+            BloomFilterEncoding aliceEncoding = BloomFilterEncodingUtil.setupNewInstance(
+                    ((new Schema.Parser()).parse(aliceSchemaString)));
+            BloomFilterEncoding bobEncoding = BloomFilterEncodingUtil.setupNewInstance(
+                    ((new Schema.Parser()).parse(bobSchemaString)));
+            blocking = new HammingLSHBlocking(blockingKeys, aliceEncoding, bobEncoding);
+            extractor = blocking.newKeyExtractor();
+            view = new BloomFilterView(blocking.getN());
+            C = (short) context.getConfiguration().getInt(CommonKeys.FREQUENT_PAIR_LIMIT, -1);
+            if(C < 0) throw new IllegalStateException("C is not set.");
+            shardCount = context.getConfiguration().getInt(CommonKeys.BOB_SHARD_COUNT, -1);
+            if(shardCount <= 0) throw new IllegalStateException("Bob shard count not set.");
+        } catch (Exception e) {throw new InterruptedException(e.getMessage());}
+    }
+
+    /**
+     * Setup mapper.
+     *
+     * @param schema schema.
+     * @param context context.
+     * @throws IOException
+     */
+    private void setupMapper(final Schema schema,final Context context) throws IOException {
+        if(schema.getName().equals(blocking.getAliceEncodingName())){
+            encodingFieldName = blocking.getAliceEncodingFieldName();
+            uidFieldName = context.getConfiguration().get(CommonKeys.ALICE_UID);
+            dataset = 'A';
+            loadFilters(context);
+        } else if(schema.getName().equals(blocking.getBobEncodingName())){
+            encodingFieldName = blocking.getBobEncodingFieldName();
+            uidFieldName = context.getConfiguration().get(CommonKeys.BOB_UID);
+            dataset = 'B';
+        } else throw new IllegalStateException("Unknown schema name : " + schema.getName());
+        if(uidFieldName == null) throw new IllegalStateException("UID field name not set.");
+    }
+
+    /**
+     * Loads the key filters of the bob shards from the files found in cache.
+     *
+     * @param context context.
+     * @throws IOException
+     */
+    private void loadFilters(final Context context) throws IOException {
+        final Configuration conf = context.getConfiguration();
+        filters = new ShardKeyFilterWritable[shardCount];
+        for (final URI uri : context.getCacheFiles()) {
+            if (uri.toString().endsWith("jar")) continue;
+            final SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(new Path(uri)));
+            final IntWritable shardId = new IntWritable();
+            ShardKeyFilterWritable filter = new ShardKeyFilterWritable();
+            while (reader.next(shardId, filter)) {
+                filters[shardId.get()] = filter;
+                filter = new ShardKeyFilterWritable();
+            }
+            reader.close();
+        }
+        final long filterBytes = MemoryUtil.deepMemoryUsageOf(filters);
+        System.out.println("Bob shard filters memory footprint : " + filterBytes/(1024*1024) + " MB");
+        increaseTotalByteCounter(context, filterBytes);
+    }
+}
@@ -0,0 +1,203 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
+import gr.upatras.ceid.pprl.blocking.HammingLSHKeyExtractor;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterStore;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.mapred.AvroKey;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.io.IOException;
+
+import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.increaseRecordCounter;
+
+/**
+ * Hamming LSH blocking mapper class for bob records kept in a bloom filter store.
+ * Each task writes its records to a store file (<code>bob-%05d.bfs</code> named after
+ * the task id) and emits a store reference (task id, slot in the task's file)
+ * instead of the record uid. Store files are side files of the task (committed with
+ * the job output, see <code>moveStoreFiles</code>). At the end of the task, the record
+ * count of the task is emitted to every blocking group (dataset id <code>COUNT_ID</code>),
+ * so that reducers resolve store references without reading the store files.
+ */
+public class HammingLSHStoreBlockingMapper extends Mapper<AvroKey<GenericRecord>,NullWritable,BlockingKeyWritable,LongWritable> {
+
+    private static final String STORE_FILE_PREFIX = "bob-";
+    public static final char COUNT_ID = '#';   // dataset id of the record count keys (sorted before the bob keys of a group).
+
+    private HammingLSHBlocking blocking;
+    private HammingLSHKeyExtractor extractor;
+    private BloomFilterView view;
+    private BloomFilterStore.Writer storeWriter;
+    private final BlockingKeyWritable blockingKey = new BlockingKeyWritable();
+    private final LongWritable reference = new LongWritable();
+    private String uidFieldName;
+    private String encodingFieldName;
+    private long taskReference;
+
+    @Override
+    protected void map(AvroKey<GenericRecord> key, NullWritable value, Context context)
+            throws IOException, InterruptedException {
+        final GenericRecord record = key.datum();
+        BloomFilterEncodingUtil.retrieveBloomFilterView(record, encodingFieldName, view);
+        final long[] keys = extractor.hash(view);
+        reference.set(taskReference | storeWriter.getRecordCount());
+        storeWriter.append(String.valueOf(record.get(uidFieldName)), view);
+        for (int i = 0; i < keys.length; i++) {
+            blockingKey.set(i,keys[i],'B');
+            context.write(blockingKey,reference);
+        }
+    }
+
+    @Override
+    public void run(Context context) throws IOException, InterruptedException {
+        setupBlocking(context);
+        context.nextKeyValue();
+        final Schema s = context.getCurrentKey().datum().getSchema();
+        setupMapper(s,context);
+        setupStoreWriter(context);
+        long recordCount = 0;
+        try {
+            do {
+                map(context.getCurrentKey(), context.getCurrentValue(), context);
+                recordCount++;
+            } while (context.nextKeyValue());
+            reference.set(taskReference | recordCount);
+            for (int i = 0; i < blocking.getL(); i++) {
+                blockingKey.set(i,0,COUNT_ID);
+                context.write(blockingKey,reference);
+            }
+        } finally {
+            storeWriter.close();
+            increaseRecordCounter(context,'B',recordCount);
+            cleanup(context);
+        }
+    }
+
+    /**
+     * Returns the store file name of a task.
+     *
+     * @param taskId a map task id.
+     * @return the store file name of a task.
+     */
+    static String storeFileName(final int taskId) {
+        return String.format("%s%05d%s", STORE_FILE_PREFIX, taskId, BloomFilterStore.FILE_EXTENSION);
+    }
+
+    /**
+     * Returns the task id of a store file name.
+     *
+     * @param name a store file name.
+     * @return the task id of a store file name.
+     */
+    static int storeFileTaskId(final String name) {
+        if(!name.startsWith(STORE_FILE_PREFIX) || !name.endsWith(BloomFilterStore.FILE_EXTENSION))
+            throw new IllegalArgumentException("Not a store file name : " + name);
+        return Integer.parseInt(name.substring(STORE_FILE_PREFIX.length(),
+                name.length() - BloomFilterStore.FILE_EXTENSION.length()));
+    }
+
+    /**
+     * Moves the store files, committed with the job output, from the output path to
+     * a store path (so that the output path holds the job output only).
+     *
+     * @param fs file system.
+     * @param outputPath output path of the job.
+     * @param storePath store path.
+     * @throws IOException
+     */
+    public static void moveStoreFiles(final FileSystem fs, final Path outputPath, final Path storePath)
+            throws IOException {
+        if(!fs.exists(storePath)) fs.mkdirs(storePath);
+        for (FileStatus status : fs.listStatus(outputPath)) {
+            final String name = status.getPath().getName();
+            if(!name.startsWith(STORE_FILE_PREFIX) || !name.endsWith(BloomFilterStore.FILE_EXTENSION)) continue;
+            if(!fs.rename(status.getPath(), new Path(storePath, name)))
+                throw new IOException("Cannot move store file " + status.getPath() + ".");
+        }
+    }
+
+    /**
+     * Returns the task id of a store reference.
+     *
+     * @param reference a store reference.
+     * @return the task id of a store reference.
+     */
+    static int referenceTaskId(final long reference) {
+        return (int) (reference >>> 32);
+    }
+
+    /**
+     * Returns the slot (in its task's store file) of a store reference.
+     *
+     * @param reference a store reference.
+     * @return the slot of a store reference.
+     */
+    static int referenceSlot(final long reference) {
+        return (int) reference;
+    }
+
+    /**
+     * Setup the bloom filter store writer of this task (in the task's work output path).
+     *
+     * @param context context.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void setupStoreWriter(final Context context) throws IOException, InterruptedException {
+        final int uidLength = context.getConfiguration().getInt(CommonKeys.BOB_STORE_UID_LENGTH, 32);
+        final int taskId = context.getTaskAttemptID().getTaskID().getId();
+        final Path storePath = new Path(FileOutputFormat.getWorkOutputPath(context), storeFileName(taskId));
+        final FileSystem fs = storePath.getFileSystem(context.getConfiguration());
+        storeWriter = new BloomFilterStore.Writer(fs.create(storePath, true), blocking.getN(), uidLength);
+        taskReference = ((long) taskId) << 32;
+    }
+
+    /**
+     * Setup blocking instance.
+     *
+     * @param context context.
+     * @throws InterruptedException
+     */
+    private void setupBlocking(final Context context) throws InterruptedException {
+        try {
+            final String aliceSchemaString = context.getConfiguration().get(CommonKeys.ALICE_SCHEMA);
+            if (aliceSchemaString == null) throw new IllegalStateException("Alice schema not set.");
+            final String bobSchemaString = context.getConfiguration().get(CommonKeys.BOB_SCHEMA);
+            if (bobSchemaString == null) throw new IllegalStateException("Bob schema not set.");
+            final String[] blockingKeys = context.getConfiguration().getStrings(CommonKeys.BLOCKING_KEYS);
+            if (blockingKeys == null) throw new IllegalStateException("Blocking keys not set.");
+            BloomFilterEncoding aliceEncoding = BloomFilterEncodingUtil.setupNewInstance(
+                    ((new Schema.Parser()).parse(aliceSchemaString)));
+            BloomFilterEncoding bobEncoding = BloomFilterEncodingUtil.setupNewInstance(
+                    ((new Schema.Parser()).parse(bobSchemaString)));
+            blocking = new HammingLSHBlocking(blockingKeys, aliceEncoding, bobEncoding);
+            extractor = blocking.newKeyExtractor();
+            view = new BloomFilterView(blocking.getN());
+        } catch (Exception e) {throw new InterruptedException(e.getMessage());}
+    }
+
+    /**
+     * Setup mapper.
+     *
+     * @param schema schema.
+     * @param context context.
+     */
+    private void setupMapper(final Schema schema,final Context context) {
+        if(!schema.getName().equals(blocking.getBobEncodingName()))
+            throw new IllegalStateException("Unknown schema name : " + schema.getName());
+        encodingFieldName = blocking.getBobEncodingFieldName();
+        uidFieldName = context.getConfiguration().get(CommonKeys.BOB_UID);
+        if(uidFieldName == null) throw new IllegalStateException("UID field name not set.");
+    }
+}
@@ -0,0 +1,34 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.mapreduce.Reducer;
+
+import java.io.IOException;
+
+/**
+ * Join alice records reducer class. Receives an alice record followed by the frequent
+ * pairs it takes part in (grouped by alice ordinal) and writes the record once per pair,
+ * keyed by (bob ordinal, alice ordinal) for the join with the bob records.
+ */
+public class JoinAliceRecordsReducer extends Reducer<LongPairWritable,RecordBloomFilterWritable,LongPairWritable,RecordBloomFilterWritable> {
+
+    private final RecordBloomFilterWritable aliceRecord = new RecordBloomFilterWritable();
+    private final LongPairWritable pair = new LongPairWritable();
+
+    @Override
+    protected void reduce(LongPairWritable key, Iterable<RecordBloomFilterWritable> values, Context context)
+            throws IOException, InterruptedException {
+        final long aliceOrdinal = key.getFirst();
+        boolean foundRecord = false;
+        for (RecordBloomFilterWritable value : values) {
+            if(key.getSecond() == OrdinalRecordsMapper.RECORD) {
+                aliceRecord.set(value);
+                foundRecord = true;
+                continue;
+            }
+            if(!foundRecord)
+                throw new IllegalStateException("Unresolved alice ordinal " + aliceOrdinal + ".");
+            pair.set(key.getSecond(), aliceOrdinal);
+            context.write(pair, aliceRecord);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import java.util.Arrays;
+
+/**
+ * A bounded open addressing table of partial counts of long pairs (pairs of
+ * record ordinals). Entries are iterated by their slot <code>(0,...,capacity-1)</code>,
+ * an empty slot has a zero count.
+ */
+public class LongPairCountTable {
+
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final long[] firsts;    // slot to first ordinal.
+    private final long[] seconds;   // slot to second ordinal.
+    private final short[] counts;   // slot to partial count (0 for an empty slot).
+    private final int mask;         // capacity - 1.
+    private final int threshold;    // number of used slots considered full.
+    private int size;               // number of used slots.
+
+    /**
+     * Constructor.
+     *
+     * @param capacity requested capacity (rounded down to a power of two, at least 16).
+     */
+    public LongPairCountTable(final int capacity) {
+        final int c = Integer.highestOneBit(Math.max(16, capacity));
+        firsts = new long[c];
+        seconds = new long[c];
+        counts = new short[c];
+        mask = c - 1;
+        threshold = (int) (c * LOAD_FACTOR);
+        size = 0;
+    }
+
+    /**
+     * Increases the count of a pair, unless it has already reached the limit.
+     *
+     * @param first first long.
+     * @param second second long.
+     * @param limit count limit.
+     * @return the new count of the pair, or 0 if its count had already reached the limit.
+     */
+    public short increase(final long first, final long second, final short limit) {
+        int e = slot(first, second);
+        while (counts[e] != 0) {
+            if(firsts[e] == first && seconds[e] == second) {
+                if(counts[e] >= limit) return 0;
+                return ++counts[e];
+            }
+            e = (e + 1) & mask;
+        }
+        firsts[e] = first;
+        seconds[e] = second;
+        counts[e] = 1;
+        size++;
+        return 1;
+    }
+
+    /**
+     * Returns true if the table should be flushed and cleared.
+     *
+     * @return true if the table should be flushed and cleared.
+     */
+    public boolean isFull() {
+        return size >= threshold;
+    }
+
+    public int getCapacity() {
+        return counts.length;
+    }
+
+    public short getCount(final int slot) {
+        return counts[slot];
+    }
+
+    public long getFirst(final int slot) {
+        return firsts[slot];
+    }
+
+    public long getSecond(final int slot) {
+        return seconds[slot];
+    }
+
+    /**
+     * Empties the table.
+     */
+    public void clear() {
+        Arrays.fill(counts, (short) 0);
+        size = 0;
+    }
+
+    private int slot(final long first, final long second) {
+        long h = (first * 0x9E3779B97F4A7C15L) ^ second;
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
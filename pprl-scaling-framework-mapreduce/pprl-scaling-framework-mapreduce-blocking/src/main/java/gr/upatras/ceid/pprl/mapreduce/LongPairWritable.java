@@ -0,0 +1,107 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.WritableComparable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A long pair writable (a pair of record ordinals). Serialized in a fixed width
+ * of <code>SERIALIZED_LENGTH</code> bytes : first (long) and second (long).
+ */
+public class LongPairWritable implements WritableComparable<LongPairWritable> {
+
+    public static final int SERIALIZED_LENGTH = 8 + 8;
+
+    public long first;
+    public long second;
+
+    /**
+     * Constructor.
+     */
+    public LongPairWritable() {}
+
+    /**
+     * Constructor.
+     *
+     * @param first first long.
+     * @param second second long.
+     */
+    public LongPairWritable(final long first, final long second) {
+        set(first, second);
+    }
+
+    /**
+     * Sets the fields of this pair, so a single instance can be written repeatedly.
+     *
+     * @param first first long.
+     * @param second second long.
+     */
+    public void set(final long first, final long second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getSecond() {
+        return second;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(first);
+        out.writeLong(second);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        first = in.readLong();
+        second = in.readLong();
+    }
+
+    /**
+     * Comparison between two pairs (first, then second).
+     *
+     * @param o the other pair.
+     * @return -1, 0 or 1.
+     */
+    public int compareTo(LongPairWritable o) {
+        int c0 = compareLongs(first, o.first);
+        if(c0 != 0) return c0;
+        return compareLongs(second, o.second);
+    }
+
+    /**
+     * Compare two longs.
+     *
+     * @param l1 long 1.
+     * @param l2 long 2.
+     * @return -1 if 2 is greater than 1, 0 if equal , 1 if 1 is greater than 2.
+     */
+    static int compareLongs(final long l1, final long l2) {
+        return (l1 < l2) ? -1 : ((l1 == l2) ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(o instanceof LongPairWritable) {
+            LongPairWritable that = (LongPairWritable) o;
+            return first == that.first && second == that.second;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (first ^ (first >>> 32));
+        result = 31 * result + (int) (second ^ (second >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + first + "," + second + "]";
+    }
+}
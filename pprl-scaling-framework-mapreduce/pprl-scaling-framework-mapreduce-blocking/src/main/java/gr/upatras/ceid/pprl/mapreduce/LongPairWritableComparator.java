@@ -0,0 +1,33 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * A long pair comparator for sorting first by the first long and then by
+ * the second one. Compares the fixed width serialized pairs in place,
+ * without deserializing.
+ */
+public class LongPairWritableComparator extends WritableComparator {
+
+    public LongPairWritableComparator() {
+        super(LongPairWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1,
+                       byte[] b2, int s2, int l2) {
+        assert l1 == LongPairWritable.SERIALIZED_LENGTH && l2 == LongPairWritable.SERIALIZED_LENGTH;
+
+        // first compare the first longs
+        int c0 = LongPairWritable.compareLongs(readLong(b1,s1),readLong(b2,s2));
+        if(c0 != 0) return c0;
+
+        // then compare the second longs
+        return LongPairWritable.compareLongs(readLong(b1,s1 + 8),readLong(b2,s2 + 8));
+    }
+
+    static {
+        // Register comparator
+        WritableComparator.define(LongPairWritable.class, new LongPairWritableComparator());
+    }
+}
@@ -0,0 +1,29 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * A long pair comparator for grouping by the first long only (the record ordinal
+ * of a join), so a reducer receives all pairs of a record ordinal in a single group,
+ * in the order of their second long. Compares the fixed width serialized pairs in
+ * place, without deserializing.
+ */
+public class LongPairWritableGroupingComparator extends WritableComparator {
+
+    public LongPairWritableGroupingComparator() {
+        super(LongPairWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1,
+                       byte[] b2, int s2, int l2) {
+        assert l1 == LongPairWritable.SERIALIZED_LENGTH && l2 == LongPairWritable.SERIALIZED_LENGTH;
+        return LongPairWritable.compareLongs(readLong(b1,s1),readLong(b2,s2));
+    }
+
+    @Override
+    public int compare(WritableComparable a, WritableComparable b) {
+        return LongPairWritable.compareLongs(((LongPairWritable) a).getFirst(), ((LongPairWritable) b).getFirst());
+    }
+}
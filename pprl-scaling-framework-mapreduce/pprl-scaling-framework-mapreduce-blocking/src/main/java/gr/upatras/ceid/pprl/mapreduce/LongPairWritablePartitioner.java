@@ -0,0 +1,17 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * A partitioner for long pairs by their first long (the record ordinal of a join),
+ * all pairs with the same first long go to a single reducer.
+ */
+public class LongPairWritablePartitioner extends Partitioner<LongPairWritable,Writable> {
+
+    @Override
+    public int getPartition(LongPairWritable key, Writable value, int numPartitions) {
+        final long first = key.getFirst();
+        return ((int) (first ^ (first >>> 32)) & Integer.MAX_VALUE) % numPartitions;
+    }
+}
@@ -0,0 +1,25 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+
+/**
+ * Ordinal records mapper class. Reads the ordinals files (record ordinal to record uid
+ * and bloom filter) and emits each record keyed by (ordinal, <code>RECORD</code>), so that
+ * in a join keyed by ordinal the record sorts before the pairs it takes part in.
+ */
+public class OrdinalRecordsMapper extends Mapper<LongWritable,RecordBloomFilterWritable,LongPairWritable,RecordBloomFilterWritable> {
+
+    public static final long RECORD = -1; // sorts before any record ordinal.
+
+    private final LongPairWritable joinKey = new LongPairWritable();
+
+    @Override
+    protected void map(LongWritable key, RecordBloomFilterWritable value, Context context)
+            throws IOException, InterruptedException {
+        joinKey.set(key.get(), RECORD);
+        context.write(joinKey, value);
+    }
+}
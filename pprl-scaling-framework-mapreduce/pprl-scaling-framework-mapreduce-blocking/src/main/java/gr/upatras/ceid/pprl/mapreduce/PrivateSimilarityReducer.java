@@ -1,9 +1,9 @@
 package gr.upatras.ceid.pprl.mapreduce;
 
-import gr.upatras.ceid.pprl.encoding.BloomFilter;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingException;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
 import gr.upatras.ceid.pprl.matching.PrivateSimilarityUtil;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
@@ -33,6 +33,8 @@ public class PrivateSimilarityReducer extends Reducer<TextPairWritable,AvroValue
     private String bobEncodingFieldName;
 
     private int N;
+    private BloomFilterView aliceView;
+    private BloomFilterView bobView;
 
     private long matchedPairsCount;
 
@@ -59,6 +61,8 @@ public class PrivateSimilarityReducer extends Reducer<TextPairWritable,AvroValue
             if(bobEncoding.getBFN() != aliceEncoding.getBFN())
                 throw new IllegalStateException("Encoding schemes dont have same bloom filter size.");
             N = aliceEncoding.getBFN();
+            aliceView = new BloomFilterView(N);
+            bobView = new BloomFilterView(N);
         } catch (BloomFilterEncodingException e) {
             throw new InterruptedException(e.getMessage());
         }
@@ -86,10 +90,10 @@ public class PrivateSimilarityReducer extends Reducer<TextPairWritable,AvroValue
                     " alice found ? " +  (aliceRecord != null) +
                     " bob found ? " + (bobRecord != null));
 
-        final BloomFilter aliceBf = BloomFilterEncodingUtil.retrieveBloomFilter(aliceRecord,
-                aliceEncodingFieldName, N);
-        final BloomFilter bobBf = BloomFilterEncodingUtil.retrieveBloomFilter(bobRecord,
-                bobEncodingFieldName, N);
+        final BloomFilterView aliceBf = BloomFilterEncodingUtil.retrieveBloomFilterView(aliceRecord,
+                aliceEncodingFieldName, aliceView);
+        final BloomFilterView bobBf = BloomFilterEncodingUtil.retrieveBloomFilterView(bobRecord,
+                bobEncodingFieldName, bobView);
 
         final boolean matches =
                 PrivateSimilarityUtil.similarity(similarityMethodName,aliceBf,bobBf,similarityThreshold);
@@ -2,10 +2,10 @@ package gr.upatras.ceid.pprl.mapreduce;
 
 import com.javamex.classmexer.MemoryUtil;
 import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
-import gr.upatras.ceid.pprl.encoding.BloomFilter;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingException;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
 import gr.upatras.ceid.pprl.matching.PrivateSimilarityUtil;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
@@ -28,9 +28,10 @@ import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.*;
  */
 public class PrivateSimilarityReducerV2 extends Reducer<AvroKey<GenericRecord>,Text,Text,Text> {
     private double similarityThreshold;
-    private String similarityMethodName;
 
     private GenericRecord[] bobRecords;
+    private long[] bobWords;
+    private int[] bobOnesCounts;
     private Map<String,Integer> bobId2IndexMap;
 
     private String aliceUidFieldname;
@@ -39,6 +40,10 @@ public class PrivateSimilarityReducerV2 extends Reducer<AvroKey<GenericRecord>,T
     private String bobEncodingFieldName;
 
     private int N;
+    private BloomFilterView aliceView;
+    private BloomFilterView bobView;
+    private int wordCount;
+    private long[] aliceWords;
 
     private long matchedPairsCount;
 
@@ -64,10 +69,13 @@ public class PrivateSimilarityReducerV2 extends Reducer<AvroKey<GenericRecord>,T
             if(bobEncoding.getBFN() != aliceEncoding.getBFN())
                 throw new IllegalStateException("Encoding schemes dont have same bloom filter size.");
             N = aliceEncoding.getBFN();
+            aliceView = new BloomFilterView(N);
+            bobView = new BloomFilterView(N);
+            wordCount = aliceView.getWordCount();
+            aliceWords = new long[wordCount];
         } catch (BloomFilterEncodingException e) {
             throw new InterruptedException(e.getMessage());
         }
-        similarityMethodName = "hamming";
         similarityThreshold = (double) context.getConfiguration().getInt(CommonKeys.HAMMING_THRESHOLD, 100);
         matchedPairsCount = 0;
         loadBobRecords(context);
@@ -77,15 +85,17 @@ public class PrivateSimilarityReducerV2 extends Reducer<AvroKey<GenericRecord>,T
     protected void reduce(AvroKey<GenericRecord> key, Iterable<Text> values, Context context)
             throws IOException, InterruptedException {
         GenericRecord aliceRecord = key.datum();
+        BloomFilterEncodingUtil.retrieveBloomFilterView(aliceRecord,
+                aliceEncodingFieldName, aliceView).copyWordsTo(aliceWords, 0);
+        final BloomFilterView aliceBf = aliceView.wrap(aliceWords, 0);
 
         for (Text v : values) {
-            final GenericRecord bobRecord = bobRecords[bobId2IndexMap.get(v.toString())];
-            final BloomFilter aliceBf = BloomFilterEncodingUtil.retrieveBloomFilter(aliceRecord,
-                    aliceEncodingFieldName, N);
-            final BloomFilter bobBf = BloomFilterEncodingUtil.retrieveBloomFilter(bobRecord,
-                    bobEncodingFieldName, N);
+            final int bobIndex = bobId2IndexMap.get(v.toString());
+            final GenericRecord bobRecord = bobRecords[bobIndex];
+            final BloomFilterView bobBf =
+                    bobView.wrap(bobWords, bobIndex * wordCount).setOnesCount(bobOnesCounts[bobIndex]);
             final boolean matches =
-                    PrivateSimilarityUtil.similarity(similarityMethodName, aliceBf, bobBf, similarityThreshold);
+                    PrivateSimilarityUtil.hammingWithin(aliceBf, bobBf, (int) similarityThreshold);
             if (matches) {
                 context.write(
                         new Text(String.valueOf(aliceRecord.get(aliceUidFieldname))),
@@ -130,18 +140,23 @@ public class PrivateSimilarityReducerV2 extends Reducer<AvroKey<GenericRecord>,T
         System.out.println("Loading bob records...");
         int i = 0;
         bobRecords = new GenericRecord[bobRecordCount];
+        bobWords = new long[bobRecordCount * wordCount];
+        bobOnesCounts = new int[bobRecordCount];
         bobId2IndexMap = new HashMap<String, Integer>((int)(bobRecordCount/0.75f + 1),0.75f);
         try {
             while (reader.hasNext()) {
                 bobRecords[i] = reader.next();
                 bobId2IndexMap.put(String.valueOf(bobRecords[i].get(bobUidFieldName)), i);
+                BloomFilterEncodingUtil.retrieveBloomFilterView(bobRecords[i],
+                        bobEncodingFieldName, bobView).copyWordsTo(bobWords, i * wordCount);
+                bobOnesCounts[i] = bobView.wrap(bobWords, i * wordCount).getOnesCount();
                 i++;
             }
         } finally {
             reader.close();
         }
         long bobRecordsBytes = MemoryUtil.deepMemoryUsageOf(bobRecords) +
-                MemoryUtil.deepMemoryUsageOf(bobId2IndexMap);
+                MemoryUtil.deepMemoryUsageOf(bobId2IndexMap) + 8L * bobWords.length + 4L * bobOnesCounts.length;
         System.out.println("Bob records memory footprint : " + bobRecordsBytes/(1024*1024) + " MB");
         increaseTotalByteCounter(context, bobRecordsBytes);
     }
@@ -0,0 +1,81 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingException;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
+import gr.upatras.ceid.pprl.matching.PrivateSimilarityUtil;
+import org.apache.avro.Schema;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import java.io.IOException;
+
+import static gr.upatras.ceid.pprl.mapreduce.CommonUtil.increaseMatchedPairsCounter;
+
+/**
+ * Private Similarity Reducer class (v3). Receives a bob record followed by the alice
+ * records of the frequent pairs it takes part in (grouped by bob ordinal) and writes
+ * the pairs within the hamming threshold. Records are joined by ordinal, so neither
+ * the frequent pairs nor the records are loaded in memory.
+ */
+public class PrivateSimilarityReducerV3 extends Reducer<LongPairWritable,RecordBloomFilterWritable,Text,Text> {
+
+    private int hammingThreshold;
+    private long[] bobWords;
+    private BloomFilterView aliceView;
+    private BloomFilterView bobView;
+
+    private long matchedPairsCount;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        final String aliceSchemaString = context.getConfiguration().get(CommonKeys.ALICE_SCHEMA);
+        if (aliceSchemaString == null) throw new IllegalStateException("Alice schema not set.");
+        final String bobSchemaString = context.getConfiguration().get(CommonKeys.BOB_SCHEMA);
+        if (bobSchemaString == null) throw new IllegalStateException("Bob schema not set.");
+        try {
+            final BloomFilterEncoding aliceEncoding = BloomFilterEncodingUtil.setupNewInstance(
+                    ((new Schema.Parser()).parse(aliceSchemaString)));
+            final BloomFilterEncoding bobEncoding = BloomFilterEncodingUtil.setupNewInstance(
+                    ((new Schema.Parser()).parse(bobSchemaString)));
+            if(bobEncoding.getBFN() != aliceEncoding.getBFN())
+                throw new IllegalStateException("Encoding schemes dont have same bloom filter size.");
+            aliceView = new BloomFilterView(aliceEncoding.getBFN());
+            bobView = new BloomFilterView(bobEncoding.getBFN());
+        } catch (BloomFilterEncodingException e) {
+            throw new InterruptedException(e.getMessage());
+        }
+        bobWords = new long[bobView.getWordCount()];
+        hammingThreshold = context.getConfiguration().getInt(CommonKeys.HAMMING_THRESHOLD, 100);
+        matchedPairsCount = 0;
+    }
+
+    @Override
+    protected void reduce(LongPairWritable key, Iterable<RecordBloomFilterWritable> values, Context context)
+            throws IOException, InterruptedException {
+        final long bobOrdinal = key.getFirst();
+        Text bobUid = null;
+        for (RecordBloomFilterWritable value : values) {
+            if(key.getSecond() == OrdinalRecordsMapper.RECORD) {
+                assert value.getLength() == bobView.getByteLength();
+                bobView.wrap(value.getBytes()).copyWordsTo(bobWords, 0);
+                bobView.wrap(bobWords, 0);
+                bobUid = new Text(value.getUid());
+                continue;
+            }
+            if(bobUid == null)
+                throw new IllegalStateException("Unresolved bob ordinal " + bobOrdinal + ".");
+            aliceView.wrap(value.getBytes());
+            if(PrivateSimilarityUtil.hammingWithin(aliceView, bobView, hammingThreshold)) {
+                context.write(new Text(value.getUid()), bobUid);
+                matchedPairsCount++;
+            }
+        }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        increaseMatchedPairsCounter(context, matchedPairsCount);
+    }
+}
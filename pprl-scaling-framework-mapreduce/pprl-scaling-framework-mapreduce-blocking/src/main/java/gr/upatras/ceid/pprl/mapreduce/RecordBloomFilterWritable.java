@@ -0,0 +1,76 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A record writable : the record uid and the bytes of its bloom filter.
+ */
+public class RecordBloomFilterWritable implements Writable {
+
+    private final Text uid = new Text();
+    private byte[] bytes = new byte[0];
+    private int length;
+
+    public Text getUid() {
+        return uid;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Sets the uid and reserves <code>length</code> bloom filter bytes (see <code>getBytes</code>),
+     * so a single instance can be written repeatedly.
+     *
+     * @param uid record uid.
+     * @param length length of the bloom filter bytes.
+     */
+    public void set(final String uid, final int length) {
+        this.uid.set(uid);
+        reserve(length);
+    }
+
+    /**
+     * Sets the uid and the bloom filter bytes of this record to those of another record.
+     *
+     * @param that another record.
+     */
+    public void set(final RecordBloomFilterWritable that) {
+        uid.set(that.uid);
+        reserve(that.length);
+        System.arraycopy(that.bytes, 0, bytes, 0, length);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        uid.write(out);
+        WritableUtils.writeVInt(out, length);
+        out.write(bytes, 0, length);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        uid.readFields(in);
+        reserve(WritableUtils.readVInt(in));
+        in.readFully(bytes, 0, length);
+    }
+
+    private void reserve(final int length) {
+        if(bytes.length < length) bytes = new byte[length];
+        this.length = length;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + uid + "," + length + " bytes]";
+    }
+}
@@ -0,0 +1,80 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
+import gr.upatras.ceid.pprl.blocking.HammingLSHKeyExtractor;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterView;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.mapred.AvroKey;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+
+/**
+ * Shard key filter mapper class. Adds the blocking keys of each bob record to the
+ * filter of the shard of its uid, and emits the (partial) filter of every shard
+ * it has seen records of when done.
+ */
+public class ShardKeyFilterMapper extends Mapper<AvroKey<GenericRecord>,NullWritable,IntWritable,ShardKeyFilterWritable> {
+
+    private HammingLSHKeyExtractor extractor;
+    private BloomFilterView view;
+    private String uidFieldName;
+    private String encodingFieldName;
+    private int filterBitCount;
+    private ShardKeyFilterWritable[] filters; // shard id to its filter, null if no records seen.
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        try {
+            final String bobSchemaString = context.getConfiguration().get(CommonKeys.BOB_SCHEMA);
+            if (bobSchemaString == null) throw new IllegalStateException("Bob schema not set.");
+            final String aliceSchemaString = context.getConfiguration().get(CommonKeys.ALICE_SCHEMA);
+            if (aliceSchemaString == null) throw new IllegalStateException("Alice schema not set.");
+            final String[] blockingKeys = context.getConfiguration().getStrings(CommonKeys.BLOCKING_KEYS);
+            if (blockingKeys == null) throw new IllegalStateException("Blocking keys not set.");
+            BloomFilterEncoding aliceEncoding = BloomFilterEncodingUtil.setupNewInstance(
+                    ((new Schema.Parser()).parse(aliceSchemaString)));
+            BloomFilterEncoding bobEncoding = BloomFilterEncodingUtil.setupNewInstance(
+                    ((new Schema.Parser()).parse(bobSchemaString)));
+            final HammingLSHBlocking blocking = new HammingLSHBlocking(blockingKeys, aliceEncoding, bobEncoding);
+            extractor = blocking.newKeyExtractor();
+            view = new BloomFilterView(blocking.getN());
+            encodingFieldName = blocking.getBobEncodingFieldName();
+            uidFieldName = context.getConfiguration().get(CommonKeys.BOB_UID);
+            if(uidFieldName == null) throw new IllegalStateException("UID field name not set.");
+            final int shardCount = context.getConfiguration().getInt(CommonKeys.BOB_SHARD_COUNT, -1);
+            if(shardCount <= 0) throw new IllegalStateException("Bob shard count not set.");
+            filterBitCount = context.getConfiguration().getInt(CommonKeys.BOB_SHARD_FILTER_BITS, -1);
+            if(filterBitCount <= 0) throw new IllegalStateException("Bob shard filter bits not set.");
+            filters = new ShardKeyFilterWritable[shardCount];
+        } catch (Exception e) {throw new InterruptedException(e.getMessage());}
+    }
+
+    @Override
+    protected void map(AvroKey<GenericRecord> key, NullWritable value, Context context)
+            throws IOException, InterruptedException {
+        final GenericRecord record = key.datum();
+        final String uid = String.valueOf(record.get(uidFieldName));
+        final int shard = ShardKeyWritable.shardOf(uid, filters.length);
+        if(filters[shard] == null) filters[shard] = new ShardKeyFilterWritable(filterBitCount);
+        final long[] keys = extractor.hash(
+                BloomFilterEncodingUtil.retrieveBloomFilterView(record, encodingFieldName, view));
+        for (int i = 0; i < keys.length; i++)
+            filters[shard].add(i, keys[i]);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        final IntWritable shardId = new IntWritable();
+        for (int shard = 0; shard < filters.length; shard++) {
+            if(filters[shard] == null) continue;
+            shardId.set(shard);
+            context.write(shardId, filters[shard]);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import java.io.IOException;
+
+/**
+ * Shard key filter reducer class. Merges the partial filters of a shard.
+ */
+public class ShardKeyFilterReducer extends Reducer<IntWritable,ShardKeyFilterWritable,IntWritable,ShardKeyFilterWritable> {
+
+    @Override
+    protected void reduce(IntWritable key, Iterable<ShardKeyFilterWritable> values, Context context)
+            throws IOException, InterruptedException {
+        final ShardKeyFilterWritable filter = new ShardKeyFilterWritable();
+        for (ShardKeyFilterWritable value : values) filter.or(value);
+        context.write(key, filter);
+    }
+}
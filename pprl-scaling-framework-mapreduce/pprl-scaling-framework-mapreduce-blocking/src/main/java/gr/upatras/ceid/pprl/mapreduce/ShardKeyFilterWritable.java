@@ -0,0 +1,123 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A shard key filter writable : one bit per hashed (blocking group, blocking key) of the
+ * bob records of a shard. No false negatives, so an alice record may skip a shard whose
+ * filter contains fewer than C of its keys (it cannot be a frequent pair of any record
+ * of that shard). Serialized as the word count (vint) followed by the words (longs).
+ */
+public class ShardKeyFilterWritable implements Writable {
+
+    private long[] words = new long[0];
+
+    /**
+     * Constructor.
+     */
+    public ShardKeyFilterWritable() {}
+
+    /**
+     * Constructor.
+     *
+     * @param bitCount number of filter bits (rounded up to a multiple of 64).
+     */
+    public ShardKeyFilterWritable(final int bitCount) {
+        if(bitCount < 1) throw new IllegalArgumentException("Filter bit count must be positive.");
+        words = new long[(bitCount + 63) >>> 6];
+    }
+
+    /**
+     * Adds a blocking key of a group to this filter.
+     *
+     * @param group blocking group id.
+     * @param key blocking key.
+     */
+    public void add(final int group, final long key) {
+        final int bit = bit(group, key);
+        words[bit >>> 6] |= 1L << bit;
+    }
+
+    /**
+     * Returns true if this filter may contain a blocking key of a group, false if it
+     * certainly does not.
+     *
+     * @param group blocking group id.
+     * @param key blocking key.
+     * @return true if this filter may contain the key.
+     */
+    public boolean contains(final int group, final long key) {
+        final int bit = bit(group, key);
+        return (words[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Returns the number of blocking keys (one per group, as returned by the key extractor)
+     * this filter may contain, stopping at limit.
+     *
+     * @param keys blocking keys, one per group.
+     * @param limit count limit.
+     * @return the number of keys this filter may contain, at most limit.
+     */
+    public int count(final long[] keys, final int limit) {
+        int count = 0;
+        for (int i = 0; i < keys.length && count < limit; i++)
+            if(contains(i, keys[i])) count++;
+        return count;
+    }
+
+    /**
+     * Adds the keys of another filter (of the same size) to this filter.
+     *
+     * @param that another filter.
+     */
+    public void or(final ShardKeyFilterWritable that) {
+        if(words.length == 0) words = new long[that.words.length];
+        if(words.length != that.words.length)
+            throw new IllegalArgumentException("Filters must have the same size.");
+        for (int i = 0; i < words.length; i++)
+            words[i] |= that.words[i];
+    }
+
+    public int getBitCount() {
+        return words.length << 6;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, words.length);
+        for (long word : words) out.writeLong(word);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        final int length = WritableUtils.readVInt(in);
+        if(words.length != length) words = new long[length];
+        for (int i = 0; i < length; i++) words[i] = in.readLong();
+    }
+
+    /**
+     * Returns the filter bit of a blocking key of a group (64-bit finalizer of MurmurHash3).
+     *
+     * @param group blocking group id.
+     * @param key blocking key.
+     * @return the filter bit of the key.
+     */
+    private int bit(final int group, final long key) {
+        long h = key * 0x9E3779B97F4A7C15L + group;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) ((h >>> 1) % (words.length << 6));
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getBitCount() + " bits]";
+    }
+}
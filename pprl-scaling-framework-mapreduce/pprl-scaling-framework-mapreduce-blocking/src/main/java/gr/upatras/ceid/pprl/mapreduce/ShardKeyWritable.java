@@ -0,0 +1,101 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.WritableComparable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A bob shard key writable. Serialized in a fixed width of
+ * <code>SERIALIZED_LENGTH</code> bytes : shard id (int) and dataset id (char).
+ * Keys are sorted by shard id and then bob ('B') before alice ('A'), so a shard
+ * reducer receives the bob records of its shard before the alice records.
+ */
+public class ShardKeyWritable implements WritableComparable<ShardKeyWritable> {
+
+    public static final int SERIALIZED_LENGTH = 4 + 2;
+
+    public int shardId;
+    public char datasetId;
+
+    /**
+     * Constructor.
+     */
+    public ShardKeyWritable() {}
+
+    /**
+     * Constructor.
+     *
+     * @param shardId the shard id.
+     * @param dataset source dataset.
+     */
+    public ShardKeyWritable(int shardId, char dataset) {
+        set(shardId, dataset);
+    }
+
+    /**
+     * Sets the fields of this key, so a single instance can be written repeatedly.
+     *
+     * @param shardId the shard id.
+     * @param dataset source dataset.
+     */
+    public void set(int shardId, char dataset) {
+        this.shardId = shardId;
+        this.datasetId = dataset;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(shardId);
+        out.writeChar(datasetId);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        shardId = in.readInt();
+        datasetId = in.readChar();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(o instanceof ShardKeyWritable) {
+            ShardKeyWritable that = (ShardKeyWritable) o;
+            return shardId == that.shardId && datasetId == that.datasetId;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * shardId + (int) datasetId;
+    }
+
+    /**
+     * Comparison between two shard keys (shard id, then dataset id in reverse order).
+     *
+     * @param o the other shard key.
+     * @return -1, 0 or 1.
+     */
+    public int compareTo(ShardKeyWritable o) {
+        int c0 = (shardId > o.shardId) ? 1 :
+                (shardId == o.shardId) ? 0 : -1;
+        if(c0 != 0) return c0;
+        return (datasetId < o.datasetId) ? 1 :
+                (datasetId == o.datasetId) ? 0 : -1;
+    }
+
+    /**
+     * Returns the shard id of a bob record uid.
+     *
+     * @param uid a bob record uid.
+     * @param shardCount number of shards.
+     * @return the shard id of a bob record uid.
+     */
+    public static int shardOf(final String uid, final int shardCount) {
+        return (uid.hashCode() & Integer.MAX_VALUE) % shardCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%5d_%c", shardId, datasetId);
+    }
+}
@@ -0,0 +1,37 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * A shard key comparator for sorting first by shard id and then by dataset
+ * id in reverse order (bob first). Compares the fixed width serialized keys
+ * in place, without deserializing.
+ */
+public class ShardKeyWritableComparator extends WritableComparator {
+
+    public ShardKeyWritableComparator() {
+        super(ShardKeyWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1,
+                       byte[] b2, int s2, int l2) {
+        assert l1 == ShardKeyWritable.SERIALIZED_LENGTH && l2 == ShardKeyWritable.SERIALIZED_LENGTH;
+
+        // first compare shard id (serialized int)
+        int sh1 = readInt(b1,s1);
+        int sh2 = readInt(b2,s2);
+        int c0 = (sh1 < sh2) ? -1 : ((sh1 == sh2) ? 0 : 1);
+        if(c0 != 0) return c0;
+
+        // then compare dataset source (serialized char), in reverse order
+        int d1 = readUnsignedShort(b1,s1 + 4);
+        int d2 = readUnsignedShort(b2,s2 + 4);
+        return (d1 < d2) ? 1 : ((d1 == d2) ? 0 : -1);
+    }
+
+    static {
+        // Register comparator
+        WritableComparator.define(ShardKeyWritable.class, new ShardKeyWritableComparator());
+    }
+}
@@ -0,0 +1,16 @@
+package gr.upatras.ceid.pprl.mapreduce;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * A partitioner for shard keys, each shard goes to a single reducer.
+ */
+public class ShardKeyWritablePartitioner extends Partitioner<ShardKeyWritable,Writable> {
+
+    @Override
+    public int getPartition(ShardKeyWritable key, Writable value, int numPartitions) {
+        assert key.shardId >= 0;
+        return key.shardId % numPartitions;
+    }
+}
@@ -0,0 +1,110 @@
+package gr.upatras.ceid.pprl.test;
+
+import gr.upatras.ceid.pprl.mapreduce.BlockingKeyWritable;
+import gr.upatras.ceid.pprl.mapreduce.BlockingKeyWritableComparator;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class BlockingKeyWritableComparatorTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockingKeyWritableComparatorTest.class);
+
+    private static final int[] EDGE_GROUP_IDS = {
+            Integer.MIN_VALUE, -1, 0, 1, 255, 256, Integer.MAX_VALUE
+    };
+
+    private static final long[] EDGE_HASHES = {
+            Long.MIN_VALUE, Long.MIN_VALUE + 1, -(1L << 32), -1, 0, 1, 255, 256,
+            1L << 32, Long.MAX_VALUE - 1, Long.MAX_VALUE
+    };
+
+    private static final char[] DATASET_IDS = {'A', 'B'};
+
+    private static final char[] EDGE_DATASET_IDS = {0, 'A', 'B', 0x7fff, 0x8000, 0xffff};
+
+    @Test
+    public void test0() throws IOException {
+        final List<BlockingKeyWritable> keys = new ArrayList<BlockingKeyWritable>();
+        for (int groupId : EDGE_GROUP_IDS)
+            for (long hash : EDGE_HASHES)
+                for (char datasetId : EDGE_DATASET_IDS)
+                    keys.add(new BlockingKeyWritable(groupId, hash, datasetId));
+        final Random random = new Random(1234);
+        for (int i = 0; i < 100; i++) {
+            final int groupId = random.nextInt(4);
+            final long hash = random.nextLong() | Long.MIN_VALUE; // top bit set
+            keys.add(new BlockingKeyWritable(groupId, hash, 'A'));
+            keys.add(new BlockingKeyWritable(groupId, hash, 'B')); // same group id and hash
+            keys.add(new BlockingKeyWritable(groupId, random.nextLong(), 'B')); // same group id
+        }
+
+        final BlockingKeyWritableComparator comparator = new BlockingKeyWritableComparator();
+        int comparisons = 0;
+        for (BlockingKeyWritable k1 : keys) {
+            final byte[] b1 = serialize(k1, 3);
+            for (BlockingKeyWritable k2 : keys) {
+                final byte[] b2 = serialize(k2, 5);
+                assertEquals(k1 + " vs " + k2,
+                        Integer.signum(k1.compareTo(k2)),
+                        Integer.signum(comparator.compare(
+                                b1, 3, BlockingKeyWritable.SERIALIZED_LENGTH,
+                                b2, 5, BlockingKeyWritable.SERIALIZED_LENGTH)));
+                comparisons++;
+            }
+        }
+        LOG.info("Compared {} keys.", comparisons);
+    }
+
+    @Test
+    public void test1() throws IOException {
+        // sorting serialized keys with the comparator yields the compareTo order
+        final Random random = new Random(4321);
+        final BlockingKeyWritable[] keys = new BlockingKeyWritable[500];
+        for (int i = 0; i < keys.length; i++) {
+            final long hash = random.nextInt(8) - 4;
+            keys[i] = new BlockingKeyWritable(random.nextInt(3),
+                    random.nextBoolean() ? hash ^ Long.MIN_VALUE : hash, DATASET_IDS[random.nextInt(2)]);
+        }
+        final BlockingKeyWritable[] sorted = keys.clone();
+        Arrays.sort(sorted);
+
+        final byte[][] serialized = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) serialized[i] = serialize(keys[i], 0);
+        final BlockingKeyWritableComparator comparator = new BlockingKeyWritableComparator();
+        Arrays.sort(serialized, new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] b1, byte[] b2) {
+                return comparator.compare(b1, 0, b1.length, b2, 0, b2.length);
+            }
+        });
+        for (int i = 0; i < keys.length; i++)
+            assertEquals(0, sorted[i].compareTo(deserialize(serialized[i])));
+    }
+
+    private static byte[] serialize(final BlockingKeyWritable key, final int offset) throws IOException {
+        final DataOutputBuffer out = new DataOutputBuffer();
+        for (int i = 0; i < offset; i++) out.writeByte(0x7f);
+        key.write(out);
+        assertEquals(offset + BlockingKeyWritable.SERIALIZED_LENGTH, out.getLength());
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    private static BlockingKeyWritable deserialize(final byte[] bytes) throws IOException {
+        final BlockingKeyWritable key = new BlockingKeyWritable();
+        key.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+        return key;
+    }
+}
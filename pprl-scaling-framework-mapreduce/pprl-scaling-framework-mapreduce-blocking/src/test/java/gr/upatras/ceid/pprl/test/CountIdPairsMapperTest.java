@@ -0,0 +1,166 @@
+package gr.upatras.ceid.pprl.test;
+
+import gr.upatras.ceid.pprl.mapreduce.CommonKeys;
+import gr.upatras.ceid.pprl.mapreduce.CountIdPairsMapper;
+import gr.upatras.ceid.pprl.mapreduce.FindFrequentIdPairsCombiner;
+import gr.upatras.ceid.pprl.mapreduce.FindFrequentOrdinalPairsReducer;
+import gr.upatras.ceid.pprl.mapreduce.LongPairWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.ShortWritable;
+import org.apache.hadoop.mrunit.mapreduce.MapDriver;
+import org.apache.hadoop.mrunit.mapreduce.MapReduceDriver;
+import org.apache.hadoop.mrunit.types.Pair;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class CountIdPairsMapperTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CountIdPairsMapperTest.class);
+
+    private static final int CAPACITY = 16;  // full at 12 pairs.
+    private static final int FULL_SIZE = 12;
+
+    @Test
+    public void test0() throws IOException {
+        // a full table is flushed at once, later counts start over
+        final MapDriver<LongPairWritable,NullWritable,LongPairWritable,ShortWritable> driver = newMapDriver(3);
+        final List<LongPairWritable> input = fillers(0, FULL_SIZE);
+        input.add(pair(0));
+        input.add(pair(0));
+        final List<Pair<LongPairWritable,ShortWritable>> output = driver.withAll(withNull(input)).run();
+
+        assertEquals(FULL_SIZE + 1, output.size());
+        final Set<LongPairWritable> flushed = new HashSet<LongPairWritable>();
+        for (Pair<LongPairWritable,ShortWritable> p : output.subList(0, FULL_SIZE)) {
+            assertEquals(1, p.getSecond().get());
+            flushed.add(p.getFirst());
+        }
+        assertEquals(new HashSet<LongPairWritable>(fillers(0, FULL_SIZE)), flushed);
+        assertEquals(pair(0), output.get(FULL_SIZE).getFirst());
+        assertEquals(2, output.get(FULL_SIZE).getSecond().get());
+    }
+
+    @Test
+    public void test1() throws IOException {
+        // a pair is written once when its count reaches C, then dropped until the next flush
+        MapDriver<LongPairWritable,NullWritable,LongPairWritable,ShortWritable> driver = newMapDriver(2);
+        final List<LongPairWritable> input = new ArrayList<LongPairWritable>();
+        for (int i = 0; i < 5; i++) input.add(pair(0));
+        input.add(pair(1));
+        assertEquals(Arrays.asList(
+                new Pair<LongPairWritable, ShortWritable>(pair(0), new ShortWritable((short) 2)),
+                new Pair<LongPairWritable, ShortWritable>(pair(1), new ShortWritable((short) 1))),
+                driver.withAll(withNull(input)).run());
+
+        driver = newMapDriver(2);
+        input.clear();
+        input.add(pair(0));
+        input.add(pair(0));
+        input.add(pair(0));                  // dropped
+        input.addAll(fillers(1, FULL_SIZE)); // flush, pair(0) is not written again
+        input.add(pair(0));                  // counted again
+        final Map<LongPairWritable,List<Short>> counts = counts(driver.withAll(withNull(input)).run());
+        assertEquals(Arrays.asList((short) 2, (short) 1), counts.get(pair(0)));
+        for (LongPairWritable filler : fillers(1, FULL_SIZE))
+            assertEquals(Arrays.asList((short) 1), counts.get(filler));
+    }
+
+    @Test
+    public void test2() throws IOException {
+        // with C <= 1 every pair is written once, at its first occurrence
+        for (int C = 0; C <= 1; C++) {
+            final MapDriver<LongPairWritable,NullWritable,LongPairWritable,ShortWritable> driver = newMapDriver(C);
+            final List<LongPairWritable> input = new ArrayList<LongPairWritable>();
+            for (int i = 0; i < 3; i++) input.add(pair(0));
+            input.addAll(fillers(1, 2 * FULL_SIZE));
+            input.add(pair(0));
+            final Map<LongPairWritable,List<Short>> counts = counts(driver.withAll(withNull(input)).run());
+            assertEquals(2 * FULL_SIZE + 1, counts.size());
+            assertEquals(2, counts.get(pair(0)).size()); // once again after a flush
+            for (LongPairWritable filler : fillers(1, 2 * FULL_SIZE))
+                assertEquals(Arrays.asList((short) 1), counts.get(filler));
+        }
+    }
+
+    @Test
+    public void test3() throws IOException {
+        // partial counts of different flushes add up to C in the reducers
+        final MapReduceDriver<LongPairWritable,NullWritable,LongPairWritable,ShortWritable,LongPairWritable,NullWritable>
+                driver = MapReduceDriver.newMapReduceDriver(new CountIdPairsMapper(),
+                new FindFrequentOrdinalPairsReducer(), new FindFrequentIdPairsCombiner());
+        configure(driver.getConfiguration(), 3);
+        final List<Pair<LongPairWritable,NullWritable>> output =
+                driver.withAll(withNull(frequentPairsInput())).run();
+        assertEquals(1, output.size());
+        assertEquals(pair(0), output.get(0).getFirst());
+    }
+
+    /**
+     * Input with pair 0 three times and pair 1 twice, each occurrence in a different flush,
+     * other pairs once.
+     */
+    private static List<LongPairWritable> frequentPairsInput() {
+        final List<LongPairWritable> input = new ArrayList<LongPairWritable>();
+        for (int i = 0; i < 3; i++) {
+            input.add(pair(0));
+            if(i < 2) input.add(pair(1));
+            input.addAll(fillers(2 + i * FULL_SIZE, FULL_SIZE));
+        }
+        LOG.info("Input of {} pairs.", input.size());
+        return input;
+    }
+
+    private static MapDriver<LongPairWritable,NullWritable,LongPairWritable,ShortWritable> newMapDriver(final int C) {
+        final MapDriver<LongPairWritable,NullWritable,LongPairWritable,ShortWritable> driver =
+                MapDriver.newMapDriver(new CountIdPairsMapper());
+        configure(driver.getConfiguration(), C);
+        return driver;
+    }
+
+    private static void configure(final Configuration conf, final int C) {
+        conf.setInt(CommonKeys.FREQUENT_PAIR_LIMIT, C);
+        conf.setInt(CommonKeys.PAIR_COUNT_TABLE_CAPACITY, CAPACITY);
+    }
+
+    /**
+     * Returns the pair of alice ordinal <code>i</code> (task 0) and bob ordinal <code>i</code> (task 1).
+     */
+    private static LongPairWritable pair(final int i) {
+        return new LongPairWritable(i, (1L << 32) | i);
+    }
+
+    private static List<LongPairWritable> fillers(final int from, final int count) {
+        final List<LongPairWritable> pairs = new ArrayList<LongPairWritable>();
+        for (int i = from; i < from + count; i++) pairs.add(pair(i));
+        return pairs;
+    }
+
+    private static List<Pair<LongPairWritable,NullWritable>> withNull(final List<LongPairWritable> pairs) {
+        final List<Pair<LongPairWritable,NullWritable>> input = new ArrayList<Pair<LongPairWritable,NullWritable>>();
+        for (LongPairWritable pair : pairs)
+            input.add(new Pair<LongPairWritable,NullWritable>(pair, NullWritable.get()));
+        return input;
+    }
+
+    private static Map<LongPairWritable,List<Short>> counts(final List<Pair<LongPairWritable,ShortWritable>> output) {
+        final Map<LongPairWritable,List<Short>> counts = new HashMap<LongPairWritable,List<Short>>();
+        for (Pair<LongPairWritable,ShortWritable> p : output) {
+            if(!counts.containsKey(p.getFirst())) counts.put(p.getFirst(), new ArrayList<Short>());
+            counts.get(p.getFirst()).add(p.getSecond().get());
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,137 @@
+package gr.upatras.ceid.pprl.test;
+
+import gr.upatras.ceid.pprl.mapreduce.HammingLSHFPSToolV0;
+import gr.upatras.ceid.pprl.mapreduce.HammingLSHFPSToolV3;
+import gr.upatras.ceid.pprl.mapreduce.HammingLSHFPSToolV4;
+import gr.upatras.ceid.pprl.mapreduce.HammingLSHFPSToolV5;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HammingLSHFPSToolV4Test {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HammingLSHFPSToolV4Test.class);
+
+    private static final String ALICE_PATH = "data/clk_voters_a/avro";
+    private static final String ALICE_SCHEMA_PATH = "data/clk_voters_a/schema/clk_voters_a.avsc";
+    private static final String BOB_PATH = "data/clk_voters_b/avro";
+    private static final String BOB_SCHEMA_PATH = "data/clk_voters_b/schema/clk_voters_b.avsc";
+    private static final String UID = "id";
+    private static final Path basePath = new Path("data/hlsh_fps_v4");
+
+    private static final String L = "24";
+    private static final String K = "5";
+    private static final String C = "2";
+    private static final String HAMMING_THRESHOLD = "100";
+    private static final String SEED = "1234";
+
+    @Test
+    public void test0() throws Exception {
+        final Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        conf.set("mapreduce.framework.name", "local");
+        // stats of later jobs are appended
+        conf.set("fs.file.impl", "org.apache.hadoop.fs.RawLocalFileSystem");
+        conf.setBoolean("fs.file.impl.disable.cache", true);
+        final FileSystem fs = FileSystem.get(conf);
+        if(fs.exists(basePath)) fs.delete(basePath, true);
+
+        final Path v0Path = new Path(basePath, "v0");
+        assertEquals(0, ToolRunner.run(new Configuration(conf), new HammingLSHFPSToolV0(), new String[]{
+                ALICE_PATH, ALICE_SCHEMA_PATH, UID, BOB_PATH, BOB_SCHEMA_PATH, UID,
+                new Path(v0Path, "all_pairs").toString(),
+                new Path(v0Path, "frequent_pairs").toString(),
+                new Path(v0Path, "matched_pairs").toString(),
+                new Path(v0Path, "stats/stats").toString(),
+                L, K, C, "2", "2", "2", "LO/LO", "LO/LO", "LO/LO", HAMMING_THRESHOLD, SEED}));
+
+        final Path v3Path = new Path(basePath, "v3");
+        assertEquals(0, ToolRunner.run(new Configuration(conf), new HammingLSHFPSToolV3(), new String[]{
+                ALICE_PATH, ALICE_SCHEMA_PATH, UID, BOB_PATH, BOB_SCHEMA_PATH, UID,
+                new Path(v3Path, "bob_buckets").toString(),
+                new Path(v3Path, "matched_pairs").toString(),
+                new Path(v3Path, "stats/stats").toString(),
+                L, K, C, "2", "LO/LO", "LO/LO", HAMMING_THRESHOLD, SEED}));
+
+        // v3 bob store files are committed with the job output and moved next to it
+        for (FileStatus status : fs.listStatus(new Path(v3Path, "bob_buckets")))
+            assertFalse(status.getPath().getName().endsWith(".bfs"));
+        assertTrue(fs.listStatus(new Path(v3Path, "bob_buckets_store")).length > 0);
+
+        final Path v4Path = new Path(basePath, "v4");
+        assertEquals(0, ToolRunner.run(new Configuration(conf), new HammingLSHFPSToolV4(), new String[]{
+                ALICE_PATH, ALICE_SCHEMA_PATH, UID, BOB_PATH, BOB_SCHEMA_PATH, UID,
+                new Path(v4Path, "matched_pairs").toString(),
+                new Path(v4Path, "stats/stats").toString(),
+                L, K, C, "3", "LO/LO", HAMMING_THRESHOLD, SEED}));
+
+        final Path v5Path = new Path(basePath, "v5");
+        assertEquals(0, ToolRunner.run(new Configuration(conf), new HammingLSHFPSToolV5(), new String[]{
+                ALICE_PATH, ALICE_SCHEMA_PATH, UID, BOB_PATH, BOB_SCHEMA_PATH, UID,
+                new Path(v5Path, "all_pairs").toString(),
+                new Path(v5Path, "frequent_pairs").toString(),
+                new Path(v5Path, "matched_pairs").toString(),
+                new Path(v5Path, "stats/stats").toString(),
+                L, K, C, "2", "2", "2", "LO/LO", "LO/LO", "LO/LO", HAMMING_THRESHOLD, SEED}));
+
+        final Map<String,Integer> v0Pairs = readPairs(fs, new Path(v0Path, "matched_pairs"));
+        final Map<String,Integer> v3Pairs = readPairs(fs, new Path(v3Path, "matched_pairs"));
+        final Map<String,Integer> v4Pairs = readPairs(fs, new Path(v4Path, "matched_pairs"));
+        final Map<String,Integer> v5Pairs = readPairs(fs, new Path(v5Path, "matched_pairs"));
+        LOG.info("Matched pairs : V0 {}, V4 {}, V5 {}.", v0Pairs.size(), v4Pairs.size(), v5Pairs.size());
+        assertFalse(v4Pairs.isEmpty());
+
+        // each matched pair is found once, by every version
+        for (int count : v4Pairs.values()) assertEquals(1, count);
+        assertEquals(v0Pairs, v4Pairs);
+        assertEquals(v0Pairs, v5Pairs);
+
+        // v3 lists every frequent pair, the matched ones a second time
+        final Set<String> v3MatchedPairs = new HashSet<String>();
+        for (Map.Entry<String,Integer> entry : v3Pairs.entrySet())
+            if(entry.getValue() == 2) v3MatchedPairs.add(entry.getKey());
+        assertEquals(v3MatchedPairs, v4Pairs.keySet());
+
+        fs.delete(basePath, true);
+    }
+
+    /**
+     * Reads the (alice uid, bob uid) pairs of a tool output, along with the times each pair is found.
+     */
+    private static Map<String,Integer> readPairs(final FileSystem fs, final Path path) throws IOException {
+        final Map<String,Integer> pairs = new HashMap<String,Integer>();
+        final Text aliceId = new Text();
+        final Text bobId = new Text();
+        for (FileStatus status : fs.listStatus(path)) {
+            if(!status.getPath().getName().startsWith("part")) continue;
+            final SequenceFile.Reader reader = new SequenceFile.Reader(fs.getConf(),
+                    SequenceFile.Reader.file(status.getPath()));
+            try {
+                while (reader.next(aliceId, bobId)) {
+                    final String pair = aliceId + "," + bobId;
+                    pairs.put(pair, pairs.containsKey(pair) ? pairs.get(pair) + 1 : 1);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return pairs;
+    }
+}
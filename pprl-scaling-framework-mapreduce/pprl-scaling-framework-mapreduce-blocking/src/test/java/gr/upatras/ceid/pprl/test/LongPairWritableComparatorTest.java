@@ -0,0 +1,96 @@
+package gr.upatras.ceid.pprl.test;
+
+import gr.upatras.ceid.pprl.mapreduce.LongPairWritable;
+import gr.upatras.ceid.pprl.mapreduce.LongPairWritableComparator;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class LongPairWritableComparatorTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LongPairWritableComparatorTest.class);
+
+    private static final long[] EDGE_VALUES = {
+            Long.MIN_VALUE, Long.MIN_VALUE + 1, -(1L << 32), -1, 0, 1, 255, 256,
+            1L << 32, Long.MAX_VALUE - 1, Long.MAX_VALUE
+    };
+
+    @Test
+    public void test0() throws IOException {
+        final List<LongPairWritable> pairs = new ArrayList<LongPairWritable>();
+        for (long first : EDGE_VALUES)
+            for (long second : EDGE_VALUES)
+                pairs.add(new LongPairWritable(first, second));
+        final Random random = new Random(1234);
+        for (int i = 0; i < 200; i++) {
+            final long first = random.nextLong();
+            pairs.add(new LongPairWritable(first, random.nextLong()));
+            pairs.add(new LongPairWritable(first, random.nextLong())); // same first
+        }
+
+        final LongPairWritableComparator comparator = new LongPairWritableComparator();
+        int comparisons = 0;
+        for (LongPairWritable p1 : pairs) {
+            final byte[] b1 = serialize(p1, 3);
+            for (LongPairWritable p2 : pairs) {
+                final byte[] b2 = serialize(p2, 5);
+                assertEquals(p1 + " vs " + p2,
+                        Integer.signum(p1.compareTo(p2)),
+                        Integer.signum(comparator.compare(
+                                b1, 3, LongPairWritable.SERIALIZED_LENGTH,
+                                b2, 5, LongPairWritable.SERIALIZED_LENGTH)));
+                comparisons++;
+            }
+        }
+        LOG.info("Compared {} pairs.", comparisons);
+    }
+
+    @Test
+    public void test1() throws IOException {
+        // sorting serialized pairs with the comparator yields the compareTo order
+        final Random random = new Random(4321);
+        final LongPairWritable[] pairs = new LongPairWritable[500];
+        for (int i = 0; i < pairs.length; i++)
+            pairs[i] = new LongPairWritable(random.nextInt(10) - 5, random.nextLong());
+        final LongPairWritable[] sorted = pairs.clone();
+        Arrays.sort(sorted);
+
+        final byte[][] serialized = new byte[pairs.length][];
+        for (int i = 0; i < pairs.length; i++) serialized[i] = serialize(pairs[i], 0);
+        final LongPairWritableComparator comparator = new LongPairWritableComparator();
+        Arrays.sort(serialized, new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] b1, byte[] b2) {
+                return comparator.compare(b1, 0, b1.length, b2, 0, b2.length);
+            }
+        });
+        for (int i = 0; i < pairs.length; i++)
+            assertEquals(0, sorted[i].compareTo(deserialize(serialized[i])));
+    }
+
+    private static byte[] serialize(final LongPairWritable pair, final int offset) throws IOException {
+        final DataOutputBuffer out = new DataOutputBuffer();
+        for (int i = 0; i < offset; i++) out.writeByte(0x7f);
+        pair.write(out);
+        assertEquals(offset + LongPairWritable.SERIALIZED_LENGTH, out.getLength());
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    private static LongPairWritable deserialize(final byte[] bytes) throws IOException {
+        final LongPairWritable pair = new LongPairWritable();
+        pair.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+        return pair;
+    }
+}
@@ -29,6 +29,7 @@ public class QGramCountingMapper extends Mapper<AvroKey<GenericRecord>,NullWrita
 
     String[] fieldNames;   // field names
     Schema.Type[] types;   // field types
+    final QGramUtil.QGramBuffer buffer = new QGramUtil.QGramBuffer(); // reusable q-gram buffer
 
 
     @Override
@@ -53,12 +54,13 @@ public class QGramCountingMapper extends Mapper<AvroKey<GenericRecord>,NullWrita
             final Schema.Type type = types[i];
             final String counterGroupName = "f." + fieldNames[i];
             context.getCounter(counterGroupName, STATISTICS[0]).increment(String.valueOf(obj).length());
-            context.getCounter(counterGroupName, STATISTICS[1]).increment(QGramUtil.calcQgramsCount(obj, type, 2));
-            context.getCounter(counterGroupName, STATISTICS[2]).increment(QGramUtil.calcQgramsCount(obj, type, 3));
-            context.getCounter(counterGroupName, STATISTICS[3]).increment(QGramUtil.calcQgramsCount(obj, type, 4));
-            context.getCounter(counterGroupName, STATISTICS[4]).increment(QGramUtil.calcUniqueQgramsCount(obj, type, 2));
-            context.getCounter(counterGroupName, STATISTICS[5]).increment(QGramUtil.calcUniqueQgramsCount(obj, type, 3));
-            context.getCounter(counterGroupName, STATISTICS[6]).increment(QGramUtil.calcUniqueQgramsCount(obj, type, 4));
+            buffer.fill(obj, type, 2);
+            context.getCounter(counterGroupName, STATISTICS[1]).increment(buffer.getQGramCount(2));
+            context.getCounter(counterGroupName, STATISTICS[2]).increment(buffer.getQGramCount(3));
+            context.getCounter(counterGroupName, STATISTICS[3]).increment(buffer.getQGramCount(4));
+            context.getCounter(counterGroupName, STATISTICS[4]).increment(buffer.getUniqueQGramCount(2));
+            context.getCounter(counterGroupName, STATISTICS[5]).increment(buffer.getUniqueQGramCount(3));
+            context.getCounter(counterGroupName, STATISTICS[6]).increment(buffer.getUniqueQGramCount(4));
         }
     }
 }
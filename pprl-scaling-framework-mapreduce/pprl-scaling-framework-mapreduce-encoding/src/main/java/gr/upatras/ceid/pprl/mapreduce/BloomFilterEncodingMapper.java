@@ -1,31 +1,45 @@
 package gr.upatras.ceid.pprl.mapreduce;
 
+import gr.upatras.ceid.pprl.datasets.DatasetStatistics;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingException;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.encoding.QGramPositionsCache;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.mapred.AvroKey;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import java.io.IOException;
+import java.util.Properties;
 
 public class BloomFilterEncodingMapper extends Mapper<AvroKey<GenericRecord>, NullWritable, AvroKey<GenericRecord>, NullWritable> {
 
     public static final String INPUT_SCHEMA_KEY = "input.schema";
     public static final String OUTPUT_SCHEMA_KEY = "output.schema";
+    public static final String QGRAM_CACHE_BYTES_KEY = "qgram.cache.bytes";
+    public static final String QGRAM_STATS_PATH_KEY = "qgram.stats.path"; // optional QGramCountingTool output, to warm up the caches.
+    public static final String QGRAM_CACHE_COUNTER_GROUP = "qgram.cache";
 
     protected Schema inputSchema;
     protected Schema outputSchema;
     protected BloomFilterEncoding encoding;
+    private GenericRecord encodedRecord;    // reused encoded record (written records are serialized at once).
+    private final AvroKey<GenericRecord> outputKey = new AvroKey<GenericRecord>();
+    private long[] initialCacheCounts;
 
     @Override
     protected void setup(Context context) throws IOException, InterruptedException {
         super.setup(context);
         try {
             final Configuration config = context.getConfiguration();
+            QGramPositionsCache.setMaxBytes(config.getLong(QGRAM_CACHE_BYTES_KEY, 64L * 1024 * 1024));
+            initialCacheCounts = cacheCounts();
             inputSchema = (new Schema.Parser()).parse(config.get(INPUT_SCHEMA_KEY));
             outputSchema = (new Schema.Parser()).parse(config.get(OUTPUT_SCHEMA_KEY));
             encoding = BloomFilterEncodingUtil.newInstance(
@@ -34,6 +48,8 @@ public class BloomFilterEncodingMapper extends Mapper<AvroKey<GenericRecord>, Nu
             if(!encoding.isEncodingOfSchema(inputSchema))
                 throw new BloomFilterEncodingException("Encoding schema does not match input schema");
             encoding.initialize();
+            final String statsPath = config.get(QGRAM_STATS_PATH_KEY);
+            if(statsPath != null) encoding.warmUp(loadStatistics(FileSystem.get(config), new Path(statsPath)));
         } catch (BloomFilterEncodingException e) {
             throw new InterruptedException(e.getMessage());
         }
@@ -43,10 +59,58 @@ public class BloomFilterEncodingMapper extends Mapper<AvroKey<GenericRecord>, Nu
     protected void map(AvroKey<GenericRecord> key, NullWritable value, Context context) throws IOException, InterruptedException {
         try {
             final GenericRecord record = key.datum();
-            final GenericRecord encodedRecord = encoding.encodeRecord(record);
-            context.write(new AvroKey<GenericRecord>(encodedRecord), NullWritable.get());
+            encodedRecord = encoding.encodeRecord(record, encodedRecord);
+            outputKey.datum(encodedRecord);
+            context.write(outputKey, NullWritable.get());
         } catch (BloomFilterEncodingException e) {
             throw new InterruptedException(e.getMessage());
         }
     }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        final long[] counts = cacheCounts();
+        context.getCounter(QGRAM_CACHE_COUNTER_GROUP, "hits").increment(counts[0] - initialCacheCounts[0]);
+        context.getCounter(QGRAM_CACHE_COUNTER_GROUP, "misses").increment(counts[1] - initialCacheCounts[1]);
+        context.getCounter(QGRAM_CACHE_COUNTER_GROUP, "evictions").increment(counts[2] - initialCacheCounts[2]);
+        encoding.release();
+        super.cleanup(context);
+    }
+
+    /**
+     * Loads Q-Gram statistics from a properties file (see <code>QGramCountingTool</code>).
+     *
+     * @param fs a <code>FileSystem</code> reference.
+     * @param path path of the properties file.
+     * @return the Q-Gram statistics.
+     * @throws IOException
+     */
+    private static DatasetStatistics loadStatistics(final FileSystem fs, final Path path) throws IOException {
+        final Properties properties = new Properties();
+        final FSDataInputStream fsdis = fs.open(path);
+        try {
+            properties.load(fsdis);
+        } finally {
+            fsdis.close();
+        }
+        final DatasetStatistics statistics = new DatasetStatistics();
+        statistics.fromProperties(properties);
+        return statistics;
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of all shared q-gram caches (the caches
+     * of this task are released at cleanup).
+     *
+     * @return the hit, miss and eviction counts.
+     */
+    private static long[] cacheCounts() {
+        final long[] counts = new long[3];
+        for (QGramPositionsCache cache : QGramPositionsCache.getInstances()) {
+            counts[0] += cache.getHitCount();
+            counts[1] += cache.getMissCount();
+            counts[2] += cache.getEvictionCount();
+        }
+        return counts;
+    }
 }
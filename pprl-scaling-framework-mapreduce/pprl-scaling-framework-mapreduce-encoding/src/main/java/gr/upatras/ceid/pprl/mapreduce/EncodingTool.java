@@ -49,10 +49,13 @@ public class EncodingTool extends Configured implements Tool {
         args = new GenericOptionsParser(conf, args).getRemainingArgs();
         if (args.length != 4) {
             LOG.error("Usage without encoding creation: EncodeDatasetTool " +
-                    "<input-path> <input-schema> <encoding-path> <encoding-schema>\n");
+                    "<input-path(s)> <input-schema> <encoding-path> <encoding-schema>\n");
             return -1;
         }
-        final Path inputDataPath = new Path(args[0]);
+        final String[] inputDataPathStrings = args[0].split(",");
+        final Path[] inputDataPaths = new Path[inputDataPathStrings.length];
+        for (int i = 0; i < inputDataPaths.length; i++)
+            inputDataPaths[i] = new Path(inputDataPathStrings[i]);
         final Path inputSchemaPath = new Path(args[1]);
         final Path outputDataPath = new Path(args[2]);
         final Path outputSchemaPath = new Path(args[3]);
@@ -71,7 +74,9 @@ public class EncodingTool extends Configured implements Tool {
                         "input-path : %s, input-schema-path : %s," +
                         " output-path : %s, output-schema-path : %s)",
                 JOB_DESCRIPTION,
-                shortenUrl(inputDataPath.toString()),shortenUrl(inputSchemaPath.toString()),
+                (inputDataPaths.length == 1) ? shortenUrl(inputDataPaths[0].toString()) :
+                        String.format("%d paths", inputDataPaths.length),
+                shortenUrl(inputSchemaPath.toString()),
                 shortenUrl(outputDataPath.toString()),shortenUrl(outputDataPath.toString())
         );
         LOG.info("Running : " + description);
@@ -83,7 +88,7 @@ public class EncodingTool extends Configured implements Tool {
         job.setNumReduceTasks(0);
 
         // setup input
-        AvroKeyInputFormat.setInputPaths(job, inputDataPath);
+        AvroKeyInputFormat.setInputPaths(job, inputDataPaths);
         AvroJob.setInputKeySchema(job, inputSchema);
         job.setInputFormatClass(AvroKeyInputFormat.class);
 
@@ -30,12 +30,14 @@ public class BlockingService implements InitializingBean {
             basePath = new Path(hdfs.getHomeDirectory(),"pprl");
         LOG.info(String.format("Blocking service initialized [" +
                         "basePath = %s , " +
-                        "Tool#1 = %s, Tool#2 = %s, Tool#3 = %s, Tool#4 = %s].",
+                        "Tool#1 = %s, Tool#2 = %s, Tool#3 = %s, Tool#4 = %s, Tool#5 = %s, Tool#6 = %s].",
                 basePath,
                 (hammingLshFpsBlockingV0ToolRunner !=null),
                 (hammingLshFpsBlockingV1ToolRunner !=null),
                 (hammingLshFpsBlockingV2ToolRunner !=null),
-                (hammingLshFpsBlockingV3ToolRunner !=null)
+                (hammingLshFpsBlockingV3ToolRunner !=null),
+                (hammingLshFpsBlockingV4ToolRunner !=null),
+                (hammingLshFpsBlockingV5ToolRunner !=null)
         ));
     }
 
@@ -52,6 +54,10 @@ public class BlockingService implements InitializingBean {
     private ToolRunner hammingLshFpsBlockingV2ToolRunner; // Runner of Hamming LSH/FPS BLocking Tool v2
     @Autowired
     private ToolRunner hammingLshFpsBlockingV3ToolRunner; // Runner of Hamming LSH/FPS BLocking Tool v2
+    @Autowired
+    private ToolRunner hammingLshFpsBlockingV4ToolRunner; // Runner of Hamming LSH/FPS BLocking Tool v4
+    @Autowired
+    private ToolRunner hammingLshFpsBlockingV5ToolRunner; // Runner of Hamming LSH/FPS BLocking Tool v5
 
     public String retrieveBenchmarkStats(final String aliceName,
                                          final String bobName) throws IOException {
@@ -142,6 +148,7 @@ public class BlockingService implements InitializingBean {
             argsList.add(bobUidFieldName);
             switch (blockingSchemeName) {
                 case "HLSH_FPS_MR_v0":
+                case "HLSH_FPS_MR_v5":
                     argsList.add(allPairsPath.toString());
                     argsList.add(frequentPairsPath.toString());
                     break;
@@ -155,6 +162,8 @@ public class BlockingService implements InitializingBean {
                 case "HLSH_FPS_MR_v3":
                     argsList.add(bucketsPath.toString());
                     break;
+                case "HLSH_FPS_MR_v4":
+                    break;
                 default:
                     throw new Exception("Unsuppored blocking name scheme : " + blockingSchemeName);
             }
@@ -165,6 +174,7 @@ public class BlockingService implements InitializingBean {
             argsList.add(String.valueOf(C));
             switch (blockingSchemeName) {
                 case "HLSH_FPS_MR_v0":
+                case "HLSH_FPS_MR_v5":
                     argsList.add(String.valueOf(R1));
                     argsList.add(String.valueOf(R2));
                     argsList.add(String.valueOf(R3));
@@ -190,6 +200,10 @@ public class BlockingService implements InitializingBean {
                     argsList.add(jobProfile1);
                     argsList.add(jobProfile2);
                     break;
+                case "HLSH_FPS_MR_v4":
+                    argsList.add(String.valueOf(R1));
+                    argsList.add(jobProfile1);
+                    break;
                 default:
                     throw new Exception("Unsuppored blocking name scheme : " + blockingSchemeName);
             }
@@ -214,6 +228,14 @@ public class BlockingService implements InitializingBean {
                     hammingLshFpsBlockingV3ToolRunner.setArguments(args);
                     hammingLshFpsBlockingV3ToolRunner.call();
                     break;
+                case "HLSH_FPS_MR_v4":
+                    hammingLshFpsBlockingV4ToolRunner.setArguments(args);
+                    hammingLshFpsBlockingV4ToolRunner.call();
+                    break;
+                case "HLSH_FPS_MR_v5":
+                    hammingLshFpsBlockingV5ToolRunner.setArguments(args);
+                    hammingLshFpsBlockingV5ToolRunner.call();
+                    break;
                 default:
                     throw new Exception("Unsuppored blocking name scheme : " + blockingSchemeName);
             }
@@ -3,6 +3,8 @@ package gr.upatras.ceid.pprl.service.blocking;
 import gr.upatras.ceid.pprl.blocking.BlockingException;
 import gr.upatras.ceid.pprl.blocking.HammingLSHBlocking;
 import gr.upatras.ceid.pprl.blocking.HammingLSHBlockingResult;
+import gr.upatras.ceid.pprl.blocking.RecordIdPairWriter;
+import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingException;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
 import org.apache.avro.Schema;
@@ -98,6 +100,124 @@ public class LocalBlockingService implements InitializingBean {
         }
     }
 
+    /**
+     * Run the FPS algorithm on Hamming blocking with multiple worker threads.
+     *
+     * @param blocking a <code>HammingLSHBlocking </code> instance.
+     * @param aliceRecords alice encoded records.
+     * @param aliceUidFieldName alice UID field name.
+     * @param bobRecords bob encoded records.
+     * @param bobUidFieldName bob UID field name.
+     * @param C collision limit.
+     * @param hammingThreshold similarity threshold.
+     * @param threads number of worker threads.
+     * @throws BlockingException
+     */
+    public void runFPSonHammingBlocking(HammingLSHBlocking blocking,
+                                        final GenericRecord[] aliceRecords, final String aliceUidFieldName,
+                                        final GenericRecord[] bobRecords, final String bobUidFieldName,
+                                        final short C,
+                                        final int hammingThreshold,
+                                        final int threads) throws BlockingException {
+        try {
+            blocking.runHLSH(
+                    bobRecords, bobUidFieldName, threads);
+            blocking.runFPS(
+                    aliceRecords, aliceUidFieldName, C, hammingThreshold, threads);
+        } catch (BlockingException e) {
+            LOG.error(e.getMessage(),e);
+            throw e;
+        }
+    }
+
+    /**
+     * Run the FPS algorithm on Hamming blocking, streaming records from avro files.
+     * Only bob's blocking buckets and bloom filters are kept in memory, alice records
+     * are read one at a time and matched pairs are written to a pairs output file.
+     *
+     * @param blocking a <code>HammingLSHBlocking </code> instance.
+     * @param aliceAvroPaths alice encoded avro paths.
+     * @param aliceSchema alice encoding schema.
+     * @param aliceUidFieldName alice UID field name.
+     * @param bobAvroPaths bob encoded avro paths.
+     * @param bobSchema bob encoding schema.
+     * @param bobUidFieldName bob UID field name.
+     * @param C collision limit.
+     * @param hammingThreshold similarity threshold.
+     * @param pairsOutputPath matched pairs output path (local file).
+     * @throws BlockingException
+     * @throws IOException
+     */
+    public void runStreamingFPSonHammingBlocking(HammingLSHBlocking blocking,
+                                                 final Path[] aliceAvroPaths, final Schema aliceSchema,
+                                                 final String aliceUidFieldName,
+                                                 final Path[] bobAvroPaths, final Schema bobSchema,
+                                                 final String bobUidFieldName,
+                                                 final short C,
+                                                 final int hammingThreshold,
+                                                 final Path pairsOutputPath)
+            throws BlockingException, IOException {
+        runStreamingFPSonHammingBlocking(blocking,
+                aliceAvroPaths, aliceSchema, aliceUidFieldName,
+                bobAvroPaths, bobSchema, bobUidFieldName,
+                C, hammingThreshold, pairsOutputPath, 1);
+    }
+
+    /**
+     * Run the FPS algorithm on Hamming blocking, streaming records from avro files with
+     * multiple worker threads. Bob records are blocked as they are read (in a single thread),
+     * alice records are read in chunks and each chunk is matched by the worker threads.
+     *
+     * @param blocking a <code>HammingLSHBlocking </code> instance.
+     * @param aliceAvroPaths alice encoded avro paths.
+     * @param aliceSchema alice encoding schema.
+     * @param aliceUidFieldName alice UID field name.
+     * @param bobAvroPaths bob encoded avro paths.
+     * @param bobSchema bob encoding schema.
+     * @param bobUidFieldName bob UID field name.
+     * @param C collision limit.
+     * @param hammingThreshold similarity threshold.
+     * @param pairsOutputPath matched pairs output path (local file).
+     * @param threads number of worker threads.
+     * @throws BlockingException
+     * @throws IOException
+     */
+    public void runStreamingFPSonHammingBlocking(HammingLSHBlocking blocking,
+                                                 final Path[] aliceAvroPaths, final Schema aliceSchema,
+                                                 final String aliceUidFieldName,
+                                                 final Path[] bobAvroPaths, final Schema bobSchema,
+                                                 final String bobUidFieldName,
+                                                 final short C,
+                                                 final int hammingThreshold,
+                                                 final Path pairsOutputPath,
+                                                 final int threads)
+            throws BlockingException, IOException {
+        try {
+            if(threads > 1)
+                LOG.info("Streaming bob records are blocked in a single thread, FPS runs on {} worker threads.",
+                        threads);
+            final DatasetsUtil.DatasetRecordReader bobReader =
+                    new DatasetsUtil.DatasetRecordReader(localFs, bobSchema, bobAvroPaths);
+            try {
+                blocking.runHLSH(bobReader, bobUidFieldName);
+            } finally {
+                bobReader.close();
+            }
+            final DatasetsUtil.DatasetRecordReader aliceReader =
+                    new DatasetsUtil.DatasetRecordReader(localFs, aliceSchema, aliceAvroPaths);
+            final RecordIdPairWriter writer = new RecordIdPairWriter(localFs.create(pairsOutputPath, true));
+            try {
+                blocking.runFPS(aliceReader, aliceUidFieldName, C, hammingThreshold, writer, threads);
+            } finally {
+                writer.close();
+                aliceReader.close();
+            }
+        } catch (BlockingException | IOException e) {
+            LOG.error(e.getMessage(),e);
+            throw e;
+        }
+    }
+
     public void saveResult(HammingLSHBlockingResult result, Path blockingOutputPath)
             throws IOException {
         try {
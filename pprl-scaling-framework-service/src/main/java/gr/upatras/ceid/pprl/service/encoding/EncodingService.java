@@ -1,5 +1,8 @@
 package gr.upatras.ceid.pprl.service.encoding;
 
+import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,25 +11,55 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.hadoop.mapreduce.ToolRunner;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Service
 public class EncodingService implements InitializingBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(EncodingService.class);
 
+    public static final String FINGERPRINTS_EXTENSION = ".fingerprints";
+
+    private static final Pattern RUN_PART_PATTERN = Pattern.compile("(.*)\\.run-(\\d+)\\.avro");
+
     public void afterPropertiesSet() {
         LOG.info(String.format("Encoding service initialized [Tool#1 = %s]",
                 (encodeDatasetToolRunner != null)));
     }
 
+    @Autowired
+    private FileSystem hdfs; // HDFS FileSystem reference
+
     @Autowired
     private ToolRunner encodeDatasetToolRunner; // Runner of Encode Dataset Tool
 
+    public FileSystem getHdfs() {
+        return hdfs;
+    }
+
+    public void setHdfs(FileSystem hdfs) {
+        this.hdfs = hdfs;
+    }
+
     /**
-     * Run encode dataset tool runner tool.
+     * Run encode dataset tool runner tool. On success the fingerprints of the input
+     * files are stored beside the output schema (as run 0), so that the encoding can be
+     * updated with <code>runIncrementalEncodeDatasetTool</code>.
      *
      * @param input        input path
      * @param inputSchema  input schema path.
@@ -37,9 +70,163 @@ public class EncodingService implements InitializingBean {
     public void runEncodeDatasetTool(final Path input, final Path inputSchema,
                                      final Path output, final Path outputSchema)
             throws Exception {
+        final Path inputPath = hdfs.makeQualified(input);
+        final Map<String,FileStatus> inputFiles = inputFiles(inputPath);
+        final int result = runEncodeDatasetTool(input.toString(), inputSchema, output, outputSchema);
+        if (result != 0) return;
+        final Map<String,Fingerprint> current = new TreeMap<String, Fingerprint>();
+        for (Map.Entry<String,FileStatus> entry : inputFiles.entrySet())
+            current.put(entry.getKey(), new Fingerprint(entry.getKey(), entry.getValue(), 0));
+        saveFingerprints(fingerprintsPath(outputSchema), current);
+    }
+
+    /**
+     * Run encode dataset tool runner tool only on the input avro files not yet encoded
+     * with the output schema. A fingerprint (path, length, modification time and encoding run)
+     * of every encoded file is stored beside the output schema. Each run encodes its files
+     * into a temporary path and adds the resulting parts to the output path, named
+     * <code>part-*.run-NNNNN.avro</code> (parts of run 0, written by <code>runEncodeDatasetTool</code>,
+     * keep their names). A changed or removed input file invalidates the parts of its run
+     * and the remaining files of that run are encoded again. The tool refuses to run on an
+     * output path holding parts not accounted by any run.
+     *
+     * @param input        input path
+     * @param inputSchema  input schema path.
+     * @param output       output path.
+     * @param outputSchema output schema path.
+     * @return number of input files encoded by this run.
+     * @throws Exception
+     */
+    public int runIncrementalEncodeDatasetTool(final Path input, final Path inputSchema,
+                                               final Path output, final Path outputSchema)
+            throws Exception {
+        try {
+            final Path fingerprintsPath = fingerprintsPath(outputSchema);
+            final Map<String,Fingerprint> previous = loadFingerprints(fingerprintsPath);
+
+            final Path inputPath = hdfs.makeQualified(input);
+            final Map<String,FileStatus> inputFiles = inputFiles(inputPath);
+
+            boolean hasRunZero = false;
+            for (Fingerprint fingerprint : previous.values()) hasRunZero |= (fingerprint.run == 0);
+            final Map<Integer,List<Path>> runParts = new HashMap<Integer, List<Path>>();
+            final List<Path> unknownParts = new ArrayList<Path>();
+            if(hdfs.exists(output)) {
+                for (Path p : DatasetsUtil.getAllAvroPaths(hdfs, output)) {
+                    final Matcher m = RUN_PART_PATTERN.matcher(p.getName());
+                    if (!m.matches() && !hasRunZero) {
+                        unknownParts.add(p);
+                        continue;
+                    }
+                    final int run = m.matches() ? Integer.parseInt(m.group(2)) : 0;
+                    if (!runParts.containsKey(run)) runParts.put(run, new ArrayList<Path>());
+                    runParts.get(run).add(p);
+                }
+            }
+            if (!unknownParts.isEmpty())
+                throw new IOException(String.format(
+                        "Output path %s holds %d parts of no known encoding run (first : %s).",
+                        output, unknownParts.size(), unknownParts.get(0)));
+
+            // find invalid runs (changed, removed or missing parts)
+            int lastRun = 0;
+            final Set<Integer> validRuns = new HashSet<Integer>();
+            final Set<Integer> invalidRuns = new HashSet<Integer>();
+            for (Fingerprint fingerprint : previous.values()) {
+                lastRun = Math.max(lastRun, fingerprint.run);
+                if (fingerprint.matches(inputFiles.get(fingerprint.path)) &&
+                        runParts.containsKey(fingerprint.run))
+                    validRuns.add(fingerprint.run);
+                else invalidRuns.add(fingerprint.run);
+            }
+            for (Integer run : runParts.keySet()) {
+                lastRun = Math.max(lastRun, run);
+                if (!validRuns.contains(run)) invalidRuns.add(run);
+            }
+            validRuns.removeAll(invalidRuns);
+            for (Integer run : invalidRuns) {
+                if (!runParts.containsKey(run)) continue;
+                LOG.info("Removing parts of encoding run {}.", run);
+                for (Path p : runParts.get(run))
+                    if (!hdfs.delete(p, false))
+                        throw new IOException("Cannot remove part " + p + ".");
+            }
+
+            // encode new files and files of invalid runs
+            final Map<String,Fingerprint> current = new TreeMap<String, Fingerprint>();
+            final List<String> encodePaths = new ArrayList<String>();
+            for (Map.Entry<String,FileStatus> entry : inputFiles.entrySet()) {
+                final Fingerprint fingerprint = previous.get(entry.getKey());
+                if (fingerprint != null && validRuns.contains(fingerprint.run))
+                    current.put(entry.getKey(), fingerprint);
+                else encodePaths.add(entry.getKey());
+            }
+            LOG.info("Input files : {}, already encoded : {}, to be encoded : {}.",
+                    inputFiles.size(), current.size(), encodePaths.size());
+
+            if (!encodePaths.isEmpty()) {
+                final int run = lastRun + 1;
+                final StringBuilder sb = new StringBuilder();
+                for (String path : encodePaths)
+                    sb.append((sb.length() != 0) ? "," : "").append(new Path(inputPath, path));
+                final Path runPath = new Path(output.getParent(),
+                        String.format("%s.run-%05d", output.getName(), run));
+                if (hdfs.exists(runPath) && !hdfs.delete(runPath, true))
+                    throw new IOException("Cannot remove stale run path " + runPath + ".");
+                final int result = runEncodeDatasetTool(sb.toString(), inputSchema, runPath, outputSchema);
+                if (result != 0)
+                    throw new IOException(String.format("Encoding run %d failed (exit code %d).", run, result));
+
+                if (!hdfs.exists(output)) hdfs.mkdirs(output);
+                for (Path p : DatasetsUtil.getAllAvroPaths(hdfs, runPath)) {
+                    final String name = p.getName();
+                    final Path dest = new Path(output, String.format("%s.run-%05d.avro",
+                            name.substring(0, name.length() - ".avro".length()), run));
+                    if (!hdfs.rename(p, dest))
+                        throw new IOException("Cannot move part " + p + " to " + dest + ".");
+                }
+                hdfs.delete(runPath, true);
+                for (String path : encodePaths)
+                    current.put(path, new Fingerprint(path, inputFiles.get(path), run));
+            }
+
+            saveFingerprints(fingerprintsPath, current);
+            return encodePaths.size();
+        } catch (Exception e) {
+            LOG.error(e.getMessage(),e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the path of the fingerprints file of an output schema.
+     *
+     * @param outputSchema output schema path.
+     * @return the path of the fingerprints file.
+     */
+    public static Path fingerprintsPath(final Path outputSchema) {
+        final String name = outputSchema.getName();
+        return new Path(outputSchema.getParent(),
+                (name.endsWith(".avsc") ? name.substring(0, name.length() - ".avsc".length()) : name) +
+                        FINGERPRINTS_EXTENSION);
+    }
+
+    /**
+     * Run encode dataset tool runner tool.
+     *
+     * @param input        input path(s), comma separated.
+     * @param inputSchema  input schema path.
+     * @param output       output path.
+     * @param outputSchema output schema path.
+     * @return exit code of the tool.
+     * @throws Exception
+     */
+    protected int runEncodeDatasetTool(final String input, final Path inputSchema,
+                                       final Path output, final Path outputSchema)
+            throws Exception {
         try {
             final List<String> argsList = new ArrayList<String>();
-            argsList.add(input.toString());
+            argsList.add(input);
             argsList.add(inputSchema.toString());
             LOG.info("input={} , inputSchema={}", input, inputSchema);
             argsList.add(output.toString());
@@ -49,10 +236,120 @@ public class EncodingService implements InitializingBean {
             args = argsList.toArray(args);
             LOG.debug("args={}", Arrays.toString(args));
             encodeDatasetToolRunner.setArguments(args);
-            encodeDatasetToolRunner.call();
+            final Integer result = encodeDatasetToolRunner.call();
+            return (result == null) ? 0 : result;
         } catch (Exception e) {
             LOG.error(e.getMessage(),e);
             throw e;
         }
     }
+
+    /**
+     * Load fingerprints (empty if there is no fingerprints file).
+     *
+     * @param fingerprintsPath fingerprints file path.
+     * @return a map of input file (relative path) to its fingerprint.
+     * @throws IOException
+     */
+    private Map<String,Fingerprint> loadFingerprints(final Path fingerprintsPath) throws IOException {
+        final Map<String,Fingerprint> fingerprints = new TreeMap<String, Fingerprint>();
+        if (!hdfs.exists(fingerprintsPath)) return fingerprints;
+        LOG.info("Loading fingerprints from {}.", fingerprintsPath);
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(hdfs.open(fingerprintsPath), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                final Fingerprint fingerprint = Fingerprint.parse(line);
+                fingerprints.put(fingerprint.path, fingerprint);
+            }
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Save fingerprints.
+     *
+     * @param fingerprintsPath fingerprints file path.
+     * @param fingerprints a map of input file (relative path) to its fingerprint.
+     * @throws IOException
+     */
+    private void saveFingerprints(final Path fingerprintsPath, final Map<String,Fingerprint> fingerprints)
+            throws IOException {
+        LOG.info("Saving {} fingerprints at {}.", fingerprints.size(), fingerprintsPath);
+        try (BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(hdfs.create(fingerprintsPath, true), StandardCharsets.UTF_8))) {
+            writer.write("# path\tlength\tmodification-time\trun");
+            writer.newLine();
+            for (Fingerprint fingerprint : fingerprints.values()) {
+                writer.write(fingerprint.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Returns the avro files of an input path.
+     *
+     * @param inputPath a qualified input path.
+     * @return a map of input file (relative path) to its status.
+     * @throws IOException
+     */
+    private Map<String,FileStatus> inputFiles(final Path inputPath) throws IOException {
+        final Map<String,FileStatus> inputFiles = new TreeMap<String, FileStatus>();
+        for (Path p : DatasetsUtil.getAllAvroPaths(hdfs, inputPath))
+            inputFiles.put(relativePath(inputPath, p), hdfs.getFileStatus(p));
+        return inputFiles;
+    }
+
+    private static String relativePath(final Path basePath, final Path path) {
+        final String base = basePath.toUri().getPath();
+        final String p = path.toUri().getPath();
+        return p.equals(base) ? path.getName() : p.substring(base.length() + 1);
+    }
+
+    /**
+     * Fingerprint class, identifies an encoded input file.
+     */
+    private static class Fingerprint {
+        private final String path;
+        private final long length;
+        private final long modificationTime;
+        private final int run;
+
+        public Fingerprint(final String path, final long length, final long modificationTime, final int run) {
+            this.path = path;
+            this.length = length;
+            this.modificationTime = modificationTime;
+            this.run = run;
+        }
+
+        public Fingerprint(final String path, final FileStatus status, final int run) {
+            this(path, status.getLen(), status.getModificationTime(), run);
+        }
+
+        /**
+         * Returns true if the file status matches this fingerprint.
+         *
+         * @param status a file status (or null).
+         * @return true if the file status matches this fingerprint, false otherwise.
+         */
+        public boolean matches(final FileStatus status) {
+            return status != null && status.getLen() == length &&
+                    status.getModificationTime() == modificationTime;
+        }
+
+        public static Fingerprint parse(final String line) throws IOException {
+            final String[] parts = line.split("\t");
+            if (parts.length != 4)
+                throw new IOException("Invalid fingerprint \"" + line + "\".");
+            return new Fingerprint(parts[0], Long.parseLong(parts[1]),
+                    Long.parseLong(parts[2]), Integer.parseInt(parts[3]));
+        }
+
+        @Override
+        public String toString() {
+            return path + "\t" + length + "\t" + modificationTime + "\t" + run;
+        }
+    }
 }
@@ -1,20 +1,55 @@
 package gr.upatras.ceid.pprl.service.encoding;
 
 
+import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
+import gr.upatras.ceid.pprl.encoding.AvroEncodedBatchSink;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingException;
+import gr.upatras.ceid.pprl.encoding.EncodedBatch;
+import gr.upatras.ceid.pprl.encoding.EncodedBatchSink;
+import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 
 @Service
 public class LocalEncodingService implements InitializingBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(LocalEncodingService.class);
 
+    public static final int BATCH_SIZE = 1024; // records per encoding task.
+
+    @Autowired
+    private FileSystem localFs;
+
+    public FileSystem getLocalFs() {
+        return localFs;
+    }
+
+    public void setLocalFS(FileSystem localFs) {
+        this.localFs = localFs;
+    }
+
     public void afterPropertiesSet() throws Exception {
         LOG.info("Local Encoding service initialized.");
     }
@@ -44,6 +79,254 @@ public class LocalEncodingService implements InitializingBean {
         } catch (BloomFilterEncodingException e) {
             LOG.error(e.getMessage(),e);
             throw e;
+        } finally {
+            encoding.release();
+        }
+    }
+
+    /**
+     * Encode records with multiple worker threads. Records are encoded in batches,
+     * each worker thread with its own copy of the encoding.
+     *
+     * @param records generic avro records array.
+     * @param encoding encoding instance.
+     * @param threads number of worker threads.
+     * @return encoded generic avro records array (in input order).
+     * @throws BloomFilterEncodingException
+     */
+    public GenericRecord[] encodeRecords(final GenericRecord[] records,
+                                         final BloomFilterEncoding encoding,
+                                         final int threads)
+            throws BloomFilterEncodingException {
+        if(threads <= 1) return encodeRecords(records, encoding);
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        BlockingQueue<BloomFilterEncoding> encodings = null;
+        try {
+            encoding.initialize();
+            LOG.info("Encoding scheme \"{}\" ready to encode.",encoding);
+            LOG.info("Record count : {}, worker threads : {}",records.length,threads);
+            final GenericRecord[] encodedRecords = new GenericRecord[records.length];
+            encodings = encodingCopies(encoding, threads);
+            final List<Callable<GenericRecord[]>> tasks = new ArrayList<Callable<GenericRecord[]>>();
+            for (int from = 0; from < records.length; from += BATCH_SIZE)
+                tasks.add(new EncodeTask(records, from, Math.min(from + BATCH_SIZE, records.length),
+                        encodedRecords, from, encodings));
+            for (Future<GenericRecord[]> future : pool.invokeAll(tasks)) future.get();
+            return encodedRecords;
+        } catch (BloomFilterEncodingException e) {
+            LOG.error(e.getMessage(),e);
+            throw e;
+        } catch (InterruptedException | ExecutionException e) {
+            final BloomFilterEncodingException bfee = encodingException(e);
+            LOG.error(bfee.getMessage(),bfee);
+            throw bfee;
+        } finally {
+            pool.shutdown();
+            release(encoding, encodings);
+        }
+    }
+
+    /**
+     * Encode dataset records, streaming them from avro files to the encoded dataset avro files.
+     * Batches of records are encoded by a worker pool (each worker thread with its own copy
+     * of the encoding) and written in input order, batches are assigned to the output
+     * partitions in turn. At most <code>2 * threads</code> batches are held in memory, and the
+     * encoded records of written batches are reused by the next batches. With a single thread
+     * records are encoded in columnar batches and written without intermediate encoded records
+     * (see <code>encodeBatches</code>).
+     *
+     * @param avroPaths paths of avro files.
+     * @param schema schema of avro files.
+     * @param encoding encoding instance.
+     * @param name name of encoded dataset.
+     * @param basePath base path of encoded dataset avro files.
+     * @param partitions count of partitions (avro files).
+     * @param threads number of worker threads.
+     * @return number of encoded records.
+     * @throws BloomFilterEncodingException
+     * @throws IOException
+     */
+    public long encodeDatasetRecords(final Path[] avroPaths, final Schema schema,
+                                     final BloomFilterEncoding encoding,
+                                     final String name, final Path basePath,
+                                     final int partitions, final int threads)
+            throws BloomFilterEncodingException, IOException {
+        final int workers = Math.max(1, threads);
+        final ForkJoinPool pool = new ForkJoinPool(workers);
+        DatasetsUtil.DatasetRecordReader reader = null;
+        DatasetsUtil.DatasetRecordWriter writer = null;
+        BlockingQueue<BloomFilterEncoding> encodings = null;
+        try {
+            encoding.initialize();
+            LOG.info("Encoding scheme \"{}\" ready to encode.",encoding);
+            LOG.info("Streaming records from {}, worker threads : {}", Arrays.toString(avroPaths), workers);
+            encodings = encodingCopies(encoding, workers);
+            reader = new DatasetsUtil.DatasetRecordReader(localFs, schema, avroPaths);
+            writer = new DatasetsUtil.DatasetRecordWriter(localFs, name,
+                    encoding.getEncodingSchema(), basePath, partitions);
+            if(workers == 1) {
+                final long recordCount = encodeBatches(reader, encoding, writer, partitions);
+                LOG.info("Record count : {}",recordCount);
+                return recordCount;
+            }
+
+            final Deque<Future<GenericRecord[]>> pending = new ArrayDeque<Future<GenericRecord[]>>();
+            final Deque<GenericRecord[]> written = new ArrayDeque<GenericRecord[]>();
+            long recordCount = 0;
+            int batch = 0;
+            boolean hasNext = reader.hasNext();
+            while (hasNext) {
+                final GenericRecord[] records = new GenericRecord[BATCH_SIZE];
+                int size = 0;
+                while (size < BATCH_SIZE && (hasNext = reader.hasNext())) records[size++] = reader.next();
+                if(size == 0) break;
+                final GenericRecord[] encodedRecords = (size == BATCH_SIZE && !written.isEmpty()) ?
+                        written.poll() : new GenericRecord[size];
+                pending.add(pool.submit(new EncodeTask(records, 0, size, encodedRecords, 0, encodings)));
+                if(pending.size() >= 2 * workers) {
+                    final GenericRecord[] batchRecords = pending.poll().get();
+                    recordCount += writeRecords(batchRecords, writer, batch++ % partitions);
+                    if(batchRecords.length == BATCH_SIZE) written.add(batchRecords);
+                }
+            }
+            while (!pending.isEmpty())
+                recordCount += writeRecords(pending.poll().get(), writer, batch++ % partitions);
+            LOG.info("Record count : {}",recordCount);
+            return recordCount;
+        } catch (BloomFilterEncodingException | IOException e) {
+            LOG.error(e.getMessage(),e);
+            throw e;
+        } catch (InterruptedException | ExecutionException e) {
+            final BloomFilterEncodingException bfee = encodingException(e);
+            LOG.error(bfee.getMessage(),bfee);
+            throw bfee;
+        } finally {
+            pool.shutdownNow();
+            if(reader != null) reader.close();
+            if(writer != null) writer.close();
+            release(encoding, encodings);
+        }
+    }
+
+    /**
+     * Returns a queue of encoding copies, one for each worker thread.
+     *
+     * @param encoding an initialized encoding instance.
+     * @param threads number of worker threads.
+     * @return a queue of encoding copies.
+     * @throws BloomFilterEncodingException
+     */
+    private static BlockingQueue<BloomFilterEncoding> encodingCopies(final BloomFilterEncoding encoding,
+                                                                     final int threads)
+            throws BloomFilterEncodingException {
+        final BlockingQueue<BloomFilterEncoding> encodings = new ArrayBlockingQueue<BloomFilterEncoding>(threads);
+        encodings.add(encoding);
+        for (int i = 1; i < threads; i++) encodings.add(encoding.copy());
+        return encodings;
+    }
+
+    /**
+     * Encodes a stream of records in batches of <code>BATCH_SIZE</code> records, written
+     * to the output partitions in turn through avro batch sinks.
+     *
+     * @param records an iterator over input records.
+     * @param encoding an initialized encoding instance.
+     * @param writer encoded dataset writer (closes the sinks).
+     * @param partitions count of partitions.
+     * @return number of encoded records.
+     * @throws BloomFilterEncodingException
+     * @throws IOException
+     */
+    private static long encodeBatches(final Iterator<GenericRecord> records,
+                                      final BloomFilterEncoding encoding,
+                                      final DatasetsUtil.DatasetRecordWriter writer,
+                                      final int partitions)
+            throws BloomFilterEncodingException, IOException {
+        final AvroEncodedBatchSink[] sinks = new AvroEncodedBatchSink[partitions];
+        for (int i = 0; i < partitions; i++)
+            sinks[i] = new AvroEncodedBatchSink(encoding, writer.getFileWriter(i));
+        return encoding.encodeRecords(records, encoding.newBatch(BATCH_SIZE), new EncodedBatchSink() {
+            private int batch = 0;
+
+            public void write(final EncodedBatch encodedBatch) throws IOException {
+                sinks[batch++ % partitions].write(encodedBatch);
+            }
+
+            public void close() {}
+        });
+    }
+
+    /**
+     * Releases the Q-Gram positions caches of an encoding and of its copies.
+     *
+     * @param encoding an encoding instance.
+     * @param encodings a queue of encoding copies (or null).
+     */
+    private static void release(final BloomFilterEncoding encoding,
+                                final BlockingQueue<BloomFilterEncoding> encodings) {
+        encoding.release();
+        if(encodings != null) for (BloomFilterEncoding copy : encodings) copy.release();
+    }
+
+    private static int writeRecords(final GenericRecord[] records,
+                                    final DatasetsUtil.DatasetRecordWriter writer,
+                                    final int partition) throws IOException {
+        for (GenericRecord record : records) writer.writeRecord(record, partition);
+        return records.length;
+    }
+
+    private static BloomFilterEncodingException encodingException(final Exception e) {
+        if(e instanceof ExecutionException && e.getCause() instanceof BloomFilterEncodingException)
+            return (BloomFilterEncodingException) e.getCause();
+        final Throwable cause = (e instanceof ExecutionException) ? e.getCause() : e;
+        return new BloomFilterEncodingException("Error at encoding records : " + cause.getMessage());
+    }
+
+    /**
+     * Encode Task class. Encodes a range of records with an encoding
+     * taken from (and returned to) a queue of encodings, reusing any
+     * records already in the encoded records array.
+     */
+    private static class EncodeTask implements Callable<GenericRecord[]> {
+        private final GenericRecord[] records;
+        private final int from;
+        private final int to;
+        private final GenericRecord[] encodedRecords;
+        private final int offset;
+        private final BlockingQueue<BloomFilterEncoding> encodings;
+
+        /**
+         * Constructor.
+         *
+         * @param records generic avro records array.
+         * @param from first record (inclusive).
+         * @param to last record (exclusive).
+         * @param encodedRecords encoded records array.
+         * @param offset position of the first encoded record in the encoded records array.
+         * @param encodings a queue of encodings.
+         */
+        public EncodeTask(final GenericRecord[] records, final int from, final int to,
+                          final GenericRecord[] encodedRecords, final int offset,
+                          final BlockingQueue<BloomFilterEncoding> encodings) {
+            this.records = records;
+            this.from = from;
+            this.to = to;
+            this.encodedRecords = encodedRecords;
+            this.offset = offset;
+            this.encodings = encodings;
+        }
+
+        public GenericRecord[] call() throws BloomFilterEncodingException, InterruptedException {
+            final BloomFilterEncoding encoding = encodings.take();
+            try {
+                for (int i = from; i < to; i++)
+                    encodedRecords[offset + i - from] =
+                            encoding.encodeRecord(records[i], encodedRecords[offset + i - from]);
+                return encodedRecords;
+            } finally {
+                encodings.add(encoding);
+            }
         }
     }
 }
@@ -0,0 +1,222 @@
+package gr.upatras.ceid.pprl.test;
+
+import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
+import gr.upatras.ceid.pprl.service.encoding.EncodingService;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "classpath:local-services-test-context.xml")
+public class IncrementalEncodingServiceTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalEncodingServiceTest.class);
+
+    private static final Path basePath = new Path("data/incremental_encoding");
+    private static final Path inputPath = new Path(basePath, "avro");
+    private static final Path inputSchemaPath = new Path(basePath, "schema/input.avsc");
+    private static final Path outputPath = new Path(basePath, "encoded/avro");
+    private static final Path outputSchemaPath = new Path(basePath, "encoded/schema/encoding.avsc");
+
+    @Autowired
+    private FileSystem localFs;
+
+    /**
+     * Encoding service with a tool that "encodes" each input file into a part of the
+     * same content, remembering the encoded files. Like the MapReduce tool, it fails on
+     * an existing output path.
+     */
+    private static class CopyingEncodingService extends EncodingService {
+        private final List<String> encoded = new ArrayList<String>();
+
+        @Override
+        protected int runEncodeDatasetTool(final String input, final Path inputSchema,
+                                           final Path output, final Path outputSchema)
+                throws Exception {
+            final FileSystem fs = getHdfs();
+            if(fs.exists(output)) return 1;
+            fs.mkdirs(output);
+            int i = 0;
+            for (String in : input.split(",")) {
+                for (Path p : DatasetsUtil.getAllAvroPaths(fs, new Path(in))) {
+                    encoded.add(p.getName());
+                    FileUtil.copy(fs, p, fs,
+                            new Path(output, String.format("part-m-%05d.avro", i++)), false, fs.getConf());
+                }
+            }
+            return 0;
+        }
+
+        public List<String> getEncoded() {
+            final List<String> names = new ArrayList<String>(encoded);
+            encoded.clear();
+            return names;
+        }
+    }
+
+    @Test
+    public void test00() throws Exception {
+        final CopyingEncodingService es = newService(localFs);
+
+        // first run encodes all files, second run none
+        writeInput("a.avro", "a");
+        writeInput("b.avro", "b");
+        assertEquals(2, es.runIncrementalEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath));
+        assertEquals(Arrays.asList("a.avro", "b.avro"), es.getEncoded());
+        assertEquals(new TreeSet<String>(Arrays.asList(
+                "part-m-00000.run-00001.avro", "part-m-00001.run-00001.avro")), outputParts());
+        assertTrue(localFs.exists(EncodingService.fingerprintsPath(outputSchemaPath)));
+        assertFalse(localFs.exists(new Path(outputPath.getParent(), "avro.run-00001")));
+        assertEquals(0, es.runIncrementalEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath));
+        assertTrue(es.getEncoded().isEmpty());
+
+        // appended file is encoded in a new run
+        writeInput("c.avro", "c");
+        assertEquals(1, es.runIncrementalEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath));
+        assertEquals(Arrays.asList("c.avro"), es.getEncoded());
+        assertEquals(new TreeSet<String>(Arrays.asList(
+                "part-m-00000.run-00001.avro", "part-m-00001.run-00001.avro",
+                "part-m-00000.run-00002.avro")), outputParts());
+        cleanup();
+    }
+
+    @Test
+    public void test01() throws Exception {
+        final CopyingEncodingService es = newService(localFs);
+        writeInput("a.avro", "a");
+        writeInput("b.avro", "b");
+        es.runIncrementalEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath);
+        writeInput("c.avro", "c");
+        es.runIncrementalEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath);
+        es.getEncoded();
+
+        // a changed file invalidates its run, all files of the run are encoded again
+        writeInput("a.avro", "a changed");
+        assertEquals(2, es.runIncrementalEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath));
+        assertEquals(Arrays.asList("a.avro", "b.avro"), es.getEncoded());
+        assertEquals(new TreeSet<String>(Arrays.asList(
+                "part-m-00000.run-00002.avro",
+                "part-m-00000.run-00003.avro", "part-m-00001.run-00003.avro")), outputParts());
+
+        // a removed file invalidates its run
+        localFs.delete(new Path(inputPath, "c.avro"), false);
+        assertEquals(0, es.runIncrementalEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath));
+        assertEquals(new TreeSet<String>(Arrays.asList(
+                "part-m-00000.run-00003.avro", "part-m-00001.run-00003.avro")), outputParts());
+
+        // missing parts invalidate their run
+        localFs.delete(new Path(outputPath, "part-m-00000.run-00003.avro"), false);
+        localFs.delete(new Path(outputPath, "part-m-00001.run-00003.avro"), false);
+        assertEquals(2, es.runIncrementalEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath));
+        assertEquals(Arrays.asList("a.avro", "b.avro"), es.getEncoded());
+        assertEquals(new TreeSet<String>(Arrays.asList(
+                "part-m-00000.run-00004.avro", "part-m-00001.run-00004.avro")), outputParts());
+        cleanup();
+    }
+
+    @Test
+    public void test02() throws Exception {
+        final CopyingEncodingService es = newService(localFs);
+        writeInput("a.avro", "a");
+
+        // parts of no known run are kept and the incremental run is refused
+        writeFile(new Path(outputPath, "part-m-00000.avro"), "unknown");
+        try {
+            es.runIncrementalEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath);
+            fail("Parts of no known run must not be accepted.");
+        } catch (IOException e) {
+            LOG.info(e.getMessage());
+        }
+        assertTrue(es.getEncoded().isEmpty());
+        assertTrue(localFs.exists(new Path(outputPath, "part-m-00000.avro")));
+        localFs.delete(outputPath, true);
+
+        // a full encoding records its files as run 0, later runs only add the new files
+        es.runEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath);
+        assertEquals(Arrays.asList("a.avro"), es.getEncoded());
+        writeInput("b.avro", "b");
+        assertEquals(1, es.runIncrementalEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath));
+        assertEquals(Arrays.asList("b.avro"), es.getEncoded());
+        assertEquals(new TreeSet<String>(Arrays.asList(
+                "part-m-00000.avro", "part-m-00000.run-00001.avro")), outputParts());
+        cleanup();
+    }
+
+    @Test
+    public void test03() throws Exception {
+        // a failed rename fails the run without recording its files
+        final CopyingEncodingService failing = newService(new FilterFileSystem(localFs) {
+            @Override
+            public boolean rename(Path src, Path dst) throws IOException {
+                return false;
+            }
+        });
+        writeInput("a.avro", "a");
+        try {
+            failing.runIncrementalEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath);
+            fail("A failed rename must fail the run.");
+        } catch (IOException e) {
+            LOG.info(e.getMessage());
+        }
+        assertFalse(localFs.exists(EncodingService.fingerprintsPath(outputSchemaPath)));
+
+        final CopyingEncodingService es = newService(localFs);
+        assertEquals(1, es.runIncrementalEncodeDatasetTool(inputPath, inputSchemaPath, outputPath, outputSchemaPath));
+        assertEquals(new TreeSet<String>(Arrays.asList("part-m-00000.run-00001.avro")), outputParts());
+        cleanup();
+    }
+
+    private CopyingEncodingService newService(final FileSystem fs) throws IOException {
+        if(localFs.exists(basePath)) localFs.delete(basePath, true);
+        localFs.mkdirs(inputPath);
+        localFs.mkdirs(outputSchemaPath.getParent());
+        final CopyingEncodingService es = new CopyingEncodingService();
+        es.setHdfs(fs);
+        return es;
+    }
+
+    private void writeInput(final String name, final String content) throws IOException {
+        writeFile(new Path(inputPath, name), content);
+    }
+
+    private void writeFile(final Path path, final String content) throws IOException {
+        final FSDataOutputStream out = localFs.create(path, true);
+        try {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private SortedSet<String> outputParts() throws IOException {
+        final SortedSet<String> names = new TreeSet<String>();
+        for (Path p : DatasetsUtil.getAllAvroPaths(localFs, outputPath)) names.add(p.getName());
+        return names;
+    }
+
+    private void cleanup() throws IOException {
+        localFs.delete(basePath, true);
+    }
+}
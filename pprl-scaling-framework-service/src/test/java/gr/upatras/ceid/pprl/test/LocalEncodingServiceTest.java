@@ -0,0 +1,135 @@
+package gr.upatras.ceid.pprl.test;
+
+import gr.upatras.ceid.pprl.datasets.DatasetsUtil;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingException;
+import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
+import gr.upatras.ceid.pprl.service.encoding.LocalEncodingService;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "classpath:local-services-test-context.xml")
+public class LocalEncodingServiceTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalEncodingServiceTest.class);
+
+    private static final Path schemaPath = new Path("data/person_small/schema/person_small.avsc");
+    private static final Path basePath = new Path("data/person_small_batches");
+    // record counts of the input files (empty file and a partial last batch included)
+    private static final int[] fileRecordCounts = {LocalEncodingService.BATCH_SIZE + 300, 0, 7};
+
+    @Autowired
+    private FileSystem localFs;
+
+    @Autowired
+    private LocalEncodingService es;
+
+    @Test
+    public void test00() throws IOException, BloomFilterEncodingException {
+        final Schema schema = DatasetsUtil.loadSchemaFromFSPath(localFs, schemaPath);
+        final Path inputPath = new Path(basePath, "avro");
+        final Path encodedPath = new Path(basePath, "encoded");
+        final int recordCount = writeInput(schema, inputPath);
+        localFs.mkdirs(encodedPath);
+
+        final BloomFilterEncoding encoding = newEncoding(schema);
+        final long encodedCount = es.encodeDatasetRecords(new Path[]{inputPath}, schema, encoding,
+                "person_small_batches", encodedPath, 2, 2);
+        assertEquals(recordCount, encodedCount);
+
+        // every record is encoded exactly once
+        final Set<String> ids = new HashSet<String>();
+        final DatasetsUtil.DatasetRecordReader reader =
+                new DatasetsUtil.DatasetRecordReader(localFs, encoding.getEncodingSchema(), encodedPath);
+        try {
+            while (reader.hasNext()) ids.add(String.valueOf(reader.next().get("id")));
+            assertFalse(reader.hasNext());
+        } finally {
+            reader.close();
+        }
+        assertEquals(recordCount, ids.size());
+        LOG.info("Encoded {} records in batches of {}.", encodedCount, LocalEncodingService.BATCH_SIZE);
+        localFs.delete(basePath, true);
+    }
+
+    @Test
+    public void test01() throws IOException, BloomFilterEncodingException {
+        // a single thread writes columnar batches through avro sinks, same records as the worker pool
+        final Schema schema = DatasetsUtil.loadSchemaFromFSPath(localFs, schemaPath);
+        final Path inputPath = new Path(basePath, "avro");
+        final int recordCount = writeInput(schema, inputPath);
+        final BloomFilterEncoding encoding = newEncoding(schema);
+        final Map<String,String> encoded = new HashMap<String,String>();
+        for (int threads = 1; threads <= 2; threads++) {
+            final Path encodedPath = new Path(basePath, "encoded_" + threads);
+            localFs.mkdirs(encodedPath);
+            assertEquals(recordCount, es.encodeDatasetRecords(new Path[]{inputPath}, schema, encoding,
+                    "person_small_batches", encodedPath, 2, threads));
+            assertEquals(2, DatasetsUtil.getAllAvroPaths(localFs, encodedPath).size());
+
+            final Map<String,String> records = new HashMap<String,String>();
+            final DatasetsUtil.DatasetRecordReader reader =
+                    new DatasetsUtil.DatasetRecordReader(localFs, encoding.getEncodingSchema(), encodedPath);
+            try {
+                while (reader.hasNext()) {
+                    final GenericRecord record = reader.next();
+                    records.put(String.valueOf(record.get("id")),
+                            encoding.retrieveBloomFilter(record).toHexString());
+                }
+            } finally {
+                reader.close();
+            }
+            assertEquals(recordCount, records.size());
+            if(threads == 1) encoded.putAll(records);
+            else assertEquals(encoded, records);
+        }
+        localFs.delete(basePath, true);
+    }
+
+    private int writeInput(final Schema schema, final Path inputPath) throws IOException {
+        if(localFs.exists(basePath)) localFs.delete(basePath, true);
+        localFs.mkdirs(inputPath);
+        int recordCount = 0;
+        for (int f = 0; f < fileRecordCounts.length; f++) {
+            final DatasetsUtil.DatasetRecordWriter writer =
+                    new DatasetsUtil.DatasetRecordWriter(localFs, "part_" + f, schema, inputPath);
+            for (int r = 0; r < fileRecordCounts[f]; r++, recordCount++) {
+                final GenericRecord record = new GenericData.Record(schema);
+                record.put("id", String.valueOf(recordCount));
+                record.put("name", "name" + (recordCount % 97));
+                record.put("surname", "surname" + (recordCount % 89));
+                record.put("location", "location" + (recordCount % 13));
+                writer.writeRecord(record);
+            }
+            writer.close();
+        }
+        return recordCount;
+    }
+
+    private static BloomFilterEncoding newEncoding(final Schema schema) throws BloomFilterEncodingException {
+        final BloomFilterEncoding encoding = BloomFilterEncodingUtil.instanceFactory(
+                "CLK", 2, 256, 0, 10, 2, null, null);
+        encoding.makeFromSchema(schema, new String[]{"name", "surname"}, new String[]{"id"});
+        return encoding;
+    }
+}
@@ -131,7 +131,11 @@ public class BlockingCommands implements CommandMarker {
             @CliOption(key = {"hf_theta"}, mandatory = true, help = "Hamming similarity threshold.")
             final String hammingThreholdStr,
             @CliOption(key = {"hf_seed"}, mandatory = false, help = "(Optional). A seed for reproducing HLSH hashing.")
-            final String seedStr
+            final String seedStr,
+            @CliOption(key = {"threads"}, mandatory = false, help = "(Optional). Number of worker threads. Defaults to the number of available processors.")
+            final String threadsStr,
+            @CliOption(key = {"pairs_output"}, mandatory = false, help = "(Optional). Stream records and write matched pairs to this file (local file).")
+            final String pairsOutput
 
     ) {
         try {
@@ -163,27 +167,38 @@ public class BlockingCommands implements CommandMarker {
                 final short C = CommandUtil.retrieveShort(hlshCStr, (short) -1);
                 final int hammingThreshold = CommandUtil.retrieveInt(hammingThreholdStr,-1);
                 final int seed = CommandUtil.retrieveInt(seedStr,-1);
+                final int threads = CommandUtil.retrieveInt(threadsStr,Runtime.getRuntime().availableProcessors());
                 if(seed >= 0) LOG.info("\tHLSH seed for random keys : {}",seed);
                 LOG.info("\tHLSH Hamming threshold (theta) : {}",hammingThreshold);
                 LOG.info("\tHLSH Blocking Groups (L) : {}",L);
                 LOG.info("\tHLSH Blocking Hash Values (K) : {}",K);
                 LOG.info("\tFPS Collision Limit (C) : {}",C);
+                LOG.info("\tWorker threads : {}",threads);
                 LOG.info("\n");
 
                 final Schema aliceSchema = lds.loadSchema(aliceSchemaPath);
-                final GenericRecord[] aliceRecords = lds.loadDatasetRecords(aliceAvroPaths,aliceSchema);
-
                 final Schema bobSchema = lds.loadSchema(bobSchemaPath);
-                final GenericRecord[] bobRecords = lds.loadDatasetRecords(bobAvroPaths,bobSchema);
-
                 final HammingLSHBlocking blocking = lbs.newHammingLSHBlockingInstance(L,K,aliceSchema,bobSchema,seed);
 
-                lbs.runFPSonHammingBlocking(
-                        blocking,
-                        aliceRecords, aliceUidFieldName,
-                        bobRecords, bobUidFieldName,
-                        C, hammingThreshold
-                );
+                if(pairsOutput != null) {
+                    final Path pairsOutputPath = CommandUtil.retrievePath(pairsOutput);
+                    LOG.info("\tStreaming matched pairs to : {}",pairsOutputPath);
+                    lbs.runStreamingFPSonHammingBlocking(
+                            blocking,
+                            aliceAvroPaths, aliceSchema, aliceUidFieldName,
+                            bobAvroPaths, bobSchema, bobUidFieldName,
+                            C, hammingThreshold, pairsOutputPath, threads
+                    );
+                } else {
+                    final GenericRecord[] aliceRecords = lds.loadDatasetRecords(aliceAvroPaths,aliceSchema);
+                    final GenericRecord[] bobRecords = lds.loadDatasetRecords(bobAvroPaths,bobSchema);
+                    lbs.runFPSonHammingBlocking(
+                            blocking,
+                            aliceRecords, aliceUidFieldName,
+                            bobRecords, bobUidFieldName,
+                            C, hammingThreshold, threads
+                    );
+                }
 
                 LOG.info("\tFrequent Pairs found : {}", blocking.getResult().getFrequentPairsCount());
                 LOG.info("\tMatched Pairs found : {}", blocking.getResult().getMatchedPairsCount());
@@ -162,7 +162,9 @@ public class DatasetsCommands implements CommandMarker {
             @CliOption(key = {"u"}, mandatory = false, help = "(Optional) Initial u values . 0.01 for all fields is default.")
             final String uStr,
             @CliOption(key = {"p"}, mandatory = false, help = "(Optional) Initial p value . 0.1 is default.")
-            final String pStr
+            final String pStr,
+            @CliOption(key = {"threads"}, mandatory = false, help = "(Optional). Number of worker threads. Defaults to the number of available processors.")
+            final String threadsStr
     ) {
         try {
             final Path schemaPath = CommandUtil.retrievePath(schemaStr);
@@ -174,11 +176,13 @@ public class DatasetsCommands implements CommandMarker {
             final double[] m0 = CommandUtil.retrieveProbabilities(mStr, fields.length, 0.9);
             final double[] u0 = CommandUtil.retrieveProbabilities(uStr, fields.length, 0.001);
             final double p0 = CommandUtil.retrieveProbability(pStr, 0.1);
+            final int threads = CommandUtil.retrieveInt(threadsStr,Runtime.getRuntime().availableProcessors());
 
             LOG.info("Calculating statistics on local data:");
             LOG.info("\tSelected data files : {}", Arrays.toString(avroPaths));
             LOG.info("\tSelected schema file : {}", schemaPath);
             LOG.info("\tSelected fields : {}", Arrays.toString(fields));
+            LOG.info("\tWorker threads : {}",threads);
             LOG.info("\n");
 
             final Schema schema = lds.loadSchema(schemaPath);
@@ -193,7 +197,7 @@ public class DatasetsCommands implements CommandMarker {
 
             statistics.setRecordCount(records.length);
             statistics.setFieldNames(fields);
-            DatasetStatistics.calculateQgramStatistics(records, schema, statistics, fields);
+            DatasetStatistics.calculateQgramStatistics(records, schema, statistics, fields, threads);
 
             final SimilarityVectorFrequencies frequencies = lms.vectorFrequencies(records, fields);
             final ExpectationMaximization estimator = lms.newEMInstance(fields,m0,u0,p0);
@@ -5,13 +5,13 @@ import gr.upatras.ceid.pprl.encoding.BloomFilterEncoding;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingException;
 import gr.upatras.ceid.pprl.encoding.BloomFilterEncodingUtil;
 import gr.upatras.ceid.pprl.encoding.FieldBloomFilterEncoding;
+import gr.upatras.ceid.pprl.encoding.HashFamily;
 import gr.upatras.ceid.pprl.encoding.RowBloomFilterEncoding;
 import gr.upatras.ceid.pprl.service.datasets.DatasetsService;
 import gr.upatras.ceid.pprl.service.datasets.LocalDatasetsService;
 import gr.upatras.ceid.pprl.service.encoding.EncodingService;
 import gr.upatras.ceid.pprl.service.encoding.LocalEncodingService;
 import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericRecord;
 import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,7 +62,8 @@ public class EncodingCommands implements CommandMarker {
 
     @CliAvailabilityIndicator(value = {
             "encode_data",
-            "encode_data_by_schema"
+            "encode_data_by_schema",
+            "encode_data_update"
     })
     public boolean availability2() {
         return ds != null && es != null;
@@ -173,8 +174,12 @@ public class EncodingCommands implements CommandMarker {
             final String Kstr,
             @CliOption(key= {"Q"}, mandatory = false, help = "(Optional) Q for Q-Grams. Limited to {2,3,4} .Default value is 2.")
             final String Qstr,
+            @CliOption(key= {"hash"}, mandatory = false, help = "(Optional) Hash family, one of the following : {HMAC,SIPHASH}. Default value is HMAC.")
+            final String hashStr,
             @CliOption(key = {"partitions"}, mandatory = false, help = "(Optional) Partitions of the output. Default is 1 (No partitioning).")
-            final String partitionsStr
+            final String partitionsStr,
+            @CliOption(key = {"threads"}, mandatory = false, help = "(Optional). Number of worker threads. Defaults to the number of available processors.")
+            final String threadsStr
     ) {
         try {
             BloomFilterEncodingUtil.schemeNameSupported(scheme);
@@ -187,7 +192,10 @@ public class EncodingCommands implements CommandMarker {
             final int N = CommandUtil.retrieveInt(Nstr, -1);
             final int K = CommandUtil.retrieveInt(Kstr, 15);
             final int Q = CommandUtil.retrieveInt(Qstr, 2);
+            final String hashFamily = (hashStr == null) ? HashFamily.DEFAULT : hashStr.toUpperCase();
+            HashFamily.nameSupported(hashFamily);
             final int partitions = CommandUtil.retrieveInt(partitionsStr,1);
+            final int threads = CommandUtil.retrieveInt(threadsStr,Runtime.getRuntime().availableProcessors());
             final Path statsPath = CommandUtil.retrievePath(pathStr);
             double[] avgQgrams = null;
             double[] weights = null;
@@ -222,6 +230,7 @@ public class EncodingCommands implements CommandMarker {
                 LOG.info("\tRBF Bit selection weights : {}",weights);
             LOG.info("\tNumber of Hash functions  (K) : {}", K);
             LOG.info("\tHashing Q-Grams (Q) : {}", Q);
+            LOG.info("\tHash family : {}", hashFamily);
             LOG.info("\tScheme : {}", scheme);
             if(scheme.equals("FBF") || scheme.equals("RBF")) {
                 if (fbfN > 0) LOG.info("\tFBF static size : {}", fbfN);
@@ -234,17 +243,16 @@ public class EncodingCommands implements CommandMarker {
             }else if(scheme.equals("CLK"))
                 LOG.info("\tCLK size : {}", N);
             LOG.info("\tPartitions : {} ",(partitions==1)?"No partitioning":partitions);
+            LOG.info("\tWorker threads : {}",threads);
             LOG.info("\n");
 
             final BloomFilterEncoding encoding = BloomFilterEncodingUtil.instanceFactory(
                     scheme, fields.length, N, fbfN, K, Q, avgQgrams, weights);
+            encoding.setHashFamily(hashFamily);
             final Schema schema = lds.loadSchema(schemaPath);
             encoding.makeFromSchema(schema,fields,included);
             if(!encoding.isEncodingOfSchema(schema))
                 throw new BloomFilterEncodingException("Encoding does not validate with source dataset.");
-            final GenericRecord[] records = lds.loadDatasetRecords(avroPaths, schemaPath);
-
-            final GenericRecord[] encodedRecords = les.encodeRecords(records, encoding);
             final Schema encodingSchema = encoding.getEncodingSchema();
 
             final Path[] datasetPaths = lds.createDirectories(name,DatasetsService.OTHERS_CAN_READ_PERMISSION);
@@ -253,7 +261,7 @@ public class EncodingCommands implements CommandMarker {
             lds.saveSchema(name,encodingSchemaPath,encodingSchema);
 
             final Path encodingAvroPath = datasetPaths[1];
-            lds.saveDatasetRecords(name, encodedRecords, encodingSchema, encodingAvroPath, partitions);
+            les.encodeDatasetRecords(avroPaths, schema, encoding, name, encodingAvroPath, partitions, threads);
 
             final Path encodingBasePath = datasetPaths[0];
             LOG.info("Encoded data path : {}",encodingBasePath);
@@ -282,7 +290,9 @@ public class EncodingCommands implements CommandMarker {
             @CliOption(key = {"include"}, mandatory = false, help = "(Optional) Fields to be included")
             final String includeStr,
             @CliOption(key = {"partitions"}, mandatory = false, help = "(Optional) Partitions of the output. Default is 1 (No partitioning).")
-            final String partitionsStr
+            final String partitionsStr,
+            @CliOption(key = {"threads"}, mandatory = false, help = "(Optional). Number of worker threads. Defaults to the number of available processors.")
+            final String threadsStr
     ) {
         try {
 
@@ -293,6 +303,7 @@ public class EncodingCommands implements CommandMarker {
             final Path existingEncodingSchemaPath = CommandUtil.retrievePath(encodingSchemaStr);
             final String[] mappings = CommandUtil.retrieveFields(mappingStr);
             final int partitions = CommandUtil.retrieveInt(partitionsStr,1);
+            final int threads = CommandUtil.retrieveInt(threadsStr,Runtime.getRuntime().availableProcessors());
 
             if(fields.length != mappings.length)
                 throw new IllegalArgumentException("Not the same length of fields");
@@ -310,6 +321,7 @@ public class EncodingCommands implements CommandMarker {
                 field2fieldMap.put(fields[i],mappings[i]);
             LOG.info("\tField Mappings are : {}",field2fieldMap);
             LOG.info("\tPartitions : {} ",(partitions==1)?"No partitioning":partitions);
+            LOG.info("\tWorker threads : {}",threads);
             LOG.info("\n");
 
             final Schema existingEncodingSchema = lds.loadSchema(existingEncodingSchemaPath);
@@ -326,9 +338,6 @@ public class EncodingCommands implements CommandMarker {
             if(!encoding.isEncodingOfSchema(schema))
                 throw new BloomFilterEncodingException("Encoding does not validate with source dataset.");
 
-            final GenericRecord[] records = lds.loadDatasetRecords(avroPaths, schemaPath);
-
-            final GenericRecord[] encodedRecords = les.encodeRecords(records, encoding);
             final Schema encodingSchema = encoding.getEncodingSchema();
 
             final Path[] datasetPaths = lds.createDirectories(name,DatasetsService.OTHERS_CAN_READ_PERMISSION);
@@ -337,7 +346,7 @@ public class EncodingCommands implements CommandMarker {
             lds.saveSchema(name,encodingSchemaPath,encodingSchema);
 
             final Path encodingAvroPath = datasetPaths[1];
-            lds.saveDatasetRecords(name, encodedRecords, encodingSchema, encodingAvroPath, partitions);
+            les.encodeDatasetRecords(avroPaths, schema, encoding, name, encodingAvroPath, partitions, threads);
 
             final Path encodingBasePath = datasetPaths[0];
             LOG.info("Encoded data path : {}",encodingBasePath);
@@ -382,7 +391,9 @@ public class EncodingCommands implements CommandMarker {
             @CliOption(key= {"K"}, mandatory = false, help = "(Optional) Hash function count. Default value is 15.")
             final String Kstr,
             @CliOption(key= {"Q"}, mandatory = false, help = "(Optional) Q for Q-Grams. Limited to {2,3,4} .Default value is 2.")
-            final String Qstr
+            final String Qstr,
+            @CliOption(key= {"hash"}, mandatory = false, help = "(Optional) Hash family, one of the following : {HMAC,SIPHASH}. Default value is HMAC.")
+            final String hashStr
     ) {
         try {
             BloomFilterEncodingUtil.schemeNameSupported(scheme);
@@ -393,6 +404,8 @@ public class EncodingCommands implements CommandMarker {
             final int N = CommandUtil.retrieveInt(Nstr, -1);
             final int K = CommandUtil.retrieveInt(Kstr, 15);
             final int Q = CommandUtil.retrieveInt(Qstr, 2);
+            final String hashFamily = (hashStr == null) ? HashFamily.DEFAULT : hashStr.toUpperCase();
+            HashFamily.nameSupported(hashFamily);
             final Path statsPath = CommandUtil.retrievePath(pathStr);
             double[] avgQgrams = null;
             double[] weights = null;
@@ -427,6 +440,7 @@ public class EncodingCommands implements CommandMarker {
                 LOG.info("\tRBF Bit selection weights : {}",weights);
             LOG.info("\tNumber of Hash functions  (K) : {}", K);
             LOG.info("\tHashing Q-Grams (Q) : {}", Q);
+            LOG.info("\tHash family : {}", hashFamily);
             LOG.info("\tScheme : {}", scheme);
             if(scheme.equals("FBF") || scheme.equals("RBF")) {
                 if (fbfN > 0) LOG.info("\tFBF static size : {}", fbfN);
@@ -447,6 +461,7 @@ public class EncodingCommands implements CommandMarker {
 
             final BloomFilterEncoding encoding = BloomFilterEncodingUtil.instanceFactory(
                     scheme, fields.length, N, fbfN, K, Q, avgQgrams, weights);
+            encoding.setHashFamily(hashFamily);
             final Schema schema = ds.loadSchema(inputSchemaPath);
             encoding.makeFromSchema(schema,fields,included);
             if(!encoding.isEncodingOfSchema(schema))
@@ -546,4 +561,53 @@ public class EncodingCommands implements CommandMarker {
             return "Error. " + e.getClass().getSimpleName() + " : " + e.getMessage();
         }
     }
+
+    @CliCommand(value = "encode_data_update", help = "Encode HDFS data files appended to the dataset since its last encoding.")
+    public String command6(
+            @CliOption(key = {"name"}, mandatory = true, help = "Uploaded dataset name.")
+            final String name,
+            @CliOption(key = {"encoding_name"}, mandatory = true, help = "Name of encoding.")
+            final String encodingName
+    ) {
+        try {
+            LOG.info("Updating encoded HDFS data :");
+            LOG.info("\tDataset name : {}", name);
+            LOG.info("\tEncoding name : {}", encodingName);
+
+            final Path[] datasetPaths = ds.retrieveDirectories(name);
+            final Path inputBasePath = datasetPaths[0];
+            final Path inputAvroPath = datasetPaths[1];
+            final Path inputSchemaPath = ds.retrieveSchemaPath(datasetPaths[2]);
+
+            Path[] encodingPaths;
+            try {
+                encodingPaths = ds.retrieveDirectories(encodingName,inputBasePath);
+            } catch (IllegalArgumentException e) {
+                encodingPaths = ds.retrieveDirectories(encodingName);
+            }
+            final Path encodingBasePath = encodingPaths[0];
+            final Path encodingAvroPath = encodingPaths[1];
+            final Path encodingSchemaPath =
+                    new Path(encodingPaths[2],String.format("%s.avsc",encodingName));
+
+            final Schema schema = ds.loadSchema(inputSchemaPath);
+            final Schema encodingSchema = ds.loadSchema(encodingSchemaPath);
+            final BloomFilterEncoding encoding = BloomFilterEncodingUtil.newInstance(
+                    BloomFilterEncodingUtil.retrieveSchemeName(encodingSchema));
+            encoding.setupFromSchema(encodingSchema);
+            if(!encoding.isEncodingOfSchema(schema))
+                throw new BloomFilterEncodingException("Encoding does not validate with source dataset.");
+
+            final int count =
+                    es.runIncrementalEncodeDatasetTool(inputAvroPath,inputSchemaPath,encodingAvroPath,encodingSchemaPath);
+            ds.setOthersCanReadPermission(encodingAvroPath);
+
+            LOG.info("\tEncoded files : {}",count);
+            LOG.info("\tEncoded data path : {}",encodingBasePath);
+            LOG.info("\n");
+            return "DONE";
+        } catch(Exception e) {
+            return "Error. " + e.getClass().getSimpleName() + " : " + e.getMessage();
+        }
+    }
 }